@@ -55,6 +55,13 @@ class OsgiNamespaceHandler extends NamespaceHandlerSupport {
 			}
 		});
 
+		registerBeanDefinitionParser("map", new CollectionBeanDefinitionParser() {
+
+			protected CollectionType collectionType() {
+				return CollectionType.MAP;
+			}
+		});
+
 		//
 		// Exporter
 		//
@@ -34,7 +34,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 /**
- * &lt;osgi:list&gt;, &lt;osgi:set&gt;, element parser.
+ * &lt;osgi:list&gt;, &lt;osgi:set&gt;, &lt;osgi:map&gt; element parser.
  * 
  * @author Costin Leau
  * 
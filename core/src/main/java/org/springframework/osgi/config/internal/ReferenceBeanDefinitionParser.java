@@ -22,6 +22,7 @@ import org.springframework.beans.factory.support.BeanDefinitionBuilder;
 import org.springframework.osgi.config.internal.util.AttributeCallback;
 import org.springframework.osgi.config.internal.util.ParserUtils;
 import org.springframework.osgi.service.importer.support.OsgiServiceProxyFactoryBean;
+import org.springframework.osgi.service.importer.support.ServiceSelectionPolicy;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
 
@@ -34,7 +35,8 @@ import org.w3c.dom.Element;
 public class ReferenceBeanDefinitionParser extends AbstractReferenceDefinitionParser {
 
 	/**
-	 * Reference attribute callback extension that looks for 'singular' reference attributes (such as timeout).
+	 * Reference attribute callback extension that looks for 'singular' reference attributes (such as timeout or
+	 * selection-policy).
 	 * 
 	 * @author Costin Leau
 	 */
@@ -47,6 +49,10 @@ public class ReferenceBeanDefinitionParser extends AbstractReferenceDefinitionPa
 
 			if (TIMEOUT.equals(name)) {
 				isTimeoutSpecified = true;
+			} else if (SELECTION_POLICY.equals(name)) {
+				builder.addPropertyValue(SELECTION_POLICY_PROP, ServiceSelectionPolicy.valueOf(attribute.getValue()
+						.toUpperCase().replace('-', '_')));
+				return false;
 			}
 
 			return true;
@@ -56,9 +62,13 @@ public class ReferenceBeanDefinitionParser extends AbstractReferenceDefinitionPa
 	// call properties
 	private static final String TIMEOUT_PROP = "timeout";
 
+	private static final String SELECTION_POLICY_PROP = "selectionPolicy";
+
 	// XML attributes/elements
 	protected static final String TIMEOUT = "timeout";
 
+	protected static final String SELECTION_POLICY = "selection-policy";
+
 	protected Class getBeanClass(Element element) {
 		return OsgiServiceProxyFactoryBean.class;
 	}
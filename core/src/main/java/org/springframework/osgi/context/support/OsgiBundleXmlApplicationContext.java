@@ -17,6 +17,7 @@
 
 package org.springframework.osgi.context.support;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -29,6 +30,7 @@ import org.springframework.beans.factory.xml.DelegatingEntityResolver;
 import org.springframework.beans.factory.xml.NamespaceHandlerResolver;
 import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
 import org.springframework.context.ApplicationContext;
+import org.springframework.osgi.context.support.internal.cache.BeanDefinitionCache;
 import org.springframework.osgi.io.OsgiBundleResource;
 import org.springframework.osgi.util.OsgiStringUtils;
 import org.springframework.osgi.util.internal.BundleUtils;
@@ -60,6 +62,9 @@ public class OsgiBundleXmlApplicationContext extends AbstractDelegatedExecutionA
 	public static final String DEFAULT_CONFIG_LOCATION =
 			OsgiBundleResource.BUNDLE_URL_PREFIX + "/META-INF/spring/*.xml";
 
+	/** directory of the bean definitions cache (null if disabled) */
+	private File beanDefinitionCacheDirectory;
+
 	/**
 	 * 
 	 * Creates a new <code>OsgiBundleXmlApplicationContext</code> with no parent.
@@ -133,13 +138,31 @@ public class OsgiBundleXmlApplicationContext extends AbstractDelegatedExecutionA
 			resolvers[1] = createEntityResolver(ctx, filter, getClassLoader());
 		}
 
-		beanDefinitionReader.setNamespaceHandlerResolver((NamespaceHandlerResolver) resolvers[0]);
+		NamespaceHandlerResolver namespaceResolver = (NamespaceHandlerResolver) resolvers[0];
+		BeanDefinitionCache cache = null;
+
+		if (beanDefinitionCacheDirectory != null) {
+			cache =
+					new BeanDefinitionCache(beanDefinitionCacheDirectory, getBundle(), this,
+							expandLocations(getConfigLocations()), getClassLoader());
+			if (cache.load(beanFactory, namespaceResolver)) {
+				return;
+			}
+			namespaceResolver = cache.decorate(namespaceResolver);
+			beanDefinitionReader.setEventListener(cache.getReaderEventListener());
+		}
+
+		beanDefinitionReader.setNamespaceHandlerResolver(namespaceResolver);
 		beanDefinitionReader.setEntityResolver((EntityResolver) resolvers[1]);
 
 		// Allow a subclass to provide custom initialisation of the reader,
 		// then proceed with actually loading the bean definitions.
 		initBeanDefinitionReader(beanDefinitionReader);
 		loadBeanDefinitions(beanDefinitionReader);
+
+		if (cache != null) {
+			cache.store(beanFactory);
+		}
 	}
 
 	/**
@@ -281,4 +304,18 @@ public class OsgiBundleXmlApplicationContext extends AbstractDelegatedExecutionA
 	public String[] getConfigLocations() {
 		return super.getConfigLocations();
 	}
+
+	/**
+	 * Sets the directory used for caching the parsed bean definitions between restarts. When set, the bean definitions
+	 * are loaded from the cache (if valid) instead of parsing the configuration; otherwise they are parsed and, if
+	 * possible, stored for the next loading. By default, no caching is done.
+	 * 
+	 * <p/> Note that on a cache hit, the bean definition reader is not used at all; subclasses customizing the reader
+	 * through {@link #initBeanDefinitionReader(XmlBeanDefinitionReader)} should not rely on the cache.
+	 * 
+	 * @param beanDefinitionCacheDirectory cache directory (can be null, meaning no caching)
+	 */
+	public void setBeanDefinitionCacheDirectory(File beanDefinitionCacheDirectory) {
+		this.beanDefinitionCacheDirectory = beanDefinitionCacheDirectory;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,499 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.context.support.internal.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.Bundle;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.parsing.EmptyReaderEventListener;
+import org.springframework.beans.factory.parsing.ImportDefinition;
+import org.springframework.beans.factory.parsing.ReaderEventListener;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.xml.NamespaceHandler;
+import org.springframework.beans.factory.xml.NamespaceHandlerResolver;
+import org.springframework.core.io.ContextResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.osgi.context.support.internal.cache.BeanDefinitionStreams.BeanDefinitionInputStream;
+import org.springframework.osgi.context.support.internal.cache.BeanDefinitionStreams.BeanDefinitionOutputStream;
+import org.springframework.osgi.io.OsgiBundleResource;
+import org.springframework.osgi.util.BundleDelegatingClassLoader;
+import org.springframework.osgi.util.OsgiBundleUtils;
+import org.springframework.osgi.util.OsgiPlatformDetector;
+import org.springframework.osgi.util.OsgiStringUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * On-disk cache of the bean definitions parsed from the configuration of a bundle. Allows an application context to
+ * skip the XML parsing (and the namespace handlers) when the bundle configuration has not changed since the last
+ * parsing.
+ * 
+ * <p/> An entry is valid as long as its key matches, that is the same:
+ * <ul>
+ * <li>bundle symbolic name, version and last modification time</li>
+ * <li>configuration resources (path and last modification time)</li>
+ * <li>Spring-DM core and Spring beans bundles</li>
+ * <li>bundles providing the namespace handlers used during parsing (re-resolved on load)</li>
+ * </ul>
+ * Invalid, outdated or unreadable entries are deleted and the configuration is parsed as usual. Configurations that
+ * cannot be reliably cached (such as those loading resources outside the bundle or using non-serializable metadata)
+ * are simply not stored. Identifying the namespace handler bundles requires an OSGi 4.2 platform; on earlier
+ * platforms only the configurations not relying on namespace handlers are cached.
+ * 
+ * <p/> Each instance is meant to be used for one loading only and it is not thread-safe.
+ * 
+ * @author Costin Leau
+ */
+public class BeanDefinitionCache {
+
+	/** cache format - to be incremented on every incompatible change */
+	private static final int FORMAT = 1;
+
+	private static final String FILE_EXTENSION = ".bdc";
+
+	private static final Log log = LogFactory.getLog(BeanDefinitionCache.class);
+
+	/** BundleReference#getBundle() method (available only on OSGi 4.2) */
+	private static final Method GET_BUNDLE;
+
+	static {
+		Method method = null;
+		if (OsgiPlatformDetector.isR42()) {
+			try {
+				Class<?> bundleReference =
+						ClassUtils.forName("org.osgi.framework.BundleReference", Bundle.class.getClassLoader());
+				method = bundleReference.getMethod("getBundle");
+			} catch (Exception ex) {
+				// ignore - bundles cannot be identified from their class loaders
+			}
+		}
+		GET_BUNDLE = method;
+	}
+
+	/**
+	 * Namespace handler resolver recording the bundles of the resolved handlers.
+	 */
+	private class RecordingNamespaceHandlerResolver implements NamespaceHandlerResolver {
+
+		private final NamespaceHandlerResolver delegate;
+
+
+		RecordingNamespaceHandlerResolver(NamespaceHandlerResolver delegate) {
+			this.delegate = delegate;
+		}
+
+		public NamespaceHandler resolve(String namespaceUri) {
+			NamespaceHandler handler = delegate.resolve(namespaceUri);
+			if (handler != null && cacheable && !namespaces.containsKey(namespaceUri)) {
+				String identity = identify(handler.getClass().getClassLoader());
+				if (identity == null) {
+					notCacheable("the bundle of the namespace handler " + handler.getClass().getName() + " for "
+							+ namespaceUri + " cannot be identified");
+				} else {
+					namespaces.put(namespaceUri, identity);
+				}
+			}
+			return handler;
+		}
+	}
+
+	/**
+	 * Listener checking that the imported resources are part of the bundle.
+	 */
+	private class ImportListener extends EmptyReaderEventListener {
+
+		public void importProcessed(ImportDefinition importDefinition) {
+			if (!isBundleLocation(importDefinition.getImportedResource())) {
+				notCacheable("resource " + importDefinition.getImportedResource() + " is imported");
+			}
+		}
+	}
+
+
+	private final File file;
+	private final String bundleName;
+	private final List<ClassLoader> classLoaders = new ArrayList<ClassLoader>(4);
+	private final Map<String, String> namespaces = new TreeMap<String, String>();
+	private String key;
+	private boolean cacheable = true;
+
+
+	/**
+	 * Constructs a new <code>BeanDefinitionCache</code> instance.
+	 * 
+	 * @param directory cache directory
+	 * @param bundle bundle owning the configuration
+	 * @param resourceResolver resolver used for locating the configuration resources
+	 * @param configLocations configuration locations
+	 * @param classLoader class loader used for loading the bean definitions classes
+	 */
+	public BeanDefinitionCache(File directory, Bundle bundle, ResourcePatternResolver resourceResolver,
+			String[] configLocations, ClassLoader classLoader) {
+		this.bundleName = OsgiStringUtils.nullSafeNameAndSymName(bundle);
+		this.classLoaders.add(classLoader);
+
+		String symName = bundle.getSymbolicName();
+		if (symName == null) {
+			file = null;
+			notCacheable("the bundle has no symbolic name");
+			return;
+		}
+
+		file =
+				new File(directory, symName.replaceAll("[^\\w\\.\\-]", "_") + "_"
+						+ OsgiBundleUtils.getBundleVersion(bundle) + FILE_EXTENSION);
+
+		try {
+			key = createKey(bundle, resourceResolver, configLocations);
+		} catch (IOException ex) {
+			notCacheable("its configuration cannot be resolved (" + ex + ")");
+		}
+	}
+
+	private String createKey(Bundle bundle, ResourcePatternResolver resourceResolver, String[] configLocations)
+			throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append(FORMAT);
+		sb.append("|");
+		sb.append(identify(bundle));
+		sb.append("|");
+		sb.append(identify(BeanDefinitionCache.class));
+		sb.append("|");
+		sb.append(identify(BeanDefinition.class));
+
+		if (configLocations != null) {
+			for (String location : configLocations) {
+				if (!isBundleLocation(location)) {
+					notCacheable("location " + location + " is outside the bundle");
+					return null;
+				}
+				Resource[] resources = resourceResolver.getResources(location);
+				for (Resource resource : resources) {
+					sb.append("|");
+					// use the path since the resource URL can change between restarts
+					sb.append(resource instanceof ContextResource ? ((ContextResource) resource)
+							.getPathWithinContext() : resource.getDescription());
+					sb.append(";");
+					sb.append(resource.lastModified());
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Indicates whether the given location is resolved against the bundle space.
+	 * 
+	 * @param location resource location
+	 * @return true if the location points inside the bundle, false otherwise
+	 */
+	private static boolean isBundleLocation(String location) {
+		if (location == null) {
+			return false;
+		}
+		if (location.startsWith(OsgiBundleResource.BUNDLE_URL_PREFIX)
+				|| location.startsWith(OsgiBundleResource.BUNDLE_JAR_URL_PREFIX)) {
+			return true;
+		}
+		// no prefix (and not an URL)
+		int index = location.indexOf(":");
+		return (index < 0 || location.indexOf("/") < index);
+	}
+
+	/**
+	 * Returns the identity (symbolic name, version and last modification time) of the bundle that loaded the classes
+	 * of the given class loader.
+	 * 
+	 * @param classLoader class loader
+	 * @return bundle identity or null if the bundle cannot be determined
+	 */
+	private static String identify(ClassLoader classLoader) {
+		if (classLoader == null) {
+			return "boot";
+		}
+		Bundle bundle = null;
+		if (classLoader instanceof BundleDelegatingClassLoader) {
+			bundle = ((BundleDelegatingClassLoader) classLoader).getBundle();
+		} else if (GET_BUNDLE != null && GET_BUNDLE.getDeclaringClass().isInstance(classLoader)) {
+			try {
+				bundle = (Bundle) GET_BUNDLE.invoke(classLoader);
+			} catch (Exception ex) {
+				// ignore
+			}
+		}
+		return (bundle != null ? identify(bundle) : null);
+	}
+
+	/**
+	 * Returns the identity of the bundle containing the given class, falling back to the class package version if the
+	 * bundle cannot be determined.
+	 * 
+	 * @param clazz class
+	 * @return class bundle identity
+	 */
+	private static String identify(Class<?> clazz) {
+		String identity = identify(clazz.getClassLoader());
+		if (identity == null) {
+			Package pkg = clazz.getPackage();
+			identity = clazz.getName() + ";" + (pkg != null ? pkg.getImplementationVersion() : null);
+		}
+		return identity;
+	}
+
+	private static String identify(Bundle bundle) {
+		return bundle.getSymbolicName() + ";" + OsgiBundleUtils.getBundleVersion(bundle) + ";"
+				+ bundle.getLastModified();
+	}
+
+	private void notCacheable(String reason) {
+		if (cacheable) {
+			cacheable = false;
+			if (log.isDebugEnabled()) {
+				log.debug("Bean definitions of bundle " + bundleName + " will not be cached since " + reason);
+			}
+		}
+	}
+
+	/**
+	 * Indicates whether the bean definitions can be cached. Can change during parsing.
+	 * 
+	 * @return true if the bean definitions can be cached, false otherwise
+	 */
+	public boolean isCacheable() {
+		return cacheable;
+	}
+
+	/**
+	 * Decorates the given namespace handler resolver so that the namespace handlers used during parsing are recorded.
+	 * 
+	 * @param resolver namespace handler resolver used for parsing
+	 * @return recording resolver
+	 */
+	public NamespaceHandlerResolver decorate(NamespaceHandlerResolver resolver) {
+		return new RecordingNamespaceHandlerResolver(resolver);
+	}
+
+	/**
+	 * Returns a listener that needs to be registered with the bean definition reader to detect the imports that make
+	 * the configuration uncacheable.
+	 * 
+	 * @return reader event listener
+	 */
+	public ReaderEventListener getReaderEventListener() {
+		return new ImportListener();
+	}
+
+	/**
+	 * Loads the cached bean definitions into the given bean factory. No definitions are registered if the cache entry
+	 * is missing or invalid, in which case it is removed.
+	 * 
+	 * @param beanFactory bean factory
+	 * @param resolver namespace handler resolver used for validating the cached namespace handlers
+	 * @return true if the definitions were loaded, false otherwise (and the configuration needs to be parsed)
+	 */
+	public boolean load(DefaultListableBeanFactory beanFactory, NamespaceHandlerResolver resolver) {
+		if (!cacheable || !file.isFile()) {
+			return false;
+		}
+
+		boolean trace = log.isTraceEnabled();
+		long start = System.currentTimeMillis();
+		InputStream in = null;
+		String reason = null;
+		Map<String, Object[]> definitions = null;
+
+		try {
+			in = new BufferedInputStream(new FileInputStream(file));
+			ObjectInputStream stream = new BeanDefinitionInputStream(in, classLoaders);
+
+			if (stream.readInt() != FORMAT || !ObjectUtils.nullSafeEquals(key, stream.readObject())) {
+				reason = "outdated";
+			} else {
+				reason = validateNamespaces(stream, resolver);
+			}
+
+			if (reason == null) {
+				int count = stream.readInt();
+				definitions = new LinkedHashMap<String, Object[]>(count * 4 / 3 + 1);
+				for (int i = 0; i < count; i++) {
+					String name = (String) stream.readObject();
+					BeanDefinition definition = (BeanDefinition) stream.readObject();
+					String[] aliases = (String[]) stream.readObject();
+					definitions.put(name, new Object[] { definition, aliases });
+				}
+			}
+		} catch (Exception ex) {
+			reason = "unreadable (" + ex + ")";
+		} catch (LinkageError err) {
+			reason = "unreadable (" + err + ")";
+		} finally {
+			close(in);
+		}
+
+		if (reason != null) {
+			if (log.isDebugEnabled()) {
+				log.debug("Discarding bean definitions cache " + file + " of bundle " + bundleName + " as it is "
+						+ reason);
+			}
+			delete(file);
+			return false;
+		}
+
+		// register the definitions only once everything has been read
+		for (Map.Entry<String, Object[]> entry : definitions.entrySet()) {
+			String name = entry.getKey();
+			beanFactory.registerBeanDefinition(name, (BeanDefinition) entry.getValue()[0]);
+			for (String alias : (String[]) entry.getValue()[1]) {
+				beanFactory.registerAlias(name, alias);
+			}
+		}
+
+		if (log.isDebugEnabled()) {
+			log.debug("Loaded " + definitions.size() + " cached bean definitions for bundle " + bundleName + " in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+		if (trace) {
+			log.trace("Cached bean definitions " + definitions.keySet() + " loaded from " + file);
+		}
+		return true;
+	}
+
+	/**
+	 * Validates the cached namespace handlers by re-resolving them. Adds the class loaders of the handlers to the
+	 * ones used for deserializing the bean definitions.
+	 * 
+	 * @return the reason why the cache is invalid or null if it is valid
+	 */
+	@SuppressWarnings("unchecked")
+	private String validateNamespaces(ObjectInputStream stream, NamespaceHandlerResolver resolver)
+			throws IOException, ClassNotFoundException {
+		Map<String, String> cached = (Map<String, String>) stream.readObject();
+		for (Map.Entry<String, String> entry : cached.entrySet()) {
+			NamespaceHandler handler = resolver.resolve(entry.getKey());
+			if (handler == null) {
+				return "missing the handler for namespace " + entry.getKey();
+			}
+			ClassLoader handlerLoader = handler.getClass().getClassLoader();
+			if (!entry.getValue().equals(identify(handlerLoader))) {
+				return "using a different handler for namespace " + entry.getKey();
+			}
+			if (!classLoaders.contains(handlerLoader)) {
+				classLoaders.add(handlerLoader);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the bean definitions of the given bean factory. Does nothing if the configuration is not cacheable.
+	 * 
+	 * @param beanFactory bean factory containing the freshly parsed definitions
+	 */
+	public void store(DefaultListableBeanFactory beanFactory) {
+		if (!cacheable) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		String[] names = beanFactory.getBeanDefinitionNames();
+		File directory = file.getParentFile();
+		File temp = null;
+		OutputStream out = null;
+		boolean stored = false;
+
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("cannot create directory " + directory);
+			}
+			// write to a temporary file first so that readers never see a partial entry
+			temp = File.createTempFile(file.getName(), ".tmp", directory);
+			out = new BufferedOutputStream(new FileOutputStream(temp));
+			ObjectOutputStream stream = new BeanDefinitionOutputStream(out);
+			stream.writeInt(FORMAT);
+			stream.writeObject(key);
+			stream.writeObject(namespaces);
+			stream.writeInt(names.length);
+			for (String name : names) {
+				stream.writeObject(name);
+				stream.writeObject(beanFactory.getBeanDefinition(name));
+				stream.writeObject(beanFactory.getAliases(name));
+			}
+			stream.flush();
+			close(out);
+			out = null;
+
+			delete(file);
+			if (!temp.renameTo(file)) {
+				throw new IOException("cannot rename " + temp + " to " + file);
+			}
+			stored = true;
+		} catch (NotSerializableException ex) {
+			notCacheable("it contains non-serializable metadata (" + ex.getMessage() + ")");
+		} catch (Exception ex) {
+			log.warn("Cannot cache the bean definitions of bundle " + bundleName, ex);
+		} finally {
+			close(out);
+			if (!stored && temp != null) {
+				delete(temp);
+			}
+		}
+
+		if (stored && log.isDebugEnabled()) {
+			log.debug("Cached " + names.length + " bean definitions for bundle " + bundleName + " in "
+					+ (System.currentTimeMillis() - start) + " ms; namespaces used "
+					+ StringUtils.collectionToCommaDelimitedString(namespaces.keySet()));
+		}
+	}
+
+	private static void delete(File file) {
+		if (file.exists() && !file.delete()) {
+			log.warn("Cannot delete bean definitions cache file " + file);
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException ex) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.context.support.internal.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.BeanMetadataAttribute;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.config.RuntimeBeanNameReference;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.config.ConstructorArgumentValues.ValueHolder;
+import org.springframework.beans.factory.support.LookupOverride;
+import org.springframework.beans.factory.support.MethodOverride;
+import org.springframework.beans.factory.support.MethodOverrides;
+import org.springframework.core.io.DescriptiveResource;
+import org.springframework.core.io.Resource;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Object streams used for (de)serializing parsed bean definitions. While the bean definitions themselves are
+ * serializable, most of the metadata objects created by the XML parser (such as bean references, typed values or
+ * constructor arguments) are not. The streams replace these objects with serializable surrogates when writing and
+ * recreate them when reading.
+ * 
+ * <p/> Any other non-serializable object (for example a custom metadata object created by a namespace handler) makes
+ * the serialization fail, meaning the configuration is not cacheable.
+ * 
+ * @author Costin Leau
+ */
+abstract class BeanDefinitionStreams {
+
+	/**
+	 * Serializable surrogate of a non-serializable metadata object.
+	 */
+	private interface Surrogate extends Serializable {
+
+		Object resolve();
+	}
+
+	private static class LockSurrogate implements Surrogate {
+
+		private static final long serialVersionUID = 1L;
+
+
+		public Object resolve() {
+			return new Object();
+		}
+	}
+
+	private static class ResourceSurrogate implements Surrogate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String description;
+
+
+		ResourceSurrogate(Resource resource) {
+			this.description = resource.getDescription();
+		}
+
+		public Object resolve() {
+			return new DescriptiveResource(description);
+		}
+	}
+
+	private static class TypedStringValueSurrogate implements Surrogate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String value;
+		private final Object targetType;
+		private final boolean dynamic;
+		private final Object source;
+
+
+		TypedStringValueSurrogate(TypedStringValue typedValue) {
+			this.value = typedValue.getValue();
+			this.targetType = (typedValue.hasTargetType() ? typedValue.getTargetType() : typedValue.getTargetTypeName());
+			this.dynamic = typedValue.isDynamic();
+			this.source = typedValue.getSource();
+		}
+
+		public Object resolve() {
+			TypedStringValue typedValue =
+					(targetType instanceof Class ? new TypedStringValue(value, (Class<?>) targetType)
+							: new TypedStringValue(value, (String) targetType));
+			if (dynamic) {
+				typedValue.setDynamic();
+			}
+			typedValue.setSource(source);
+			return typedValue;
+		}
+	}
+
+	private static class BeanReferenceSurrogate implements Surrogate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String beanName;
+		private final boolean toParent;
+		private final boolean nameOnly;
+		private final Object source;
+
+
+		BeanReferenceSurrogate(RuntimeBeanReference reference) {
+			this.beanName = reference.getBeanName();
+			this.toParent = reference.isToParent();
+			this.nameOnly = false;
+			this.source = reference.getSource();
+		}
+
+		BeanReferenceSurrogate(RuntimeBeanNameReference reference) {
+			this.beanName = reference.getBeanName();
+			this.toParent = false;
+			this.nameOnly = true;
+			this.source = reference.getSource();
+		}
+
+		public Object resolve() {
+			if (nameOnly) {
+				RuntimeBeanNameReference reference = new RuntimeBeanNameReference(beanName);
+				reference.setSource(source);
+				return reference;
+			}
+			RuntimeBeanReference reference = new RuntimeBeanReference(beanName, toParent);
+			reference.setSource(source);
+			return reference;
+		}
+	}
+
+	private static class BeanDefinitionHolderSurrogate implements Surrogate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BeanDefinition definition;
+		private final String beanName;
+		private final String[] aliases;
+
+
+		BeanDefinitionHolderSurrogate(BeanDefinitionHolder holder) {
+			this.definition = holder.getBeanDefinition();
+			this.beanName = holder.getBeanName();
+			this.aliases = holder.getAliases();
+		}
+
+		public Object resolve() {
+			return new BeanDefinitionHolder(definition, beanName, aliases);
+		}
+	}
+
+	private static class ValueHolderSurrogate implements Surrogate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object value;
+		private final String type;
+		private final String name;
+		private final Object source;
+
+
+		ValueHolderSurrogate(ValueHolder holder) {
+			this.value = holder.getValue();
+			this.type = holder.getType();
+			this.name = holder.getName();
+			this.source = holder.getSource();
+		}
+
+		ValueHolder toValueHolder() {
+			ValueHolder holder = new ValueHolder(value, type, name);
+			holder.setSource(source);
+			return holder;
+		}
+
+		public Object resolve() {
+			return toValueHolder();
+		}
+	}
+
+	private static class ConstructorArgumentsSurrogate implements Surrogate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Map<Integer, ValueHolderSurrogate> indexed = new LinkedHashMap<Integer, ValueHolderSurrogate>();
+		private final List<ValueHolderSurrogate> generic = new ArrayList<ValueHolderSurrogate>();
+
+
+		ConstructorArgumentsSurrogate(ConstructorArgumentValues values) {
+			for (Map.Entry<Integer, ValueHolder> entry : values.getIndexedArgumentValues().entrySet()) {
+				indexed.put(entry.getKey(), new ValueHolderSurrogate(entry.getValue()));
+			}
+			for (ValueHolder holder : values.getGenericArgumentValues()) {
+				generic.add(new ValueHolderSurrogate(holder));
+			}
+		}
+
+		public Object resolve() {
+			ConstructorArgumentValues values = new ConstructorArgumentValues();
+			for (Map.Entry<Integer, ValueHolderSurrogate> entry : indexed.entrySet()) {
+				values.addIndexedArgumentValue(entry.getKey().intValue(), entry.getValue().toValueHolder());
+			}
+			for (ValueHolderSurrogate holder : generic) {
+				values.addGenericArgumentValue(holder.toValueHolder());
+			}
+			return values;
+		}
+	}
+
+	private static class MethodOverridesSurrogate implements Surrogate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<MethodOverride> overrides;
+
+
+		MethodOverridesSurrogate(MethodOverrides methodOverrides) {
+			this.overrides = new ArrayList<MethodOverride>(methodOverrides.getOverrides());
+		}
+
+		public Object resolve() {
+			MethodOverrides methodOverrides = new MethodOverrides();
+			for (MethodOverride override : overrides) {
+				methodOverrides.addOverride(override);
+			}
+			return methodOverrides;
+		}
+	}
+
+	private static class LookupOverrideSurrogate implements Surrogate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String methodName;
+		private final String beanName;
+		private final Object source;
+
+
+		LookupOverrideSurrogate(LookupOverride override) {
+			this.methodName = override.getMethodName();
+			this.beanName = override.getBeanName();
+			this.source = override.getSource();
+		}
+
+		public Object resolve() {
+			LookupOverride override = new LookupOverride(methodName, beanName);
+			override.setSource(source);
+			return override;
+		}
+	}
+
+	private static class MetadataAttributeSurrogate implements Surrogate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final Object value;
+		private final Object source;
+
+
+		MetadataAttributeSurrogate(BeanMetadataAttribute attribute) {
+			this.name = attribute.getName();
+			this.value = attribute.getValue();
+			this.source = attribute.getSource();
+		}
+
+		public Object resolve() {
+			BeanMetadataAttribute attribute = new BeanMetadataAttribute(name, value);
+			attribute.setSource(source);
+			return attribute;
+		}
+	}
+
+	/**
+	 * Output stream replacing the parser metadata objects with surrogates.
+	 */
+	static class BeanDefinitionOutputStream extends ObjectOutputStream {
+
+		BeanDefinitionOutputStream(OutputStream out) throws IOException {
+			super(out);
+			enableReplaceObject(true);
+		}
+
+		protected Object replaceObject(Object obj) throws IOException {
+			if (obj == null) {
+				return null;
+			}
+			// internal locks used by the bean definitions
+			if (obj.getClass() == Object.class) {
+				return new LockSurrogate();
+			}
+			if (obj instanceof TypedStringValue) {
+				return new TypedStringValueSurrogate((TypedStringValue) obj);
+			}
+			if (obj instanceof RuntimeBeanReference) {
+				return new BeanReferenceSurrogate((RuntimeBeanReference) obj);
+			}
+			if (obj instanceof RuntimeBeanNameReference) {
+				return new BeanReferenceSurrogate((RuntimeBeanNameReference) obj);
+			}
+			if (obj instanceof BeanDefinitionHolder) {
+				return new BeanDefinitionHolderSurrogate((BeanDefinitionHolder) obj);
+			}
+			if (obj instanceof ValueHolder) {
+				return new ValueHolderSurrogate((ValueHolder) obj);
+			}
+			if (obj instanceof ConstructorArgumentValues) {
+				return new ConstructorArgumentsSurrogate((ConstructorArgumentValues) obj);
+			}
+			if (obj instanceof MethodOverrides) {
+				return new MethodOverridesSurrogate((MethodOverrides) obj);
+			}
+			// replaced methods are not supported (their argument types are not accessible)
+			if (obj instanceof LookupOverride) {
+				return new LookupOverrideSurrogate((LookupOverride) obj);
+			}
+			if (obj instanceof BeanMetadataAttribute) {
+				return new MetadataAttributeSurrogate((BeanMetadataAttribute) obj);
+			}
+			if (obj instanceof Resource) {
+				return new ResourceSurrogate((Resource) obj);
+			}
+			return obj;
+		}
+	}
+
+	/**
+	 * Input stream resolving the surrogates and loading the classes through the given class loaders (in order),
+	 * falling back to the default lookup.
+	 */
+	static class BeanDefinitionInputStream extends ObjectInputStream {
+
+		private final List<ClassLoader> classLoaders;
+
+
+		BeanDefinitionInputStream(InputStream in, List<ClassLoader> classLoaders) throws IOException {
+			super(in);
+			this.classLoaders = classLoaders;
+			enableResolveObject(true);
+		}
+
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			for (ClassLoader classLoader : classLoaders) {
+				try {
+					return ClassUtils.forName(desc.getName(), classLoader);
+				} catch (ClassNotFoundException ex) {
+					// try the next one
+				}
+			}
+			return super.resolveClass(desc);
+		}
+
+		protected Object resolveObject(Object obj) throws IOException {
+			if (obj instanceof Surrogate) {
+				return ((Surrogate) obj).resolve();
+			}
+			return obj;
+		}
+	}
+}
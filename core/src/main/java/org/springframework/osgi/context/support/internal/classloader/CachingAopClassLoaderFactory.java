@@ -26,7 +26,8 @@ import org.springframework.aop.framework.ProxyFactory;
 
 /**
  * Default implementation for {@link InternalAopClassLoaderFactory}. Uses an internal {@link WeakHashMap} to cache aop
- * class loaders to prevent duplicated copies.
+ * class loaders to prevent duplicated copies. Each aop class loader carries a {@link ProxyClassCache} so that the
+ * proxy classes are shared by all the proxies created through it and discarded along with the bundle class loader.
  * 
  * @author Costin Leau
  */
@@ -84,12 +85,17 @@ class CachingAopClassLoaderFactory implements InternalAopClassLoaderFactory {
 	private ChainedClassLoader doCreateClassLoader(ClassLoader classLoader) {
 		// use the given class loader, spring-aop, cglib (if available) and then spring-dm core class loader (for its
 		// infrastructure interfaces)
+		ChainedClassLoader aopClassLoader;
 		if (cglibClass != null) {
-			return new ChainedClassLoader(new ClassLoader[] { classLoader, ProxyFactory.class.getClassLoader(),
-					cglibClass.getClassLoader(), CachingAopClassLoaderFactory.class.getClassLoader() });
+			aopClassLoader =
+					new ChainedClassLoader(new ClassLoader[] { classLoader, ProxyFactory.class.getClassLoader(),
+							cglibClass.getClassLoader(), CachingAopClassLoaderFactory.class.getClassLoader() });
 		} else {
-			return new ChainedClassLoader(new ClassLoader[] { classLoader, ProxyFactory.class.getClassLoader(),
-					CachingAopClassLoaderFactory.class.getClassLoader() });
+			aopClassLoader =
+					new ChainedClassLoader(new ClassLoader[] { classLoader, ProxyFactory.class.getClassLoader(),
+							CachingAopClassLoaderFactory.class.getClassLoader() });
 		}
+		aopClassLoader.setProxyClassCache(new ProxyClassCache(aopClassLoader));
+		return aopClassLoader;
 	}
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import java.util.WeakHashMap;
 
 import org.osgi.framework.Bundle;
 import org.springframework.osgi.util.BundleDelegatingClassLoader;
+import org.springframework.osgi.util.ClassLoaderCaches;
 
 /**
  * Default implementation for {@link BundleClassLoaderFactory}.
@@ -91,6 +92,7 @@ class CachingBundleClassLoaderFactory implements BundleClassLoaderFactory {
 	}
 
 	private ClassLoader createBundleClassLoader(Bundle bundle) {
-		return BundleDelegatingClassLoader.createBundleClassLoaderFor(bundle);
+		return BundleDelegatingClassLoader.createBundleClassLoaderFor(bundle, null, ClassLoaderCaches
+				.getBundleLookupCacheSize());
 	}
 }
\ No newline at end of file
@@ -16,14 +16,22 @@
 
 package org.springframework.osgi.context.support.internal.classloader;
 
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
-import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.osgi.util.BundleDelegatingClassLoader;
+import org.springframework.osgi.util.ClassLoaderCaches;
+import org.springframework.osgi.util.ClassLoadingProfile;
+import org.springframework.osgi.util.ClassLoadingProfiler;
 import org.springframework.osgi.util.internal.ClassUtils;
 import org.springframework.util.Assert;
 
@@ -42,19 +50,71 @@ import org.springframework.util.Assert;
  * them last in the chain. Otherwise, these loaders can pull in classes from outside OSGi causing
  * {@link ClassCastException}s.
  * 
+ * <p/> To avoid walking (and getting a {@link ClassNotFoundException} from) each delegate on every lookup, the class
+ * loader remembers which OSGi delegate served each package and tries it first for the following classes of the same
+ * package. Before going to an indexed delegate, the delegates preceding it in the chain are asked (through a resource
+ * lookup, which does not throw exceptions) whether they see the class as well; if so, the package is served by several
+ * delegates (a split package) and is no longer indexed so that the chain order keeps deciding which delegate wins. The
+ * non-OSGi loaders are never indexed since they always come last. Additionally, the names of the classes not found by
+ * any delegate are kept in a bounded, negative cache.
+ * Both caches are discarded whenever a class loader is added or the bundles wiring changes (see
+ * {@link ClassLoaderCaches}). The delegates are kept in copy-on-write lists so lookups do not lock.
+ * 
+ * <p/> When {@link ClassLoadingProfiler profiling} is enabled, the loads are recorded under the profile of the first
+ * bundle class loader in the chain (suffixed with <code>[chained]</code>). Chains without any bundle class loader
+ * share a single profile.
+ * 
  * @author Costin Leau
  */
 public class ChainedClassLoader extends ClassLoader {
 
+	/** maximum number of entries in the negative cache */
+	private static final int MAX_MISSES = 512;
+
+	static {
+		// register as parallel capable on JDK 7+ (the method is caller sensitive hence the static initializer)
+		try {
+			Method method = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable", (Class[]) null);
+			method.setAccessible(true);
+			method.invoke(null, (Object[]) null);
+		} catch (Exception ex) {
+			// older JDK - ignore
+		}
+	}
+
 	/** list of loaders */
-	private final List<ClassLoader> loaders = new ArrayList<ClassLoader>();
+	private final List<ClassLoader> loaders = new CopyOnWriteArrayList<ClassLoader>();
 
 	/** list of special, non-osgi loaders, added by the user */
-	private final List<ClassLoader> nonOsgiLoaders = new ArrayList<ClassLoader>();
+	private final List<ClassLoader> nonOsgiLoaders = new CopyOnWriteArrayList<ClassLoader>();
+
+	/** package name -> (OSGi) delegate that served it */
+	private final ConcurrentMap<String, ClassLoader> packageIndex = new ConcurrentHashMap<String, ClassLoader>(32);
+
+	/** packages served by more than one delegate (never indexed) */
+	private final ConcurrentMap<String, Boolean> splitPackages = new ConcurrentHashMap<String, Boolean>(8);
+
+	/** class names not found by any delegate */
+	private final ConcurrentMap<String, Boolean> misses = new ConcurrentHashMap<String, Boolean>(32);
+
+	/** number of delegate changes */
+	private final AtomicInteger modifications = new AtomicInteger();
+
+	/** stamp of the cached data */
+	private volatile long cacheStamp = 0;
 
 	/** parent class loader */
 	private final ClassLoader parent;
 
+	/** proxy class cache (null if the loader is not used for AOP) */
+	private volatile ProxyClassCache proxyClassCache;
+
+	/** name of the class loading profile */
+	private final String profileName;
+
+	/** class loading profile (created on first use) */
+	private volatile ClassLoadingProfile profile;
+
 	/**
 	 * Constructs a new <code>ChainedClassLoader</code> instance.
 	 * 
@@ -90,6 +150,30 @@ public class ChainedClassLoader extends ClassLoader {
 				addClassLoader(classLoader);
 			}
 		}
+
+		profileName = createProfileName(loaders);
+	}
+
+	private String createProfileName(ClassLoader[] classLoaders) {
+		for (int i = 0; i < classLoaders.length; i++) {
+			if (classLoaders[i] instanceof BundleDelegatingClassLoader) {
+				return ClassLoadingProfiler.getChainedProfileName(((BundleDelegatingClassLoader) classLoaders[i])
+						.getBundle());
+			}
+		}
+		return getClass().getName();
+	}
+
+	private ClassLoadingProfile getProfile() {
+		if (!ClassLoadingProfiler.isEnabled()) {
+			return null;
+		}
+		ClassLoadingProfile loadingProfile = profile;
+		if (loadingProfile == null) {
+			loadingProfile = ClassLoadingProfiler.getProfile(profileName);
+			profile = loadingProfile;
+		}
+		return loadingProfile;
 	}
 
 	public URL getResource(final String name) {
@@ -106,6 +190,18 @@ public class ChainedClassLoader extends ClassLoader {
 	}
 
 	private URL doGetResource(String name) {
+		ClassLoadingProfile loadingProfile = getProfile();
+		if (loadingProfile == null) {
+			return getChainedResource(name);
+		}
+
+		long start = System.nanoTime();
+		URL url = getChainedResource(name);
+		loadingProfile.recordResourceLoad(name, System.nanoTime() - start, url != null);
+		return url;
+	}
+
+	private URL getChainedResource(String name) {
 		URL url = doGetResource(name, loaders);
 
 		if (url != null) {
@@ -123,13 +219,10 @@ public class ChainedClassLoader extends ClassLoader {
 
 	private URL doGetResource(String name, List<ClassLoader> classLoaders) {
 		URL url = null;
-		synchronized (classLoaders) {
-			for (int i = 0; i < classLoaders.size(); i++) {
-				ClassLoader loader = classLoaders.get(i);
-				url = loader.getResource(name);
-				if (url != null)
-					return url;
-			}
+		for (ClassLoader loader : classLoaders) {
+			url = loader.getResource(name);
+			if (url != null)
+				return url;
 		}
 		return url;
 	}
@@ -153,16 +246,56 @@ public class ChainedClassLoader extends ClassLoader {
 	}
 
 	private Class<?> doLoadClass(String name) throws ClassNotFoundException {
-		Class<?> clazz = doLoadClass(name, loaders);
+		ClassLoadingProfile loadingProfile = getProfile();
+		if (loadingProfile == null) {
+			return loadChainedClass(name);
+		}
 
-		if (clazz != null) {
+		long start = System.nanoTime();
+		try {
+			Class<?> clazz = loadChainedClass(name);
+			loadingProfile.recordClassLoad(name, System.nanoTime() - start, true);
 			return clazz;
-		} else {
-			clazz = doLoadClass(name, nonOsgiLoaders);
+		} catch (ClassNotFoundException cnfe) {
+			loadingProfile.recordClassLoad(name, System.nanoTime() - start, false);
+			throw cnfe;
+		} catch (LinkageError err) {
+			loadingProfile.recordClassLoadFailure(name, System.nanoTime() - start);
+			throw err;
 		}
+	}
 
-		if (clazz != null) {
-			return clazz;
+	private Class<?> loadChainedClass(String name) throws ClassNotFoundException {
+		long stamp = validateCaches();
+		Class<?> clazz = null;
+
+		if (!misses.containsKey(name)) {
+			String packageName = getPackageName(name);
+			ClassLoader indexed = packageIndex.get(packageName);
+
+			// try first the delegate which served the package before (unless the package turns out to be split)
+			if (indexed != null) {
+				if (isVisibleBefore(indexed, name)) {
+					markSplitPackage(packageName);
+					indexed = null;
+				}
+				else {
+					clazz = loadClass(indexed, name);
+				}
+			}
+
+			if (clazz == null) {
+				clazz = doLoadClass(name, packageName, indexed, loaders);
+			}
+			if (clazz == null) {
+				// the non-OSGi loaders come last in any case so there is no need to index them
+				clazz = doLoadClass(name, null, null, nonOsgiLoaders);
+			}
+
+			if (clazz != null) {
+				return clazz;
+			}
+			recordMiss(name, stamp);
 		}
 
 		if (parent != null) {
@@ -174,22 +307,103 @@ public class ChainedClassLoader extends ClassLoader {
 		}
 	}
 
-	private Class<?> doLoadClass(String name, List<ClassLoader> classLoaders) throws ClassNotFoundException {
-		Class<?> clazz = null;
-
-		synchronized (classLoaders) {
-			for (int i = 0; i < classLoaders.size(); i++) {
-				ClassLoader loader = classLoaders.get(i);
-				try {
-					clazz = loader.loadClass(name);
-					return clazz;
-				} catch (ClassNotFoundException e) {
-					// keep moving through the class loaders
+	/**
+	 * Walks the given delegates (skipping the one already tried). If a package name is given, the delegate serving the
+	 * class is indexed for it.
+	 */
+	private Class<?> doLoadClass(String name, String packageName, ClassLoader skip, List<ClassLoader> classLoaders) {
+		for (ClassLoader loader : classLoaders) {
+			// already tried
+			if (loader == skip)
+				continue;
+			Class<?> clazz = loadClass(loader, name);
+			if (clazz != null) {
+				if (packageName != null) {
+					indexPackage(packageName, loader);
 				}
+				return clazz;
 			}
 		}
+		return null;
+	}
+
+	private void indexPackage(String packageName, ClassLoader loader) {
+		if (splitPackages.containsKey(packageName))
+			return;
+		ClassLoader previous = packageIndex.putIfAbsent(packageName, loader);
+		if (previous != null && previous != loader) {
+			markSplitPackage(packageName);
+		}
+	}
 
-		return clazz;
+	private void markSplitPackage(String packageName) {
+		// let the chain order decide from now on
+		splitPackages.put(packageName, Boolean.TRUE);
+		packageIndex.remove(packageName);
+	}
+
+	/**
+	 * Checks whether any of the delegates preceding the given one in the chain sees the given class.
+	 */
+	private boolean isVisibleBefore(ClassLoader delegate, String name) {
+		String resource = null;
+		for (ClassLoader loader : loaders) {
+			if (loader == delegate)
+				return false;
+			if (resource == null)
+				resource = name.replace('.', '/') + ".class";
+			if (loader.getResource(resource) != null)
+				return true;
+		}
+		return false;
+	}
+
+	private Class<?> loadClass(ClassLoader loader, String name) {
+		try {
+			return loader.loadClass(name);
+		} catch (ClassNotFoundException e) {
+			// keep moving through the class loaders
+			return null;
+		}
+	}
+
+	/**
+	 * Discards the caches if they are stale.
+	 * 
+	 * @return the stamp of the (valid) caches
+	 */
+	private long validateCaches() {
+		long stamp = currentStamp();
+		if (cacheStamp != stamp) {
+			clearCaches(stamp);
+		}
+		return stamp;
+	}
+
+	private long currentStamp() {
+		return (((long) ClassLoaderCaches.getGeneration()) << 32) | (modifications.get() & 0xFFFFFFFFL);
+	}
+
+	private void clearCaches(long stamp) {
+		packageIndex.clear();
+		splitPackages.clear();
+		misses.clear();
+		cacheStamp = stamp;
+	}
+
+	private void recordMiss(String name, long stamp) {
+		// ignore misses computed against a different chain
+		if (stamp != currentStamp())
+			return;
+		// simple bounding - the cache is refilled with the current misses
+		if (misses.size() >= MAX_MISSES)
+			misses.clear();
+		misses.put(name, Boolean.TRUE);
+	}
+
+	private static String getPackageName(String className) {
+		int index = className.lastIndexOf('.');
+		return (index < 0 ? "" : className.substring(0, index));
 	}
 
 	/**
@@ -250,6 +464,7 @@ public class ChainedClassLoader extends ClassLoader {
 							}
 						}
 						nonOsgiLoaders.add(insertIndex, classLoader);
+						modifications.incrementAndGet();
 						return true;
 					}
 				}
@@ -259,10 +474,24 @@ public class ChainedClassLoader extends ClassLoader {
 		return false;
 	}
 
+	/**
+	 * Returns the cache of the proxy classes defined by this class loader.
+	 * 
+	 * @return proxy class cache or null if the class loader does not cache proxy classes
+	 */
+	public ProxyClassCache getProxyClassCache() {
+		return proxyClassCache;
+	}
+
+	void setProxyClassCache(ProxyClassCache proxyClassCache) {
+		this.proxyClassCache = proxyClassCache;
+	}
+
 	private void addOsgiLoader(ClassLoader classLoader) {
 		synchronized (loaders) {
 			if (!loaders.contains(classLoader)) {
 				loaders.add(classLoader);
+				modifications.incrementAndGet();
 			}
 		}
 	}
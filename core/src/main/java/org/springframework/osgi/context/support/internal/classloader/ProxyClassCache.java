@@ -0,0 +1,153 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.context.support.internal.classloader;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.util.Assert;
+
+/**
+ * Cache of JDK proxy classes defined in a certain (AOP) class loader. The cache maps each set of proxied interfaces to
+ * the constructor of the matching proxy class so that, once a proxy class has been generated, new proxies are created
+ * through a simple constructor call without going (and synchronizing) through the JDK {@link Proxy} class cache. Since
+ * the generated JDK proxy classes delegate all the calls to their invocation handler, they do not depend on the
+ * advice used by the proxies and can be shared by all the proxies of the same interfaces, regardless of their
+ * advice.
+ * 
+ * <p/> Interface sets that declare <code>equals</code> or <code>hashCode</code> are not cached since the Spring AOP
+ * invocation handlers need to inspect them while creating the proxy.
+ * 
+ * <p/> Instances are created by {@link CachingAopClassLoaderFactory} and attached to the AOP class loader (see
+ * {@link ChainedClassLoader#getProxyClassCache()}); the cache thus shares the life-cycle of the bundle the class loader
+ * belongs to. This class is thread-safe.
+ * 
+ * @author Costin Leau
+ */
+public class ProxyClassCache {
+
+	/**
+	 * Cache key - array of interfaces compared by value.
+	 */
+	private static class InterfacesKey {
+
+		private final Class<?>[] interfaces;
+		private final int hash;
+
+
+		private InterfacesKey(Class<?>[] interfaces) {
+			this.interfaces = interfaces;
+			this.hash = Arrays.hashCode(interfaces);
+		}
+
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj instanceof InterfacesKey) {
+				return Arrays.equals(interfaces, ((InterfacesKey) obj).interfaces);
+			}
+			return false;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+
+	private static final Class<?>[] CONSTRUCTOR_PARAMS = new Class<?>[] { InvocationHandler.class };
+
+	/** marker for interface sets that cannot be cached */
+	private static final Object UNCACHEABLE = new Object();
+
+	private final ClassLoader classLoader;
+
+	private final ConcurrentMap<InterfacesKey, Object> constructors = new ConcurrentHashMap<InterfacesKey, Object>(8);
+
+
+	/**
+	 * Constructs a new <code>ProxyClassCache</code> instance.
+	 * 
+	 * @param classLoader class loader in which the proxy classes are defined
+	 */
+	public ProxyClassCache(ClassLoader classLoader) {
+		Assert.notNull(classLoader);
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * Returns the constructor (taking an {@link InvocationHandler}) of the JDK proxy class implementing the given
+	 * interfaces. The proxy class is generated on the first call.
+	 * 
+	 * @param interfaces proxied interfaces (in the proxy declaration order)
+	 * @return proxy class constructor or null if the interfaces cannot be cached
+	 */
+	public Constructor<?> getProxyConstructor(Class<?>[] interfaces) {
+		InterfacesKey key = new InterfacesKey(interfaces.clone());
+		Object constructor = constructors.get(key);
+
+		if (constructor == null) {
+			// racing threads compute the same value (the JDK caches the generated class)
+			constructor = (declaresEqualsOrHashCode(interfaces) ? UNCACHEABLE : createConstructor(interfaces));
+			constructors.putIfAbsent(key, constructor);
+		}
+
+		return (constructor == UNCACHEABLE ? null : (Constructor<?>) constructor);
+	}
+
+	/**
+	 * Returns the number of cached interface sets.
+	 * 
+	 * @return cache size
+	 */
+	public int size() {
+		return constructors.size();
+	}
+
+	/**
+	 * Clears the cache.
+	 */
+	public void clear() {
+		constructors.clear();
+	}
+
+	private Constructor<?> createConstructor(Class<?>[] interfaces) {
+		try {
+			return Proxy.getProxyClass(classLoader, interfaces).getConstructor(CONSTRUCTOR_PARAMS);
+		} catch (NoSuchMethodException ex) {
+			throw new IllegalStateException("invalid JDK proxy class " + ex);
+		}
+	}
+
+	private static boolean declaresEqualsOrHashCode(Class<?>[] interfaces) {
+		for (int i = 0; i < interfaces.length; i++) {
+			Method[] methods = interfaces[i].getDeclaredMethods();
+			for (int j = 0; j < methods.length; j++) {
+				Method method = methods[j];
+				if (("equals".equals(method.getName()) && method.getParameterTypes().length == 1)
+						|| ("hashCode".equals(method.getName()) && method.getParameterTypes().length == 0))
+					return true;
+			}
+		}
+		return false;
+	}
+}
@@ -170,6 +170,8 @@ public class OsgiServiceFactoryBean extends AbstractOsgiServiceExporter implemen
 	private final AtomicBoolean activated = new AtomicBoolean(false);
 	/** should the service be cached or not */
 	private boolean cacheTarget = false;
+	/** publication listener (can be null) */
+	private volatile ServicePublicationListener publicationListener;
 
 	public OsgiServiceFactoryBean() {
 		controller = new ExporterController(new Executor());
@@ -342,7 +344,18 @@ public class OsgiServiceFactoryBean extends AbstractOsgiServiceExporter implemen
 
 		Class<?>[] mergedClasses = (Class[]) classes.toArray(new Class[classes.size()]);
 
-		ServiceRegistration reg = registerService(mergedClasses, serviceProperties);
+		ServicePublicationListener listener = publicationListener;
+		if (listener != null) {
+			listener.beforePublication(this);
+		}
+		ServiceRegistration reg = null;
+		try {
+			reg = registerService(mergedClasses, serviceProperties);
+		} finally {
+			if (listener != null) {
+				listener.afterPublication(this, reg);
+			}
+		}
 		serviceRegistration = new ServiceRegistrationDecorator(reg);
 		safeServiceRegistration.swap(serviceRegistration);
 
@@ -690,4 +703,13 @@ public class OsgiServiceFactoryBean extends AbstractOsgiServiceExporter implemen
 	public void setCacheTarget(boolean cacheTarget) {
 		this.cacheTarget = cacheTarget;
 	}
+
+	/**
+	 * Sets the listener notified around the registration of the service with the OSGi service registry.
+	 * 
+	 * @param publicationListener publication listener (can be null)
+	 */
+	public void setPublicationListener(ServicePublicationListener publicationListener) {
+		this.publicationListener = publicationListener;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.osgi.service.exporter.support;
+
+import java.util.EventListener;
+
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Listener notified by {@link OsgiServiceFactoryBean} around the registration of its service with the OSGi service
+ * registry. The registration is reported whenever it happens: during the exporter initialization or later on, when it
+ * has been deferred (for example through {@link OsgiServiceFactoryBean#setRegisterService(boolean)}).
+ * 
+ * @author Costin Leau
+ */
+public interface ServicePublicationListener extends EventListener {
+
+	/**
+	 * Notifies that the given exporter is about to register its service.
+	 * 
+	 * @param exporter service exporter
+	 */
+	void beforePublication(OsgiServiceFactoryBean exporter);
+
+	/**
+	 * Notifies that the given exporter has registered its service (or failed to).
+	 * 
+	 * @param exporter service exporter
+	 * @param registration service registration or null if the registration failed
+	 */
+	void afterPublication(OsgiServiceFactoryBean exporter, ServiceRegistration registration);
+}
@@ -16,10 +16,6 @@
 
 package org.springframework.osgi.service.exporter.support.internal.support;
 
-import java.lang.ref.WeakReference;
-import java.util.Map;
-import java.util.WeakHashMap;
-
 import org.aopalliance.aop.Advice;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -44,7 +40,7 @@ public class PublishingServiceFactory implements ServiceFactory {
 	private static final Log log = LogFactory.getLog(PublishingServiceFactory.class);
 
 	/** proxy cache in case the given bean has a non-singleton scope */
-	private final Map<Object, WeakReference<Object>> proxyCache;
+	private final WeakIdentityProxyCache proxyCache;
 
 	private final LazyTargetResolver targetResolver;
 	private final Class<?>[] classes;
@@ -79,7 +75,12 @@ public class PublishingServiceFactory implements ServiceFactory {
 		this.aopClassLoader = aopClassLoader;
 		this.bundleContext = bundleContext;
 
-		proxyCache = (createTCCLProxy ? new WeakHashMap<Object, WeakReference<Object>>(4) : null);
+		proxyCache = (createTCCLProxy ? new WeakIdentityProxyCache() {
+
+			protected Object createProxy(Object target) {
+				return createCLLProxy(target);
+			}
+		} : null);
 	}
 
 	public Object getService(Bundle bundle, ServiceRegistration serviceRegistration) {
@@ -98,18 +99,7 @@ public class PublishingServiceFactory implements ServiceFactory {
 
 		if (createTCCLProxy) {
 			// check proxy cache
-			synchronized (proxyCache) {
-				WeakReference<Object> value = proxyCache.get(bn);
-				Object proxy = null;
-				if (value != null) {
-					proxy = value.get();
-				}
-				if (proxy == null) {
-					proxy = createCLLProxy(bn);
-					proxyCache.put(bn, new WeakReference<Object>(proxy));
-				}
-				bn = proxy;
-			}
+			bn = proxyCache.getProxy(bn);
 		}
 
 		return bn;
@@ -156,10 +146,8 @@ public class PublishingServiceFactory implements ServiceFactory {
 		}
 
 		if (createTCCLProxy) {
-			synchronized (proxyCache) {
-				// trigger purging of unused entries
-				proxyCache.size();
-			}
+			// purge unused entries
+			proxyCache.purge();
 		}
 	}
 }
\ No newline at end of file
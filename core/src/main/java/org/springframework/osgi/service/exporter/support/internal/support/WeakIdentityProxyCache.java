@@ -0,0 +1,184 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.exporter.support.internal.support;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent cache of proxies, keyed by the identity of their (weakly referenced) target. Lookups of existing proxies
+ * do not lock while the proxy creation is guarded per target: concurrent requests for the same target wait for the
+ * first one to create the proxy instead of creating their own; requests for different targets do not block each other.
+ * 
+ * <p/> Since the proxies reference their targets, they are weakly referenced as well; an entry is purged once its
+ * target has been reclaimed and its proxy is recreated if reclaimed while the target is still in use.
+ * 
+ * @author Costin Leau
+ */
+public abstract class WeakIdentityProxyCache {
+
+	/**
+	 * Key contract - the identity of the target.
+	 */
+	private static interface Key {
+
+		Object getTarget();
+	}
+
+	/**
+	 * Key used for storing entries; weakly references the target.
+	 */
+	private static class WeakKey extends WeakReference<Object> implements Key {
+
+		private final int hash;
+
+
+		private WeakKey(Object target, ReferenceQueue<Object> queue) {
+			super(target, queue);
+			this.hash = System.identityHashCode(target);
+		}
+
+		public Object getTarget() {
+			return get();
+		}
+
+		public boolean equals(Object obj) {
+			return (this == obj || equalTargets(this, obj));
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * Key used only for lookups; strongly references the target.
+	 */
+	private static class LookupKey implements Key {
+
+		private final Object target;
+
+
+		private LookupKey(Object target) {
+			this.target = target;
+		}
+
+		public Object getTarget() {
+			return target;
+		}
+
+		public boolean equals(Object obj) {
+			return (this == obj || equalTargets(this, obj));
+		}
+
+		public int hashCode() {
+			return System.identityHashCode(target);
+		}
+	}
+
+	/**
+	 * Cache entry holding the proxy.
+	 */
+	private static class Entry {
+
+		private volatile WeakReference<Object> proxy;
+
+
+		private Object getProxy() {
+			WeakReference<Object> ref = proxy;
+			return (ref != null ? ref.get() : null);
+		}
+	}
+
+
+	private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>(4);
+
+	/** queue of reclaimed targets */
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+
+	/**
+	 * Returns the proxy of the given target, creating it if needed.
+	 * 
+	 * @param target proxy target
+	 * @return target proxy
+	 */
+	public Object getProxy(Object target) {
+		// fast path - no locking
+		Entry entry = entries.get(new LookupKey(target));
+		if (entry != null) {
+			Object proxy = entry.getProxy();
+			if (proxy != null)
+				return proxy;
+		}
+		else {
+			purge();
+			Entry newEntry = new Entry();
+			entry = entries.putIfAbsent(new WeakKey(target, queue), newEntry);
+			if (entry == null)
+				entry = newEntry;
+		}
+
+		synchronized (entry) {
+			Object proxy = entry.getProxy();
+			if (proxy == null) {
+				proxy = createProxy(target);
+				entry.proxy = new WeakReference<Object>(proxy);
+			}
+			return proxy;
+		}
+	}
+
+	/**
+	 * Removes the entries whose targets have been reclaimed.
+	 */
+	public void purge() {
+		Reference<?> reference;
+		while ((reference = queue.poll()) != null) {
+			entries.remove(reference);
+		}
+	}
+
+	/**
+	 * Returns the number of cached entries (including the ones not yet purged).
+	 * 
+	 * @return number of entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Creates the proxy for the given target. Called at most once per target at a time.
+	 * 
+	 * @param target proxy target
+	 * @return target proxy
+	 */
+	protected abstract Object createProxy(Object target);
+
+	private static boolean equalTargets(Key key, Object obj) {
+		if (obj instanceof Key) {
+			Object target = key.getTarget();
+			// cleared references are equal only to themselves
+			return (target != null && target == ((Key) obj).getTarget());
+		}
+		return false;
+	}
+}
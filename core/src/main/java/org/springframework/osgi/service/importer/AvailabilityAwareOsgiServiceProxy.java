@@ -0,0 +1,37 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer;
+
+/**
+ * Extension of {@link ImportedOsgiServiceProxy} implemented by the proxies created by Spring-DM that can report the
+ * availability of their backing service without blocking. Kept separate so that existing implementations of
+ * {@link ImportedOsgiServiceProxy} are not affected.
+ * 
+ * @see ServiceAvailabilityFuture
+ * @author Costin Leau
+ */
+public interface AvailabilityAwareOsgiServiceProxy extends ImportedOsgiServiceProxy {
+
+	/**
+	 * Returns a future that completes once the proxy is backed by an OSGi service. If a service is available at the
+	 * moment of the call, the returned future is already completed. Unlike invoking the proxy, this method never
+	 * blocks, making it suitable for threads that cannot afford to wait for a service dependency.
+	 * 
+	 * @return service availability future
+	 */
+	ServiceAvailabilityFuture getServiceAvailability();
+}
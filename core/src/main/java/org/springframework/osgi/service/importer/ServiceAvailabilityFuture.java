@@ -0,0 +1,45 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer;
+
+import java.util.concurrent.Future;
+
+import org.osgi.framework.ServiceReference;
+
+/**
+ * {@link Future} completing once the OSGi service backing an imported proxy becomes available. Allows callers to react
+ * to the availability of a service dependency without blocking a thread inside the proxy.
+ *
+ * <p/> The future result is the (proxy) service reference of the imported service. If the proxy is destroyed before
+ * a service appears, the future fails with a {@link ServiceProxyDestroyedException}.
+ *
+ * @see AvailabilityAwareOsgiServiceProxy#getServiceAvailability()
+ * @author Costin Leau
+ */
+public interface ServiceAvailabilityFuture extends Future<ServiceReference> {
+
+	/**
+	 * Registers a callback to be executed once the service becomes available. If the service is already available,
+	 * the callback is executed right away, on the calling thread; otherwise it is executed on the thread delivering
+	 * the service event, so it should return quickly.
+	 *
+	 * <p/> The callback is not executed if the future is cancelled or fails.
+	 *
+	 * @param callback callback to execute
+	 */
+	void addCallback(Runnable callback);
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.springframework.util.Assert;
+
+/**
+ * Default {@link InvocationMetricsRegistry} implementation. A single, shared instance is used by all the importers
+ * (of all bundles) so that the extender can publish it as an OSGi service.
+ *
+ * @author Costin Leau
+ */
+public class DefaultInvocationMetricsRegistry implements InvocationMetricsRegistry {
+
+	private static final DefaultInvocationMetricsRegistry sharedInstance = new DefaultInvocationMetricsRegistry();
+
+	private final Collection<ImporterMetrics> importers = new CopyOnWriteArraySet<ImporterMetrics>();
+
+	/**
+	 * Returns the registry shared by all importers.
+	 *
+	 * @return shared registry
+	 */
+	public static DefaultInvocationMetricsRegistry getSharedInstance() {
+		return sharedInstance;
+	}
+
+	/**
+	 * Registers the given importer metrics.
+	 *
+	 * @param metrics importer metrics
+	 */
+	public void register(ImporterMetrics metrics) {
+		Assert.notNull(metrics);
+		importers.add(metrics);
+	}
+
+	/**
+	 * Unregisters the given importer metrics.
+	 *
+	 * @param metrics importer metrics
+	 * @return true if the metrics were registered, false otherwise
+	 */
+	public boolean unregister(ImporterMetrics metrics) {
+		return importers.remove(metrics);
+	}
+
+	public Collection<ImporterMetrics> getImporterMetrics() {
+		return Collections.unmodifiableCollection(new ArrayList<ImporterMetrics>(importers));
+	}
+
+	public void reset() {
+		for (ImporterMetrics metrics : importers) {
+			metrics.reset();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.metrics;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Invocation metrics of a service importer. Tracks the metrics of each invoked method along with the time spent
+ * waiting for a service to be bound.
+ *
+ * <p/> This class is thread-safe.
+ *
+ * @author Costin Leau
+ */
+public class ImporterMetrics {
+
+	private final long bundleId;
+
+	private final String importerName;
+
+	private final String filter;
+
+	private final ConcurrentMap<Method, MethodMetrics> methods = new ConcurrentHashMap<Method, MethodMetrics>(16);
+
+	private final StripedCounter waits = new StripedCounter();
+
+	private final StripedCounter waitTime = new StripedCounter();
+
+	/**
+	 * Constructs a new <code>ImporterMetrics</code> instance.
+	 *
+	 * @param bundleId id of the bundle owning the importer
+	 * @param importerName importer (bean) name
+	 * @param filter importer filter
+	 */
+	public ImporterMetrics(long bundleId, String importerName, String filter) {
+		this.bundleId = bundleId;
+		this.importerName = importerName;
+		this.filter = filter;
+	}
+
+	/**
+	 * Returns the metrics of the given method, creating them if needed.
+	 *
+	 * @param method invoked method
+	 * @return method metrics
+	 */
+	public MethodMetrics getMethodMetrics(Method method) {
+		MethodMetrics metrics = methods.get(method);
+		if (metrics == null) {
+			metrics = new MethodMetrics(method);
+			MethodMetrics existing = methods.putIfAbsent(method, metrics);
+			if (existing != null) {
+				metrics = existing;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Returns the metrics of all the invoked methods.
+	 *
+	 * @return collection of method metrics
+	 */
+	public Collection<MethodMetrics> getMethodMetrics() {
+		return Collections.unmodifiableCollection(new ArrayList<MethodMetrics>(methods.values()));
+	}
+
+	/**
+	 * Records a wait for the service to be bound.
+	 *
+	 * @param millis wait duration (in milliseconds)
+	 */
+	public void recordWait(long millis) {
+		waits.increment();
+		waitTime.add(millis);
+	}
+
+	/**
+	 * Returns the number of invocations that had to wait for a service to be bound.
+	 *
+	 * @return number of waits
+	 */
+	public long getWaitCount() {
+		return waits.sum();
+	}
+
+	/**
+	 * Returns the total time spent waiting for a service to be bound.
+	 *
+	 * @return wait time (in milliseconds)
+	 */
+	public long getWaitTime() {
+		return waitTime.sum();
+	}
+
+	/**
+	 * Returns the id of the bundle owning the importer. Importers with the same name and filter can exist in
+	 * different bundles.
+	 *
+	 * @return bundle id
+	 */
+	public long getBundleId() {
+		return bundleId;
+	}
+
+	public String getImporterName() {
+		return importerName;
+	}
+
+	public String getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Resets all the metrics.
+	 */
+	public void reset() {
+		for (MethodMetrics metrics : methods.values()) {
+			metrics.reset();
+		}
+		waits.reset();
+		waitTime.reset();
+	}
+
+	public String toString() {
+		return "ImporterMetrics for [" + importerName + "] " + filter + " in bundle " + bundleId;
+	}
+}
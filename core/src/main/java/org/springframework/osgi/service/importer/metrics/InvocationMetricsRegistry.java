@@ -0,0 +1,40 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.metrics;
+
+import java.util.Collection;
+
+/**
+ * Registry of the invocation metrics collected by the service importers. Published by the Spring-DM extender as an
+ * OSGi service, under this interface name.
+ *
+ * @author Costin Leau
+ */
+public interface InvocationMetricsRegistry {
+
+	/**
+	 * Returns the metrics of all the active importers that have the invocation metrics enabled.
+	 *
+	 * @return importers metrics
+	 */
+	Collection<ImporterMetrics> getImporterMetrics();
+
+	/**
+	 * Resets the metrics of all the registered importers.
+	 */
+	void reset();
+}
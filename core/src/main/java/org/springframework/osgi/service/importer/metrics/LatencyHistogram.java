@@ -0,0 +1,120 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with exponential (power of 2) buckets, expressed in microseconds: bucket <em>i</em>
+ * counts the latencies lower than 2<sup><em>i</em></sup> microseconds (and greater or equal to the bound of the
+ * previous bucket) while the last bucket counts everything above. Similar to {@link StripedCounter}, the buckets are
+ * striped per thread once concurrent recordings contend; until then a single set of buckets is used.
+ *
+ * @author Costin Leau
+ */
+public class LatencyHistogram {
+
+	/** number of buckets - the last one is unbounded (2^24 micros is about 16 seconds) */
+	public static final int BUCKETS = 26;
+
+	/** buckets used until the first contention */
+	private final AtomicLongArray base = new AtomicLongArray(BUCKETS);
+
+	/** striped buckets (null until the first contention) */
+	private volatile AtomicLongArray counts;
+
+	/**
+	 * Records the given latency.
+	 *
+	 * @param nanos latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		int bucket = bucketFor(nanos / 1000);
+		AtomicLongArray cs = counts;
+		if (cs == null) {
+			long current = base.get(bucket);
+			if (base.compareAndSet(bucket, current, current + 1)) {
+				return;
+			}
+			cs = expand();
+		}
+		cs.incrementAndGet(StripedCounter.stripe() * BUCKETS + bucket);
+	}
+
+	/**
+	 * Returns the number of recordings for each bucket.
+	 *
+	 * @return bucket counts
+	 */
+	public long[] getCounts() {
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			result[i] = base.get(i);
+		}
+		AtomicLongArray cs = counts;
+		if (cs != null) {
+			for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+				int offset = stripe * BUCKETS;
+				for (int i = 0; i < BUCKETS; i++) {
+					result[i] += cs.get(offset + i);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the (exclusive) upper bound of the given bucket.
+	 *
+	 * @param bucket bucket index
+	 * @return upper bound in microseconds or {@link Long#MAX_VALUE} for the last bucket
+	 */
+	public static long getUpperBound(int bucket) {
+		return (bucket >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket);
+	}
+
+	/**
+	 * Resets all the buckets.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			base.set(i, 0);
+		}
+		AtomicLongArray cs = counts;
+		if (cs != null) {
+			for (int i = 0; i < cs.length(); i++) {
+				cs.set(i, 0);
+			}
+		}
+	}
+
+	private synchronized AtomicLongArray expand() {
+		if (counts == null) {
+			counts = new AtomicLongArray(StripedCounter.STRIPES * BUCKETS);
+		}
+		return counts;
+	}
+
+	static int bucketFor(long micros) {
+		if (micros <= 0) {
+			return 0;
+		}
+		// index of the highest bit + 1 (that is the first power of 2 greater than the value)
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return (bucket < BUCKETS ? bucket : BUCKETS - 1);
+	}
+}
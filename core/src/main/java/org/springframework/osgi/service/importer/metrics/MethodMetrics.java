@@ -0,0 +1,109 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.metrics;
+
+import java.lang.reflect.Method;
+
+import org.springframework.util.Assert;
+
+/**
+ * Invocation metrics of an imported service method: call count, error count, total time and latency distribution.
+ *
+ * <p/> This class is thread-safe.
+ *
+ * @author Costin Leau
+ */
+public class MethodMetrics {
+
+	private final String methodName;
+
+	private final StripedCounter invocations = new StripedCounter();
+
+	private final StripedCounter errors = new StripedCounter();
+
+	private final StripedCounter totalTime = new StripedCounter();
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	public MethodMetrics(Method method) {
+		Assert.notNull(method);
+		this.methodName = method.toString();
+	}
+
+	/**
+	 * Records an invocation.
+	 *
+	 * @param nanos invocation duration (in nanoseconds)
+	 * @param failed whether the invocation threw an exception
+	 */
+	public void record(long nanos, boolean failed) {
+		invocations.increment();
+		if (failed) {
+			errors.increment();
+		}
+		totalTime.add(nanos);
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Returns the (generic) name of the method.
+	 *
+	 * @return method name
+	 */
+	public String getMethodName() {
+		return methodName;
+	}
+
+	public long getInvocationCount() {
+		return invocations.sum();
+	}
+
+	public long getErrorCount() {
+		return errors.sum();
+	}
+
+	/**
+	 * Returns the total time spent inside the method.
+	 *
+	 * @return total time (in nanoseconds)
+	 */
+	public long getTotalTime() {
+		return totalTime.sum();
+	}
+
+	/**
+	 * Returns the latency distribution of the method invocations.
+	 *
+	 * @return histogram bucket counts
+	 * @see LatencyHistogram#getUpperBound(int)
+	 */
+	public long[] getLatencyHistogram() {
+		return histogram.getCounts();
+	}
+
+	void reset() {
+		invocations.reset();
+		errors.reset();
+		totalTime.reset();
+		histogram.reset();
+	}
+
+	public String toString() {
+		return methodName + " [invocations=" + getInvocationCount() + ", errors=" + getErrorCount() + ", totalTime="
+				+ getTotalTime() + "ns]";
+	}
+}
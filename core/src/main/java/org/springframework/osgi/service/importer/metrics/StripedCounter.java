@@ -0,0 +1,131 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter that spreads concurrent updates across several cells (stripes), selected by the updating thread.
+ * Updates from different threads thus rarely contend on the same memory location while reads sum up all the cells.
+ * The cells are padded to avoid false sharing between them and are allocated only once an update contends; until then
+ * a single value is used so that rarely updated counters stay small.
+ *
+ * <p/> The {@link #sum()} result is exact only in the absence of concurrent updates; otherwise it is a (close)
+ * approximation, which is fine for statistics.
+ *
+ * @author Costin Leau
+ */
+public class StripedCounter {
+
+	/** distance (in longs) between two cells - a typical cache line */
+	private static final int PADDING = 8;
+
+	/** number of stripes (power of 2) */
+	static final int STRIPES;
+
+	static {
+		int cpus = Runtime.getRuntime().availableProcessors();
+		int stripes = 1;
+		while (stripes < cpus * 2 && stripes < 64) {
+			stripes <<= 1;
+		}
+		STRIPES = stripes;
+	}
+
+	/** value used until the first contention */
+	private final AtomicLong base = new AtomicLong();
+
+	/** striped cells (null until the first contention) */
+	private volatile AtomicLongArray cells;
+
+	/**
+	 * Adds the given value to the counter.
+	 *
+	 * @param value value to add
+	 */
+	public void add(long value) {
+		AtomicLongArray cs = cells;
+		if (cs == null) {
+			long current = base.get();
+			if (base.compareAndSet(current, current + value)) {
+				return;
+			}
+			cs = expand();
+		}
+		cs.addAndGet(stripe() * PADDING, value);
+	}
+
+	/**
+	 * Increments the counter by one.
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * Returns the counter value.
+	 *
+	 * @return sum of all the cells
+	 */
+	public long sum() {
+		long sum = base.get();
+		AtomicLongArray cs = cells;
+		if (cs != null) {
+			for (int i = 0; i < STRIPES; i++) {
+				sum += cs.get(i * PADDING);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Resets the counter to zero.
+	 */
+	public void reset() {
+		base.set(0);
+		AtomicLongArray cs = cells;
+		if (cs != null) {
+			for (int i = 0; i < STRIPES; i++) {
+				cs.set(i * PADDING, 0);
+			}
+		}
+	}
+
+	private synchronized AtomicLongArray expand() {
+		if (cells == null) {
+			cells = new AtomicLongArray(STRIPES * PADDING);
+		}
+		return cells;
+	}
+
+	/**
+	 * Returns the stripe of the current thread.
+	 *
+	 * @return stripe index
+	 */
+	static int stripe() {
+		long id = Thread.currentThread().getId();
+		// spread the (usually consecutive) thread ids
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (STRIPES - 1);
+	}
+
+	public String toString() {
+		return String.valueOf(sum());
+	}
+}
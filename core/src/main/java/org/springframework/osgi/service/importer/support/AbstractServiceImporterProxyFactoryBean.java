@@ -24,6 +24,9 @@ import org.springframework.beans.factory.FactoryBeanNotInitializedException;
 import org.springframework.beans.factory.SmartFactoryBean;
 import org.springframework.osgi.context.support.internal.classloader.ChainedClassLoader;
 import org.springframework.osgi.context.support.internal.classloader.ClassLoaderFactory;
+import org.springframework.osgi.service.importer.metrics.DefaultInvocationMetricsRegistry;
+import org.springframework.osgi.service.importer.metrics.ImporterMetrics;
+import org.springframework.osgi.util.internal.ClassUtils;
 
 /**
  * Package protected class that provides the common aop infrastructure functionality for OSGi service importers.
@@ -47,6 +50,10 @@ abstract class AbstractServiceImporterProxyFactoryBean extends AbstractOsgiServi
 	/** aop classloader */
 	private ChainedClassLoader aopClassLoader;
 	private boolean blueprintCompliant;
+	private boolean sharedServiceListener = false;
+	private boolean invocationMetrics = false;
+	/** importer metrics (null if disabled) */
+	private ImporterMetrics importerMetrics;
 
 	public void afterPropertiesSet() {
 		super.afterPropertiesSet();
@@ -66,6 +73,13 @@ abstract class AbstractServiceImporterProxyFactoryBean extends AbstractOsgiServi
 			aopClassLoader.addClassLoader(intf);
 		}
 
+		if (invocationMetrics) {
+			importerMetrics =
+					new ImporterMetrics(getBundleContext().getBundle().getBundleId(), getBeanName(), getUnifiedFilter()
+							.toString());
+			DefaultInvocationMetricsRegistry.getSharedInstance().register(importerMetrics);
+		}
+
 		initialized = true;
 	}
 
@@ -77,7 +91,9 @@ abstract class AbstractServiceImporterProxyFactoryBean extends AbstractOsgiServi
 			}
 		} finally {
 			proxy = null;
-
+			if (importerMetrics != null) {
+				DefaultInvocationMetricsRegistry.getSharedInstance().unregister(importerMetrics);
+			}
 		}
 	}
 
@@ -242,4 +258,50 @@ abstract class AbstractServiceImporterProxyFactoryBean extends AbstractOsgiServi
 	boolean isBlueprintCompliant() {
 		return blueprintCompliant;
 	}
+
+	/**
+	 * Indicates whether the importer should register its own OSGi service listener (default) or subscribe to the
+	 * listener shared by all importers of the bundle. With a shared listener, the framework evaluates a single
+	 * listener per service event while the importer filter is applied only if the event matches the imported classes.
+	 * 
+	 * @param sharedServiceListener true if the shared service listener should be used, false otherwise
+	 */
+	public void setSharedServiceListener(boolean sharedServiceListener) {
+		this.sharedServiceListener = sharedServiceListener;
+	}
+
+	boolean isSharedServiceListener() {
+		return sharedServiceListener;
+	}
+
+	/**
+	 * Indicates whether the importer should record invocation metrics (call count, latency, errors and time spent
+	 * waiting for a service) for each method of the imported service(s). The metrics are available through the
+	 * {@link org.springframework.osgi.service.importer.metrics.InvocationMetricsRegistry} OSGi service published by
+	 * the extender. Disabled by default.
+	 * 
+	 * @param invocationMetrics true if invocation metrics should be recorded, false otherwise
+	 */
+	public void setInvocationMetrics(boolean invocationMetrics) {
+		this.invocationMetrics = invocationMetrics;
+	}
+
+	/**
+	 * Returns the invocation metrics of this importer.
+	 * 
+	 * @return importer metrics (null if the metrics are disabled)
+	 */
+	ImporterMetrics getImporterMetrics() {
+		return importerMetrics;
+	}
+
+	/**
+	 * Returns the class name used for indexing the importer service events.
+	 * 
+	 * @return class name (can be null)
+	 */
+	String getFilterClassName() {
+		Class<?> filterClass = ClassUtils.getParticularClass(getInterfaces());
+		return (filterClass != null ? filterClass.getName() : null);
+	}
 }
\ No newline at end of file
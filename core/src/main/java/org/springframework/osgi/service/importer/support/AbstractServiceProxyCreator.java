@@ -24,6 +24,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
+import org.springframework.osgi.service.importer.metrics.ImporterMetrics;
 import org.springframework.osgi.service.importer.support.internal.aop.ImportedOsgiServiceProxyAdvice;
 import org.springframework.osgi.service.importer.support.internal.aop.InfrastructureOsgiProxyAdvice;
 import org.springframework.osgi.service.importer.support.internal.aop.ProxyPlusCallback;
@@ -63,6 +64,9 @@ abstract class AbstractServiceProxyCreator implements ServiceProxyCreator {
 
 	private final ImportContextClassLoaderEnum iccl;
 
+	/** invocation metrics (null if disabled) */
+	private ImporterMetrics invocationMetrics;
+
 	AbstractServiceProxyCreator(Class<?>[] classes, ClassLoader aopClassLoader, ClassLoader bundleClassLoader,
 			BundleContext bundleContext, ImportContextClassLoaderEnum iccl) {
 		Assert.notNull(bundleContext);
@@ -82,8 +86,14 @@ abstract class AbstractServiceProxyCreator implements ServiceProxyCreator {
 	public ProxyPlusCallback createServiceProxy(ServiceReference reference) {
 		List advices = new ArrayList(4);
 
+		// create the dispatcher first since the mixin tracks the service availability through it
+		ServiceInvoker dispatcherInterceptor = createDispatcherInterceptor(reference);
+		// the dispatcher measures only the calls going to the service
+		if (invocationMetrics != null)
+			dispatcherInterceptor.setInvocationMetrics(invocationMetrics);
+
 		// 1. the ServiceReference-like mixin
-		Advice mixin = new ImportedOsgiServiceProxyAdvice(reference);
+		Advice mixin = new ImportedOsgiServiceProxyAdvice(reference, dispatcherInterceptor);
 		advices.add(mixin);
 
 		// 2. publication of bundleContext (if there is any)
@@ -97,11 +107,10 @@ abstract class AbstractServiceProxyCreator implements ServiceProxyCreator {
 			advices.add(tcclAdvice);
 
 		// 4. add the infrastructure proxy
-		// but first create the dispatcher since we need
-		ServiceInvoker dispatcherInterceptor = createDispatcherInterceptor(reference);
 		Advice infrastructureMixin = new InfrastructureOsgiProxyAdvice(dispatcherInterceptor);
 
 		advices.add(infrastructureMixin);
+
 		advices.add(dispatcherInterceptor);
 
 		return new ProxyPlusCallback(ProxyUtils.createProxy(getInterfaces(reference), null, classLoader, bundleContext,
@@ -130,6 +139,15 @@ abstract class AbstractServiceProxyCreator implements ServiceProxyCreator {
 		}
 	}
 
+	/**
+	 * Enables the recording of invocation metrics for the created proxies.
+	 * 
+	 * @param metrics metrics to record into (null to disable recording)
+	 */
+	void setInvocationMetrics(ImporterMetrics metrics) {
+		this.invocationMetrics = metrics;
+	}
+
 	Class<?>[] getInterfaces(ServiceReference reference) {
 		return classes;
 	}
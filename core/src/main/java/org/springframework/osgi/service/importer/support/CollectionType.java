@@ -17,6 +17,7 @@
 package org.springframework.osgi.service.importer.support;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -73,6 +74,15 @@ public class CollectionType extends StaticLabeledEnum {
 	 */
 	public static final CollectionType SORTED_SET = new CollectionType(5, "SORTED_SET", SortedSet.class);
 
+	/**
+	 * Spring-managed map. The returned object will implement the {@link Map} interface, mapping the value of a given
+	 * service property to the matching service.
+	 * 
+	 * @see java.util.Map
+	 * @see OsgiServiceCollectionProxyFactoryBean#setKeyProperty(String)
+	 */
+	public static final CollectionType MAP = new CollectionType(6, "MAP", Map.class);
+
 	/** collection type */
 	private final Class<?> collectionClass;
 
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aggregated result of a method invocation performed on all the members of an imported service collection (a
+ * <em>fan-out</em>). Holds one entry per member, in the collection iteration order, indicating the outcome of the
+ * invocation on that member.
+ * 
+ * @author Costin Leau
+ * @see OsgiServiceCollectionProxyFactoryBean#invokeAll(java.lang.reflect.Method, Object[])
+ */
+public class FanOutResult {
+
+	/**
+	 * Outcome of the invocation on a collection member.
+	 */
+	public enum Outcome {
+
+		/** the member returned normally */
+		SUCCESS,
+
+		/** the member threw an exception */
+		FAILURE,
+
+		/** the member did not complete within the given timeout */
+		TIMEOUT,
+
+		/** the member left the collection (its service went away) before or during the invocation */
+		UNAVAILABLE;
+	}
+
+	/**
+	 * Invocation result of a collection member.
+	 */
+	public static class MemberResult {
+
+		private final Object member;
+
+		private final Outcome outcome;
+
+		private final Object result;
+
+		private final Throwable failure;
+
+
+		public MemberResult(Object member, Outcome outcome, Object result, Throwable failure) {
+			this.member = member;
+			this.outcome = outcome;
+			this.result = result;
+			this.failure = failure;
+		}
+
+		/**
+		 * Returns the collection member (service proxy) on which the invocation was made.
+		 * 
+		 * @return collection member
+		 */
+		public Object getMember() {
+			return member;
+		}
+
+		public Outcome getOutcome() {
+			return outcome;
+		}
+
+		/**
+		 * Returns the value returned by the member. Meaningful only for successful invocations.
+		 * 
+		 * @return invocation result (can be null)
+		 */
+		public Object getResult() {
+			return result;
+		}
+
+		/**
+		 * Returns the exception thrown by the member, if any.
+		 * 
+		 * @return invocation exception (can be null)
+		 */
+		public Throwable getFailure() {
+			return failure;
+		}
+
+		public String toString() {
+			return "MemberResult[" + outcome + (failure != null ? ", " + failure : "") + "]";
+		}
+	}
+
+
+	private final List<MemberResult> memberResults;
+
+
+	public FanOutResult(List<MemberResult> memberResults) {
+		this.memberResults = Collections.unmodifiableList(new ArrayList<MemberResult>(memberResults));
+	}
+
+	/**
+	 * Returns the results of all the members, in the collection iteration order.
+	 * 
+	 * @return member results
+	 */
+	public List<MemberResult> getMemberResults() {
+		return memberResults;
+	}
+
+	/**
+	 * Returns the values returned by the members whose invocation succeeded.
+	 * 
+	 * @return successful invocation results
+	 */
+	public List<Object> getResults() {
+		List<Object> results = new ArrayList<Object>(memberResults.size());
+		for (MemberResult memberResult : memberResults) {
+			if (Outcome.SUCCESS.equals(memberResult.getOutcome()))
+				results.add(memberResult.getResult());
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the results of the members with the given outcome.
+	 * 
+	 * @param outcome invocation outcome
+	 * @return member results with the given outcome
+	 */
+	public List<MemberResult> getMemberResults(Outcome outcome) {
+		List<MemberResult> results = new ArrayList<MemberResult>();
+		for (MemberResult memberResult : memberResults) {
+			if (memberResult.getOutcome().equals(outcome))
+				results.add(memberResult);
+		}
+		return results;
+	}
+
+	/**
+	 * Indicates whether the invocation succeeded on all the members that were still available. Members that left the
+	 * collection are not considered failures.
+	 * 
+	 * @return true if no member failed or timed out, false otherwise
+	 */
+	public boolean isSuccessful() {
+		for (MemberResult memberResult : memberResults) {
+			Outcome outcome = memberResult.getOutcome();
+			if (Outcome.FAILURE.equals(outcome) || Outcome.TIMEOUT.equals(outcome))
+				return false;
+		}
+		return true;
+	}
+
+	public String toString() {
+		return "FanOutResult" + memberResults;
+	}
+}
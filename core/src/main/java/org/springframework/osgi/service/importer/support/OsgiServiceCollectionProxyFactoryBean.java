@@ -16,13 +16,18 @@
 
 package org.springframework.osgi.service.importer.support;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,12 +37,14 @@ import org.springframework.osgi.service.importer.support.internal.aop.ServicePro
 import org.springframework.osgi.service.importer.support.internal.collection.CollectionProxy;
 import org.springframework.osgi.service.importer.support.internal.collection.OsgiServiceCollection;
 import org.springframework.osgi.service.importer.support.internal.collection.OsgiServiceList;
+import org.springframework.osgi.service.importer.support.internal.collection.OsgiServiceMap;
 import org.springframework.osgi.service.importer.support.internal.collection.OsgiServiceSet;
 import org.springframework.osgi.service.importer.support.internal.collection.OsgiServiceSortedList;
 import org.springframework.osgi.service.importer.support.internal.collection.OsgiServiceSortedSet;
 import org.springframework.osgi.service.importer.support.internal.controller.ImporterController;
 import org.springframework.osgi.service.importer.support.internal.controller.ImporterInternalActions;
 import org.springframework.osgi.service.importer.support.internal.dependency.ImporterStateListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.Assert;
 
 /**
@@ -104,6 +111,9 @@ public final class OsgiServiceCollectionProxyFactoryBean extends AbstractService
 
 	private static final Log log = LogFactory.getLog(OsgiServiceCollectionProxyFactoryBean.class);
 
+	/** maximum number of member invocations queued by the default fan-out executor */
+	private static final int FAN_OUT_QUEUE_CAPACITY = 1024;
+
 	/** proxy casted to a specific interface to allow specific method calls */
 	private CollectionProxy exposedProxy;
 
@@ -122,6 +132,23 @@ public final class OsgiServiceCollectionProxyFactoryBean extends AbstractService
 
 	private MemberType memberType = MemberType.SERVICE_OBJECT;
 
+	/** copy-on-write (snapshot) storage */
+	private boolean snapshotStorage = false;
+
+	private boolean lazyMembers = false;
+
+	/** executor used for fan-out invocations */
+	private volatile Executor fanOutExecutor;
+
+	/** default fan-out executor, owned by this factory bean (null if not created) */
+	private ExecutorService defaultFanOutExecutor;
+
+	/** per member fan-out timeout */
+	private long fanOutTimeout = 0;
+
+	/** service property used as key by map imports */
+	private String keyProperty;
+
 	/** internal listeners */
 	private final List<ImporterStateListener> stateListeners =
 			Collections.synchronizedList(new ArrayList<ImporterStateListener>(4));
@@ -135,9 +162,14 @@ public final class OsgiServiceCollectionProxyFactoryBean extends AbstractService
 	public void afterPropertiesSet() {
 		super.afterPropertiesSet();
 
-		proxyCreator =
+		if (CollectionType.MAP.equals(collectionType))
+			Assert.hasText(keyProperty, "a key property is required for map imports");
+
+		StaticServiceProxyCreator creator =
 				new StaticServiceProxyCreator(getInterfaces(), getAopClassLoader(), getBeanClassLoader(),
 						getBundleContext(), getImportContextClassLoader(), greedyProxying, isUseBlueprintExceptions());
+		creator.setInvocationMetrics(getImporterMetrics());
+		proxyCreator = creator;
 	}
 
 	/**
@@ -153,7 +185,7 @@ public final class OsgiServiceCollectionProxyFactoryBean extends AbstractService
 			log.debug("Creating a multi-value/collection proxy");
 
 		OsgiServiceCollection collection;
-		Collection delegate;
+		Object delegate;
 
 		BundleContext bundleContext = getBundleContext();
 		ClassLoader classLoader = getAopClassLoader();
@@ -181,6 +213,14 @@ public final class OsgiServiceCollectionProxyFactoryBean extends AbstractService
 			delegate = Collections.unmodifiableList((List) collection);
 		}
 
+		else if (CollectionType.MAP.equals(collectionType)) {
+			OsgiServiceMap map =
+					new OsgiServiceMap(filter, bundleContext, classLoader, proxyCreator, useServiceReferences,
+							keyProperty);
+			collection = map;
+			delegate = map.getMap();
+		}
+
 		else if (CollectionType.SORTED_SET.equals(collectionType)) {
 			collection =
 					new OsgiServiceSortedSet(filter, bundleContext, classLoader, comparator, proxyCreator,
@@ -202,6 +242,10 @@ public final class OsgiServiceCollectionProxyFactoryBean extends AbstractService
 		collection.setServiceImporter(this);
 		collection.setServiceImporterName(getBeanName());
 		collection.setUseBlueprintExceptions(isUseBlueprintExceptions());
+		collection.setSharedServiceListener(isSharedServiceListener());
+		collection.setFilterClassName(getFilterClassName());
+		collection.setSnapshotStorage(snapshotStorage);
+		collection.setLazyMembers(lazyMembers);
 
 		// start the lookup only after the proxy has been assembled
 		if (!lazyProxy) {
@@ -221,6 +265,38 @@ public final class OsgiServiceCollectionProxyFactoryBean extends AbstractService
 		return delegate;
 	}
 
+	/**
+	 * Creates the fan-out executor used when none is configured: a pool of one thread per processor backed by a bounded
+	 * queue. Invocations that find all the threads busy wait in the queue (and are thus subject to the fan-out
+	 * timeout); only the ones exceeding the queue capacity are rejected.
+	 * 
+	 * @return default fan-out executor
+	 */
+	private ExecutorService createDefaultFanOutExecutor() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(getBeanName() + "-fan-out-");
+		threadFactory.setDaemon(true);
+		int threads = Runtime.getRuntime().availableProcessors();
+		return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(
+			FAN_OUT_QUEUE_CAPACITY), threadFactory);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		try {
+			super.destroy();
+		} finally {
+			ExecutorService executor;
+			synchronized (this) {
+				executor = defaultFanOutExecutor;
+				defaultFanOutExecutor = null;
+			}
+			// the invocations in progress are allowed to complete; later ones are run by the caller
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+	}
+
 	@Override
 	Runnable getProxyInitializer() {
 		return initializationCallback;
@@ -302,6 +378,118 @@ public final class OsgiServiceCollectionProxyFactoryBean extends AbstractService
 		this.memberType = type;
 	}
 
+	/**
+	 * Indicates whether the collection uses copy-on-write (snapshot) storage. In this mode, each change in the
+	 * collection content publishes an immutable snapshot which is used by the collection readers and iterators without
+	 * any locking. Iterators return the content of the snapshot taken at their creation followed by the services that
+	 * appeared afterwards (see the class javadoc for the iterator contract). Suitable for collections that are iterated
+	 * often but change rarely.
+	 * 
+	 * <p/> Default is false (the storage is guarded by locks and the iterators are updated by the collection writers).
+	 * 
+	 * @param snapshotStorage true if snapshot storage should be used, false otherwise
+	 */
+	public void setSnapshotStorage(boolean snapshotStorage) {
+		this.snapshotStorage = snapshotStorage;
+	}
+
+	/**
+	 * Indicates whether the service proxies are created lazily, when first accessed by the client, rather than as soon
+	 * as the matching services appear. Lazy proxies are softly referenced so they can be reclaimed under memory pressure
+	 * and are recreated transparently when needed. Useful for large collections out of which only a few members are
+	 * used.
+	 * 
+	 * <p/> Applies only to collections of service proxies that are not sorted; ignored otherwise. Default is false.
+	 * 
+	 * @param lazyMembers true if the members are created lazily, false otherwise
+	 */
+	public void setLazyMembers(boolean lazyMembers) {
+		this.lazyMembers = lazyMembers;
+	}
+
+	/**
+	 * Sets the service property used as key when the importer creates a map ({@link CollectionType#MAP}). The map
+	 * associates each value of the property to the matching service (the best ranking one in case of duplicates) and
+	 * is updated as services come, go or have their properties modified. Services without the property are ignored.
+	 * 
+	 * @param keyProperty service property name
+	 */
+	public void setKeyProperty(String keyProperty) {
+		this.keyProperty = keyProperty;
+	}
+
+	/**
+	 * Invokes the given method, in parallel, on all the services currently part of the collection (a
+	 * <em>fan-out</em>) and waits for the results. The members are determined when this method is called, following
+	 * the collection consistency rules; services that go away before or during their invocation are reported as
+	 * {@link FanOutResult.Outcome#UNAVAILABLE} instead of failed. Members that do not complete within the fan-out
+	 * timeout are reported as {@link FanOutResult.Outcome#TIMEOUT}.
+	 * 
+	 * <p/> The fan-out is a programmatic API only: since the imported collection is exposed as a read-only
+	 * <code>java.util</code> collection, neither the collection nor the namespace expose it and the factory bean has
+	 * to be used instead (for example by dereferencing the bean name with <code>&amp;</code>). The namespace only
+	 * configures the timeout. Available only for collections of service objects (see {@link MemberType}).
+	 * 
+	 * @param method method to invoke
+	 * @param args method arguments (can be null)
+	 * @return aggregated invocation results
+	 */
+	public FanOutResult invokeAll(Method method, Object[] args) {
+		// make sure the collection is created and initialized
+		getObject();
+		Executor executor = fanOutExecutor;
+		if (executor == null) {
+			synchronized (this) {
+				if (fanOutExecutor == null) {
+					defaultFanOutExecutor = createDefaultFanOutExecutor();
+					fanOutExecutor = defaultFanOutExecutor;
+				}
+				executor = fanOutExecutor;
+			}
+		}
+		return exposedProxy.invokeAll(method, args, executor, fanOutTimeout);
+	}
+
+	/**
+	 * Returns a sized, splittable iterator over a consistent snapshot of the collection members. The iterator can be
+	 * split into disjoint ranges processed in parallel without any locking; it returns the members present when it was
+	 * created (see {@link SplittableIterator}). As with {@link #invokeAll(Method, Object[])}, this method is available
+	 * through the factory bean since the imported collection is exposed as a read-only <code>java.util</code>
+	 * collection.
+	 * 
+	 * @return splittable iterator over the collection members
+	 */
+	public SplittableIterator<Object> splittableIterator() {
+		// make sure the collection is created and initialized
+		getObject();
+		return exposedProxy.splittableIterator();
+	}
+
+	/**
+	 * Sets the executor used for dispatching the fan-out invocations. The executor is not managed by this factory bean.
+	 * By default, a bounded pool (one thread per processor) owned by the factory bean is used and shut down when the
+	 * importer is destroyed. Member invocations rejected by the executor are run by the calling thread or, if a
+	 * timeout is set, by a separate thread.
+	 * 
+	 * @param fanOutExecutor fan-out executor
+	 * @see #invokeAll(Method, Object[])
+	 */
+	public void setFanOutExecutor(Executor fanOutExecutor) {
+		this.fanOutExecutor = fanOutExecutor;
+	}
+
+	/**
+	 * Sets the maximum time (in milliseconds) a fan-out invocation waits for each member, measured from the dispatch
+	 * of the invocation. Default is 0, meaning the invocation waits for all the members to complete.
+	 * 
+	 * @param fanOutTimeout fan-out timeout
+	 * @see #invokeAll(Method, Object[])
+	 */
+	public void setFanOutTimeout(long fanOutTimeout) {
+		Assert.isTrue(fanOutTimeout >= 0, "timeout has to be non-negative");
+		this.fanOutTimeout = fanOutTimeout;
+	}
+
 	@Override
 	Cardinality getInternalCardinality() {
 		return (Availability.OPTIONAL.equals(getAvailability()) ? Cardinality.C_0__N : Cardinality.C_1__N);
@@ -32,13 +32,13 @@ import org.springframework.osgi.service.importer.support.internal.aop.ProxyPlusC
 import org.springframework.osgi.service.importer.support.internal.aop.ServiceDynamicInterceptor;
 import org.springframework.osgi.service.importer.support.internal.aop.ServiceInvoker;
 import org.springframework.osgi.service.importer.support.internal.aop.ServiceProviderTCCLInterceptor;
-import org.springframework.osgi.service.importer.support.internal.aop.ServiceProxyCreator;
 import org.springframework.osgi.service.importer.support.internal.controller.ImporterController;
 import org.springframework.osgi.service.importer.support.internal.controller.ImporterInternalActions;
 import org.springframework.osgi.service.importer.support.internal.dependency.ImporterStateListener;
 import org.springframework.osgi.service.importer.support.internal.support.RetryTemplate;
-import org.springframework.osgi.util.internal.ClassUtils;
+import org.springframework.util.Assert;
 import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
 
 /**
  * OSGi (single) service importer. This implementation creates a managed OSGi service proxy that handles the OSGi
@@ -105,6 +105,17 @@ public final class OsgiServiceProxyFactoryBean extends AbstractServiceImporterPr
 	private volatile boolean mandatory = true;
 
 	private volatile boolean sticky = true;
+
+	private volatile boolean lockFreeBinding = false;
+
+	private volatile boolean indexedRebind = false;
+
+	private ServiceSelectionPolicy selectionPolicy = ServiceSelectionPolicy.BEST;
+
+	private String weightProperty;
+
+	private volatile boolean failFast = false;
+
 	private final Object monitor = new Object();
 
 	public OsgiServiceProxyFactoryBean() {
@@ -115,6 +126,8 @@ public final class OsgiServiceProxyFactoryBean extends AbstractServiceImporterPr
 	public void afterPropertiesSet() {
 		super.afterPropertiesSet();
 		mandatory = Availability.MANDATORY.equals(getAvailability());
+		Assert.isTrue(!ServiceSelectionPolicy.WEIGHTED.equals(selectionPolicy) || StringUtils.hasText(weightProperty),
+				"a weight property is required by the weighted selection policy");
 	}
 
 	/**
@@ -138,15 +151,17 @@ public final class OsgiServiceProxyFactoryBean extends AbstractServiceImporterPr
 		final OsgiServiceLifecycleListener tcclListener =
 				(serviceTccl ? tcclAdvice.new ServiceProviderTCCLListener() : null);
 
-		Class<?> filterClass = ClassUtils.getParticularClass(getInterfaces());
-		String filterClassName = (filterClass != null ? filterClass.getName() : null);
 		final ServiceDynamicInterceptor lookupAdvice =
-				new ServiceDynamicInterceptor(getBundleContext(), filterClassName, getUnifiedFilter(),
-						getAopClassLoader());
+				new ServiceDynamicInterceptor(getBundleContext(), getFilterClassName(), getUnifiedFilter(),
+						getAopClassLoader(), lockFreeBinding);
 
 		lookupAdvice.setMandatoryService(Availability.MANDATORY.equals(getAvailability()));
 		lookupAdvice.setUseBlueprintExceptions(isUseBlueprintExceptions());
 		lookupAdvice.setSticky(sticky);
+		lookupAdvice.setSharedServiceListener(isSharedServiceListener());
+		lookupAdvice.setIndexedRebind(indexedRebind);
+		lookupAdvice.setSelectionPolicy(selectionPolicy, weightProperty);
+		lookupAdvice.setFailFast(failFast);
 
 		OsgiServiceLifecycleListener[] listeners =
 				(serviceTccl ? (OsgiServiceLifecycleListener[]) ObjectUtils.addObjectToArray(getListeners(),
@@ -166,7 +181,7 @@ public final class OsgiServiceProxyFactoryBean extends AbstractServiceImporterPr
 		lookupAdvice.setServiceImporterName(getBeanName());
 
 		// create a proxy creator using the existing context
-		ServiceProxyCreator creator =
+		AbstractServiceProxyCreator creator =
 				new AbstractServiceProxyCreator(getInterfaces(), getAopClassLoader(), getBeanClassLoader(),
 						getBundleContext(), getImportContextClassLoader()) {
 
@@ -179,6 +194,8 @@ public final class OsgiServiceProxyFactoryBean extends AbstractServiceImporterPr
 					}
 				};
 
+		creator.setInvocationMetrics(getImporterMetrics());
+
 		ProxyPlusCallback proxyPlusCallback = creator.createServiceProxy(lookupAdvice.getServiceReference());
 
 		synchronized (monitor) {
@@ -277,6 +294,83 @@ public final class OsgiServiceProxyFactoryBean extends AbstractServiceImporterPr
 		this.sticky = sticky;
 	}
 
+	/**
+	 * Sets the binding mode of this proxy. If 'false' (default), the threads waiting for a backing service are
+	 * parked on the proxy monitor and woken up together once a service is bound. If 'true', the bound service is
+	 * published without locking and the waiting threads are queued and woken up individually, which reduces the
+	 * contention when many threads wait on the same (mandatory) service.
+	 * 
+	 * <p/> Note that this setting is considered only before the proxy is created.
+	 * 
+	 * @param lockFreeBinding lock-free binding flag
+	 */
+	public void setLockFreeBinding(boolean lockFreeBinding) {
+		this.lockFreeBinding = lockFreeBinding;
+	}
+
+	/**
+	 * Sets the rebind strategy of this proxy. If 'false' (default), the service registry is queried for a replacement
+	 * every time the backing service goes away. If 'true', the proxy keeps its own index of the matching services
+	 * (ordered by ranking and service id), updated through the received service events, and selects the replacement
+	 * from it without querying the registry.
+	 * 
+	 * <p/> Note that this setting is considered only before the proxy is created.
+	 * 
+	 * @param indexedRebind indexed rebind flag
+	 */
+	public void setIndexedRebind(boolean indexedRebind) {
+		this.indexedRebind = indexedRebind;
+	}
+
+	/**
+	 * Sets the fail-fast mode of the proxy. If enabled, the proxy does not wait (block) for a service to appear - calls
+	 * made while no service is available fail right away with a
+	 * {@link org.springframework.osgi.service.ServiceUnavailableException}. Callers can use
+	 * {@link org.springframework.osgi.service.importer.AvailabilityAwareOsgiServiceProxy#getServiceAvailability()} to
+	 * be notified once a service becomes available. The dependency wait events are still published, at the beginning
+	 * and at the end of each unavailability period.
+	 * 
+	 * <p/> Note that this setting is considered only before the proxy is created.
+	 * 
+	 * @param failFast fail-fast flag
+	 */
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+
+	/**
+	 * Sets the policy used for selecting the target service of each invocation when multiple matching services are
+	 * available. By default, {@link ServiceSelectionPolicy#BEST} is used meaning all invocations go to the best
+	 * matching service. The other policies spread the invocations across all the matching services while the proxy
+	 * (as seen by the listeners and through its service reference) remains bound to the best one.
+	 * 
+	 * @param selectionPolicy selection policy
+	 * @see #setWeightProperty(String)
+	 */
+	public void setSelectionPolicy(ServiceSelectionPolicy selectionPolicy) {
+		Assert.notNull(selectionPolicy);
+		this.selectionPolicy = selectionPolicy;
+	}
+
+	/**
+	 * Returns the policy used for selecting the target service of each invocation.
+	 * 
+	 * @return selection policy
+	 */
+	public ServiceSelectionPolicy getSelectionPolicy() {
+		return selectionPolicy;
+	}
+
+	/**
+	 * Sets the name of the (numeric) service property used as weight by the {@link ServiceSelectionPolicy#WEIGHTED}
+	 * policy. Services without the property have a weight of 1.
+	 * 
+	 * @param weightProperty service property name
+	 */
+	public void setWeightProperty(String weightProperty) {
+		this.weightProperty = weightProperty;
+	}
+
 	public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
 		synchronized (monitor) {
 			this.applicationEventPublisher = applicationEventPublisher;
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support;
+
+/**
+ * Enum used by the single service importer to describe how the target service is selected for each invocation when
+ * multiple matching OSGi services are available.
+ * 
+ * @author Costin Leau
+ */
+public enum ServiceSelectionPolicy {
+
+	/**
+	 * Indicates that all invocations go to the <em>best</em> matching service (the one with the highest ranking and
+	 * lowest service id). This is the default.
+	 */
+	BEST,
+
+	/**
+	 * Indicates that the invocations are distributed in turn across all the matching services.
+	 */
+	ROUND_ROBIN,
+
+	/**
+	 * Indicates that each invocation goes to the matching service with the lowest number of invocations in progress.
+	 */
+	LEAST_IN_FLIGHT,
+
+	/**
+	 * Indicates that the invocations are distributed across all the matching services proportionally to the (numeric)
+	 * value of a given service property.
+	 */
+	WEIGHTED;
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.springframework.util.Assert;
+
+/**
+ * Sized, splittable iterator over an immutable snapshot of an imported service collection. Meant for processing the
+ * collection members in parallel: the iterator can be split repeatedly into iterators covering disjoint ranges of the
+ * snapshot which can then be consumed by different threads without any locking or coordination.
+ * 
+ * <p/> The iterator returns the members present in the collection when the snapshot was taken, even if some of them
+ * have been removed since (consistent with the iteration rules of the service collections); since the size has to
+ * stay fixed for splitting, services that appear after the snapshot are not returned. Read-only: {@link #remove()} is
+ * not supported. Similar to other iterators, instances are not thread-safe; each range should be consumed by a single
+ * thread.
+ * 
+ * @author Costin Leau
+ * @see OsgiServiceCollectionProxyFactoryBean#splittableIterator()
+ */
+public class SplittableIterator<E> implements Iterator<E> {
+
+	private final Object[] elements;
+
+	private int index;
+
+	private final int fence;
+
+
+	/**
+	 * Constructs a new <code>SplittableIterator</code> instance over the given snapshot. The array is used as is and
+	 * must not be modified afterwards.
+	 * 
+	 * @param elements snapshot
+	 */
+	public SplittableIterator(Object[] elements) {
+		this(elements, 0, elements.length);
+	}
+
+	private SplittableIterator(Object[] elements, int origin, int fence) {
+		Assert.notNull(elements);
+		this.elements = elements;
+		this.index = origin;
+		this.fence = fence;
+	}
+
+	public boolean hasNext() {
+		return index < fence;
+	}
+
+	@SuppressWarnings("unchecked")
+	public E next() {
+		if (index >= fence)
+			throw new NoSuchElementException();
+		return (E) elements[index++];
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Splits the remaining elements in two. The returned iterator covers the first half while this iterator continues
+	 * with the second one.
+	 * 
+	 * @return an iterator over the first half of the remaining elements or null if there are too few elements to
+	 * split
+	 */
+	public SplittableIterator<E> trySplit() {
+		int mid = (index + fence) >>> 1;
+		if (mid <= index)
+			return null;
+		SplittableIterator<E> prefix = new SplittableIterator<E>(elements, index, mid);
+		index = mid;
+		return prefix;
+	}
+
+	/**
+	 * Returns the (exact) number of elements left in this iterator.
+	 * 
+	 * @return number of remaining elements
+	 */
+	public int estimateSize() {
+		return fence - index;
+	}
+}
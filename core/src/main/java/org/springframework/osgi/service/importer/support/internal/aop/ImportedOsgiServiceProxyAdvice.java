@@ -18,8 +18,10 @@ package org.springframework.osgi.service.importer.support.internal.aop;
 
 import org.osgi.framework.ServiceReference;
 import org.springframework.aop.support.DelegatingIntroductionInterceptor;
-import org.springframework.osgi.service.importer.ImportedOsgiServiceProxy;
+import org.springframework.osgi.service.importer.AvailabilityAwareOsgiServiceProxy;
+import org.springframework.osgi.service.importer.ServiceAvailabilityFuture;
 import org.springframework.osgi.service.importer.ServiceReferenceProxy;
+import org.springframework.osgi.service.importer.support.internal.support.DefaultServiceAvailabilityFuture;
 import org.springframework.util.Assert;
 
 /**
@@ -29,7 +31,7 @@ import org.springframework.util.Assert;
  * 
  */
 public class ImportedOsgiServiceProxyAdvice extends DelegatingIntroductionInterceptor implements
-		ImportedOsgiServiceProxy {
+		AvailabilityAwareOsgiServiceProxy {
 
 	private static final long serialVersionUID = 6455437774724678999L;
 
@@ -37,17 +39,35 @@ public class ImportedOsgiServiceProxyAdvice extends DelegatingIntroductionInterc
 
 	private final transient ServiceReferenceProxy reference;
 
+	private final transient ServiceInvoker invoker;
+
 
 	public ImportedOsgiServiceProxyAdvice(ServiceReference reference) {
+		this(reference, null);
+	}
+
+	/**
+	 * Constructs a new <code>ImportedOsgiServiceProxyAdvice</code> instance.
+	 * 
+	 * @param reference service reference
+	 * @param invoker service invoker used for tracking the service availability (can be null)
+	 */
+	public ImportedOsgiServiceProxyAdvice(ServiceReference reference, ServiceInvoker invoker) {
 		Assert.notNull(reference);
 		this.reference = (reference instanceof ServiceReferenceProxy ? (ServiceReferenceProxy) reference
 				: new StaticServiceReferenceProxy(reference));
+		this.invoker = invoker;
 	}
 
 	public ServiceReferenceProxy getServiceReference() {
 		return reference;
 	}
 
+	public ServiceAvailabilityFuture getServiceAvailability() {
+		return (invoker != null ? invoker.getServiceAvailability() : DefaultServiceAvailabilityFuture
+				.available(reference));
+	}
+
 	public boolean equals(Object other) {
 		if (this == other)
 			return true;
@@ -20,7 +20,10 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osgi.framework.BundleContext;
@@ -36,16 +39,23 @@ import org.springframework.osgi.service.ServiceUnavailableException;
 import org.springframework.osgi.service.importer.DefaultOsgiServiceDependency;
 import org.springframework.osgi.service.importer.OsgiServiceDependency;
 import org.springframework.osgi.service.importer.OsgiServiceLifecycleListener;
+import org.springframework.osgi.service.importer.ServiceAvailabilityFuture;
 import org.springframework.osgi.service.importer.ServiceProxyDestroyedException;
 import org.springframework.osgi.service.importer.event.OsgiServiceDependencyWaitEndedEvent;
 import org.springframework.osgi.service.importer.event.OsgiServiceDependencyWaitStartingEvent;
 import org.springframework.osgi.service.importer.event.OsgiServiceDependencyWaitTimedOutEvent;
+import org.springframework.osgi.service.importer.metrics.ImporterMetrics;
+import org.springframework.osgi.service.importer.support.ServiceSelectionPolicy;
 import org.springframework.osgi.service.importer.support.internal.dependency.ImporterStateListener;
 import org.springframework.osgi.service.importer.support.internal.exception.BlueprintExceptionFactory;
 import org.springframework.osgi.service.importer.support.internal.support.DefaultRetryCallback;
+import org.springframework.osgi.service.importer.support.internal.support.DefaultServiceAvailabilityFuture;
 import org.springframework.osgi.service.importer.support.internal.support.RetryCallback;
 import org.springframework.osgi.service.importer.support.internal.support.RetryTemplate;
+import org.springframework.osgi.service.importer.support.internal.support.ServiceEventDemultiplexer;
+import org.springframework.osgi.service.importer.support.internal.support.WaitQueue;
 import org.springframework.osgi.service.importer.support.internal.util.OsgiServiceBindingUtils;
+import org.springframework.osgi.service.importer.support.internal.util.ServiceReferenceIndex;
 import org.springframework.osgi.util.OsgiListenerUtils;
 import org.springframework.osgi.util.OsgiServiceReferenceUtils;
 import org.springframework.util.Assert;
@@ -58,6 +68,22 @@ import org.springframework.util.ObjectUtils;
  * 
  * <p/> In case no service is available, it will throw an exception.
  * 
+ * <p/> In lock-free binding mode, the bound service is published through an atomic reference and the threads waiting
+ * for a service are parked in a {@link WaitQueue} and woken up individually, instead of contending on the interceptor
+ * monitor.
+ * 
+ * <p/> If the candidate index is enabled, the interceptor keeps its own priority-ordered index of the matching
+ * services, fed by the received service events, and uses it for selecting a replacement when the bound service goes
+ * away, instead of querying the service registry.
+ * 
+ * <p/> For selection policies other than {@link ServiceSelectionPolicy#BEST}, the proxy remains bound to the best
+ * service (as far as the listeners and the exposed service reference are concerned) while each invocation is
+ * dispatched to one of the matching services, as chosen by the policy.
+ * 
+ * <p/> In fail-fast mode, invocations made while no service is available throw an exception right away instead of
+ * waiting for the configured timeout; callers interested in the service arrival can use the (non-blocking)
+ * {@link #getServiceAvailability()} future.
+ * 
  * <p/> <strong>Note</strong>: this is a stateful interceptor and should not be shared.
  * 
  * @author Costin Leau
@@ -73,22 +99,31 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 	 */
 	private class EventSenderRetryTemplate extends RetryTemplate {
 
-		public EventSenderRetryTemplate(long waitTime) {
-			super(waitTime, lock);
+		public EventSenderRetryTemplate(Object notificationLock) {
+			super(notificationLock);
 		}
 
-		public EventSenderRetryTemplate() {
-			super(lock);
+		public EventSenderRetryTemplate(WaitQueue waitQueue) {
+			super(waitQueue);
 		}
 
 		protected void callbackFailed(long stop) {
+			recordWait(stop);
 			publishEvent(new OsgiServiceDependencyWaitTimedOutEvent(eventSource, dependency, stop));
 		}
 
 		protected void callbackSucceeded(long stop) {
+			recordWait(stop);
 			publishEvent(new OsgiServiceDependencyWaitEndedEvent(eventSource, dependency, stop));
 		}
 
+		private void recordWait(long stop) {
+			ImporterMetrics metrics = getInvocationMetrics();
+			if (metrics != null) {
+				metrics.recordWait(stop);
+			}
+		}
+
 		protected void onMissingTarget() {
 			// send event
 			publishEvent(new OsgiServiceDependencyWaitStartingEvent(eventSource, dependency, this.getWaitTime()));
@@ -103,7 +138,8 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 				throw new ServiceProxyDestroyedException();
 			}
 
-			return (holder != null ? holder.getService() : null);
+			ReferenceHolder current = holder.get();
+			return (current != null ? current.getService() : null);
 		}
 	}
 
@@ -115,7 +151,8 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 				throw new ServiceProxyDestroyedException();
 			}
 
-			return (holder != null ? holder.getReference() : null);
+			ReferenceHolder current = holder.get();
+			return (current != null ? current.getReference() : null);
 		}
 	}
 
@@ -157,7 +194,14 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 					// same as ServiceEvent.REGISTERED
 				case (ServiceEvent.MODIFIED): {
 					// flag indicating if the service is bound or rebound
-					boolean servicePresent = (holder != null);
+					boolean servicePresent = (holder.get() != null);
+
+					if (candidates != null) {
+						candidates.add(ref);
+					}
+					if (selector != null) {
+						selector.add(ref);
+					}
 
 					if (updateWrapperIfNecessary(ref)) {
 						// inform listeners
@@ -179,12 +223,23 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 					// since the listeners will require a valid proxy, the invalidation has to happen *after* calling
 					// the listeners
 					//
-					ReferenceHolder oldHolder = holder;
+					ReferenceHolder oldHolder = holder.get();
+					boolean bound;
+
+					if (selector != null) {
+						selector.remove(ref);
+					}
+
+					if (candidates != null) {
+						candidates.remove(ref);
+						bound = (oldHolder != null && oldHolder.getId() == OsgiServiceReferenceUtils.getServiceId(ref));
+					} else {
+						bound = (oldHolder != null && oldHolder.equals(ref));
+					}
 
 					// remove service
-					if (holder != null && holder.equals(ref)) {
+					if (bound && holder.compareAndSet(oldHolder, null)) {
 						serviceRemoved = true;
-						holder = null;
 					}
 
 					ServiceReference newReference = null;
@@ -193,9 +248,14 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 
 					// discover a new reference only if we are still running
 					if (!isDestroyed) {
-						newReference =
-								OsgiServiceReferenceUtils.getServiceReference(bundleContext, filterClassName,
-										(filter == null ? null : filter.toString()));
+						if (candidates != null) {
+							// no registry query - use the best (still valid) indexed candidate
+							newReference = (serviceRemoved ? candidates.getBest(filter) : null);
+						} else {
+							newReference =
+									OsgiServiceReferenceUtils.getServiceReference(bundleContext, filterClassName,
+											(filter == null ? null : filter.toString()));
+						}
 
 						// we have a rebind (a new service was bound)
 						// so another candidate has to be searched from the existing candidates
@@ -211,12 +271,12 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 					// interceptor) then do an unbind
 					if (newReference == null && serviceRemoved) {
 						// reuse the old service until the listeners are notified
-						holder = oldHolder;
+						holder.compareAndSet(null, oldHolder);
 
 						// inform listeners
 						OsgiServiceBindingUtils.callListenersUnbind(proxy, ref, listeners);
 
-						holder = null;
+						holder.compareAndSet(oldHolder, null);
 
 						if (debug || publicDebug) {
 							String message = "Service reference [" + ref + "] was unregistered";
@@ -280,12 +340,31 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 		private boolean updateWrapperIfNecessary(ServiceReference ref) {
 			boolean updated = false;
 			try {
-				if (holder == null || (!sticky && holder.isWorseThen(ref))) {
+				ReferenceHolder candidate = null;
+				ReferenceHolder current;
+				do {
+					current = holder.get();
+					if (current != null && (sticky || !current.isWorseThen(ref))) {
+						candidate = null;
+						break;
+					}
+					if (candidate == null) {
+						candidate = new ReferenceHolder(ref, bundleContext);
+					}
+				} while (!holder.compareAndSet(current, candidate));
+
+				if (candidate != null) {
 					updated = true;
-					updateReferenceHolders(ref);
+					// a concurrent bind may have replaced the candidate already - its own swap then prevails
+					synchronized (referenceDelegate) {
+						if (holder.get() == candidate) {
+							referenceDelegate.swapDelegates(ref);
+						}
+					}
 				}
-				synchronized (lock) {
-					lock.notifyAll();
+				notifyWaiters();
+				if (holder.get() != null) {
+					completeAvailabilityFutures();
 				}
 				return updated;
 			} finally {
@@ -305,16 +384,6 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 				}
 			}
 		}
-
-		/**
-		 * Update internal holders for the backing ServiceReference.
-		 * 
-		 * @param ref
-		 */
-		private void updateReferenceHolders(ServiceReference ref) {
-			holder = new ReferenceHolder(ref, bundleContext);
-			referenceDelegate.swapDelegates(ref);
-		}
 	}
 
 	private static final int hashCode = ServiceDynamicInterceptor.class.hashCode() * 13;
@@ -341,7 +410,7 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 	private boolean mandatoryService = true;
 
 	/** flag indicating whether the destruction has started or not */
-	private boolean isDuringDestruction = false;
+	private volatile boolean isDuringDestruction = false;
 
 	/** flag indicating whether the proxy is already destroyed or not */
 	private volatile boolean destroyed = false;
@@ -353,11 +422,17 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 	 */
 	private final Object lock = new Object();
 
+	/** lock-free binding flag */
+	private final boolean lockFreeBinding;
+
+	/** queue of threads waiting for an OSGi service to appear (used in lock-free binding mode) */
+	private final WaitQueue waitQueue;
+
 	/** service reference/service holder */
-	private volatile ReferenceHolder holder;
+	private final AtomicReference<ReferenceHolder> holder = new AtomicReference<ReferenceHolder>();
 
 	/** retry template */
-	private final RetryTemplate retryTemplate = new EventSenderRetryTemplate();
+	private final RetryTemplate retryTemplate;
 
 	/** retry callback */
 	private final RetryCallback<Object> retryCallback = new ServiceLookUpCallback();
@@ -387,17 +462,95 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 
 	private boolean sticky = false;
 
+	/** whether the bundle shared listener is used instead of a dedicated one */
+	private boolean sharedServiceListener = false;
+
+	/** local index of the matching services (null if disabled) */
+	private ServiceReferenceIndex candidates;
+
+	/** per invocation service selector (null for the default policy) */
+	private ServiceSelector selector;
+
+	/** fail-fast flag */
+	private volatile boolean failFast = false;
+
+	/** future shared by all the callers during an unavailability period (null if none was requested) */
+	private final AtomicReference<DefaultServiceAvailabilityFuture> pendingAvailability =
+			new AtomicReference<DefaultServiceAvailabilityFuture>();
+
+	/** future returned while a service is bound */
+	private final DefaultServiceAvailabilityFuture availableFuture;
+
+	/** start of the current (fail-fast) unavailability period (0 if none) */
+	private final AtomicLong failFastWaitStart = new AtomicLong();
+
 	public ServiceDynamicInterceptor(BundleContext context, String filterClassName, Filter filter,
 			ClassLoader classLoader) {
+		this(context, filterClassName, filter, classLoader, false);
+	}
+
+	/**
+	 * Constructs a new <code>ServiceDynamicInterceptor</code> instance.
+	 * 
+	 * @param context bundle context
+	 * @param filterClassName class name used for filtering
+	 * @param filter service filter
+	 * @param classLoader TCCL used when calling the listeners
+	 * @param lockFreeBinding whether waiting threads are parked in a queue (true) or on the interceptor monitor (false)
+	 */
+	public ServiceDynamicInterceptor(BundleContext context, String filterClassName, Filter filter,
+			ClassLoader classLoader, boolean lockFreeBinding) {
 		this.bundleContext = context;
 		this.filterClassName = filterClassName;
 		this.filter = filter;
 		this.classLoader = classLoader;
+		this.lockFreeBinding = lockFreeBinding;
+
+		if (lockFreeBinding) {
+			waitQueue = new WaitQueue();
+			retryTemplate = new EventSenderRetryTemplate(waitQueue);
+		} else {
+			waitQueue = null;
+			retryTemplate = new EventSenderRetryTemplate(lock);
+		}
 
 		referenceDelegate = new SwappingServiceReferenceProxy();
+		availableFuture = DefaultServiceAvailabilityFuture.available(referenceDelegate);
 		listener = new Listener();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Dispatches the invocation to the service chosen by the selection policy (if one is used), falling back to the
+	 * given (bound) service if there is no candidate left.
+	 */
+	protected Object doInvoke(Object service, MethodInvocation invocation) throws Throwable {
+		if (selector == null) {
+			return super.doInvoke(service, invocation);
+		}
+
+		for (;;) {
+			ServiceSelector.Candidate candidate = selector.select();
+			if (candidate == null) {
+				return super.doInvoke(service, invocation);
+			}
+
+			candidate.enter();
+			try {
+				// read the service once - it might have been released since the selection
+				Object target = candidate.getService();
+				if (target != null) {
+					return super.doInvoke(target, invocation);
+				}
+			} finally {
+				candidate.exit();
+			}
+			// the service went away in the meantime; discard the candidate and select again
+			selector.remove(candidate.getReference());
+		}
+	}
+
 	public Object getTarget() {
 		Object target = lookupService();
 
@@ -425,9 +578,7 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 	 * handling the service reference.
 	 */
 	private Object lookupService() {
-		synchronized (lock) {
-			return retryTemplate.execute(retryCallback);
-		}
+		return lookup(retryCallback);
 	}
 
 	/**
@@ -436,8 +587,110 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 	 * @return
 	 */
 	private ServiceReference lookupServiceReference() {
+		return lookup(new ServiceReferenceLookUpCallback());
+	}
+
+	/**
+	 * Executes the given lookup callback, waiting for the service to appear unless the fail-fast mode is on.
+	 * 
+	 * @param callback lookup callback
+	 * @return lookup result
+	 */
+	private <T> T lookup(RetryCallback<T> callback) {
+		if (failFast) {
+			T result = callback.doWithRetry();
+			if (!callback.isComplete(result)) {
+				onFailFastMiss();
+			}
+			return result;
+		}
+		if (lockFreeBinding) {
+			return retryTemplate.execute(callback);
+		}
 		synchronized (lock) {
-			return retryTemplate.execute(new ServiceReferenceLookUpCallback());
+			return retryTemplate.execute(callback);
+		}
+	}
+
+	/**
+	 * Publishes the wait starting event for the first miss of an unavailability period and registers a continuation
+	 * that publishes the wait ended event once a service is bound. No thread is parked in the process.
+	 */
+	private void onFailFastMiss() {
+		final long start = System.currentTimeMillis();
+		if (failFastWaitStart.compareAndSet(0, start)) {
+			publishEvent(new OsgiServiceDependencyWaitStartingEvent(eventSource, dependency, 0));
+			getServiceAvailability().addCallback(new Runnable() {
+
+				public void run() {
+					failFastWaitStart.set(0);
+					publishEvent(new OsgiServiceDependencyWaitEndedEvent(eventSource, dependency,
+							System.currentTimeMillis() - start));
+				}
+			});
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The returned future completes once a service is bound to the proxy. All the callers of an unavailability period
+	 * share the same (non-cancellable) future.
+	 */
+	public ServiceAvailabilityFuture getServiceAvailability() {
+		if (destroyed) {
+			DefaultServiceAvailabilityFuture future = new DefaultServiceAvailabilityFuture();
+			future.fail(new ServiceProxyDestroyedException());
+			return future;
+		}
+		if (holder.get() != null) {
+			return availableFuture;
+		}
+
+		DefaultServiceAvailabilityFuture future;
+		do {
+			future = pendingAvailability.get();
+			if (future == null) {
+				DefaultServiceAvailabilityFuture created = new DefaultServiceAvailabilityFuture(false);
+				if (pendingAvailability.compareAndSet(null, created)) {
+					future = created;
+				}
+			}
+		} while (future == null);
+
+		// recheck in case the service was bound (or the proxy destroyed) in the meantime
+		if (destroyed) {
+			failAvailabilityFutures();
+		} else if (holder.get() != null) {
+			completeAvailabilityFutures();
+		}
+		return future;
+	}
+
+	private void completeAvailabilityFutures() {
+		DefaultServiceAvailabilityFuture future = pendingAvailability.getAndSet(null);
+		if (future != null) {
+			future.complete(referenceDelegate);
+		}
+	}
+
+	private void failAvailabilityFutures() {
+		DefaultServiceAvailabilityFuture future = pendingAvailability.getAndSet(null);
+		if (future != null) {
+			future.fail(new ServiceProxyDestroyedException());
+		}
+	}
+
+	/**
+	 * Wakes up the threads waiting for a service to appear.
+	 */
+	private void notifyWaiters() {
+		if (lockFreeBinding) {
+			waitQueue.signalAll();
+		} else {
+			synchronized (lock) {
+				lock.notifyAll();
+			}
 		}
 	}
 
@@ -466,7 +719,27 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 
 		if (debug)
 			log.debug("Adding OSGi mandatoryListeners for services matching [" + filter + "]");
-		OsgiListenerUtils.addSingleServiceListener(bundleContext, listener, filter);
+		if (sharedServiceListener) {
+			ServiceEventDemultiplexer.addSingleServiceListener(bundleContext, listener, filterClassName, filter);
+		} else {
+			OsgiListenerUtils.addSingleServiceListener(bundleContext, listener, filter);
+		}
+
+		// seed the candidate index and selector with the existing services (once the listener is in place, no
+		// service is missed)
+		if (candidates != null || selector != null) {
+			ServiceReference[] refs =
+					OsgiServiceReferenceUtils.getServiceReferences(bundleContext, filterClassName,
+							(filter == null ? null : filter.toString()));
+			for (int i = 0; i < refs.length; i++) {
+				if (candidates != null) {
+					candidates.add(refs[i]);
+				}
+				if (selector != null) {
+					selector.add(refs[i]);
+				}
+			}
+		}
 
 		// inform listeners (in case no service is available)
 		synchronized (lock) {
@@ -477,14 +750,19 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 	}
 
 	public void destroy() {
-		OsgiListenerUtils.removeServiceListener(bundleContext, listener);
+		if (sharedServiceListener) {
+			ServiceEventDemultiplexer.removeServiceListener(bundleContext, listener);
+		} else {
+			OsgiListenerUtils.removeServiceListener(bundleContext, listener);
+		}
 		ServiceReference ref = null;
 		synchronized (lock) {
 			// set this flag first to make sure no rebind is done
 			destroyed = true;
 			isDuringDestruction = true;
-			if (holder != null) {
-				ref = holder.getReference();
+			ReferenceHolder current = holder.get();
+			if (current != null) {
+				ref = current.getReference();
 				// send unregistration event to the listener
 				listener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, ref));
 			}
@@ -493,6 +771,17 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 			// notify also any proxies that still wait on the service
 			lock.notifyAll();
 		}
+		if (lockFreeBinding) {
+			waitQueue.signalAll();
+		}
+		failAvailabilityFutures();
+
+		if (candidates != null) {
+			candidates.clear();
+		}
+		if (selector != null) {
+			selector.clear();
+		}
 
 		// unget the service (help sorting out the bundles during shutdown)
 		if (ref != null) {
@@ -564,12 +853,52 @@ public class ServiceDynamicInterceptor extends ServiceInvoker implements Initial
 		this.sticky = sticky;
 	}
 
+	public void setSharedServiceListener(boolean sharedServiceListener) {
+		this.sharedServiceListener = sharedServiceListener;
+	}
+
+	/**
+	 * Enables the local candidate index used for rebinding. Needs to be called before the interceptor is initialized.
+	 * 
+	 * @param indexedRebind true if the index should be used, false otherwise (default)
+	 */
+	public void setIndexedRebind(boolean indexedRebind) {
+		this.candidates = (indexedRebind ? new ServiceReferenceIndex() : null);
+	}
+
+	/**
+	 * Sets the policy used for selecting the target service of each invocation. Needs to be called before the
+	 * interceptor is initialized.
+	 * 
+	 * @param policy selection policy
+	 * @param weightProperty service property used by the weighted policy (can be null for other policies)
+	 */
+	public void setSelectionPolicy(ServiceSelectionPolicy policy, String weightProperty) {
+		this.selector =
+				(policy == null || ServiceSelectionPolicy.BEST.equals(policy) ? null : new ServiceSelector(policy,
+						weightProperty, bundleContext));
+	}
+
+	/**
+	 * Sets the fail-fast mode. If enabled, invocations made while no service is available fail right away with a
+	 * {@link ServiceUnavailableException} instead of waiting for the retry timeout.
+	 * 
+	 * @param failFast true if the fail-fast mode is used, false otherwise (default)
+	 */
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+
+	public boolean isLockFreeBinding() {
+		return lockFreeBinding;
+	}
+
 	public boolean equals(Object other) {
 		if (this == other)
 			return true;
 		if (other instanceof ServiceDynamicInterceptor) {
 			ServiceDynamicInterceptor oth = (ServiceDynamicInterceptor) other;
-			return (mandatoryService == oth.mandatoryService && ObjectUtils.nullSafeEquals(holder, oth.holder)
+			return (mandatoryService == oth.mandatoryService && ObjectUtils.nullSafeEquals(holder.get(), oth.holder.get())
 					&& ObjectUtils.nullSafeEquals(filter, oth.filter) && ObjectUtils.nullSafeEquals(retryTemplate,
 					oth.retryTemplate));
 		} else
@@ -22,8 +22,11 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osgi.framework.ServiceReference;
 import org.springframework.aop.TargetSource;
-import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.osgi.service.importer.ServiceAvailabilityFuture;
+import org.springframework.osgi.service.importer.metrics.ImporterMetrics;
+import org.springframework.osgi.service.importer.metrics.MethodMetrics;
+import org.springframework.osgi.service.importer.support.internal.support.DefaultServiceAvailabilityFuture;
 
 /**
  * Around interceptor for OSGi service invokers. Uses method invocation to
@@ -37,6 +40,10 @@ import org.springframework.beans.factory.DisposableBean;
  * However, in the future, this interceptor might be replaced with a
  * TargetSource.
  * 
+ * <p/> The calls are dispatched through a {@link ServiceMethodInvoker} which
+ * resolves each method once per service class, falling back to plain
+ * reflection if needed.
+ * 
  * @author Costin Leau
  * 
  */
@@ -44,6 +51,10 @@ public abstract class ServiceInvoker implements MethodInterceptor, ServiceRefere
 
 	protected transient final Log log = LogFactory.getLog(getClass());
 
+	private final ServiceMethodInvoker methodInvoker = new ServiceMethodInvoker();
+
+	/** invocation metrics (null if disabled) */
+	private volatile ImporterMetrics invocationMetrics;
 
 	/**
 	 * Actual invocation - the class is being executed on a different object
@@ -55,7 +66,22 @@ public abstract class ServiceInvoker implements MethodInterceptor, ServiceRefere
 	 * @throws Throwable
 	 */
 	protected Object doInvoke(Object service, MethodInvocation invocation) throws Throwable {
-		return AopUtils.invokeJoinpointUsingReflection(service, invocation.getMethod(), invocation.getArguments());
+		ImporterMetrics metrics = invocationMetrics;
+		if (metrics == null) {
+			return methodInvoker.invoke(service, invocation.getMethod(), invocation.getArguments());
+		}
+
+		// measure only the service call (the wait for the target is recorded separately)
+		MethodMetrics methodMetrics = metrics.getMethodMetrics(invocation.getMethod());
+		boolean failed = true;
+		long start = System.nanoTime();
+		try {
+			Object result = methodInvoker.invoke(service, invocation.getMethod(), invocation.getArguments());
+			failed = false;
+			return result;
+		} finally {
+			methodMetrics.record(System.nanoTime() - start, failed);
+		}
 	}
 
 	public final Object invoke(MethodInvocation invocation) throws Throwable {
@@ -80,6 +106,35 @@ public abstract class ServiceInvoker implements MethodInterceptor, ServiceRefere
 		return null;
 	}
 
+	/**
+	 * Returns a future completing once the target service is available. By
+	 * default, the service is considered available and a completed future is
+	 * returned.
+	 * 
+	 * @return service availability future
+	 */
+	public ServiceAvailabilityFuture getServiceAvailability() {
+		return DefaultServiceAvailabilityFuture.available(getServiceReference());
+	}
+
+	/**
+	 * Sets the metrics recording the invocations (and the waits for the service, if any) of this invoker.
+	 * 
+	 * @param invocationMetrics importer metrics (null if disabled)
+	 */
+	public void setInvocationMetrics(ImporterMetrics invocationMetrics) {
+		this.invocationMetrics = invocationMetrics;
+	}
+
+	/**
+	 * Returns the metrics recording the invocations of this invoker.
+	 * 
+	 * @return importer metrics (null if disabled)
+	 */
+	protected ImporterMetrics getInvocationMetrics() {
+		return invocationMetrics;
+	}
+
 	// override so no exception is thrown
 	public abstract void destroy();
 }
\ No newline at end of file
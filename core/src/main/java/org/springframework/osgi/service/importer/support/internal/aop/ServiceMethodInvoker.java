@@ -0,0 +1,131 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.aop;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.aop.support.AopUtils;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Invocation engine used by {@link ServiceInvoker} for dispatching calls to the OSGi service. Each invoked method is
+ * resolved once per service implementation class into the most specific method of that class, which is made
+ * accessible and cached. Subsequent calls invoke the cached method directly, skipping the accessibility checks done by
+ * the generic reflection path on every call (and by {@link Method#invoke(Object, Object...)} for non-accessible
+ * methods).
+ * 
+ * <p/> The resolved methods are kept per service class so that proxies dispatching to several implementations (after a
+ * rebind or through a selection policy) do not evict each other. The number of cached classes is capped; once the cap
+ * is reached, the cache is cleared (which allows the classes of uninstalled bundles to be collected) and rebuilt on
+ * demand. Methods that cannot be resolved or made accessible (for example because of a security manager) fall back to
+ * {@link AopUtils#invokeJoinpointUsingReflection(Object, Method, Object[])}.
+ * 
+ * @author Costin Leau
+ */
+class ServiceMethodInvoker {
+
+	/** maximum number of service classes for which methods are cached */
+	static final int MAX_CLASSES = 8;
+
+	/** service class -> (invoked method -> resolved method) */
+	private final ConcurrentMap<Class<?>, ConcurrentMap<Method, Method>> classes =
+			new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, Method>>(4);
+
+
+	/**
+	 * Invokes the given method on the target service.
+	 * 
+	 * @param target service instance
+	 * @param method invoked (interface) method
+	 * @param args method arguments
+	 * @return invocation result
+	 * @throws Throwable the exception thrown by the target method
+	 */
+	public Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		Method targetMethod = resolve(target, method);
+
+		// unresolved methods are mapped to themselves
+		if (targetMethod == method) {
+			return AopUtils.invokeJoinpointUsingReflection(target, method, args);
+		}
+
+		try {
+			return targetMethod.invoke(target, args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getTargetException();
+		} catch (IllegalArgumentException ex) {
+			// let the reflection path report the failure
+			return AopUtils.invokeJoinpointUsingReflection(target, method, args);
+		}
+	}
+
+	private Method resolve(Object target, Method method) {
+		if (target == null) {
+			return method;
+		}
+
+		Class<?> targetClass = target.getClass();
+		ConcurrentMap<Method, Method> methods = classes.get(targetClass);
+		if (methods == null) {
+			if (classes.size() >= MAX_CLASSES) {
+				classes.clear();
+			}
+			methods = new ConcurrentHashMap<Method, Method>(8);
+			ConcurrentMap<Method, Method> existing = classes.putIfAbsent(targetClass, methods);
+			if (existing != null) {
+				methods = existing;
+			}
+		}
+
+		Method resolved = methods.get(method);
+		if (resolved == null) {
+			resolved = doResolve(targetClass, method);
+			methods.putIfAbsent(method, resolved);
+		}
+		return resolved;
+	}
+
+	private Method doResolve(Class<?> targetClass, Method method) {
+		try {
+			Method specific = ClassUtils.getMostSpecificMethod(method, targetClass);
+			// work on a private copy so that the accessibility change does not leak to other callers
+			Method copy =
+					specific.getDeclaringClass().getDeclaredMethod(specific.getName(), specific.getParameterTypes());
+			copy.setAccessible(true);
+			return copy;
+		} catch (NoSuchMethodException ex) {
+			return method;
+		} catch (RuntimeException ex) {
+			// security or linkage problems - use plain reflection
+			return method;
+		} catch (LinkageError err) {
+			return method;
+		}
+	}
+
+	/**
+	 * Returns the number of service classes with cached methods.
+	 * 
+	 * @return number of cached classes
+	 */
+	int getCachedClassCount() {
+		return classes.size();
+	}
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.aop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.springframework.osgi.service.importer.support.ServiceSelectionPolicy;
+import org.springframework.osgi.util.OsgiServiceReferenceUtils;
+import org.springframework.util.Assert;
+
+/**
+ * Selects, per invocation, the target service out of the services matching a single service importer, based on a
+ * {@link ServiceSelectionPolicy}. The candidates are kept in an immutable snapshot (ordered by ranking and service
+ * id) which is replaced on every update, so that the selection itself does not require any locking.
+ *
+ * <p/> Each service is retrieved at most once (on its first selection) and released when it is removed from the
+ * candidates, so that the usage count maintained by the framework stays balanced.
+ *
+ * <p/> Note that this class is highly tied to the behaviour of {@link ServiceDynamicInterceptor} and should not be
+ * used elsewhere.
+ *
+ * @author Costin Leau
+ */
+class ServiceSelector {
+
+	/**
+	 * Handle of a candidate service, shared by all the candidate instances created for the same service (for example
+	 * after its properties are modified). Retrieves the service lazily and releases it only if it was retrieved.
+	 */
+	private static class ServiceHandle {
+
+		private final ServiceReference reference;
+		private final BundleContext bundleContext;
+		private volatile Object service;
+		/** guarded by this */
+		private boolean released;
+
+		ServiceHandle(ServiceReference reference, BundleContext bundleContext) {
+			this.reference = reference;
+			this.bundleContext = bundleContext;
+		}
+
+		Object getService() {
+			Object target = service;
+			if (target != null) {
+				return target;
+			}
+			synchronized (this) {
+				if (service == null && !released) {
+					service = bundleContext.getService(reference);
+				}
+				return service;
+			}
+		}
+
+		void release() {
+			synchronized (this) {
+				if (released) {
+					return;
+				}
+				released = true;
+				if (service == null) {
+					return;
+				}
+				service = null;
+			}
+			try {
+				bundleContext.ungetService(reference);
+			} catch (IllegalStateException ex) {
+				// the importing bundle is no longer valid
+			}
+		}
+	}
+
+	/**
+	 * Selection candidate.
+	 */
+	static class Candidate {
+
+		private final ServiceHandle handle;
+		private final long id;
+		private final int ranking;
+		private final int weight;
+		private final AtomicInteger inFlight;
+
+		Candidate(ServiceHandle handle, int weight, AtomicInteger inFlight) {
+			this.handle = handle;
+			this.id = OsgiServiceReferenceUtils.getServiceId(handle.reference);
+			this.ranking = OsgiServiceReferenceUtils.getServiceRanking(handle.reference);
+			this.weight = weight;
+			this.inFlight = inFlight;
+		}
+
+		Object getService() {
+			return handle.getService();
+		}
+
+		ServiceReference getReference() {
+			return handle.reference;
+		}
+
+		void enter() {
+			inFlight.incrementAndGet();
+		}
+
+		void exit() {
+			inFlight.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Immutable view of the candidates.
+	 */
+	private static class Snapshot {
+
+		private final Candidate[] candidates;
+		/** cumulative weights (used only by the weighted policy) */
+		private final int[] cumulativeWeights;
+		private final int totalWeight;
+
+		Snapshot(Candidate[] candidates) {
+			this.candidates = candidates;
+			this.cumulativeWeights = new int[candidates.length];
+
+			long sum = 0;
+			for (int i = 0; i < candidates.length; i++) {
+				sum += candidates[i].weight;
+			}
+			// scale the weights down (keeping the positive ones positive) if their sum does not fit into an int
+			long divisor = (sum > Integer.MAX_VALUE ? sum / (Integer.MAX_VALUE / 2) + 1 : 1);
+
+			int total = 0;
+			for (int i = 0; i < candidates.length; i++) {
+				int weight = candidates[i].weight;
+				if (weight > 0 && divisor > 1) {
+					weight = (int) Math.max(1, weight / divisor);
+				}
+				total += weight;
+				cumulativeWeights[i] = total;
+			}
+			this.totalWeight = total;
+		}
+	}
+
+	/** orders the candidates by ranking (highest first) and id (lowest first) */
+	private static final Comparator<Candidate> CANDIDATE_ORDER = new Comparator<Candidate>() {
+
+		public int compare(Candidate o1, Candidate o2) {
+			int r1 = o1.ranking, r2 = o2.ranking;
+			if (r1 != r2) {
+				return (r1 > r2 ? -1 : 1);
+			}
+			long id1 = o1.id, id2 = o2.id;
+			return (id1 < id2 ? -1 : (id1 == id2 ? 0 : 1));
+		}
+	};
+
+	private static final Snapshot EMPTY = new Snapshot(new Candidate[0]);
+
+	private static final int DEFAULT_WEIGHT = 1;
+
+	private final ServiceSelectionPolicy policy;
+
+	private final String weightProperty;
+
+	private final BundleContext bundleContext;
+
+	private final AtomicInteger counter = new AtomicInteger();
+
+	/** written only under the instance lock */
+	private volatile Snapshot snapshot = EMPTY;
+
+	ServiceSelector(ServiceSelectionPolicy policy, String weightProperty, BundleContext bundleContext) {
+		Assert.notNull(policy);
+		Assert.isTrue(!ServiceSelectionPolicy.BEST.equals(policy), "the best policy does not require a selector");
+		Assert.isTrue(!ServiceSelectionPolicy.WEIGHTED.equals(policy) || weightProperty != null,
+				"the weighted policy requires a weight property");
+		this.policy = policy;
+		this.weightProperty = weightProperty;
+		this.bundleContext = bundleContext;
+	}
+
+	/**
+	 * Adds the given reference to the candidates or updates the existing entry (for example, after the service
+	 * properties have been modified). An updated entry keeps using the already retrieved service.
+	 *
+	 * @param reference service reference
+	 */
+	synchronized void add(ServiceReference reference) {
+		long id = OsgiServiceReferenceUtils.getServiceId(reference);
+		List<Candidate> list = copyWithout(id);
+
+		Candidate old = find(id);
+		ServiceHandle handle = (old != null ? old.handle : new ServiceHandle(reference, bundleContext));
+		AtomicInteger inFlight = (old != null ? old.inFlight : new AtomicInteger());
+		list.add(new Candidate(handle, getWeight(reference), inFlight));
+		Collections.sort(list, CANDIDATE_ORDER);
+
+		snapshot = new Snapshot(list.toArray(new Candidate[list.size()]));
+	}
+
+	/**
+	 * Removes the given reference from the candidates, releasing its service.
+	 *
+	 * @param reference service reference
+	 */
+	void remove(ServiceReference reference) {
+		long id = OsgiServiceReferenceUtils.getServiceId(reference);
+		Candidate old;
+		synchronized (this) {
+			old = find(id);
+			if (old == null) {
+				return;
+			}
+			List<Candidate> list = copyWithout(id);
+			snapshot = (list.isEmpty() ? EMPTY : new Snapshot(list.toArray(new Candidate[list.size()])));
+		}
+		old.handle.release();
+	}
+
+	/**
+	 * Removes all the candidates, releasing their services.
+	 */
+	void clear() {
+		Candidate[] candidates;
+		synchronized (this) {
+			candidates = snapshot.candidates;
+			snapshot = EMPTY;
+		}
+		for (int i = 0; i < candidates.length; i++) {
+			candidates[i].handle.release();
+		}
+	}
+
+	int size() {
+		return snapshot.candidates.length;
+	}
+
+	/**
+	 * Selects a candidate according to the policy.
+	 *
+	 * @return selected candidate or null if there are no candidates
+	 */
+	Candidate select() {
+		Snapshot current = snapshot;
+		Candidate[] candidates = current.candidates;
+		int length = candidates.length;
+
+		if (length == 0) {
+			return null;
+		}
+		if (length == 1) {
+			return candidates[0];
+		}
+
+		int next = counter.getAndIncrement() & Integer.MAX_VALUE;
+
+		switch (policy) {
+		case LEAST_IN_FLIGHT: {
+			// start from a rotating offset so that ties are spread across candidates
+			Candidate selected = null;
+			int min = Integer.MAX_VALUE;
+			for (int i = 0; i < length; i++) {
+				Candidate candidate = candidates[(next + i) % length];
+				int inFlight = candidate.inFlight.get();
+				if (inFlight < min) {
+					min = inFlight;
+					selected = candidate;
+				}
+			}
+			return selected;
+		}
+		case WEIGHTED: {
+			if (current.totalWeight > 0) {
+				int point = next % current.totalWeight;
+				// binary search for the first cumulative weight greater than the point
+				int low = 0, high = length - 1;
+				while (low < high) {
+					int mid = (low + high) >>> 1;
+					if (current.cumulativeWeights[mid] > point) {
+						high = mid;
+					} else {
+						low = mid + 1;
+					}
+				}
+				return candidates[low];
+			}
+			// no positive weights - fall back to round-robin
+			return candidates[next % length];
+		}
+		default:
+			return candidates[next % length];
+		}
+	}
+
+	private Candidate find(long id) {
+		Candidate[] candidates = snapshot.candidates;
+		for (int i = 0; i < candidates.length; i++) {
+			if (candidates[i].id == id) {
+				return candidates[i];
+			}
+		}
+		return null;
+	}
+
+	private List<Candidate> copyWithout(long id) {
+		Candidate[] candidates = snapshot.candidates;
+		List<Candidate> list = new ArrayList<Candidate>(candidates.length + 1);
+		for (int i = 0; i < candidates.length; i++) {
+			if (candidates[i].id != id) {
+				list.add(candidates[i]);
+			}
+		}
+		return list;
+	}
+
+	private int getWeight(ServiceReference reference) {
+		if (weightProperty == null) {
+			return DEFAULT_WEIGHT;
+		}
+
+		Object value = reference.getProperty(weightProperty);
+		int weight = DEFAULT_WEIGHT;
+
+		if (value instanceof Number) {
+			weight = ((Number) value).intValue();
+		} else if (value instanceof String) {
+			try {
+				weight = Integer.parseInt(((String) value).trim());
+			} catch (NumberFormatException ex) {
+				// use the default
+			}
+		}
+		return (weight < 0 ? 0 : weight);
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.collection;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Indexed list storing its elements in a sequence of fixed capacity blocks.
+ * Positional insertions and removals shift at most one block (plus the
+ * offsets of the following blocks) instead of the entire content, which
+ * makes them considerably cheaper than in an <code>ArrayList</code> for large
+ * sizes. Positional access locates the block through a binary search on the
+ * block offsets. For small sizes (a single block), the list behaves like an
+ * array.
+ * 
+ * <p/> Used as storage for the sorted dynamic collections which insert and
+ * remove elements at arbitrary positions. This class is not thread-safe.
+ * 
+ * @author Costin Leau
+ * 
+ */
+public class BlockList<E> extends AbstractList<E> implements RandomAccess {
+
+	private static final int DEFAULT_BLOCK_SIZE = 64;
+
+	private final int blockSize;
+
+	/** blocks (only the first blockCount are used) */
+	private Object[][] blocks;
+
+	/** number of elements inside each block */
+	private int[] counts;
+
+	/** index of the first element of each block */
+	private int[] offsets;
+
+	private int blockCount;
+
+	private int size;
+
+
+	public BlockList() {
+		this(DEFAULT_BLOCK_SIZE);
+	}
+
+	public BlockList(int blockSize) {
+		if (blockSize < 2)
+			throw new IllegalArgumentException("invalid block size " + blockSize);
+		this.blockSize = blockSize;
+		init();
+	}
+
+	private void init() {
+		blocks = new Object[4][];
+		counts = new int[4];
+		offsets = new int[4];
+		blockCount = 0;
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		checkIndex(index, size);
+		int block = blockFor(index);
+		return (E) blocks[block][index - offsets[block]];
+	}
+
+	@SuppressWarnings("unchecked")
+	public E set(int index, E element) {
+		checkIndex(index, size);
+		int block = blockFor(index);
+		int position = index - offsets[block];
+		E old = (E) blocks[block][position];
+		blocks[block][position] = element;
+		return old;
+	}
+
+	public void add(int index, E element) {
+		checkIndex(index, size + 1);
+
+		int block;
+		if (blockCount == 0) {
+			insertBlock(0, new Object[blockSize], 0, 0);
+			block = 0;
+		}
+		// append to the last block
+		else if (index == size)
+			block = blockCount - 1;
+		else
+			block = blockFor(index);
+
+		int position = index - offsets[block];
+
+		// split the full block in two
+		if (counts[block] == blockSize) {
+			int half = blockSize / 2;
+			Object[] upper = new Object[blockSize];
+			System.arraycopy(blocks[block], half, upper, 0, blockSize - half);
+			for (int i = half; i < blockSize; i++) {
+				blocks[block][i] = null;
+			}
+			counts[block] = half;
+			insertBlock(block + 1, upper, blockSize - half, offsets[block] + half);
+
+			if (position > half) {
+				block++;
+				position -= half;
+			}
+		}
+
+		Object[] array = blocks[block];
+		System.arraycopy(array, position, array, position + 1, counts[block] - position);
+		array[position] = element;
+		counts[block]++;
+		shiftOffsets(block + 1, 1);
+		size++;
+		modCount++;
+	}
+
+	@SuppressWarnings("unchecked")
+	public E remove(int index) {
+		checkIndex(index, size);
+		int block = blockFor(index);
+		int position = index - offsets[block];
+
+		Object[] array = blocks[block];
+		E old = (E) array[position];
+		int moved = counts[block] - position - 1;
+		System.arraycopy(array, position + 1, array, position, moved);
+		array[--counts[block]] = null;
+		shiftOffsets(block + 1, -1);
+		size--;
+		modCount++;
+
+		if (counts[block] == 0)
+			removeBlock(block);
+		// merge small neighbours to keep the number of blocks low
+		else if (block + 1 < blockCount && counts[block] + counts[block + 1] <= blockSize / 2)
+			mergeWithNext(block);
+		else if (block > 0 && counts[block - 1] + counts[block] <= blockSize / 2)
+			mergeWithNext(block - 1);
+
+		return old;
+	}
+
+	public void clear() {
+		init();
+		modCount++;
+	}
+
+	public Object[] toArray() {
+		Object[] result = new Object[size];
+		for (int i = 0; i < blockCount; i++) {
+			System.arraycopy(blocks[i], 0, result, offsets[i], counts[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the block containing the given (valid) index.
+	 */
+	private int blockFor(int index) {
+		int low = 0;
+		int high = blockCount - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (offsets[mid] <= index)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	private void insertBlock(int block, Object[] array, int count, int offset) {
+		if (blockCount == blocks.length) {
+			int capacity = blocks.length * 2;
+			Object[][] newBlocks = new Object[capacity][];
+			int[] newCounts = new int[capacity];
+			int[] newOffsets = new int[capacity];
+			System.arraycopy(blocks, 0, newBlocks, 0, blockCount);
+			System.arraycopy(counts, 0, newCounts, 0, blockCount);
+			System.arraycopy(offsets, 0, newOffsets, 0, blockCount);
+			blocks = newBlocks;
+			counts = newCounts;
+			offsets = newOffsets;
+		}
+		int moved = blockCount - block;
+		System.arraycopy(blocks, block, blocks, block + 1, moved);
+		System.arraycopy(counts, block, counts, block + 1, moved);
+		System.arraycopy(offsets, block, offsets, block + 1, moved);
+		blocks[block] = array;
+		counts[block] = count;
+		offsets[block] = offset;
+		blockCount++;
+	}
+
+	private void removeBlock(int block) {
+		int moved = blockCount - block - 1;
+		System.arraycopy(blocks, block + 1, blocks, block, moved);
+		System.arraycopy(counts, block + 1, counts, block, moved);
+		System.arraycopy(offsets, block + 1, offsets, block, moved);
+		blockCount--;
+		blocks[blockCount] = null;
+	}
+
+	private void mergeWithNext(int block) {
+		System.arraycopy(blocks[block + 1], 0, blocks[block], counts[block], counts[block + 1]);
+		counts[block] += counts[block + 1];
+		removeBlock(block + 1);
+	}
+
+	private void shiftOffsets(int fromBlock, int delta) {
+		for (int i = fromBlock; i < blockCount; i++) {
+			offsets[i] += delta;
+		}
+	}
+
+	private void checkIndex(int index, int bound) {
+		if (index < 0 || index >= bound)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+}
@@ -15,6 +15,12 @@
  */
 package org.springframework.osgi.service.importer.support.internal.collection;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+
+import org.springframework.osgi.service.importer.support.FanOutResult;
+import org.springframework.osgi.service.importer.support.SplittableIterator;
+
 /**
  * Interface exposed by proxies, generated by OSGi service importers, used internally by the framework.
  * 
@@ -32,4 +38,24 @@ public interface CollectionProxy {
 	 * @return
 	 */
 	boolean isSatisfied();
+
+	/**
+	 * Invokes the given method, in parallel, on all the current members of the collection. The members are determined
+	 * when the method is called; members that leave the collection before or during their invocation are reported as
+	 * unavailable.
+	 * 
+	 * @param method method to invoke
+	 * @param args method arguments
+	 * @param executor executor used for the invocations
+	 * @param timeout maximum time (in milliseconds) to wait for each member; 0 means no limit
+	 * @return aggregated results
+	 */
+	FanOutResult invokeAll(Method method, Object[] args, Executor executor, long timeout);
+
+	/**
+	 * Returns a sized, splittable iterator over a snapshot of the current collection members.
+	 * 
+	 * @return splittable iterator
+	 */
+	SplittableIterator<Object> splittableIterator();
 }
@@ -18,8 +18,11 @@ package org.springframework.osgi.service.importer.support.internal.collection;
 
 import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -36,6 +39,20 @@ import java.util.WeakHashMap;
  * writing thread at a point in time. There are no restrains on the number of
  * readers.
  * 
+ * <p/> In <em>snapshot</em> storage mode, the content is published as an
+ * immutable snapshot (an array) along with an epoch counter. Modifications
+ * only mark the snapshot as stale; it is rebuilt (once) by the first read
+ * or iteration that follows. Read operations and iterators work on the
+ * snapshots without taking any lock (except for the rebuild) and without
+ * being tracked (and updated) by the writers. The iterators are
+ * still consistent and follow the <em>snapshot-plus-tail</em> rule: an
+ * iterator returns all the elements of the snapshot available at its creation
+ * (even if some have been removed in the meantime) followed by the elements
+ * added after its snapshot was taken that are still present once the
+ * iteration reaches its end (the tail); the tail is checked repeatedly until
+ * no newer elements are found. This mode trades copying on each (rare)
+ * modification for lock-free reads.
+ * 
  * @author Costin Leau
  * 
  */
@@ -214,6 +231,101 @@ public class DynamicCollection<E> extends AbstractCollection<E> {
 	}
 
 
+	/**
+	 * Lock-free iterator used in snapshot storage mode. Not thread-safe with
+	 * respect to iteration (just like {@link DynamicIterator}).
+	 */
+	protected class SnapshotIterator implements Iterator<E> {
+
+		private Object[] elements;
+
+		private int cursor = 0;
+
+		/** epoch covered so far - newer elements form the tail */
+		private long epoch;
+
+		private Object last;
+
+		private boolean removalAllowed = false;
+
+
+		protected SnapshotIterator() {
+			Snapshot current = currentSnapshot();
+			this.elements = current.elements;
+			this.epoch = current.epoch;
+		}
+
+		public boolean hasNext() {
+			while (cursor >= elements.length) {
+				if (!advanceToTail())
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Moves the iterator to the elements added after the last seen
+		 * snapshot.
+		 * 
+		 * @return true if there are new elements, false otherwise
+		 */
+		private boolean advanceToTail() {
+			Snapshot current = currentSnapshot();
+			if (current.epoch == epoch)
+				return false;
+
+			List<Object> tail = new ArrayList<Object>();
+			for (int i = 0; i < current.elements.length; i++) {
+				if (current.sequences[i] > epoch) {
+					tail.add(current.elements[i]);
+				}
+			}
+			epoch = current.epoch;
+			elements = tail.toArray();
+			cursor = 0;
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		public E next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			removalAllowed = true;
+			last = elements[cursor++];
+			return (E) last;
+		}
+
+		public void remove() {
+			if (!removalAllowed)
+				throw new IllegalStateException();
+			removalAllowed = false;
+			DynamicCollection.this.remove(last);
+		}
+	}
+
+	/**
+	 * Immutable content snapshot. Each element carries the sequence (epoch) at
+	 * which it was added.
+	 */
+	private static class Snapshot {
+
+		private static final Snapshot EMPTY = new Snapshot(new Object[0], new long[0], 0);
+
+		private final Object[] elements;
+
+		private final long[] sequences;
+
+		private final long epoch;
+
+
+		private Snapshot(Object[] elements, long[] sequences, long epoch) {
+			this.elements = elements;
+			this.sequences = sequences;
+			this.epoch = epoch;
+		}
+	}
+
+
 	/** Lock used by operations that require iterator updates (such as removal) */
 	/**
 	 * If it interacts with the storage, the *storage* lock needs to be acquired
@@ -232,14 +344,46 @@ public class DynamicCollection<E> extends AbstractCollection<E> {
 	 */
 	protected final Map<DynamicIterator, Object> iterators;
 
+	/** snapshot storage mode flag */
+	protected final boolean snapshotStorage;
+
+	/** latest content snapshot (used only in snapshot mode) - written under the storage lock */
+	private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+	/** whether the storage has been modified since the last snapshot - written under the storage lock */
+	private volatile boolean snapshotStale = false;
+
 
 	public DynamicCollection() {
 		this(16);
 	}
 
 	public DynamicCollection(int size) {
-		storage = new ArrayList<E>(size);
+		this(size, false);
+	}
+
+	/**
+	 * Constructs a new <code>DynamicCollection</code> instance.
+	 * 
+	 * @param size initial size
+	 * @param snapshotStorage whether the snapshot storage mode is used
+	 */
+	public DynamicCollection(int size, boolean snapshotStorage) {
+		this(new ArrayList<E>(size), snapshotStorage);
+	}
+
+	/**
+	 * Constructs a new <code>DynamicCollection</code> instance backed by the
+	 * given (empty) list. Used by subclasses that require a specialized
+	 * storage.
+	 * 
+	 * @param storage backing list
+	 * @param snapshotStorage whether the snapshot storage mode is used
+	 */
+	protected DynamicCollection(List<E> storage, boolean snapshotStorage) {
+		this.storage = storage;
 		iterators = new WeakHashMap<DynamicIterator, Object>(4);
+		this.snapshotStorage = snapshotStorage;
 	}
 
 	public DynamicCollection(Collection<? extends E> c) {
@@ -248,6 +392,10 @@ public class DynamicCollection<E> extends AbstractCollection<E> {
 	}
 
 	public Iterator<E> iterator() {
+		if (snapshotStorage) {
+			return new SnapshotIterator();
+		}
+
 		DynamicIterator iter = new DynamicIterator();
 
 		synchronized (iteratorsLock) {
@@ -260,10 +408,14 @@ public class DynamicCollection<E> extends AbstractCollection<E> {
 	public void clear() {
 		synchronized (storage) {
 			storage.clear();
+			storageChanged();
 		}
 	}
 
 	public int size() {
+		if (snapshotStorage) {
+			return currentSnapshot().elements.length;
+		}
 		synchronized (storage) {
 			return storage.size();
 		}
@@ -271,29 +423,42 @@ public class DynamicCollection<E> extends AbstractCollection<E> {
 
 	public boolean add(E o) {
 		synchronized (storage) {
-			return storage.add(o);
+			boolean result = storage.add(o);
+			storageChanged();
+			return result;
 		}
 	}
 
 	public boolean addAll(Collection<? extends E> c) {
 		synchronized (storage) {
-			return storage.addAll(c);
+			boolean result = storage.addAll(c);
+			storageChanged();
+			return result;
 		}
 	}
 
 	public boolean contains(Object o) {
+		if (snapshotStorage) {
+			return snapshotIndexOf(o) >= 0;
+		}
 		synchronized (storage) {
-			return storage.contains(o);
+			return storageIndexOf(o) >= 0;
 		}
 	}
 
 	public boolean containsAll(Collection<?> c) {
+		if (snapshotStorage) {
+			return getSnapshot().containsAll(c);
+		}
 		synchronized (storage) {
 			return storage.containsAll(c);
 		}
 	}
 
 	public boolean isEmpty() {
+		if (snapshotStorage) {
+			return currentSnapshot().elements.length == 0;
+		}
 		synchronized (storage) {
 			return storage.isEmpty();
 		}
@@ -301,7 +466,7 @@ public class DynamicCollection<E> extends AbstractCollection<E> {
 
 	public boolean remove(Object o) {
 		synchronized (storage) {
-			int index = storage.indexOf(o);
+			int index = storageIndexOf(o);
 
 			if (index == -1)
 				return false;
@@ -324,6 +489,7 @@ public class DynamicCollection<E> extends AbstractCollection<E> {
 
 				// update storage
 				o = storage.remove(index);
+				storageChanged();
 
 				// update iterators
 				for (Iterator<Map.Entry<DynamicIterator, Object>> iter = iterators.entrySet().iterator(); iter.hasNext();) {
@@ -358,6 +524,7 @@ public class DynamicCollection<E> extends AbstractCollection<E> {
 			synchronized (iteratorsLock) {
 				// update storage
 				storage.add(index, o);
+				storageChanged();
 
 				for (Iterator<Map.Entry<DynamicIterator, Object>> iter = iterators.entrySet().iterator(); iter.hasNext();) {
 					Map.Entry<DynamicIterator, Object> entry = iter.next();
@@ -373,6 +540,9 @@ public class DynamicCollection<E> extends AbstractCollection<E> {
 	}
 
 	public Object[] toArray() {
+		if (snapshotStorage) {
+			return currentSnapshot().elements.clone();
+		}
 		synchronized (storage) {
 			return storage.toArray();
 		}
@@ -381,17 +551,109 @@ public class DynamicCollection<E> extends AbstractCollection<E> {
 	@Override
 	@SuppressWarnings("unchecked")
 	public <T> T[] toArray(T[] a) {
+		if (snapshotStorage) {
+			return (T[]) currentSnapshot().elements.clone();
+		}
 		synchronized (storage) {
 			return storage.toArray((T[]) new Object[storage.size()]);
 		}
 	}
 
 	public String toString() {
+		if (snapshotStorage) {
+			return getSnapshot().toString();
+		}
 		synchronized (storage) {
 			return storage.toString();
 		}
 	}
 
+	/**
+	 * Notifies the collection that its storage has been modified. Needs to be
+	 * called (while holding the storage lock) by any operation that modifies the
+	 * storage directly. In snapshot mode, marks the current snapshot as stale
+	 * (it is rebuilt on the next read); otherwise does nothing.
+	 */
+	protected void storageChanged() {
+		if (snapshotStorage)
+			snapshotStale = true;
+	}
+
+	/**
+	 * Returns the current snapshot, rebuilding it first if the storage has
+	 * been modified since it was published.
+	 * 
+	 * @return up to date snapshot
+	 */
+	private Snapshot currentSnapshot() {
+		if (snapshotStale) {
+			synchronized (storage) {
+				if (snapshotStale) {
+					snapshot = buildSnapshot();
+					snapshotStale = false;
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Builds a new snapshot out of the storage content. Needs to be called
+	 * while holding the storage lock.
+	 * 
+	 * @return new snapshot
+	 */
+	private Snapshot buildSnapshot() {
+		Snapshot previous = snapshot;
+		long epoch = previous.epoch;
+
+		// keep the sequence of the elements already published (matched by identity)
+		Map<Object, LinkedList<Long>> published = new IdentityHashMap<Object, LinkedList<Long>>(
+			previous.elements.length * 2);
+		for (int i = 0; i < previous.elements.length; i++) {
+			LinkedList<Long> sequences = published.get(previous.elements[i]);
+			if (sequences == null) {
+				sequences = new LinkedList<Long>();
+				published.put(previous.elements[i], sequences);
+			}
+			sequences.add(Long.valueOf(previous.sequences[i]));
+		}
+
+		Object[] elements = storage.toArray();
+		long[] sequences = new long[elements.length];
+		for (int i = 0; i < elements.length; i++) {
+			LinkedList<Long> existing = published.get(elements[i]);
+			sequences[i] = (existing != null && !existing.isEmpty() ? existing.removeFirst().longValue() : ++epoch);
+		}
+
+		// advance the epoch even for removals so that it identifies the snapshot
+		if (epoch == previous.epoch)
+			epoch++;
+
+		return new Snapshot(elements, sequences, epoch);
+	}
+
+	/**
+	 * Returns a read-only view of the current snapshot (snapshot mode only).
+	 * 
+	 * @return snapshot content
+	 */
+	@SuppressWarnings("unchecked")
+	protected List<E> getSnapshot() {
+		return (List<E>) Arrays.asList(currentSnapshot().elements);
+	}
+
+	/**
+	 * Returns the index of the given object inside the current snapshot
+	 * (snapshot mode only).
+	 * 
+	 * @param o searched object
+	 * @return object index or -1 if not found
+	 */
+	protected int snapshotIndexOf(Object o) {
+		return getSnapshot().indexOf(o);
+	}
+
 	/**
 	 * Hook used by wrapping collections to determine the position of the object
 	 * being removed while iterating.
@@ -400,8 +662,23 @@ public class DynamicCollection<E> extends AbstractCollection<E> {
 	 * @return
 	 */
 	protected int indexOf(Object o) {
+		if (snapshotStorage) {
+			return snapshotIndexOf(o);
+		}
 		synchronized (storage) {
-			return storage.indexOf(o);
+			return storageIndexOf(o);
 		}
 	}
+
+	/**
+	 * Returns the index of the given object inside the storage. Needs to be
+	 * called while holding the storage lock. Subclasses can override this
+	 * method to speed up the search based on their element ordering.
+	 * 
+	 * @param o searched object
+	 * @return object index or -1 if not found
+	 */
+	protected int storageIndexOf(Object o) {
+		return storage.indexOf(o);
+	}
 }
\ No newline at end of file
@@ -17,6 +17,7 @@
 package org.springframework.osgi.service.importer.support.internal.collection;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.NoSuchElementException;
@@ -175,6 +176,7 @@ public class DynamicList<E> extends DynamicCollection<E> implements List<E>, Ran
 						}
 					}
 					storage.set(index, o);
+					storageChanged();
 				}
 			}
 		}
@@ -210,29 +212,48 @@ public class DynamicList<E> extends DynamicCollection<E> implements List<E>, Ran
 		super(size);
 	}
 
+	public DynamicList(int size, boolean snapshotStorage) {
+		super(size, snapshotStorage);
+	}
+
+	protected DynamicList(List<E> storage, boolean snapshotStorage) {
+		super(storage, snapshotStorage);
+	}
+
 	public void add(int index, E o) {
 		super.add(index, o);
 	}
 
 	public boolean addAll(int index, Collection<? extends E> c) {
 		synchronized (storage) {
-			return storage.addAll(index, c);
+			boolean result = storage.addAll(index, c);
+			storageChanged();
+			return result;
 		}
 	}
 
 	public E get(int index) {
+		if (snapshotStorage) {
+			return getSnapshot().get(index);
+		}
 		synchronized (storage) {
 			return storage.get(index);
 		}
 	}
 
 	public int indexOf(Object o) {
+		if (snapshotStorage) {
+			return snapshotIndexOf(o);
+		}
 		synchronized (storage) {
-			return storage.indexOf(o);
+			return storageIndexOf(o);
 		}
 	}
 
 	public int lastIndexOf(Object o) {
+		if (snapshotStorage) {
+			return getSnapshot().lastIndexOf(o);
+		}
 		synchronized (storage) {
 			return storage.lastIndexOf(o);
 		}
@@ -258,13 +279,19 @@ public class DynamicList<E> extends DynamicCollection<E> implements List<E>, Ran
 
 	public E set(int index, E o) {
 		synchronized (storage) {
-			return storage.set(index, o);
+			E result = storage.set(index, o);
+			storageChanged();
+			return result;
 		}
 	}
 
 	// TODO: test behavior to see if the returned list properly behaves under
 	// dynamic circumstances
 	public List<E> subList(int fromIndex, int toIndex) {
+		// in snapshot mode, return a (read-only) view of the current content
+		if (snapshotStorage) {
+			return Collections.unmodifiableList(getSnapshot().subList(fromIndex, toIndex));
+		}
 		synchronized (storage) {
 			return storage.subList(fromIndex, toIndex);
 		}
@@ -18,6 +18,7 @@ package org.springframework.osgi.service.importer.support.internal.collection;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -42,11 +43,20 @@ public class DynamicSet<E> extends DynamicCollection<E> implements Set<E> {
 		super(size);
 	}
 
+	public DynamicSet(int size, boolean snapshotStorage) {
+		super(size, snapshotStorage);
+	}
+
+	protected DynamicSet(List<E> storage, boolean snapshotStorage) {
+		super(storage, snapshotStorage);
+	}
+
 	public boolean add(E o) {
 		synchronized (storage) {
 			if (storage.contains(o))
 				return false;
 			storage.add(o);
+			storageChanged();
 		}
 		return true;
 	}
@@ -17,7 +17,6 @@
 package org.springframework.osgi.service.importer.support.internal.collection;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 
 import org.springframework.util.Assert;
@@ -39,24 +38,25 @@ public class DynamicSortedList<E> extends DynamicList<E> {
 	}
 
 	public DynamicSortedList(Comparator<? super E> c) {
-		super();
-		this.comparator = c;
+		this(c, false);
+	}
 
+	public DynamicSortedList(Comparator<? super E> c, boolean snapshotStorage) {
+		super(new BlockList<E>(), snapshotStorage);
+		this.comparator = c;
 	}
 
 	public DynamicSortedList(Collection<? extends E> c) {
-		this.comparator = null;
+		this((Comparator<? super E>) null);
 		addAll(c);
 	}
 
 	public DynamicSortedList(int size) {
-		super(size);
-		this.comparator = null;
+		this((Comparator<? super E>) null);
 	}
 
 	// this is very similar but not identical from DynamicSortedSet
 	// the main difference is that duplicates are accepted
-	@SuppressWarnings("unchecked")
 	public boolean add(E o) {
 		Assert.notNull(o);
 
@@ -64,42 +64,22 @@ public class DynamicSortedList<E> extends DynamicList<E> {
 			throw new ClassCastException("given object does not implement " + Comparable.class.getName()
 					+ " and no Comparator is set on the collection");
 
-		int index = 0;
-
 		synchronized (storage) {
-			index = Collections.binarySearch(storage, o, comparator);
-			// duplicate found; it's okay since it's a list
-			boolean duplicate = (index >= 0);
-
-			// however, make sure we add the element at the end of the
-			// duplicates
-			if (duplicate) {
-				boolean stillEqual = true;
-				while (index + 1 < storage.size() && stillEqual) {
-
-					stillEqual = false;
-					E next = storage.get(index + 1);
-
-					if ((comparator != null ? comparator.compare(o, next) == 0
-							: ((Comparable<E>) o).compareTo(next) == 0)) {
-						stillEqual = true;
-						index++;
-					}
-				}
-			}
-
-			// translate index
-			else
-				index = -index - 1;
-
-			if (duplicate)
-				super.add(index + 1, o);
-			else
-				super.add(index, o);
+			// duplicates are okay since it's a list however, make sure we add
+			// the element at the end of them
+			super.add(SortedSearch.upperBound(storage, o, comparator), o);
 		}
 		return true;
 	}
 
+	protected int storageIndexOf(Object o) {
+		return SortedSearch.indexOf(storage, o, comparator);
+	}
+
+	protected int snapshotIndexOf(Object o) {
+		return SortedSearch.indexOf(getSnapshot(), o, comparator);
+	}
+
 	//
 	// DISABLED OPERATIONS
 	// 
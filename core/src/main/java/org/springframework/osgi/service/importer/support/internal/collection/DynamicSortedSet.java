@@ -19,6 +19,7 @@ package org.springframework.osgi.service.importer.support.internal.collection;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.SortedSet;
 
@@ -41,23 +42,26 @@ public class DynamicSortedSet<E> extends DynamicSet<E> implements SortedSet<E> {
 	}
 
 	public DynamicSortedSet(Collection<? extends E> c) {
-		comparator = null;
+		this((Comparator<? super E>) null);
 		addAll(c);
 	}
 
 	public DynamicSortedSet(int size) {
-		super(size);
-		comparator = null;
+		this((Comparator<? super E>) null);
 	}
 
 	public DynamicSortedSet(SortedSet<E> ss) {
-		this.comparator = ss.comparator();
+		this(ss.comparator());
 		addAll(ss);
 	}
 
 	public DynamicSortedSet(Comparator<? super E> c) {
-		this.comparator = c;
+		this(c, false);
+	}
 
+	public DynamicSortedSet(Comparator<? super E> c, boolean snapshotStorage) {
+		super(new BlockList<E>(), snapshotStorage);
+		this.comparator = c;
 	}
 
 	public Comparator<? super E> comparator() {
@@ -93,7 +97,21 @@ public class DynamicSortedSet<E> extends DynamicSet<E> implements SortedSet<E> {
 		return super.remove(o);
 	}
 
+	protected int storageIndexOf(Object o) {
+		return SortedSearch.indexOf(storage, o, comparator);
+	}
+
+	protected int snapshotIndexOf(Object o) {
+		return SortedSearch.indexOf(getSnapshot(), o, comparator);
+	}
+
 	public E first() {
+		if (snapshotStorage) {
+			List<E> snapshot = getSnapshot();
+			if (snapshot.isEmpty())
+				throw new NoSuchElementException();
+			return snapshot.get(0);
+		}
 		synchronized (storage) {
 			if (storage.isEmpty())
 				throw new NoSuchElementException();
@@ -107,6 +125,12 @@ public class DynamicSortedSet<E> extends DynamicSet<E> implements SortedSet<E> {
 	}
 
 	public E last() {
+		if (snapshotStorage) {
+			List<E> snapshot = getSnapshot();
+			if (snapshot.isEmpty())
+				throw new NoSuchElementException();
+			return snapshot.get(snapshot.size() - 1);
+		}
 		synchronized (storage) {
 			if (storage.isEmpty())
 				throw new NoSuchElementException();
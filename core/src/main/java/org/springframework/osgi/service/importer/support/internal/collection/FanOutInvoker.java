@@ -0,0 +1,205 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.collection;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.aop.support.AopUtils;
+import org.springframework.osgi.service.ServiceUnavailableException;
+import org.springframework.osgi.service.importer.support.FanOutResult;
+import org.springframework.osgi.service.importer.support.FanOutResult.MemberResult;
+import org.springframework.osgi.service.importer.support.FanOutResult.Outcome;
+import org.springframework.util.Assert;
+
+/**
+ * Invokes a method on a snapshot of the members of a service collection, in parallel, and aggregates the outcomes.
+ * Members that are no longer part of the collection when their invocation is about to start are skipped while members
+ * that go away during the invocation are reported as unavailable rather than failed. Invocations rejected by the
+ * executor (for example because it is saturated or shut down) are run by the calling thread or, if a timeout is set,
+ * by a separate thread so that the timeout applies to them as well. Members that do not complete in time are
+ * cancelled.
+ * 
+ * @author Costin Leau
+ */
+class FanOutInvoker {
+
+	private final OsgiServiceCollection collection;
+
+	private final Executor executor;
+
+	/** per member timeout (in milliseconds) - 0 means no timeout */
+	private final long timeout;
+
+
+	FanOutInvoker(OsgiServiceCollection collection, Executor executor, long timeout) {
+		Assert.notNull(collection);
+		Assert.notNull(executor);
+		Assert.isTrue(timeout >= 0, "timeout has to be non-negative");
+		this.collection = collection;
+		this.executor = executor;
+		this.timeout = timeout;
+	}
+
+	FanOutResult invokeAll(Object[] members, long[] serviceIds, final Method method, final Object[] args) {
+		Assert.notNull(method);
+		Assert.isTrue(members.length == serviceIds.length, "every member needs a service id");
+		List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>(members.length);
+		List<FutureTask<Object>> rejected = new ArrayList<FutureTask<Object>>(0);
+
+		for (int i = 0; i < members.length; i++) {
+			final Object member = members[i];
+			final long serviceId = serviceIds[i];
+			FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+
+				public Object call() throws Exception {
+					// the member left the collection in the meantime
+					if (!collection.isMember(serviceId)) {
+						throw new MemberUnavailableException();
+					}
+					try {
+						return AopUtils.invokeJoinpointUsingReflection(member, method, args);
+					}
+					catch (Throwable th) {
+						if (th instanceof Exception)
+							throw (Exception) th;
+						throw new ThrowableWrapper(th);
+					}
+				}
+			});
+			tasks.add(task);
+			try {
+				executor.execute(task);
+			}
+			catch (RejectedExecutionException ex) {
+				// also covers Spring's TaskRejectedException
+				rejected.add(task);
+			}
+		}
+
+		// the timeout is measured from the dispatch of the invocations
+		long deadline = System.currentTimeMillis() + timeout;
+
+		// run the rejected invocations once the others are under way
+		if (!rejected.isEmpty()) {
+			if (timeout == 0) {
+				for (FutureTask<Object> task : rejected) {
+					task.run();
+				}
+			}
+			else {
+				runDetached(rejected);
+			}
+		}
+
+		List<MemberResult> results = new ArrayList<MemberResult>(members.length);
+
+		for (int i = 0; i < members.length; i++) {
+			results.add(collect(members[i], serviceIds[i], tasks.get(i), deadline));
+		}
+
+		return new FanOutResult(results);
+	}
+
+	/**
+	 * Runs the given invocations, one after the other, on a new thread. The invocations cancelled in the meantime (since
+	 * their deadline passed) are skipped.
+	 * 
+	 * @param tasks invocations to run
+	 */
+	private void runDetached(final List<FutureTask<Object>> tasks) {
+		Thread thread = new Thread(new Runnable() {
+
+			public void run() {
+				for (FutureTask<Object> task : tasks) {
+					task.run();
+				}
+			}
+		}, "fan-out-fallback");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private MemberResult collect(Object member, long serviceId, FutureTask<Object> task, long deadline) {
+		try {
+			Object result;
+			if (timeout == 0) {
+				result = task.get();
+			}
+			else {
+				result = task.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+			}
+			return new MemberResult(member, Outcome.SUCCESS, result, null);
+		}
+		catch (TimeoutException ex) {
+			task.cancel(true);
+			return new MemberResult(member, Outcome.TIMEOUT, null, null);
+		}
+		catch (CancellationException ex) {
+			return new MemberResult(member, Outcome.TIMEOUT, null, null);
+		}
+		catch (InterruptedException ex) {
+			task.cancel(true);
+			Thread.currentThread().interrupt();
+			return new MemberResult(member, Outcome.FAILURE, null, ex);
+		}
+		catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			// unwrap throwables that are not exceptions
+			if (cause instanceof ThrowableWrapper)
+				cause = cause.getCause();
+
+			if (cause instanceof MemberUnavailableException || cause instanceof ServiceUnavailableException
+					|| !collection.isMember(serviceId)) {
+				return new MemberResult(member, Outcome.UNAVAILABLE, null,
+					(cause instanceof MemberUnavailableException ? null : cause));
+			}
+			return new MemberResult(member, Outcome.FAILURE, null, cause);
+		}
+	}
+
+
+	/**
+	 * Marker exception for members that left the collection before being invoked.
+	 */
+	private static class MemberUnavailableException extends Exception {
+
+		private static final long serialVersionUID = -2570421226506826441L;
+	}
+
+	/**
+	 * Wrapper for throwables that cannot be thrown by a {@link Callable}.
+	 */
+	private static class ThrowableWrapper extends Exception {
+
+		private static final long serialVersionUID = 3605817634270520954L;
+
+
+		private ThrowableWrapper(Throwable cause) {
+			super(cause);
+		}
+	}
+}
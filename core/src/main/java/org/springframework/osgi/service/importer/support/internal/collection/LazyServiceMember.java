@@ -0,0 +1,109 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.osgi.service.importer.support.internal.collection;
+
+import java.lang.ref.SoftReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.ServiceReference;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.osgi.service.importer.ImportedOsgiServiceProxy;
+import org.springframework.osgi.service.importer.support.internal.aop.ProxyPlusCallback;
+import org.springframework.osgi.service.importer.support.internal.aop.ServiceProxyCreator;
+
+/**
+ * Placeholder used as collection member in lazy mode. Holds the service reference and creates the service proxy only
+ * when the member is accessed. The proxy is softly referenced: once no longer used by the client, it can be reclaimed
+ * (and recreated on the next access) while the placeholder keeps its place in the collection, leaving the iteration
+ * unaffected.
+ * 
+ * @author Costin Leau
+ */
+class LazyServiceMember {
+
+	private static final Log log = LogFactory.getLog(LazyServiceMember.class);
+
+	private final ServiceReference reference;
+
+	private final ServiceProxyCreator proxyCreator;
+
+	/** materialized proxy (guarded by this) */
+	private SoftReference<ImportedOsgiServiceProxy> proxy;
+
+	/** destruction callback of the materialized proxy (guarded by this) */
+	private DisposableBean destructionCallback;
+
+
+	LazyServiceMember(ServiceReference reference, ServiceProxyCreator proxyCreator) {
+		this.reference = reference;
+		this.proxyCreator = proxyCreator;
+	}
+
+	ServiceReference getReference() {
+		return reference;
+	}
+
+	/**
+	 * Returns the service proxy, creating it if needed.
+	 * 
+	 * @return service proxy
+	 */
+	synchronized ImportedOsgiServiceProxy getProxy() {
+		ImportedOsgiServiceProxy current = (proxy != null ? proxy.get() : null);
+		if (current == null) {
+			// the previous proxy (if any) has been reclaimed - release its infrastructure
+			release();
+			ProxyPlusCallback ppc = proxyCreator.createServiceProxy(reference);
+			current = ppc.proxy;
+			proxy = new SoftReference<ImportedOsgiServiceProxy>(current);
+			destructionCallback = ppc.destructionCallback;
+		}
+		return current;
+	}
+
+	/**
+	 * Returns the service proxy, if it has been created and not yet reclaimed, without creating it.
+	 * 
+	 * @return service proxy or null
+	 */
+	synchronized ImportedOsgiServiceProxy peekProxy() {
+		return (proxy != null ? proxy.get() : null);
+	}
+
+	/**
+	 * Destroys the proxy infrastructure (if the proxy has been created).
+	 */
+	synchronized void destroy() {
+		release();
+		proxy = null;
+	}
+
+	private void release() {
+		if (destructionCallback != null) {
+			try {
+				destructionCallback.destroy();
+			} catch (Exception ex) {
+				log.error("Exception occurred while destroying proxy for " + reference, ex);
+			}
+			destructionCallback = null;
+		}
+	}
+
+	public String toString() {
+		return "LazyServiceMember[" + reference + "]";
+	}
+}
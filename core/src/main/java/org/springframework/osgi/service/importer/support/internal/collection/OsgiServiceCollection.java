@@ -16,17 +16,16 @@
 
 package org.springframework.osgi.service.importer.support.internal.collection;
 
+import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
@@ -38,13 +37,18 @@ import org.springframework.osgi.service.importer.DefaultOsgiServiceDependency;
 import org.springframework.osgi.service.importer.ImportedOsgiServiceProxy;
 import org.springframework.osgi.service.importer.OsgiServiceDependency;
 import org.springframework.osgi.service.importer.OsgiServiceLifecycleListener;
+import org.springframework.osgi.service.importer.support.FanOutResult;
 import org.springframework.osgi.service.importer.support.MemberType;
+import org.springframework.osgi.service.importer.support.SplittableIterator;
 import org.springframework.osgi.service.importer.support.internal.aop.ProxyPlusCallback;
 import org.springframework.osgi.service.importer.support.internal.aop.ServiceProxyCreator;
 import org.springframework.osgi.service.importer.support.internal.dependency.ImporterStateListener;
 import org.springframework.osgi.service.importer.support.internal.exception.BlueprintExceptionFactory;
+import org.springframework.osgi.service.importer.support.internal.support.ServiceEventDemultiplexer;
+import org.springframework.osgi.service.importer.support.internal.util.LongHashMap;
 import org.springframework.osgi.service.importer.support.internal.util.OsgiServiceBindingUtils;
 import org.springframework.osgi.util.OsgiListenerUtils;
+import org.springframework.osgi.util.OsgiServiceReferenceUtils;
 import org.springframework.util.Assert;
 
 /**
@@ -82,7 +86,7 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 			try {
 				Thread.currentThread().setContextClassLoader(classLoader);
 				ServiceReference ref = event.getServiceReference();
-				Long serviceId = (Long) ref.getProperty(Constants.SERVICE_ID);
+				long serviceId = OsgiServiceReferenceUtils.getServiceId(ref);
 				EventResult state = null;
 
 				switch (event.getType()) {
@@ -146,18 +150,37 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 			}
 		}
 
-		protected abstract EventResult addService(Long id, ServiceReference reference);
+		protected abstract EventResult addService(long serviceId, ServiceReference reference);
 
-		protected abstract EventResult canRemoveService(Long serviceId, ServiceReference ref);
+		protected abstract EventResult canRemoveService(long serviceId, ServiceReference ref);
 
-		protected abstract EventResult removeService(Long id, ServiceReference reference);
+		protected abstract EventResult removeService(long serviceId, ServiceReference reference);
 	}
 
 	private class ServiceInstanceListener extends BaseListener {
 
 		@Override
-		protected EventResult addService(Long serviceId, ServiceReference ref) {
+		protected EventResult addService(long serviceId, ServiceReference ref) {
 			synchronized (services) {
+				if (lazyMode) {
+					LazyServiceMember member = lazyMembersIdMap.get(serviceId);
+					if (member == null) {
+						member = new LazyServiceMember(ref, proxyCreator);
+						EventResult state = new EventResult();
+						if (services.add(member)) {
+							// create the proxy only if the listeners need it
+							state.proxy = (listeners.length > 0 ? member.getProxy() : null);
+							state.collectionModified = true;
+							state.shouldInformStateListeners = (services.size() == 1);
+							lazyMembersIdMap.put(serviceId, member);
+							memberAdded(serviceId, ref, member);
+						}
+						return state;
+					}
+					memberModified(serviceId, ref, member);
+					return EventResult.DEFAULT;
+				}
+
 				if (!servicesIdMap.containsKey(serviceId)) {
 					ProxyPlusCallback ppc = proxyCreator.createServiceProxy(ref);
 					ImportedOsgiServiceProxy proxy = ppc.proxy;
@@ -174,16 +197,32 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 						// check if the list was empty before adding something to it
 						state.shouldInformStateListeners = (services.size() == 1);
 						servicesIdMap.put(serviceId, ppc);
+						memberAdded(serviceId, ref, value);
 					}
 					return state;
 				}
+				// already a member - the service properties might have changed
+				ProxyPlusCallback ppc = servicesIdMap.get(serviceId);
+				memberModified(serviceId, ref,
+					(useServiceReferences ? ppc.proxy.getServiceReference().getTargetServiceReference() : ppc.proxy));
 			}
 			return EventResult.DEFAULT;
 		}
 
 		@Override
-		protected EventResult canRemoveService(Long serviceId, ServiceReference ref) {
+		protected EventResult canRemoveService(long serviceId, ServiceReference ref) {
 			synchronized (services) {
+				if (lazyMode) {
+					LazyServiceMember member = lazyMembersIdMap.get(serviceId);
+					if (member != null) {
+						EventResult state = new EventResult();
+						state.collectionModified = services.contains(member);
+						state.proxy = (state.collectionModified && listeners.length > 0 ? member.getProxy() : null);
+						return state;
+					}
+					return EventResult.DEFAULT;
+				}
+
 				ProxyPlusCallback ppc = servicesIdMap.get(serviceId);
 
 				if (ppc != null) {
@@ -201,8 +240,20 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 		}
 
 		@Override
-		protected EventResult removeService(Long serviceId, ServiceReference ref) {
+		protected EventResult removeService(long serviceId, ServiceReference ref) {
 			synchronized (services) {
+				if (lazyMode) {
+					LazyServiceMember member = lazyMembersIdMap.remove(serviceId);
+					if (member != null) {
+						EventResult state = new EventResult();
+						state.collectionModified = services.remove(member);
+						memberRemoved(serviceId, ref, member);
+						state.shouldInformStateListeners = (services.isEmpty());
+						return state;
+					}
+					return EventResult.DEFAULT;
+				}
+
 				// remove service id / proxy association
 				ProxyPlusCallback ppc = servicesIdMap.remove(serviceId);
 
@@ -214,6 +265,7 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 							(useServiceReferences ? ppc.proxy.getServiceReference().getTargetServiceReference()
 									: ppc.proxy);
 					state.collectionModified = services.remove(value);
+					memberRemoved(serviceId, ref, value);
 					// invalidate the proxy
 					invalidateProxy(ppc);
 					// check if the list is empty
@@ -243,7 +295,7 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 		}
 
 		public Object next() {
-			return iter.next();
+			return resolve(iter.next());
 		}
 
 		public void remove() {
@@ -260,7 +312,11 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 
 	// map of services
 	// NOTE: this collection is protected by the 'serviceProxies' lock.
-	protected final Map<Long, ProxyPlusCallback> servicesIdMap = new LinkedHashMap<Long, ProxyPlusCallback>(8);
+	protected final LongHashMap<ProxyPlusCallback> servicesIdMap = new LongHashMap<ProxyPlusCallback>(8);
+
+	// map of lazy members (used in lazy mode instead of servicesIdMap)
+	// NOTE: this collection is protected by the 'serviceProxies' lock.
+	private final LongHashMap<LazyServiceMember> lazyMembersIdMap = new LongHashMap<LazyServiceMember>(8);
 
 	/**
 	 * The dynamic collection.
@@ -302,6 +358,21 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 
 	private volatile boolean useBlueprintExceptions = false;
 
+	/** whether the bundle shared listener is used instead of a dedicated one */
+	private boolean sharedServiceListener = false;
+
+	/** class name used for indexing the events delivered through the shared listener */
+	private String filterClassName;
+
+	/** whether the internal storage is copy-on-write (snapshot based) */
+	private boolean snapshotStorage = false;
+
+	/** whether lazy member proxies were requested */
+	private boolean lazyMembers = false;
+
+	/** whether the collection holds lazy members (determined at startup) */
+	private boolean lazyMode = false;
+
 	public OsgiServiceCollection(Filter filter, BundleContext context, ClassLoader classLoader,
 			ServiceProxyCreator proxyCreator, boolean useServiceReference) {
 		Assert.notNull(classLoader, "ClassLoader is required");
@@ -319,12 +390,17 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 	public void afterPropertiesSet() {
 		// create service proxies collection
 		this.services = createInternalDynamicStorage();
+		this.lazyMode = (lazyMembers && !useServiceReferences && supportsLazyMembers());
 
 		dependency = new DefaultOsgiServiceDependency(sourceName, filter, serviceRequiredAtStartup);
 
 		if (log.isTraceEnabled())
 			log.trace("Adding osgi listener for services matching [" + filter + "]");
-		OsgiListenerUtils.addServiceListener(context, listener, filter);
+		if (sharedServiceListener) {
+			ServiceEventDemultiplexer.addServiceListener(context, listener, filterClassName, filter);
+		} else {
+			OsgiListenerUtils.addServiceListener(context, listener, filter);
+		}
 
 		synchronized (lock) {
 			if (services.isEmpty()) {
@@ -334,7 +410,11 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 	}
 
 	public void destroy() {
-		OsgiListenerUtils.removeServiceListener(context, listener);
+		if (sharedServiceListener) {
+			ServiceEventDemultiplexer.removeServiceListener(context, listener);
+		} else {
+			OsgiListenerUtils.removeServiceListener(context, listener);
+		}
 
 		synchronized (services) {
 
@@ -342,6 +422,13 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 			for (Object item : services) {
 				ServiceReference ref;
 
+				if (item instanceof LazyServiceMember) {
+					LazyServiceMember member = (LazyServiceMember) item;
+					listener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, member.getReference()));
+					member.destroy();
+					continue;
+				}
+
 				if (!useServiceReferences) {
 					ImportedOsgiServiceProxy serviceProxy = (ImportedOsgiServiceProxy) item;
 					ref = serviceProxy.getServiceReference().getTargetServiceReference();
@@ -350,8 +437,7 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 				}
 
 				// get first the destruction callback
-				ProxyPlusCallback ppc =
-						(ProxyPlusCallback) servicesIdMap.get((Long) ref.getProperty(Constants.SERVICE_ID));
+				ProxyPlusCallback ppc = servicesIdMap.get(OsgiServiceReferenceUtils.getServiceId(ref));
 				listener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, ref));
 
 				try {
@@ -363,6 +449,7 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 
 			services.clear();
 			servicesIdMap.clear();
+			lazyMembersIdMap.clear();
 		}
 	}
 
@@ -382,11 +469,73 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 			return true;
 	}
 
+	public FanOutResult invokeAll(Method method, Object[] args, Executor executor, long timeout) {
+		if (useServiceReferences)
+			throw new IllegalStateException("cannot invoke methods on a collection of service references");
+		// take a consistent snapshot of the members along with their service ids
+		Object[] members = services.toArray();
+		long[] serviceIds = new long[members.length];
+		for (int i = 0; i < members.length; i++) {
+			Object member = members[i];
+			ServiceReference ref =
+					(member instanceof LazyServiceMember ? ((LazyServiceMember) member).getReference()
+							: ((ImportedOsgiServiceProxy) member).getServiceReference().getTargetServiceReference());
+			serviceIds[i] = OsgiServiceReferenceUtils.getServiceId(ref);
+			members[i] = resolve(member);
+		}
+		return new FanOutInvoker(this, executor, timeout).invokeAll(members, serviceIds, method, args);
+	}
+
+	/**
+	 * Indicates whether the service with the given id is (still) a member of the collection.
+	 * 
+	 * @param serviceId service id
+	 * @return true if the service is a member, false otherwise
+	 */
+	boolean isMember(long serviceId) {
+		synchronized (services) {
+			return (lazyMode ? lazyMembersIdMap.containsKey(serviceId) : servicesIdMap.containsKey(serviceId));
+		}
+	}
+
+	/**
+	 * Callback invoked when a service becomes a member of the collection. Called while holding the collection lock.
+	 * Does nothing by default.
+	 * 
+	 * @param serviceId service id
+	 * @param reference service reference
+	 * @param member collection member (service proxy or reference)
+	 */
+	protected void memberAdded(long serviceId, ServiceReference reference, Object member) {
+	}
+
+	/**
+	 * Callback invoked when the properties of a member service have been modified. Called while holding the collection
+	 * lock. Does nothing by default.
+	 * 
+	 * @param serviceId service id
+	 * @param reference service reference
+	 * @param member collection member (service proxy or reference)
+	 */
+	protected void memberModified(long serviceId, ServiceReference reference, Object member) {
+	}
+
+	/**
+	 * Callback invoked when a service is no longer a member of the collection. Called while holding the collection
+	 * lock. Does nothing by default.
+	 * 
+	 * @param serviceId service id
+	 * @param reference service reference
+	 * @param member collection member (service proxy or reference)
+	 */
+	protected void memberRemoved(long serviceId, ServiceReference reference, Object member) {
+	}
+
 	/**
 	 * Create the dynamic storage used internally. The storage <strong>has</strong> to be thread-safe.
 	 */
 	protected DynamicCollection<Object> createInternalDynamicStorage() {
-		return new DynamicCollection<Object>();
+		return new DynamicCollection<Object>(16, snapshotStorage);
 	}
 
 	private void invalidateProxy(ProxyPlusCallback ppc) {
@@ -405,6 +554,16 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 		return new OsgiServiceIterator();
 	}
 
+	/**
+	 * Returns a sized, splittable iterator over a consistent snapshot of the collection members, suitable for parallel
+	 * processing. Taking the snapshot does not require any locking if the collection uses snapshot storage.
+	 * 
+	 * @return splittable iterator
+	 */
+	public SplittableIterator<Object> splittableIterator() {
+		return new SplittableIterator<Object>(toArray());
+	}
+
 	public int size() {
 		return services.size();
 	}
@@ -443,10 +602,27 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 	}
 
 	public boolean contains(Object o) {
+		if (lazyMode) {
+			// only the created proxies can be handed to the client so there is no need to create the rest
+			Object[] members = services.toArray();
+			for (int i = 0; i < members.length; i++) {
+				Object proxy = ((LazyServiceMember) members[i]).peekProxy();
+				if (proxy != null && proxy.equals(o))
+					return true;
+			}
+			return false;
+		}
 		return services.contains(o);
 	}
 
 	public boolean containsAll(Collection c) {
+		if (lazyMode) {
+			for (Object o : c) {
+				if (!contains(o))
+					return false;
+			}
+			return true;
+		}
 		return services.containsAll(c);
 	}
 
@@ -455,11 +631,50 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 	}
 
 	public Object[] toArray() {
-		return services.toArray();
+		Object[] array = services.toArray();
+		if (lazyMode) {
+			for (int i = 0; i < array.length; i++) {
+				array[i] = resolve(array[i]);
+			}
+		}
+		return array;
 	}
 
 	public Object[] toArray(Object[] array) {
-		return services.toArray(array);
+		return (lazyMode ? toArray() : services.toArray(array));
+	}
+
+	/**
+	 * Returns the object exposed to clients for the given internal member. Lazy members have their proxy created (if
+	 * needed); all the other members are returned as is.
+	 * 
+	 * @param member internal member
+	 * @return exposed member
+	 */
+	protected Object resolve(Object member) {
+		return (member instanceof LazyServiceMember ? ((LazyServiceMember) member).getProxy() : member);
+	}
+
+	/**
+	 * Indicates whether this collection can hold lazy members. Collections that need to inspect their members (for
+	 * example for sorting them) should return false. Default is true.
+	 * 
+	 * @return true if lazy members are supported, false otherwise
+	 */
+	protected boolean supportsLazyMembers() {
+		return true;
+	}
+
+	/**
+	 * Sets whether the service proxies are created lazily, on first access, instead of when the services appear. Lazy
+	 * proxies are softly referenced and can be reclaimed once no longer used by the client (they are recreated
+	 * transparently). Ignored for collections of service references or collections that do not support lazy members.
+	 * Needs to be called before {@link #afterPropertiesSet()}.
+	 * 
+	 * @param lazyMembers lazy member flag
+	 */
+	public void setLazyMembers(boolean lazyMembers) {
+		this.lazyMembers = lazyMembers;
 	}
 
 	/**
@@ -483,4 +698,42 @@ public class OsgiServiceCollection implements Collection, InitializingBean, Coll
 	public void setUseBlueprintExceptions(boolean useBlueprintExceptions) {
 		this.useBlueprintExceptions = useBlueprintExceptions;
 	}
+
+	/**
+	 * Indicates whether the collection subscribes to the service listener shared by the bundle importers instead of
+	 * registering a dedicated one.
+	 * 
+	 * @param sharedServiceListener shared listener flag
+	 */
+	public void setSharedServiceListener(boolean sharedServiceListener) {
+		this.sharedServiceListener = sharedServiceListener;
+	}
+
+	/**
+	 * Sets the class name used for indexing the events delivered through the shared service listener.
+	 * 
+	 * @param filterClassName class name (can be null)
+	 */
+	public void setFilterClassName(String filterClassName) {
+		this.filterClassName = filterClassName;
+	}
+
+	/**
+	 * Sets whether the internal storage uses immutable snapshots (copy-on-write) instead of locks. Needs to be called
+	 * before {@link #afterPropertiesSet()}.
+	 * 
+	 * @param snapshotStorage snapshot storage flag
+	 */
+	public void setSnapshotStorage(boolean snapshotStorage) {
+		this.snapshotStorage = snapshotStorage;
+	}
+
+	/**
+	 * Indicates whether the internal storage uses immutable snapshots.
+	 * 
+	 * @return snapshot storage flag
+	 */
+	protected boolean isSnapshotStorage() {
+		return snapshotStorage;
+	}
 }
\ No newline at end of file
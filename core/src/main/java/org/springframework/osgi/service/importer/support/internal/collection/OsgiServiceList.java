@@ -47,11 +47,11 @@ public class OsgiServiceList extends OsgiServiceCollection implements List, Rand
 		}
 
 		public Object next() {
-			return iter.next();
+			return resolve(iter.next());
 		}
 
 		public Object previous() {
-			return iter.previous();
+			return resolve(iter.previous());
 		}
 
 		//
@@ -101,12 +101,12 @@ public class OsgiServiceList extends OsgiServiceCollection implements List, Rand
 	}
 
 	protected DynamicCollection createInternalDynamicStorage() {
-		storage = new DynamicList();
+		storage = new DynamicList(16, isSnapshotStorage());
 		return (DynamicCollection) storage;
 	}
 
 	public Object get(int index) {
-		return storage.get(index);
+		return resolve(storage.get(index));
 	}
 
 	public int indexOf(Object o) {
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.osgi.service.importer.support.internal.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.springframework.osgi.service.importer.support.internal.aop.ServiceProxyCreator;
+import org.springframework.osgi.service.importer.support.internal.util.LongHashMap;
+import org.springframework.osgi.util.OsgiServiceReferenceUtils;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * OSGi service dynamic collection that, in addition to its members, maintains a map between the value of a given
+ * service property (the key) and the member. The map is exposed through {@link #getMap()} and supports concurrent,
+ * constant-time lookups; it is updated as services are registered, modified or unregistered.
+ * 
+ * <p/> Multi-value properties (arrays or collections) index the service under each (non-null) value. If several
+ * services share the same key, the best matching one (highest ranking, lowest id) is used. Services without the
+ * key property are part of the collection but not of the map.
+ * 
+ * @author Costin Leau
+ * 
+ */
+public class OsgiServiceMap extends OsgiServiceCollection {
+
+	/**
+	 * Indexing information of a member service.
+	 */
+	private static class IndexedService {
+
+		private final ServiceReference reference;
+
+		private final Object member;
+
+		private final Object[] keys;
+
+
+		private IndexedService(ServiceReference reference, Object member, Object[] keys) {
+			this.reference = reference;
+			this.member = member;
+			this.keys = keys;
+		}
+	}
+
+
+	private static final Log log = LogFactory.getLog(OsgiServiceMap.class);
+
+	private final String keyProperty;
+
+	/** key to member index - read without locking */
+	private final Map<Object, Object> index = new ConcurrentHashMap<Object, Object>(16);
+
+	private final Map<Object, Object> readOnlyIndex = Collections.unmodifiableMap(index);
+
+	// NOTE: the maps below are protected by the collection lock
+	private final LongHashMap<IndexedService> indexedServices = new LongHashMap<IndexedService>(16);
+
+	private final Map<Object, Set<Long>> servicesByKey = new HashMap<Object, Set<Long>>(16);
+
+
+	public OsgiServiceMap(Filter filter, BundleContext context, ClassLoader classLoader,
+			ServiceProxyCreator proxyCreator, boolean useServiceReferences, String keyProperty) {
+		super(filter, context, classLoader, proxyCreator, useServiceReferences);
+		Assert.hasText(keyProperty, "a key property is required");
+		this.keyProperty = keyProperty;
+	}
+
+	/**
+	 * Returns the (read-only) map between the key property values and the collection members.
+	 * 
+	 * @return service map
+	 */
+	public Map<Object, Object> getMap() {
+		return readOnlyIndex;
+	}
+
+	// the index exposes the members directly
+	protected boolean supportsLazyMembers() {
+		return false;
+	}
+
+	protected void memberAdded(long serviceId, ServiceReference reference, Object member) {
+		index(serviceId, reference, member);
+	}
+
+	protected void memberModified(long serviceId, ServiceReference reference, Object member) {
+		IndexedService previous = indexedServices.get(serviceId);
+		if (previous == null) {
+			index(serviceId, reference, member);
+			return;
+		}
+
+		Object[] keys = keysOf(reference);
+		// update the service first so that the mappings below use its new properties (such as the ranking)
+		if (keys.length == 0)
+			indexedServices.remove(serviceId);
+		else
+			indexedServices.put(serviceId, new IndexedService(reference, member, keys));
+
+		// remove only the keys that disappeared...
+		Set<Object> current = new HashSet<Object>(Arrays.asList(keys));
+		for (int i = 0; i < previous.keys.length; i++) {
+			if (!current.contains(previous.keys[i]))
+				unmap(previous.keys[i], serviceId);
+		}
+		// ...and update the rest in place so that concurrent lookups never miss them
+		map(keys, serviceId);
+	}
+
+	protected void memberRemoved(long serviceId, ServiceReference reference, Object member) {
+		unindex(serviceId);
+	}
+
+	private void index(long serviceId, ServiceReference reference, Object member) {
+		Object[] keys = keysOf(reference);
+		if (keys.length == 0) {
+			if (log.isDebugEnabled())
+				log.debug("Service " + serviceId + " has no [" + keyProperty + "] property; it will not be mapped");
+			return;
+		}
+
+		indexedServices.put(serviceId, new IndexedService(reference, member, keys));
+		map(keys, serviceId);
+	}
+
+	private void unindex(long serviceId) {
+		IndexedService indexed = indexedServices.remove(serviceId);
+		if (indexed == null)
+			return;
+
+		for (int i = 0; i < indexed.keys.length; i++) {
+			unmap(indexed.keys[i], serviceId);
+		}
+	}
+
+	/**
+	 * Adds the given service (already indexed) under the given keys.
+	 */
+	private void map(Object[] keys, long serviceId) {
+		for (int i = 0; i < keys.length; i++) {
+			Set<Long> ids = servicesByKey.get(keys[i]);
+			if (ids == null) {
+				ids = new LinkedHashSet<Long>(2);
+				servicesByKey.put(keys[i], ids);
+			}
+			ids.add(serviceId);
+			updateMapping(keys[i], ids);
+		}
+	}
+
+	/**
+	 * Removes the given service from under the given key.
+	 */
+	private void unmap(Object key, long serviceId) {
+		Set<Long> ids = servicesByKey.get(key);
+		// duplicate key (already handled)
+		if (ids == null)
+			return;
+		ids.remove(serviceId);
+		if (ids.isEmpty()) {
+			servicesByKey.remove(key);
+			index.remove(key);
+		}
+		else {
+			updateMapping(key, ids);
+		}
+	}
+
+	/**
+	 * Maps the given key to the best service among the given ones.
+	 */
+	private void updateMapping(Object key, Set<Long> ids) {
+		ServiceReference[] references = new ServiceReference[ids.size()];
+		int i = 0;
+		for (Long id : ids) {
+			references[i++] = indexedServices.get(id.longValue()).reference;
+		}
+		ServiceReference best = OsgiServiceReferenceUtils.getServiceReference(references);
+		for (Long id : ids) {
+			IndexedService indexed = indexedServices.get(id.longValue());
+			if (indexed.reference == best) {
+				index.put(key, indexed.member);
+				return;
+			}
+		}
+	}
+
+	private Object[] keysOf(ServiceReference reference) {
+		Object value = reference.getProperty(keyProperty);
+		if (value == null)
+			return new Object[0];
+		Object[] values;
+		if (value.getClass().isArray())
+			values = ObjectUtils.toObjectArray(value);
+		else if (value instanceof Collection)
+			values = ((Collection<?>) value).toArray();
+		else
+			return new Object[] { value };
+
+		// the index does not accept null keys
+		List<Object> keys = new ArrayList<Object>(values.length);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null)
+				keys.add(values[i]);
+		}
+		return keys.toArray();
+	}
+}
@@ -40,6 +40,6 @@ public class OsgiServiceSet extends OsgiServiceCollection implements Set {
 	}
 
 	protected DynamicCollection createInternalDynamicStorage() {
-		return new DynamicSet();
+		return new DynamicSet(16, isSnapshotStorage());
 	}
 }
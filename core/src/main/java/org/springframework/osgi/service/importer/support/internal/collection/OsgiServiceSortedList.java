@@ -52,10 +52,15 @@ public class OsgiServiceSortedList extends OsgiServiceList {
 	}
 
 	protected DynamicCollection createInternalDynamicStorage() {
-		storage = new DynamicSortedList(comparator);
+		storage = new DynamicSortedList(comparator, isSnapshotStorage());
 		return (DynamicCollection) storage;
 	}
 
+	// members are needed for sorting
+	protected boolean supportsLazyMembers() {
+		return false;
+	}
+
 	public Comparator comparator() {
 		return comparator;
 	}
@@ -53,10 +53,15 @@ public class OsgiServiceSortedSet extends OsgiServiceSet implements SortedSet {
 	}
 
 	protected DynamicCollection createInternalDynamicStorage() {
-		storage = new DynamicSortedSet(comparator);
+		storage = new DynamicSortedSet(comparator, isSnapshotStorage());
 		return (DynamicCollection) storage;
 	}
 
+	// members are needed for sorting
+	protected boolean supportsLazyMembers() {
+		return false;
+	}
+
 	public Comparator comparator() {
 		return storage.comparator();
 	}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.collection;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Binary search utilities used by the sorted dynamic collections.
+ * 
+ * @author Costin Leau
+ * 
+ */
+abstract class SortedSearch {
+
+	/**
+	 * Returns the index after the last element equal (as in ordering) to the
+	 * given object, that is the position at which the object should be
+	 * inserted to preserve the insertion order of the duplicates.
+	 * 
+	 * @param list sorted list
+	 * @param o object to insert
+	 * @param comparator comparator (can be null for natural ordering)
+	 * @return insertion index
+	 */
+	static <E> int upperBound(List<E> list, E o, Comparator<? super E> comparator) {
+		int low = 0;
+		int high = list.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(list.get(mid), o, comparator) <= 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index of the first element equal to the given object. The
+	 * search is done in logarithmic time among the elements equal in ordering;
+	 * if the object is not found, a linear search is performed to cope with
+	 * orderings that are not consistent with <code>equals</code>.
+	 * 
+	 * @param list sorted list
+	 * @param o searched object
+	 * @param comparator comparator (can be null for natural ordering)
+	 * @return object index or -1 if not found
+	 */
+	@SuppressWarnings("unchecked")
+	static <E> int indexOf(List<E> list, Object o, Comparator<? super E> comparator) {
+		if (o != null) {
+			try {
+				E element = (E) o;
+				int index = Collections.binarySearch(list, element, comparator);
+				if (index >= 0) {
+					// move to the first element equal in ordering
+					while (index > 0 && compare(list.get(index - 1), element, comparator) == 0) {
+						index--;
+					}
+					for (int i = index; i < list.size() && compare(list.get(i), element, comparator) == 0; i++) {
+						if (o.equals(list.get(i)))
+							return i;
+					}
+				}
+			}
+			catch (ClassCastException ex) {
+				// object cannot be compared; fall back to linear search
+			}
+		}
+		return list.indexOf(o);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <E> int compare(E left, E right, Comparator<? super E> comparator) {
+		return (comparator != null ? comparator.compare(left, right) : ((Comparable<E>) left).compareTo(right));
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.ServiceReference;
+import org.springframework.osgi.service.importer.ServiceAvailabilityFuture;
+import org.springframework.util.Assert;
+
+/**
+ * Default {@link ServiceAvailabilityFuture} implementation. The future is completed (or failed) by the importer
+ * tracking the service; only the first completion is taken into account. Futures shared between several callers can
+ * be created as non-cancellable so that one caller cannot cancel the future of the others.
+ *
+ * <p/> This class is thread-safe.
+ *
+ * @author Costin Leau
+ */
+public class DefaultServiceAvailabilityFuture implements ServiceAvailabilityFuture {
+
+	private static final Log log = LogFactory.getLog(DefaultServiceAvailabilityFuture.class);
+
+	private final CountDownLatch latch = new CountDownLatch(1);
+
+	private final boolean cancellable;
+
+	/** guarded by this */
+	private final List<Runnable> callbacks = new ArrayList<Runnable>(2);
+
+	/** guarded by this */
+	private boolean done = false;
+
+	/** guarded by this */
+	private boolean cancelled = false;
+
+	/** guarded by this */
+	private ServiceReference reference;
+
+	/** guarded by this */
+	private Throwable failure;
+
+	/**
+	 * Constructs a new, cancellable <code>DefaultServiceAvailabilityFuture</code> instance.
+	 */
+	public DefaultServiceAvailabilityFuture() {
+		this(true);
+	}
+
+	/**
+	 * Constructs a new <code>DefaultServiceAvailabilityFuture</code> instance.
+	 *
+	 * @param cancellable whether the future can be cancelled through {@link #cancel(boolean)}
+	 */
+	public DefaultServiceAvailabilityFuture(boolean cancellable) {
+		this.cancellable = cancellable;
+	}
+
+	/**
+	 * Creates an already completed future.
+	 *
+	 * @param reference available service reference
+	 * @return completed future
+	 */
+	public static DefaultServiceAvailabilityFuture available(ServiceReference reference) {
+		DefaultServiceAvailabilityFuture future = new DefaultServiceAvailabilityFuture();
+		future.complete(reference);
+		return future;
+	}
+
+	/**
+	 * Completes the future, running the registered callbacks on the calling thread.
+	 *
+	 * @param reference available service reference
+	 * @return true if the future was completed by this call, false if it was already done
+	 */
+	public boolean complete(ServiceReference reference) {
+		List<Runnable> toRun;
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			done = true;
+			this.reference = reference;
+			toRun = new ArrayList<Runnable>(callbacks);
+			callbacks.clear();
+		}
+		latch.countDown();
+
+		for (Runnable callback : toRun) {
+			runCallback(callback);
+		}
+		return true;
+	}
+
+	/**
+	 * Fails the future with the given exception. The registered callbacks are discarded.
+	 *
+	 * @param cause failure cause
+	 * @return true if the future was failed by this call, false if it was already done
+	 */
+	public boolean fail(Throwable cause) {
+		Assert.notNull(cause);
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			done = true;
+			failure = cause;
+			callbacks.clear();
+		}
+		latch.countDown();
+		return true;
+	}
+
+	public void addCallback(Runnable callback) {
+		Assert.notNull(callback);
+		synchronized (this) {
+			if (!done) {
+				callbacks.add(callback);
+				return;
+			}
+			if (cancelled || failure != null) {
+				return;
+			}
+		}
+		runCallback(callback);
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!cancellable) {
+			return false;
+		}
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			done = true;
+			cancelled = true;
+			callbacks.clear();
+		}
+		latch.countDown();
+		return true;
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	public ServiceReference get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return getResult();
+	}
+
+	public ServiceReference get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+			TimeoutException {
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException("service not available after " + timeout + " " + unit);
+		}
+		return getResult();
+	}
+
+	private synchronized ServiceReference getResult() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return reference;
+	}
+
+	private void runCallback(Runnable callback) {
+		try {
+			callback.run();
+		} catch (Throwable th) {
+			log.warn("Service availability callback " + callback + " failed", th);
+		}
+	}
+
+	public synchronized String toString() {
+		return "ServiceAvailabilityFuture [" + (cancelled ? "cancelled" : (failure != null ? "failed" : (done ? "available"
+				: "pending"))) + "]";
+	}
+}
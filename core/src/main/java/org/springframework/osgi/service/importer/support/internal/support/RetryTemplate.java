@@ -22,6 +22,10 @@ import org.springframework.util.Assert;
  * Wrapper retry template. This class does specialized retries using a given
  * callback and lock.
  * 
+ * <p/> Waiting threads are parked either on a notification monitor or, for
+ * the lock-free mode, on a {@link WaitQueue}. In both cases, the wait time
+ * is read without any locking.
+ * 
  * @author Costin Leau
  */
 public class RetryTemplate {
@@ -30,10 +34,10 @@ public class RetryTemplate {
 
 	public static final long DEFAULT_WAIT_TIME = 1000;
 
-	private final Object monitor = new Object();
 	private final Object notificationLock;
+	private final WaitQueue waitQueue;
 
-	private long waitTime = DEFAULT_WAIT_TIME;
+	private volatile long waitTime = DEFAULT_WAIT_TIME;
 
 	// wait threshold (in millis)
 	private static final long WAIT_THRESHOLD = 3;
@@ -43,16 +47,35 @@ public class RetryTemplate {
 		Assert.isTrue(waitTime >= 0, "waitTime must be positive");
 		Assert.notNull(notificationLock, "notificationLock must be non null");
 
-		synchronized (monitor) {
-			this.waitTime = waitTime;
-			this.notificationLock = notificationLock;
-		}
+		this.waitTime = waitTime;
+		this.notificationLock = notificationLock;
+		this.waitQueue = null;
 	}
 
 	public RetryTemplate(Object notificationLock) {
 		this(DEFAULT_WAIT_TIME, notificationLock);
 	}
 
+	/**
+	 * Constructs a new <code>RetryTemplate</code> instance that parks the
+	 * waiting threads on the given queue instead of a monitor.
+	 * 
+	 * @param waitTime
+	 * @param waitQueue
+	 */
+	public RetryTemplate(long waitTime, WaitQueue waitQueue) {
+		Assert.isTrue(waitTime >= 0, "waitTime must be positive");
+		Assert.notNull(waitQueue, "waitQueue must be non null");
+
+		this.waitTime = waitTime;
+		this.notificationLock = null;
+		this.waitQueue = waitQueue;
+	}
+
+	public RetryTemplate(WaitQueue waitQueue) {
+		this(DEFAULT_WAIT_TIME, waitQueue);
+	}
+
 	/**
 	 * Main retry method. Executes the callback until it gets completed. The
 	 * callback will get executed the number of {@link #retryNumbers} while
@@ -66,11 +89,7 @@ public class RetryTemplate {
 	 * @return
 	 */
 	public <T> T execute(RetryCallback<T> callback) {
-		long waitTime;
-
-		synchronized (monitor) {
-			waitTime = this.waitTime;
-		}
+		long waitTime = this.waitTime;
 
 		boolean retry = false;
 
@@ -100,11 +119,7 @@ public class RetryTemplate {
 			if (waitLeft > 0) {
 				try {
 					start = System.currentTimeMillis();
-					synchronized (notificationLock) {
-						// Do NOT use Thread.sleep() here - it does not release
-						// locks.
-						notificationLock.wait(waitTime);
-					}
+					waitForNotification(waitTime);
 					// local wait timer
 					stop = System.currentTimeMillis();
 					waitLeft -= (stop - start);
@@ -121,14 +136,13 @@ public class RetryTemplate {
 			retry = false;
 
 			// handle reset cases
-			synchronized (monitor) {
-				// has there been a reset in place ?
-				if (waitTime != this.waitTime) {
-					// start counting again
-					retry = true;
-					waitTime = this.waitTime;
-					waitLeft = waitTime;
-				}
+			long currentWaitTime = this.waitTime;
+			// has there been a reset in place ?
+			if (waitTime != currentWaitTime) {
+				// start counting again
+				retry = true;
+				waitTime = currentWaitTime;
+				waitLeft = waitTime;
 			}
 		} while (retry || waitLeft > WAIT_THRESHOLD);
 
@@ -145,6 +159,19 @@ public class RetryTemplate {
 		}
 	}
 
+	private void waitForNotification(long waitTime) throws InterruptedException {
+		if (waitQueue != null) {
+			waitQueue.await(waitTime);
+		}
+		else {
+			synchronized (notificationLock) {
+				// Do NOT use Thread.sleep() here - it does not release
+				// locks.
+				notificationLock.wait(waitTime);
+			}
+		}
+	}
+
 	/**
 	 * Template method invoked if the backing service is missing.
 	 */
@@ -177,19 +204,20 @@ public class RetryTemplate {
 	 * @param waitTime
 	 */
 	public void reset(long waitTime) {
-		synchronized (monitor) {
-			this.waitTime = waitTime;
-		}
+		this.waitTime = waitTime;
 
-		synchronized (notificationLock) {
-			notificationLock.notifyAll();
+		if (waitQueue != null) {
+			waitQueue.signalAll();
+		}
+		else {
+			synchronized (notificationLock) {
+				notificationLock.notifyAll();
+			}
 		}
 	}
 
 	public long getWaitTime() {
-		synchronized (monitor) {
-			return waitTime;
-		}
+		return waitTime;
 	}
 
 	public boolean equals(Object other) {
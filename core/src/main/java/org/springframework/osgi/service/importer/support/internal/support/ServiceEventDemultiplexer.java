@@ -0,0 +1,284 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.support;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.springframework.osgi.util.OsgiListenerUtils;
+import org.springframework.osgi.util.OsgiServiceReferenceUtils;
+import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * Service event demultiplexer shared by the importers of a bundle. Instead of registering one framework
+ * {@link ServiceListener} (and thus one filter) per importer, a single listener is registered per
+ * {@link BundleContext}; the incoming events are routed to the interested importers by using an
+ * <code>objectClass</code> index after which, the (precompiled) importer filter is applied only to the candidates.
+ *
+ * <p/> Subscribers that do not specify a class name are considered for every event. The framework listener is
+ * registered when the first subscriber for a bundle context appears and removed once the last one goes away.
+ *
+ * <p/> Similar to {@link OsgiListenerUtils}, the subscription methods deliver <em>synthetic</em> events for the
+ * services registered before the subscription.
+ *
+ * @author Costin Leau
+ */
+public class ServiceEventDemultiplexer {
+
+	/**
+	 * Importer subscription.
+	 */
+	private static class Subscription {
+
+		private final ServiceListener listener;
+		private final String className;
+		private final Filter filter;
+
+		Subscription(ServiceListener listener, String className, Filter filter) {
+			this.listener = listener;
+			this.className = className;
+			this.filter = filter;
+		}
+
+		void deliver(ServiceEvent event) {
+			if (filter == null || filter.match(event.getServiceReference())) {
+				try {
+					listener.serviceChanged(event);
+				} catch (Throwable th) {
+					// the framework swallows exceptions thrown by listeners so do the same but log them first
+					log.warn("Service listener " + listener + " failed while processing event " + event, th);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Framework listener dispatching the events to the subscribers.
+	 */
+	private class DispatchingListener implements ServiceListener {
+
+		public void serviceChanged(ServiceEvent event) {
+			dispatch(event);
+		}
+	}
+
+	private static final Log log = LogFactory.getLog(ServiceEventDemultiplexer.class);
+
+	/** demultiplexers (per bundle context) - guarded by itself */
+	private static final Map<BundleContext, ServiceEventDemultiplexer> demultiplexers =
+			new HashMap<BundleContext, ServiceEventDemultiplexer>(8);
+
+	private final BundleContext bundleContext;
+
+	private final ServiceListener frameworkListener = new DispatchingListener();
+
+	/** subscribers indexed by objectClass */
+	private final ConcurrentMap<String, List<Subscription>> indexedSubscriptions =
+			new ConcurrentHashMap<String, List<Subscription>>(16);
+
+	/** subscribers without a class name */
+	private final List<Subscription> unindexedSubscriptions = new CopyOnWriteArrayList<Subscription>();
+
+	/** all subscribers - guarded by the demultiplexers lock */
+	private final Map<ServiceListener, Subscription> subscriptions = new IdentityHashMap<ServiceListener, Subscription>(
+			16);
+
+	private ServiceEventDemultiplexer(BundleContext bundleContext) {
+		this.bundleContext = bundleContext;
+	}
+
+	/**
+	 * Subscribes the given listener to the events of the services matching the given class name and filter. The
+	 * listener will receive <em>synthetic</em> <code>REGISTERED</code> events for <em>all</em> the matching services
+	 * registered before the subscription.
+	 *
+	 * @param context bundle context
+	 * @param listener service listener
+	 * @param className class name used for indexing (can be <code>null</code>)
+	 * @param filter service filter (can be <code>null</code>)
+	 * @see OsgiListenerUtils#addServiceListener(BundleContext, ServiceListener, Filter)
+	 */
+	public static void addServiceListener(BundleContext context, ServiceListener listener, String className,
+			Filter filter) {
+		subscribe(context, listener, className, filter);
+		dispatchServiceRegistrationEvents(OsgiServiceReferenceUtils.getServiceReferences(context, className,
+				filterToString(filter)), listener);
+	}
+
+	/**
+	 * Subscribes the given listener to the events of the services matching the given class name and filter. The
+	 * listener will receive at most one <em>synthetic</em> <code>REGISTERED</code> event for the <em>best
+	 * matching</em> service registered before the subscription.
+	 *
+	 * @param context bundle context
+	 * @param listener service listener
+	 * @param className class name used for indexing (can be <code>null</code>)
+	 * @param filter service filter (can be <code>null</code>)
+	 * @see OsgiListenerUtils#addSingleServiceListener(BundleContext, ServiceListener, Filter)
+	 */
+	public static void addSingleServiceListener(BundleContext context, ServiceListener listener, String className,
+			Filter filter) {
+		subscribe(context, listener, className, filter);
+		ServiceReference ref =
+				OsgiServiceReferenceUtils.getServiceReference(context, className, filterToString(filter));
+		dispatchServiceRegistrationEvents((ref == null ? null : new ServiceReference[] { ref }), listener);
+	}
+
+	/**
+	 * Removes the subscription of the given listener. If the listener was the last subscriber for the given bundle
+	 * context, the framework listener is removed as well.
+	 *
+	 * @param context bundle context
+	 * @param listener service listener
+	 * @return true if the listener was subscribed, false otherwise
+	 */
+	public static boolean removeServiceListener(BundleContext context, ServiceListener listener) {
+		if (context == null || listener == null)
+			return false;
+
+		ServiceListener toRemove = null;
+		boolean removed = false;
+
+		synchronized (demultiplexers) {
+			ServiceEventDemultiplexer demux = demultiplexers.get(context);
+			if (demux != null) {
+				removed = demux.removeSubscription(listener);
+				if (demux.subscriptions.isEmpty()) {
+					demultiplexers.remove(context);
+					toRemove = demux.frameworkListener;
+				}
+			}
+		}
+
+		if (toRemove != null) {
+			OsgiListenerUtils.removeServiceListener(context, toRemove);
+		}
+		return removed;
+	}
+
+	private static void subscribe(BundleContext context, ServiceListener listener, String className, Filter filter) {
+		Assert.notNull(context);
+		Assert.notNull(listener);
+
+		synchronized (demultiplexers) {
+			ServiceEventDemultiplexer demux = demultiplexers.get(context);
+			if (demux == null) {
+				demux = new ServiceEventDemultiplexer(context);
+				try {
+					// no filter - the subscribers are matched internally
+					context.addServiceListener(demux.frameworkListener, null);
+				} catch (InvalidSyntaxException isex) {
+					// cannot happen (there is no filter)
+					throw (RuntimeException) new IllegalArgumentException("Invalid filter").initCause(isex);
+				}
+				demultiplexers.put(context, demux);
+			}
+			demux.addSubscription(new Subscription(listener, className, filter));
+		}
+	}
+
+	private static void dispatchServiceRegistrationEvents(ServiceReference[] alreadyRegistered,
+			ServiceListener listener) {
+		if (log.isTraceEnabled())
+			log.trace("Calling listener for already registered services: "
+					+ ObjectUtils.nullSafeToString(alreadyRegistered));
+
+		if (alreadyRegistered != null) {
+			for (int i = 0; i < alreadyRegistered.length; i++) {
+				listener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, alreadyRegistered[i]));
+			}
+		}
+	}
+
+	private static String filterToString(Filter filter) {
+		return (filter == null ? null : filter.toString());
+	}
+
+	private void addSubscription(Subscription subscription) {
+		// replace any previous subscription of the same listener
+		removeSubscription(subscription.listener);
+		subscriptions.put(subscription.listener, subscription);
+
+		if (subscription.className == null) {
+			unindexedSubscriptions.add(subscription);
+		} else {
+			List<Subscription> list = indexedSubscriptions.get(subscription.className);
+			if (list == null) {
+				list = new CopyOnWriteArrayList<Subscription>();
+				indexedSubscriptions.put(subscription.className, list);
+			}
+			list.add(subscription);
+		}
+	}
+
+	private boolean removeSubscription(ServiceListener listener) {
+		Subscription subscription = subscriptions.remove(listener);
+		if (subscription == null) {
+			return false;
+		}
+
+		if (subscription.className == null) {
+			unindexedSubscriptions.remove(subscription);
+		} else {
+			List<Subscription> list = indexedSubscriptions.get(subscription.className);
+			if (list != null) {
+				list.remove(subscription);
+				if (list.isEmpty()) {
+					indexedSubscriptions.remove(subscription.className);
+				}
+			}
+		}
+		return true;
+	}
+
+	private void dispatch(ServiceEvent event) {
+		String[] classes = OsgiServiceReferenceUtils.getServiceObjectClasses(event.getServiceReference());
+
+		if (classes != null) {
+			for (int i = 0; i < classes.length; i++) {
+				List<Subscription> list = indexedSubscriptions.get(classes[i]);
+				if (list != null) {
+					for (Subscription subscription : list) {
+						subscription.deliver(event);
+					}
+				}
+			}
+		}
+
+		for (Subscription subscription : unindexedSubscriptions) {
+			subscription.deliver(event);
+		}
+	}
+
+	public String toString() {
+		return "ServiceEventDemultiplexer for bundle context " + bundleContext;
+	}
+}
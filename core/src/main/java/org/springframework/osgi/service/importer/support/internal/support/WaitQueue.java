@@ -0,0 +1,99 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.support;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free alternative to a notification monitor. Waiting threads are parked in a queue and woken up individually
+ * through {@link LockSupport#unpark(Thread)} instead of competing for the same monitor after a
+ * <code>notifyAll()</code>.
+ *
+ * <p/> Each signal increments an internal epoch; a waiter returns as soon as it observes an epoch different from the
+ * one read before parking, which makes lost wake-ups impossible and spurious unparks harmless.
+ *
+ * @author Costin Leau
+ */
+public class WaitQueue {
+
+	private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+	private final AtomicLong epoch = new AtomicLong();
+
+	/**
+	 * Parks the calling thread until the queue is signalled or the given time elapses. Similar to
+	 * {@link Object#wait(long)}, a return does not guarantee that the awaited condition is met - callers are expected
+	 * to recheck it.
+	 *
+	 * @param waitTime maximum time to wait (in millis); non-positive values cause an immediate return
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void await(long waitTime) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		if (waitTime <= 0) {
+			return;
+		}
+
+		long currentEpoch = epoch.get();
+		Thread current = Thread.currentThread();
+		waiters.add(current);
+
+		try {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitTime);
+
+			while (epoch.get() == currentEpoch) {
+				long left = deadline - System.nanoTime();
+				if (left <= 0) {
+					return;
+				}
+				LockSupport.parkNanos(left);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		} finally {
+			waiters.remove(current);
+		}
+	}
+
+	/**
+	 * Wakes up all the threads currently waiting on this queue.
+	 */
+	public void signalAll() {
+		// advance the epoch first so that threads about to park notice the signal
+		epoch.incrementAndGet();
+
+		Thread waiter;
+		while ((waiter = waiters.poll()) != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	/**
+	 * Returns an (approximate) number of threads waiting on this queue.
+	 *
+	 * @return number of waiting threads
+	 */
+	public int getWaitingCount() {
+		return waiters.size();
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+/**
+ * Insertion-ordered map specialized for primitive <code>long</code> keys (such as service ids). Unlike a
+ * <code>Map&lt;Long, V&gt;</code>, lookups and updates do not box the keys and no entry objects are created: the
+ * entries are kept in parallel arrays (in insertion order) while an open addressing table (with linear probing) maps
+ * the keys to their position. Removed entries leave a hole which is reclaimed on the next resize.
+ * 
+ * <p/> Null values are not supported (a null return value indicates a missing key).
+ * 
+ * <p/> This class is not thread-safe.
+ * 
+ * @author Costin Leau
+ */
+public class LongHashMap<V> {
+
+	private static final int MIN_CAPACITY = 8;
+
+	/** keys in insertion order */
+	private long[] keys;
+
+	/** values in insertion order (null for removed entries) */
+	private Object[] values;
+
+	/** hash table holding the entry positions (plus one; zero marks a free slot) */
+	private int[] table;
+
+	/** number of used entry positions (including the removed ones) */
+	private int count;
+
+	/** number of live entries */
+	private int size;
+
+
+	public LongHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	public LongHashMap(int initialCapacity) {
+		allocate(capacityFor(initialCapacity));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return (size == 0);
+	}
+
+	public boolean containsKey(long key) {
+		return (find(key) >= 0);
+	}
+
+	public V get(long key) {
+		int slot = find(key);
+		return (slot >= 0 ? valueAt(table[slot] - 1) : null);
+	}
+
+	/**
+	 * Associates the given value to the given key. A new key is placed after all the existing ones; replacing the value
+	 * of an existing key keeps its position.
+	 * 
+	 * @param key key
+	 * @param value value (non-null)
+	 * @return the previous value or null if the key was not present
+	 */
+	public V put(long key, V value) {
+		Assert.notNull(value, "null values are not supported");
+		int slot = find(key);
+		if (slot >= 0) {
+			int index = table[slot] - 1;
+			V old = valueAt(index);
+			values[index] = value;
+			return old;
+		}
+
+		if (count == keys.length) {
+			// compact the holes or grow
+			resize(size < keys.length / 2 ? keys.length : keys.length * 2);
+		}
+		keys[count] = key;
+		values[count] = value;
+		count++;
+		size++;
+		table[freeSlot(key)] = count;
+		return null;
+	}
+
+	public V remove(long key) {
+		int slot = find(key);
+		if (slot < 0)
+			return null;
+
+		int index = table[slot] - 1;
+		V old = valueAt(index);
+		values[index] = null;
+		size--;
+		deleteSlot(slot);
+
+		if (size == 0) {
+			// no holes left to keep track of
+			count = 0;
+		}
+		return old;
+	}
+
+	public void clear() {
+		for (int i = 0; i < count; i++) {
+			values[i] = null;
+		}
+		for (int i = 0; i < table.length; i++) {
+			table[i] = 0;
+		}
+		count = 0;
+		size = 0;
+	}
+
+	/**
+	 * Returns the keys, in insertion order.
+	 * 
+	 * @return array of keys
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int j = 0;
+		for (int i = 0; i < count; i++) {
+			if (values[i] != null)
+				result[j++] = keys[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a copy of the values, in insertion order.
+	 * 
+	 * @return list of values
+	 */
+	public List<V> values() {
+		List<V> result = new ArrayList<V>(size);
+		for (int i = 0; i < count; i++) {
+			if (values[i] != null)
+				result.add(valueAt(i));
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V valueAt(int index) {
+		return (V) values[index];
+	}
+
+	/**
+	 * Returns the slot holding the given key or -1 if the key is not present.
+	 */
+	private int find(long key) {
+		int mask = table.length - 1;
+		int slot = hash(key) & mask;
+		int entry;
+		while ((entry = table[slot]) != 0) {
+			if (keys[entry - 1] == key)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private int freeSlot(long key) {
+		int mask = table.length - 1;
+		int slot = hash(key) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Frees the given slot by shifting back the following entries of the probe sequence (so no tombstones are needed).
+	 */
+	private void deleteSlot(int slot) {
+		int mask = table.length - 1;
+		int free = slot;
+		int current = (slot + 1) & mask;
+		int entry;
+		while ((entry = table[current]) != 0) {
+			int home = hash(keys[entry - 1]) & mask;
+			// move the entry if its home slot is not (cyclically) between the free slot and its current position
+			boolean move = (current > free ? (home <= free || home > current) : (home <= free && home > current));
+			if (move) {
+				table[free] = entry;
+				free = current;
+			}
+			current = (current + 1) & mask;
+		}
+		table[free] = 0;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		int oldCount = count;
+
+		allocate(capacity);
+		for (int i = 0; i < oldCount; i++) {
+			if (oldValues[i] != null) {
+				keys[count] = oldKeys[i];
+				values[count] = oldValues[i];
+				count++;
+				table[freeSlot(oldKeys[i])] = count;
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		// keep the load factor of the table under 0.5
+		table = new int[capacity * 2];
+		count = 0;
+	}
+
+	private static int capacityFor(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expected) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int hash(long key) {
+		// service ids are consecutive - spread them across the table
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
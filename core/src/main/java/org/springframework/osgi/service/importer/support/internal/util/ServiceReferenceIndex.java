@@ -0,0 +1,131 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.util;
+
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.springframework.osgi.util.OsgiServiceReferenceUtils;
+
+/**
+ * Priority-ordered index of service references. The references are ordered by their ranking (highest first) and then
+ * by their service id (lowest first), that is the same order used by the OSGi platform for selecting the <em>best</em>
+ * service. Additions, updates and removals are done in O(log n) while the best candidate is available in constant
+ * time, without querying the service registry.
+ *
+ * <p/> The ranking and service id are read only when a reference is added or updated; the index should be informed
+ * of any ranking changes (through {@link #add(ServiceReference)}) to keep its order consistent.
+ *
+ * <p/> This class is thread-safe.
+ *
+ * @author Costin Leau
+ */
+public class ServiceReferenceIndex {
+
+	/**
+	 * Immutable index entry.
+	 */
+	private static class Entry implements Comparable<Entry> {
+
+		private final ServiceReference reference;
+		private final long id;
+		private final int ranking;
+
+		Entry(ServiceReference reference) {
+			this.reference = reference;
+			this.id = OsgiServiceReferenceUtils.getServiceId(reference);
+			this.ranking = OsgiServiceReferenceUtils.getServiceRanking(reference);
+		}
+
+		public int compareTo(Entry other) {
+			// higher ranking first
+			if (ranking != other.ranking) {
+				return (ranking > other.ranking ? -1 : 1);
+			}
+			// lower id first
+			return (id < other.id ? -1 : (id == other.id ? 0 : 1));
+		}
+	}
+
+	private final TreeSet<Entry> entries = new TreeSet<Entry>();
+
+	private final LongHashMap<Entry> entriesById = new LongHashMap<Entry>(8);
+
+	/**
+	 * Adds the given reference to the index. If the reference is already present, its position is updated (to reflect
+	 * any ranking change).
+	 *
+	 * @param reference service reference
+	 */
+	public synchronized void add(ServiceReference reference) {
+		Entry entry = new Entry(reference);
+		Entry old = entriesById.put(entry.id, entry);
+		if (old != null) {
+			entries.remove(old);
+		}
+		entries.add(entry);
+	}
+
+	/**
+	 * Removes the given reference from the index.
+	 *
+	 * @param reference service reference
+	 * @return true if the reference was indexed, false otherwise
+	 */
+	public synchronized boolean remove(ServiceReference reference) {
+		Entry old = entriesById.remove(OsgiServiceReferenceUtils.getServiceId(reference));
+		if (old != null) {
+			entries.remove(old);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the best indexed reference that is still valid. References whose services have been unregistered or that
+	 * do not match the given filter anymore are discarded from the index.
+	 *
+	 * @param filter filter to validate the candidates against (can be <code>null</code>)
+	 * @return best valid reference or <code>null</code> if there is none
+	 */
+	public synchronized ServiceReference getBest(Filter filter) {
+		for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext();) {
+			Entry entry = iterator.next();
+			ServiceReference reference = entry.reference;
+
+			// unregistered services have no bundle
+			if (reference.getBundle() != null && (filter == null || filter.match(reference))) {
+				return reference;
+			}
+
+			iterator.remove();
+			entriesById.remove(entry.id);
+		}
+		return null;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		entriesById.clear();
+	}
+}
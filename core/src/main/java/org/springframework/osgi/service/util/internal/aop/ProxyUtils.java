@@ -16,24 +16,62 @@
 
 package org.springframework.osgi.service.util.internal.aop;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.List;
 
 import org.aopalliance.aop.Advice;
 import org.osgi.framework.BundleContext;
+import org.springframework.aop.framework.AopConfigException;
+import org.springframework.aop.framework.AopProxy;
+import org.springframework.aop.framework.AopProxyUtils;
 import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.osgi.context.support.internal.classloader.ChainedClassLoader;
+import org.springframework.osgi.context.support.internal.classloader.ProxyClassCache;
 import org.springframework.osgi.util.DebugUtils;
 import org.springframework.osgi.util.internal.ClassUtils;
 
 /**
  * Simple utility for creating Spring AOP proxies.
  * 
+ * <p/> JDK proxies created through an AOP class loader that caches its proxy classes (see {@link ProxyClassCache}) are
+ * instantiated directly from the cached proxy class.
+ * 
  * @author Costin Leau
  * 
  */
 public abstract class ProxyUtils {
 
+	/**
+	 * Proxy factory reusing the cached JDK proxy classes of the target class loader (if any).
+	 */
+	private static class CachingProxyFactory extends ProxyFactory {
+
+		public Object getProxy(ClassLoader classLoader) {
+			AopProxy aopProxy = createAopProxy();
+
+			// JDK proxy - the invocation handler is the AOP proxy itself
+			if (aopProxy instanceof InvocationHandler && classLoader instanceof ChainedClassLoader) {
+				ProxyClassCache cache = ((ChainedClassLoader) classLoader).getProxyClassCache();
+				if (cache != null) {
+					Constructor<?> constructor =
+							cache.getProxyConstructor(AopProxyUtils.completeProxiedInterfaces(this));
+					if (constructor != null) {
+						try {
+							return constructor.newInstance(new Object[] { aopProxy });
+						} catch (Exception ex) {
+							throw new AopConfigException("Cannot instantiate JDK proxy", ex);
+						}
+					}
+				}
+			}
+
+			return aopProxy.getProxy(classLoader);
+		}
+	}
+
 	public static Object createProxy(Class<?>[] classes, Object target, ClassLoader classLoader,
 			BundleContext bundleContext, List advices) {
 		return createProxy(classes, target, classLoader, bundleContext, (advices != null ? (Advice[]) advices
@@ -42,7 +80,7 @@ public abstract class ProxyUtils {
 
 	public static Object createProxy(Class<?>[] classes, Object target, final ClassLoader classLoader,
 			BundleContext bundleContext, Advice[] advices) {
-		final ProxyFactory factory = new ProxyFactory();
+		final ProxyFactory factory = new CachingProxyFactory();
 
 		ClassUtils.configureFactoryForClass(factory, classes);
 
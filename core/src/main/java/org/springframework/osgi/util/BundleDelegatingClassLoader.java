@@ -49,6 +49,12 @@ public class BundleDelegatingClassLoader extends ClassLoader {
 
 	private final Bundle backingBundle;
 
+	/** lookup cache (null if disabled) */
+	private final BundleLookupCache lookupCache;
+
+	/** class loading profile (created on first use) */
+	private volatile ClassLoadingProfile profile;
+
 
 	/**
 	 * Factory method for creating a class loader over the given bundle.
@@ -71,10 +77,30 @@ public class BundleDelegatingClassLoader extends ClassLoader {
 	 * @return class loader adapter over the given bundle and class loader
 	 */
 	public static BundleDelegatingClassLoader createBundleClassLoaderFor(final Bundle bundle, final ClassLoader bridge) {
+		return createBundleClassLoaderFor(bundle, bridge, 0);
+	}
+
+	/**
+	 * Factory method for creating a class loader over the given bundle, with a given class loader as fall-back and a
+	 * lookup cache of the given size. The cache remembers the result (successful or not) of the class and resource
+	 * lookups done against the bundle, avoiding repeated searches of the bundle wiring. The cache is discarded when the
+	 * bundle is updated or unresolved (see {@link ClassLoaderCaches#invalidate(Bundle)}).
+	 * 
+	 * <p/> Since unsuccessful lookups are cached as well, the cache should not be used for bundles relying on dynamic
+	 * imports whose providers can appear at any time.
+	 * 
+	 * @param bundle bundle used for class loading and resource acquisition
+	 * @param bridge class loader used as fall back in case the bundle cannot load a class or find a resource. Can be
+	 *        <code>null</code>
+	 * @param lookupCacheSize maximum number of cached lookups (0 disables the cache)
+	 * @return class loader adapter over the given bundle and class loader
+	 */
+	public static BundleDelegatingClassLoader createBundleClassLoaderFor(final Bundle bundle, final ClassLoader bridge,
+			final int lookupCacheSize) {
 		return AccessController.doPrivileged(new PrivilegedAction<BundleDelegatingClassLoader>() {
 
 			public BundleDelegatingClassLoader run() {
-				return new BundleDelegatingClassLoader(bundle, bridge);
+				return new BundleDelegatingClassLoader(bundle, bridge, lookupCacheSize);
 			}
 		});
 	}
@@ -88,17 +114,72 @@ public class BundleDelegatingClassLoader extends ClassLoader {
 	 * @param bridgeLoader
 	 */
 	protected BundleDelegatingClassLoader(Bundle bundle, ClassLoader bridgeLoader) {
+		this(bundle, bridgeLoader, 0);
+	}
+
+	/**
+	 * Constructs a new <code>BundleDelegatingClassLoader</code> instance.
+	 * 
+	 * @param bundle
+	 * @param bridgeLoader
+	 * @param lookupCacheSize
+	 */
+	protected BundleDelegatingClassLoader(Bundle bundle, ClassLoader bridgeLoader, int lookupCacheSize) {
 		super(null);
 		Assert.notNull(bundle, "bundle should be non-null");
+		Assert.isTrue(lookupCacheSize >= 0, "the cache size cannot be negative");
 		this.backingBundle = bundle;
 		this.bridge = bridgeLoader;
+		this.lookupCache = (lookupCacheSize > 0 ? new BundleLookupCache(bundle, lookupCacheSize) : null);
 	}
 
 	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		ClassLoadingProfile loadingProfile = getProfile();
+		if (loadingProfile == null) {
+			return doFindClass(name);
+		}
+
+		long start = System.nanoTime();
+		try {
+			Class<?> clazz = doFindClass(name);
+			loadingProfile.recordClassLoad(name, System.nanoTime() - start, true);
+			return clazz;
+		}
+		catch (ClassNotFoundException cnfe) {
+			loadingProfile.recordClassLoad(name, System.nanoTime() - start, false);
+			throw cnfe;
+		}
+		catch (LinkageError err) {
+			loadingProfile.recordClassLoadFailure(name, System.nanoTime() - start);
+			throw err;
+		}
+	}
+
+	private Class<?> doFindClass(String name) throws ClassNotFoundException {
+		Object cached = null;
+		if (lookupCache != null) {
+			cached = lookupCache.getClass(name);
+			if (cached instanceof Class) {
+				return (Class<?>) cached;
+			}
+			// known miss (already reported)
+			if (cached == BundleLookupCache.MISS) {
+				throw new ClassNotFoundException(name + " not found from bundle [" + backingBundle.getSymbolicName()
+						+ "]");
+			}
+		}
+
 		try {
-			return this.backingBundle.loadClass(name);
+			Class<?> clazz = this.backingBundle.loadClass(name);
+			if (lookupCache != null) {
+				lookupCache.putClass(name, clazz);
+			}
+			return clazz;
 		}
 		catch (ClassNotFoundException cnfe) {
+			if (lookupCache != null) {
+				lookupCache.putClass(name, null);
+			}
 			DebugUtils.debugClassLoading(backingBundle, name, null);
 			throw new ClassNotFoundException(name + " not found from bundle [" + backingBundle.getSymbolicName() + "]",
 				cnfe);
@@ -117,11 +198,37 @@ public class BundleDelegatingClassLoader extends ClassLoader {
 	}
 
 	protected URL findResource(String name) {
+		ClassLoadingProfile loadingProfile = getProfile();
+		if (loadingProfile == null) {
+			return doFindResource(name);
+		}
+
+		long start = System.nanoTime();
+		URL url = doFindResource(name);
+		loadingProfile.recordResourceLoad(name, System.nanoTime() - start, url != null);
+		return url;
+	}
+
+	private URL doFindResource(String name) {
 		boolean trace = log.isTraceEnabled();
 
 		if (trace)
 			log.trace("Looking for resource " + name);
-		URL url = this.backingBundle.getResource(name);
+
+		URL url;
+		if (lookupCache != null) {
+			Object cached = lookupCache.getResource(name);
+			if (cached == null) {
+				url = this.backingBundle.getResource(name);
+				lookupCache.putResource(name, url);
+			}
+			else {
+				url = (cached == BundleLookupCache.MISS ? null : (URL) cached);
+			}
+		}
+		else {
+			url = this.backingBundle.getResource(name);
+		}
 
 		if (trace && url != null)
 			log.trace("Found resource " + name + " at " + url);
@@ -168,10 +275,45 @@ public class BundleDelegatingClassLoader extends ClassLoader {
 		return clazz;
 	}
 
+	/**
+	 * Returns the profile used for recording the loads, if profiling is enabled.
+	 * 
+	 * @return class loading profile or null if profiling is disabled
+	 */
+	private ClassLoadingProfile getProfile() {
+		if (!ClassLoadingProfiler.isEnabled()) {
+			return null;
+		}
+		ClassLoadingProfile loadingProfile = profile;
+		if (loadingProfile == null) {
+			loadingProfile = ClassLoadingProfiler.getProfile(backingBundle);
+			profile = loadingProfile;
+		}
+		return loadingProfile;
+	}
+
 	public String toString() {
 		return "BundleDelegatingClassLoader for [" + OsgiStringUtils.nullSafeNameAndSymName(backingBundle) + "]";
 	}
 
+	/**
+	 * Returns the statistics of the lookup cache used by this class loader.
+	 * 
+	 * @return cache statistics or <code>null</code> if the class loader does not cache its lookups
+	 */
+	public LookupCacheStatistics getLookupCacheStatistics() {
+		return (lookupCache != null ? lookupCache.getStatistics() : null);
+	}
+
+	/**
+	 * Discards the content of the lookup cache (if any).
+	 */
+	public void clearLookupCache() {
+		if (lookupCache != null) {
+			lookupCache.clear();
+		}
+	}
+
 	/**
 	 * Returns the bundle to which this class loader delegates calls to.
 	 * 
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.util;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Bounded cache of the class and resource lookups done against a bundle, including the unsuccessful ones. Lookups do
+ * not lock; once the cache is full, arbitrary entries are evicted to make room for the new ones. The cache discards
+ * its content once the bundle wiring changes (see {@link ClassLoaderCaches#invalidate(Bundle)}).
+ * 
+ * @author Costin Leau
+ */
+class BundleLookupCache {
+
+	/** marker for unsuccessful lookups */
+	static final Object MISS = new Object();
+
+	private final Bundle bundle;
+
+	private final int maxSize;
+
+	private final ConcurrentMap<String, Object> classes = new ConcurrentHashMap<String, Object>(64);
+
+	private final ConcurrentMap<String, Object> resources = new ConcurrentHashMap<String, Object>(64);
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final LookupCacheStatistics statistics;
+
+	private volatile int generation;
+
+
+	BundleLookupCache(Bundle bundle, int maxSize) {
+		this.bundle = bundle;
+		this.maxSize = maxSize;
+		this.statistics = new LookupCacheStatistics(maxSize);
+		this.generation = ClassLoaderCaches.getGeneration(bundle);
+	}
+
+	/**
+	 * Returns the cached class lookup.
+	 * 
+	 * @param name class name
+	 * @return the class, {@link #MISS} or null if the lookup is not cached
+	 */
+	Object getClass(String name) {
+		validate();
+		Object value = classes.get(name);
+		statistics.recordClassLookup(value != null);
+		return value;
+	}
+
+	void putClass(String name, Class<?> clazz) {
+		put(classes, name, (clazz != null ? clazz : MISS));
+	}
+
+	/**
+	 * Returns the cached resource lookup.
+	 * 
+	 * @param name resource name
+	 * @return the resource, {@link #MISS} or null if the lookup is not cached
+	 */
+	Object getResource(String name) {
+		validate();
+		Object value = resources.get(name);
+		statistics.recordResourceLookup(value != null);
+		return value;
+	}
+
+	void putResource(String name, URL url) {
+		put(resources, name, (url != null ? url : MISS));
+	}
+
+	LookupCacheStatistics getStatistics() {
+		return statistics;
+	}
+
+	void clear() {
+		classes.clear();
+		resources.clear();
+		size.set(0);
+		statistics.setSize(0);
+	}
+
+	private void put(ConcurrentMap<String, Object> map, String name, Object value) {
+		if (map.putIfAbsent(name, value) == null) {
+			if (size.incrementAndGet() > maxSize) {
+				if (!evict(classes, name))
+					evict(resources, name);
+			}
+			statistics.setSize(size.get());
+		}
+	}
+
+	private boolean evict(ConcurrentMap<String, Object> map, String keep) {
+		for (Iterator<String> iterator = map.keySet().iterator(); iterator.hasNext();) {
+			String key = iterator.next();
+			if (!key.equals(keep) && map.remove(key) != null) {
+				size.decrementAndGet();
+				statistics.recordEviction();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void validate() {
+		int current = ClassLoaderCaches.getGeneration(bundle);
+		if (current != generation) {
+			generation = current;
+			clear();
+			statistics.recordInvalidation();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.Bundle;
+import org.springframework.util.Assert;
+
+/**
+ * Coordinates the invalidation of the class loading caches maintained by the Spring DM class loaders (such as the
+ * package indexes and the negative lookup caches). The caches depend on the bundle wiring and thus need to be
+ * discarded when bundles are resolved, unresolved or refreshed; the Spring DM extender does so automatically based on
+ * the bundle events (and discards the data kept for a bundle once it is uninstalled).
+ * 
+ * <p/> Invalidation is cheap: it increments a generation (global or per bundle) which the caches check (without
+ * locking) on their next access.
+ * 
+ * <p/> Additionally, this class holds the size of the lookup cache used by the bundle class loaders created by Spring
+ * DM (see {@link BundleDelegatingClassLoader#createBundleClassLoaderFor(Bundle, ClassLoader, int)}).
+ * 
+ * @author Costin Leau
+ */
+public abstract class ClassLoaderCaches {
+
+	private static volatile int generation = 0;
+
+	/** bundle id -> bundle generation */
+	private static final ConcurrentMap<Long, AtomicInteger> bundleGenerations =
+			new ConcurrentHashMap<Long, AtomicInteger>(32);
+
+	private static volatile int bundleLookupCacheSize = 0;
+
+
+	/**
+	 * Returns the current cache generation. Caches built under a different generation are stale.
+	 * 
+	 * @return current generation
+	 */
+	public static int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Invalidates all the class loading caches.
+	 */
+	public static void invalidate() {
+		synchronized (ClassLoaderCaches.class) {
+			generation++;
+		}
+	}
+
+	/**
+	 * Returns the cache generation of the given bundle.
+	 * 
+	 * @param bundle OSGi bundle
+	 * @return bundle generation
+	 */
+	public static int getGeneration(Bundle bundle) {
+		AtomicInteger bundleGeneration = bundleGenerations.get(Long.valueOf(bundle.getBundleId()));
+		return (bundleGeneration != null ? bundleGeneration.get() : 0);
+	}
+
+	/**
+	 * Invalidates the class loading caches of the given bundle. Should be called when the bundle is updated or
+	 * unresolved.
+	 * 
+	 * @param bundle OSGi bundle
+	 */
+	public static void invalidate(Bundle bundle) {
+		Assert.notNull(bundle);
+		Long id = Long.valueOf(bundle.getBundleId());
+		AtomicInteger bundleGeneration = bundleGenerations.get(id);
+		if (bundleGeneration == null) {
+			AtomicInteger created = new AtomicInteger();
+			bundleGeneration = bundleGenerations.putIfAbsent(id, created);
+			if (bundleGeneration == null)
+				bundleGeneration = created;
+		}
+		bundleGeneration.incrementAndGet();
+	}
+
+	/**
+	 * Discards the cache generation of the given bundle. Should be called once the bundle is uninstalled (bundle ids
+	 * are not reused).
+	 * 
+	 * @param bundle OSGi bundle
+	 */
+	public static void remove(Bundle bundle) {
+		Assert.notNull(bundle);
+		bundleGenerations.remove(Long.valueOf(bundle.getBundleId()));
+	}
+
+	/**
+	 * Returns the number of bundles with a cache generation.
+	 * 
+	 * @return number of tracked bundles
+	 */
+	static int getBundleGenerationCount() {
+		return bundleGenerations.size();
+	}
+
+	/**
+	 * Returns the lookup cache size of the bundle class loaders created by Spring DM.
+	 * 
+	 * @return lookup cache size (0 if caching is disabled)
+	 */
+	public static int getBundleLookupCacheSize() {
+		return bundleLookupCacheSize;
+	}
+
+	/**
+	 * Sets the lookup cache size of the bundle class loaders created (from now on) by Spring DM. Default is 0 (no
+	 * caching).
+	 * 
+	 * @param size maximum number of cached lookups per class loader (0 disables the caching)
+	 */
+	public static void setBundleLookupCacheSize(int size) {
+		Assert.isTrue(size >= 0, "the cache size cannot be negative");
+		bundleLookupCacheSize = size;
+	}
+}
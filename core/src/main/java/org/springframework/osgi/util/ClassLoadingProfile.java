@@ -0,0 +1,232 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class loading profile of a bundle (or of a class loader): number and cumulative time of the class and resource
+ * loads, the misses (classes or resources not found), the failures (linkage errors) and the slowest individual loads.
+ * The times are inclusive - a load that goes through several (profiled) class loaders is accounted by each of them.
+ * 
+ * <p/> This class is thread-safe; the values are updated live.
+ * 
+ * @author Costin Leau
+ * @see ClassLoadingProfiler
+ */
+public class ClassLoadingProfile {
+
+	/** number of slowest loads kept */
+	public static final int SLOWEST_LOADS = 10;
+
+	private final String name;
+
+	private final AtomicLong classLoads = new AtomicLong();
+	private final AtomicLong classLoadTime = new AtomicLong();
+	private final AtomicLong classMisses = new AtomicLong();
+	private final AtomicLong classFailures = new AtomicLong();
+	private final AtomicLong resourceLoads = new AtomicLong();
+	private final AtomicLong resourceLoadTime = new AtomicLong();
+	private final AtomicLong resourceMisses = new AtomicLong();
+
+	/** slowest loads, ordered by their duration (descending) */
+	private final String[] slowestNames = new String[SLOWEST_LOADS];
+	private final long[] slowestTimes = new long[SLOWEST_LOADS];
+	private int slowestCount = 0;
+	/** duration under which a load cannot enter the slowest list (read without locking) */
+	private volatile long slowestThreshold = 0;
+
+
+	ClassLoadingProfile(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records a class load.
+	 * 
+	 * @param className class name
+	 * @param nanos load duration (in nanoseconds)
+	 * @param found whether the class was found or not
+	 */
+	public void recordClassLoad(String className, long nanos, boolean found) {
+		classLoads.incrementAndGet();
+		classLoadTime.addAndGet(nanos);
+		if (!found) {
+			classMisses.incrementAndGet();
+		}
+		recordSlowest(className, nanos);
+	}
+
+	/**
+	 * Records a class load that failed with an error (such as a {@link NoClassDefFoundError}).
+	 * 
+	 * @param className class name
+	 * @param nanos load duration (in nanoseconds)
+	 */
+	public void recordClassLoadFailure(String className, long nanos) {
+		classLoads.incrementAndGet();
+		classLoadTime.addAndGet(nanos);
+		classFailures.incrementAndGet();
+		recordSlowest(className, nanos);
+	}
+
+	/**
+	 * Records a resource load.
+	 * 
+	 * @param resourceName resource name
+	 * @param nanos load duration (in nanoseconds)
+	 * @param found whether the resource was found or not
+	 */
+	public void recordResourceLoad(String resourceName, long nanos, boolean found) {
+		resourceLoads.incrementAndGet();
+		resourceLoadTime.addAndGet(nanos);
+		if (!found) {
+			resourceMisses.incrementAndGet();
+		}
+		recordSlowest(resourceName, nanos);
+	}
+
+	private void recordSlowest(String loadedName, long nanos) {
+		if (nanos <= slowestThreshold)
+			return;
+
+		synchronized (slowestNames) {
+			int index;
+			if (slowestCount < SLOWEST_LOADS) {
+				index = slowestCount++;
+			}
+			else {
+				// the list might have changed in the meantime
+				if (nanos <= slowestTimes[SLOWEST_LOADS - 1])
+					return;
+				index = SLOWEST_LOADS - 1;
+			}
+			// insertion sort
+			while (index > 0 && slowestTimes[index - 1] < nanos) {
+				slowestNames[index] = slowestNames[index - 1];
+				slowestTimes[index] = slowestTimes[index - 1];
+				index--;
+			}
+			slowestNames[index] = loadedName;
+			slowestTimes[index] = nanos;
+
+			if (slowestCount == SLOWEST_LOADS) {
+				slowestThreshold = slowestTimes[SLOWEST_LOADS - 1];
+			}
+		}
+	}
+
+	/**
+	 * Returns the profile name (usually the bundle name and symbolic name).
+	 * 
+	 * @return profile name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public long getClassLoads() {
+		return classLoads.get();
+	}
+
+	/**
+	 * Returns the cumulative time spent loading classes.
+	 * 
+	 * @return class loading time (in nanoseconds)
+	 */
+	public long getClassLoadTime() {
+		return classLoadTime.get();
+	}
+
+	public long getClassMisses() {
+		return classMisses.get();
+	}
+
+	public long getClassFailures() {
+		return classFailures.get();
+	}
+
+	public long getResourceLoads() {
+		return resourceLoads.get();
+	}
+
+	/**
+	 * Returns the cumulative time spent loading resources.
+	 * 
+	 * @return resource loading time (in nanoseconds)
+	 */
+	public long getResourceLoadTime() {
+		return resourceLoadTime.get();
+	}
+
+	public long getResourceMisses() {
+		return resourceMisses.get();
+	}
+
+	/**
+	 * Returns the slowest (class or resource) loads recorded so far, starting with the slowest one.
+	 * 
+	 * @return map of loaded names and their duration (in nanoseconds)
+	 */
+	public Map<String, Long> getSlowestLoads() {
+		Map<String, Long> slowest = new LinkedHashMap<String, Long>(SLOWEST_LOADS);
+		synchronized (slowestNames) {
+			for (int i = 0; i < slowestCount; i++) {
+				// keep the slowest duration for names loaded more than once
+				if (!slowest.containsKey(slowestNames[i])) {
+					slowest.put(slowestNames[i], Long.valueOf(slowestTimes[i]));
+				}
+			}
+		}
+		return slowest;
+	}
+
+	void reset() {
+		classLoads.set(0);
+		classLoadTime.set(0);
+		classMisses.set(0);
+		classFailures.set(0);
+		resourceLoads.set(0);
+		resourceLoadTime.set(0);
+		resourceMisses.set(0);
+		synchronized (slowestNames) {
+			for (int i = 0; i < SLOWEST_LOADS; i++) {
+				slowestNames[i] = null;
+				slowestTimes[i] = 0;
+			}
+			slowestCount = 0;
+			slowestThreshold = 0;
+		}
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(name);
+		sb.append(" [classLoads=").append(getClassLoads());
+		sb.append(", classLoadTime=").append(getClassLoadTime() / 1000000).append("ms");
+		sb.append(", classMisses=").append(getClassMisses());
+		sb.append(", classFailures=").append(getClassFailures());
+		sb.append(", resourceLoads=").append(getResourceLoads());
+		sb.append(", resourceLoadTime=").append(getResourceLoadTime() / 1000000).append("ms");
+		sb.append(", resourceMisses=").append(getResourceMisses());
+		sb.append(", slowest=").append(getSlowestLoads());
+		sb.append("]");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.Bundle;
+import org.springframework.util.Assert;
+
+/**
+ * Class loading profiler for the Spring DM class loaders ({@link BundleDelegatingClassLoader} and the chained class
+ * loaders used for proxying). When enabled, each class loader records the class and resource loads it performs into
+ * the {@link ClassLoadingProfile} of its bundle; this allows one to determine how much of an application context
+ * startup is spent loading classes and which loads are the slowest.
+ * 
+ * <p/> Profiling is disabled by default - in this case the overhead for each load is a volatile read. The profiles
+ * are zeroed by {@link #reset()} and discarded once their bundle is uninstalled (see {@link #removeProfiles(Bundle)});
+ * they are included in the {@link DebugUtils} class loading diagnostics.
+ * 
+ * @author Costin Leau
+ */
+public abstract class ClassLoadingProfiler {
+
+	/** suffix of the profiles used by the chained class loaders */
+	private static final String CHAINED_SUFFIX = " [chained]";
+
+	private static volatile boolean enabled = false;
+
+	/** profile name -> profile */
+	private static final ConcurrentMap<String, ClassLoadingProfile> profiles =
+			new ConcurrentHashMap<String, ClassLoadingProfile>(32);
+
+
+	/**
+	 * Indicates whether the class loading profiling is enabled or not.
+	 * 
+	 * @return true if profiling is enabled, false otherwise
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables the class loading profiling. Disabling the profiling does not discard the recorded profiles.
+	 * 
+	 * @param enable true to enable profiling, false otherwise
+	 */
+	public static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+
+	/**
+	 * Returns the profile with the given name, creating it if needed.
+	 * 
+	 * @param name profile name
+	 * @return class loading profile
+	 */
+	public static ClassLoadingProfile getProfile(String name) {
+		Assert.notNull(name);
+		ClassLoadingProfile profile = profiles.get(name);
+		if (profile == null) {
+			ClassLoadingProfile created = new ClassLoadingProfile(name);
+			profile = profiles.putIfAbsent(name, created);
+			if (profile == null)
+				profile = created;
+		}
+		return profile;
+	}
+
+	/**
+	 * Returns the profile of the given bundle, creating it if needed.
+	 * 
+	 * @param bundle OSGi bundle
+	 * @return class loading profile
+	 */
+	public static ClassLoadingProfile getProfile(Bundle bundle) {
+		return getProfile(getProfileName(bundle));
+	}
+
+	/**
+	 * Returns the name of the profile associated with the given bundle.
+	 * 
+	 * @param bundle OSGi bundle
+	 * @return profile name
+	 */
+	public static String getProfileName(Bundle bundle) {
+		Assert.notNull(bundle);
+		return OsgiStringUtils.nullSafeNameAndSymName(bundle) + " (" + bundle.getBundleId() + ")";
+	}
+
+	/**
+	 * Returns the name of the profile used by the chained class loaders of the given bundle.
+	 * 
+	 * @param bundle OSGi bundle
+	 * @return profile name
+	 */
+	public static String getChainedProfileName(Bundle bundle) {
+		return getProfileName(bundle) + CHAINED_SUFFIX;
+	}
+
+	/**
+	 * Returns the recorded profiles, ordered by name.
+	 * 
+	 * @return map of profile names and profiles
+	 */
+	public static Map<String, ClassLoadingProfile> getProfiles() {
+		return Collections.unmodifiableMap(new TreeMap<String, ClassLoadingProfile>(profiles));
+	}
+
+	/**
+	 * Resets all the recorded profiles.
+	 */
+	public static void reset() {
+		// reset the profiles instead of removing them since the class loaders hold on to them
+		for (ClassLoadingProfile profile : profiles.values()) {
+			profile.reset();
+		}
+	}
+
+	/**
+	 * Discards the profiles (including the chained one) of the given bundle. Should be called once the bundle is
+	 * uninstalled.
+	 * 
+	 * @param bundle OSGi bundle
+	 */
+	public static void removeProfiles(Bundle bundle) {
+		profiles.remove(getProfileName(bundle));
+		profiles.remove(getChainedProfileName(bundle));
+	}
+
+	/**
+	 * Returns a textual report of the recorded profiles, starting with the ones with the highest class and resource
+	 * loading time.
+	 * 
+	 * @return profiling report
+	 */
+	public static String dump() {
+		List<ClassLoadingProfile> list = new ArrayList<ClassLoadingProfile>(profiles.values());
+		Collections.sort(list, new Comparator<ClassLoadingProfile>() {
+
+			public int compare(ClassLoadingProfile p1, ClassLoadingProfile p2) {
+				long t1 = p1.getClassLoadTime() + p1.getResourceLoadTime();
+				long t2 = p2.getClassLoadTime() + p2.getResourceLoadTime();
+				return (t1 < t2 ? 1 : (t1 == t2 ? 0 : -1));
+			}
+		});
+
+		StringBuilder sb = new StringBuilder("Class loading profiles:");
+		for (ClassLoadingProfile profile : list) {
+			if (profile.getClassLoads() > 0 || profile.getResourceLoads() > 0) {
+				sb.append("\n\t").append(profile);
+			}
+		}
+		return sb.toString();
+	}
+}
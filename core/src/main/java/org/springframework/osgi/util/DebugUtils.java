@@ -146,6 +146,10 @@ public abstract class DebugUtils {
 		if (trace)
 			log.trace("Could not find class [" + className + "] required by [" + bname + "] scanning available bundles");
 
+		if (ClassLoadingProfiler.isEnabled()) {
+			log.trace("Class loading profile of " + ClassLoadingProfiler.getProfile(bundle));
+		}
+
 		BundleContext context = OsgiBundleUtils.getBundleContext(bundle);
 		int pkgIndex = className.lastIndexOf('.');
 		// Reject global packages
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of a class loader lookup cache. A <em>hit</em> is a lookup answered by the cache (whether the class or
+ * resource was found or not) while a <em>miss</em> is a lookup forwarded to the bundle. Useful for sizing the cache.
+ * 
+ * <p/> This class is thread-safe; the values are updated live.
+ * 
+ * @author Costin Leau
+ * @see BundleDelegatingClassLoader#getLookupCacheStatistics()
+ */
+public class LookupCacheStatistics {
+
+	private final AtomicLong classHits = new AtomicLong();
+	private final AtomicLong classMisses = new AtomicLong();
+	private final AtomicLong resourceHits = new AtomicLong();
+	private final AtomicLong resourceMisses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	private final int maxSize;
+	private volatile int size;
+
+
+	LookupCacheStatistics(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public long getClassHits() {
+		return classHits.get();
+	}
+
+	public long getClassMisses() {
+		return classMisses.get();
+	}
+
+	public long getResourceHits() {
+		return resourceHits.get();
+	}
+
+	public long getResourceMisses() {
+		return resourceMisses.get();
+	}
+
+	/**
+	 * Returns the number of entries discarded to keep the cache within its bounds.
+	 * 
+	 * @return number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of times the cache has been discarded (due to bundle wiring changes).
+	 * 
+	 * @return number of invalidations
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Returns the current number of cached entries (classes and resources).
+	 * 
+	 * @return cache size
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the maximum number of cached entries.
+	 * 
+	 * @return cache capacity
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns the ratio of the lookups answered by the cache.
+	 * 
+	 * @return hit ratio (between 0 and 1)
+	 */
+	public double getHitRatio() {
+		long hits = getClassHits() + getResourceHits();
+		long total = hits + getClassMisses() + getResourceMisses();
+		return (total == 0 ? 0 : (double) hits / total);
+	}
+
+	void recordClassLookup(boolean hit) {
+		(hit ? classHits : classMisses).incrementAndGet();
+	}
+
+	void recordResourceLookup(boolean hit) {
+		(hit ? resourceHits : resourceMisses).incrementAndGet();
+	}
+
+	void recordEviction() {
+		evictions.incrementAndGet();
+	}
+
+	void recordInvalidation() {
+		invalidations.incrementAndGet();
+	}
+
+	void setSize(int size) {
+		this.size = size;
+	}
+
+	public String toString() {
+		return "LookupCacheStatistics[size=" + size + "/" + maxSize + ", classHits=" + getClassHits()
+				+ ", classMisses=" + getClassMisses() + ", resourceHits=" + getResourceHits() + ", resourceMisses="
+				+ getResourceMisses() + ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + "]";
+	}
+}
@@ -18,13 +18,18 @@ package org.springframework.osgi.context.internal.classloader;
 
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
 import org.osgi.framework.Bundle;
 import org.springframework.osgi.TestUtils;
 import org.springframework.osgi.context.support.internal.classloader.ChainedClassLoader;
+import org.springframework.osgi.util.ClassLoaderCaches;
 
 /**
  * @author Costin Leau
@@ -128,4 +133,148 @@ public class ChainedClassLoaderTest extends TestCase {
 		assertSame(appLoader, list.get(0));
 		assertSame(extLoader, list.get(1));
 	}
+
+	public void testNegativeCache() throws Exception {
+		CountingClassLoader counting = new CountingClassLoader();
+		chainedLoader = new ChainedClassLoader(new ClassLoader[] { counting }, emptyCL);
+
+		for (int i = 0; i < 3; i++) {
+			try {
+				chainedLoader.loadClass("org.osgi.framework.Bundle");
+				fail("should not be able to load classes");
+			}
+			catch (ClassNotFoundException cnfe) {
+				// expected
+			}
+		}
+		assertEquals(1, counting.lookups);
+
+		// adding a loader invalidates the cache
+		chainedLoader.addClassLoader(Bundle.class.getClassLoader());
+		assertSame(Bundle.class, chainedLoader.loadClass("org.osgi.framework.Bundle"));
+	}
+
+	public void testCacheInvalidation() throws Exception {
+		CountingClassLoader counting = new CountingClassLoader();
+		chainedLoader = new ChainedClassLoader(new ClassLoader[] { counting }, emptyCL);
+
+		try {
+			chainedLoader.loadClass("a.Missing");
+			fail("should not be able to load classes");
+		}
+		catch (ClassNotFoundException cnfe) {
+			// expected
+		}
+		ClassLoaderCaches.invalidate();
+		try {
+			chainedLoader.loadClass("a.Missing");
+			fail("should not be able to load classes");
+		}
+		catch (ClassNotFoundException cnfe) {
+			// expected
+		}
+		assertEquals(2, counting.lookups);
+	}
+
+	public void testPackageIndex() throws Exception {
+		CountingClassLoader counting = new CountingClassLoader();
+		chainedLoader = new ChainedClassLoader(new ClassLoader[] { counting }, emptyCL);
+		chainedLoader.addClassLoader(new FilteringClassLoader(new String[] { "org.osgi.framework.Bundle",
+			"org.osgi.framework.BundleContext", "org.osgi.framework.ServiceReference" }));
+
+		chainedLoader.loadClass("org.osgi.framework.Bundle");
+		chainedLoader.loadClass("org.osgi.framework.BundleContext");
+		chainedLoader.loadClass("org.osgi.framework.ServiceReference");
+		// the package owner is used directly after the first lookup
+		assertEquals(1, counting.lookups);
+	}
+
+	public void testNonOSGiLoaderIsNotIndexed() throws Exception {
+		CountingClassLoader counting = new CountingClassLoader();
+		chainedLoader = new ChainedClassLoader(new ClassLoader[] { counting }, emptyCL);
+		chainedLoader.addClassLoader(Bundle.class.getClassLoader());
+
+		chainedLoader.loadClass("org.osgi.framework.Bundle");
+		chainedLoader.loadClass("org.osgi.framework.BundleContext");
+		// the OSGi delegates are still tried first
+		assertEquals(2, counting.lookups);
+	}
+
+	public void testSplitPackageKeepsChainOrder() throws Exception {
+		FilteringClassLoader first =
+				new FilteringClassLoader(new String[] { "org.osgi.framework.Bundle",
+					"org.osgi.framework.ServiceReference" });
+		FilteringClassLoader second =
+				new FilteringClassLoader(new String[] { "org.osgi.framework.BundleContext",
+					"org.osgi.framework.ServiceReference" });
+		chainedLoader = new ChainedClassLoader(new ClassLoader[] { first, second }, emptyCL);
+
+		chainedLoader.loadClass("org.osgi.framework.BundleContext");
+		chainedLoader.loadClass("org.osgi.framework.Bundle");
+		chainedLoader.loadClass("org.osgi.framework.ServiceReference");
+
+		// the package is served by both loaders so the first one wins
+		assertTrue(first.served.contains("org.osgi.framework.ServiceReference"));
+		assertFalse(second.served.contains("org.osgi.framework.ServiceReference"));
+	}
+
+	public void testSplitPackageDetectedBeforeUsingTheIndex() throws Exception {
+		FilteringClassLoader first = new FilteringClassLoader(new String[] { "org.osgi.framework.ServiceReference" });
+		FilteringClassLoader second =
+				new FilteringClassLoader(new String[] { "org.osgi.framework.BundleContext",
+					"org.osgi.framework.ServiceReference" });
+		chainedLoader = new ChainedClassLoader(new ClassLoader[] { first, second }, emptyCL);
+
+		// the package gets indexed to the second loader
+		chainedLoader.loadClass("org.osgi.framework.BundleContext");
+		chainedLoader.loadClass("org.osgi.framework.ServiceReference");
+
+		// the first loader sees the class as well so the chain order applies
+		assertTrue(first.served.contains("org.osgi.framework.ServiceReference"));
+		assertFalse(second.served.contains("org.osgi.framework.ServiceReference"));
+	}
+
+
+	private static class FilteringClassLoader extends ClassLoader {
+
+		private final Set<String> classes;
+
+		private final List<String> served = new ArrayList<String>();
+
+
+		private FilteringClassLoader(String[] classes) {
+			super(null);
+			this.classes = new HashSet<String>(Arrays.asList(classes));
+		}
+
+		public Class<?> loadClass(String name) throws ClassNotFoundException {
+			if (!classes.contains(name))
+				throw new ClassNotFoundException(name);
+			served.add(name);
+			return Bundle.class.getClassLoader().loadClass(name);
+		}
+
+		public URL getResource(String name) {
+			String className = name.replace('/', '.');
+			if (!className.endsWith(".class")
+					|| !classes.contains(className.substring(0, className.length() - ".class".length())))
+				return null;
+			return Bundle.class.getClassLoader().getResource(name);
+		}
+	}
+
+	private static class CountingClassLoader extends ClassLoader {
+
+		private int lookups = 0;
+
+
+		private CountingClassLoader() {
+			super(null);
+		}
+
+		public Class<?> loadClass(String name) throws ClassNotFoundException {
+			lookups++;
+			throw new ClassNotFoundException(name);
+		}
+	}
 }
\ No newline at end of file
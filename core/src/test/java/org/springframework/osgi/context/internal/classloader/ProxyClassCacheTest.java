@@ -0,0 +1,83 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.context.internal.classloader;
+
+import java.lang.reflect.Proxy;
+
+import junit.framework.TestCase;
+
+import org.aopalliance.aop.Advice;
+import org.springframework.osgi.context.support.internal.classloader.ChainedClassLoader;
+import org.springframework.osgi.context.support.internal.classloader.ClassLoaderFactory;
+import org.springframework.osgi.context.support.internal.classloader.ProxyClassCache;
+import org.springframework.osgi.mock.MockBundleContext;
+import org.springframework.osgi.service.util.internal.aop.ProxyUtils;
+
+/**
+ * @author Costin Leau
+ */
+public class ProxyClassCacheTest extends TestCase {
+
+	public static interface EqualityAware {
+
+		boolean equals(Object obj);
+	}
+
+
+	private ChainedClassLoader aopClassLoader;
+
+	private ProxyClassCache cache;
+
+
+	protected void setUp() throws Exception {
+		aopClassLoader = ClassLoaderFactory.getAopClassLoaderFor(getClass().getClassLoader());
+		cache = aopClassLoader.getProxyClassCache();
+		cache.clear();
+	}
+
+	protected void tearDown() throws Exception {
+		cache.clear();
+		cache = null;
+		aopClassLoader = null;
+	}
+
+	public void testAopClassLoaderHasCache() throws Exception {
+		assertNotNull(cache);
+		assertSame(cache, ClassLoaderFactory.getAopClassLoaderFor(getClass().getClassLoader()).getProxyClassCache());
+	}
+
+	public void testProxyClassReuse() throws Exception {
+		Object proxy1 = createProxy(new Object());
+		Object proxy2 = createProxy(new Object());
+
+		assertTrue(Proxy.isProxyClass(proxy1.getClass()));
+		assertSame(proxy1.getClass(), proxy2.getClass());
+		assertNotSame(proxy1, proxy2);
+		assertEquals(1, cache.size());
+		assertEquals("target", ((CharSequence) createProxy("target")).toString());
+	}
+
+	public void testInterfacesDeclaringEqualsAreNotCached() throws Exception {
+		assertNull(cache.getProxyConstructor(new Class<?>[] { EqualityAware.class }));
+		assertNotNull(cache.getProxyConstructor(new Class<?>[] { Runnable.class }));
+	}
+
+	private Object createProxy(Object target) {
+		return ProxyUtils.createProxy(new Class<?>[] { CharSequence.class, Comparable.class }, target, aopClassLoader,
+				new MockBundleContext(), new Advice[0]);
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.context.support.internal.cache;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Bundle;
+import org.springframework.beans.BeanMetadataAttribute;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.GenericBeanDefinition;
+import org.springframework.beans.factory.support.ManagedList;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.beans.factory.xml.NamespaceHandler;
+import org.springframework.beans.factory.xml.NamespaceHandlerResolver;
+import org.springframework.core.io.DescriptiveResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.osgi.mock.MockBundle;
+
+/**
+ * @author Costin Leau
+ */
+public class BeanDefinitionCacheTest extends TestCase {
+
+	private File directory;
+
+	private Bundle bundle;
+
+	private NamespaceHandlerResolver resolver;
+
+
+	protected void setUp() throws Exception {
+		directory = File.createTempFile("bdc", "");
+		directory.delete();
+		directory.mkdirs();
+		bundle = new MockBundle("cache.test");
+		resolver = new NamespaceHandlerResolver() {
+
+			public NamespaceHandler resolve(String namespaceUri) {
+				return null;
+			}
+		};
+	}
+
+	protected void tearDown() throws Exception {
+		File[] files = directory.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			files[i].delete();
+		}
+		directory.delete();
+		directory = null;
+		bundle = null;
+		resolver = null;
+	}
+
+	private BeanDefinitionCache createCache(Bundle bundle) {
+		return new BeanDefinitionCache(directory, bundle, new PathMatchingResourcePatternResolver(), null, getClass()
+				.getClassLoader());
+	}
+
+	private DefaultListableBeanFactory createBeanFactory() {
+		DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+
+		GenericBeanDefinition list = new GenericBeanDefinition();
+		list.setBeanClassName("java.util.ArrayList");
+		list.setResource(new DescriptiveResource("test config"));
+		list.addMetadataAttribute(new BeanMetadataAttribute("attribute", "value"));
+
+		ManagedList<Object> elements = new ManagedList<Object>();
+		elements.add(new TypedStringValue("1", Integer.class));
+		elements.add(new RuntimeBeanReference("object"));
+		elements.add(new BeanDefinitionHolder(new RootBeanDefinition(Object.class), "inner"));
+		list.getConstructorArgumentValues().addIndexedArgumentValue(0, elements);
+		list.getConstructorArgumentValues().addGenericArgumentValue("generic", "java.lang.String");
+
+		beanFactory.registerBeanDefinition("list", list);
+		beanFactory.registerBeanDefinition("object", new RootBeanDefinition(Object.class));
+		beanFactory.registerAlias("object", "alias");
+		return beanFactory;
+	}
+
+	public void testMissingEntry() throws Exception {
+		assertFalse(createCache(bundle).load(new DefaultListableBeanFactory(), resolver));
+	}
+
+	public void testRoundTrip() throws Exception {
+		BeanDefinitionCache cache = createCache(bundle);
+		assertTrue(cache.isCacheable());
+		cache.store(createBeanFactory());
+
+		DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+		assertTrue(createCache(bundle).load(beanFactory, resolver));
+
+		assertEquals(2, beanFactory.getBeanDefinitionCount());
+		assertEquals("object", beanFactory.getAliases("alias")[0]);
+		assertEquals(Object.class, ((AbstractBeanDefinition) beanFactory.getBeanDefinition("object")).getBeanClass());
+
+		BeanDefinition list = beanFactory.getBeanDefinition("list");
+		assertEquals("java.util.ArrayList", list.getBeanClassName());
+		assertEquals("value", list.getAttribute("attribute"));
+		assertEquals("test config", ((AbstractBeanDefinition) list).getResourceDescription());
+
+		ConstructorArgumentValues arguments = list.getConstructorArgumentValues();
+		assertEquals(1, arguments.getGenericArgumentValues().size());
+		List<?> elements = (List<?>) arguments.getIndexedArgumentValue(0, null).getValue();
+		assertEquals(3, elements.size());
+
+		TypedStringValue typedValue = (TypedStringValue) elements.get(0);
+		assertEquals("1", typedValue.getValue());
+		assertEquals(Integer.class, typedValue.getTargetType());
+		assertEquals("object", ((RuntimeBeanReference) elements.get(1)).getBeanName());
+		assertEquals("inner", ((BeanDefinitionHolder) elements.get(2)).getBeanName());
+	}
+
+	public void testBundleUpdateInvalidatesEntry() throws Exception {
+		createCache(bundle).store(createBeanFactory());
+		assertEquals(1, directory.listFiles().length);
+
+		Bundle updated = new MockBundle("cache.test") {
+
+			public long getLastModified() {
+				return 1;
+			}
+		};
+
+		DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+		assertFalse(createCache(updated).load(beanFactory, resolver));
+		assertEquals(0, beanFactory.getBeanDefinitionCount());
+		// the outdated entry is removed
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	public void testNonSerializableDefinitionIsNotCached() throws Exception {
+		DefaultListableBeanFactory beanFactory = createBeanFactory();
+		beanFactory.getBeanDefinition("object").getPropertyValues().addPropertyValue("lock", new Thread());
+
+		BeanDefinitionCache cache = createCache(bundle);
+		cache.store(beanFactory);
+		assertFalse(cache.isCacheable());
+		assertEquals(0, directory.listFiles().length);
+	}
+}
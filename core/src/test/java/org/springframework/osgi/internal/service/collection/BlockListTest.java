@@ -0,0 +1,128 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.internal.service.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.springframework.osgi.service.importer.support.internal.collection.BlockList;
+import org.springframework.osgi.service.importer.support.internal.collection.DynamicSortedList;
+
+/**
+ * Tests regarding the block list (and the sorted collections using it).
+ * 
+ * @author Costin Leau
+ * 
+ */
+@SuppressWarnings("unchecked")
+public class BlockListTest extends TestCase {
+
+	private List list;
+
+
+	protected void setUp() throws Exception {
+		list = new BlockList(4);
+	}
+
+	protected void tearDown() throws Exception {
+		list = null;
+	}
+
+	public void testAddAndGet() {
+		for (int i = 0; i < 20; i++) {
+			list.add(new Integer(i));
+		}
+		assertEquals(20, list.size());
+		for (int i = 0; i < 20; i++) {
+			assertEquals(new Integer(i), list.get(i));
+		}
+	}
+
+	public void testInsertAtHead() {
+		for (int i = 0; i < 20; i++) {
+			list.add(0, new Integer(i));
+		}
+		assertEquals(new Integer(19), list.get(0));
+		assertEquals(new Integer(0), list.get(19));
+	}
+
+	public void testOutOfBounds() {
+		list.add("a");
+		try {
+			list.get(1);
+			fail("expected exception");
+		}
+		catch (IndexOutOfBoundsException ex) {
+			// expected
+		}
+		try {
+			list.add(3, "b");
+			fail("expected exception");
+		}
+		catch (IndexOutOfBoundsException ex) {
+			// expected
+		}
+	}
+
+	public void testRandomOperationsAgainstArrayList() {
+		List expected = new ArrayList();
+		Random random = new Random(7);
+
+		for (int i = 0; i < 5000; i++) {
+			int op = random.nextInt(10);
+			if (op < 6 || expected.isEmpty()) {
+				int index = random.nextInt(expected.size() + 1);
+				Integer value = new Integer(i);
+				expected.add(index, value);
+				list.add(index, value);
+			}
+			else if (op < 9) {
+				int index = random.nextInt(expected.size());
+				assertEquals(expected.remove(index), list.remove(index));
+			}
+			else {
+				int index = random.nextInt(expected.size());
+				Integer value = new Integer(-i);
+				assertEquals(expected.set(index, value), list.set(index, value));
+			}
+			assertEquals(expected.size(), list.size());
+		}
+
+		assertEquals(expected, list);
+		assertTrue(Arrays.equals(expected.toArray(), list.toArray()));
+		list.clear();
+		assertTrue(list.isEmpty());
+	}
+
+	public void testSortedListDuplicatesOrder() {
+		List sorted = new DynamicSortedList();
+		String first = new String("a");
+		String second = new String("a");
+		sorted.add("b");
+		sorted.add(first);
+		sorted.add(second);
+		assertSame(first, sorted.get(0));
+		assertSame(second, sorted.get(1));
+		assertEquals(0, sorted.indexOf("a"));
+		assertTrue(sorted.remove("b"));
+		assertFalse(sorted.contains("b"));
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.internal.service.collection;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+import org.springframework.osgi.service.importer.support.internal.collection.DynamicCollection;
+import org.springframework.osgi.service.importer.support.internal.collection.DynamicList;
+import org.springframework.osgi.service.importer.support.internal.collection.DynamicSortedSet;
+
+/**
+ * Tests regarding the snapshot (copy-on-write) storage mode.
+ * 
+ * @author Costin Leau
+ * 
+ */
+@SuppressWarnings("unchecked")
+public class DynamicCollectionSnapshotTest extends TestCase {
+
+	private DynamicCollection collection;
+
+
+	protected void setUp() throws Exception {
+		collection = new DynamicCollection(16, true);
+	}
+
+	protected void tearDown() throws Exception {
+		collection = null;
+	}
+
+	public void testSnapshotReads() {
+		Object a = new Object();
+		Object b = new Object();
+		assertTrue(collection.isEmpty());
+		collection.add(a);
+		collection.add(b);
+		assertEquals(2, collection.size());
+		assertTrue(collection.contains(b));
+		collection.remove(a);
+		assertFalse(collection.contains(a));
+		assertEquals(1, collection.toArray().length);
+	}
+
+	public void testIteratorSeesTailAdditions() {
+		collection.add("a");
+		Iterator iter = collection.iterator();
+		assertEquals("a", iter.next());
+		assertFalse(iter.hasNext());
+		collection.add("b");
+		assertTrue(iter.hasNext());
+		assertEquals("b", iter.next());
+		assertFalse(iter.hasNext());
+	}
+
+	public void testIteratorKeepsSnapshotOnRemoval() {
+		collection.add("a");
+		collection.add("b");
+		Iterator iter = collection.iterator();
+		assertTrue(iter.hasNext());
+		collection.remove("a");
+		collection.remove("b");
+		// hasNext() returned true, next() has to succeed
+		assertEquals("a", iter.next());
+		assertEquals("b", iter.next());
+		assertFalse(iter.hasNext());
+		try {
+			iter.next();
+			fail("expected exception");
+		}
+		catch (NoSuchElementException ex) {
+			// expected
+		}
+	}
+
+	public void testTailDoesNotRepeatElements() {
+		collection.add("a");
+		Iterator iter = collection.iterator();
+		assertEquals("a", iter.next());
+		collection.add("b");
+		collection.remove("a");
+		collection.add("c");
+		assertEquals("b", iter.next());
+		assertEquals("c", iter.next());
+		assertFalse(iter.hasNext());
+	}
+
+	public void testSnapshotRebuiltAfterSeveralModifications() {
+		collection.add("a");
+		Iterator iter = collection.iterator();
+		// no reads in between - the snapshot is rebuilt only once
+		collection.add("b");
+		collection.add("c");
+		collection.remove("b");
+		assertEquals(2, collection.size());
+		assertEquals("a", iter.next());
+		assertEquals("c", iter.next());
+		assertFalse(iter.hasNext());
+		assertEquals("[a, c]", collection.toString());
+	}
+
+	public void testIteratorRemove() {
+		collection.add("a");
+		collection.add("b");
+		Iterator iter = collection.iterator();
+		iter.next();
+		iter.remove();
+		assertEquals(1, collection.size());
+		assertFalse(collection.contains("a"));
+		try {
+			iter.remove();
+			fail("expected exception");
+		}
+		catch (IllegalStateException ex) {
+			// expected
+		}
+	}
+
+	public void testListSnapshot() {
+		List list = new DynamicList(16, true);
+		list.add("a");
+		list.add("b");
+		list.set(0, "c");
+		assertEquals("c", list.get(0));
+		assertEquals(1, list.indexOf("b"));
+		List subList = list.subList(0, 1);
+		list.add("d");
+		assertEquals(1, subList.size());
+	}
+
+	public void testSortedSetSnapshot() {
+		DynamicSortedSet set = new DynamicSortedSet(null, true);
+		set.add("b");
+		set.add("a");
+		set.add("b");
+		assertEquals(2, set.size());
+		assertEquals("a", set.first());
+		assertEquals("b", set.last());
+	}
+}
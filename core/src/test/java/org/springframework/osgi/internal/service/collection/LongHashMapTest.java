@@ -0,0 +1,114 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.internal.service.collection;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.springframework.osgi.service.importer.support.internal.util.LongHashMap;
+
+/**
+ * Tests regarding the long keyed map.
+ * 
+ * @author Costin Leau
+ * 
+ */
+public class LongHashMapTest extends TestCase {
+
+	private LongHashMap<String> map;
+
+
+	protected void setUp() throws Exception {
+		map = new LongHashMap<String>();
+	}
+
+	protected void tearDown() throws Exception {
+		map = null;
+	}
+
+	public void testPutGetRemove() throws Exception {
+		assertTrue(map.isEmpty());
+		assertNull(map.put(1, "a"));
+		assertNull(map.put(2, "b"));
+		assertEquals("a", map.put(1, "c"));
+
+		assertEquals(2, map.size());
+		assertEquals("c", map.get(1));
+		assertTrue(map.containsKey(2));
+		assertFalse(map.containsKey(3));
+
+		assertEquals("b", map.remove(2));
+		assertNull(map.remove(2));
+		assertNull(map.get(2));
+		assertEquals(1, map.size());
+	}
+
+	public void testInsertionOrder() throws Exception {
+		for (long i = 10; i > 0; i--) {
+			map.put(i, String.valueOf(i));
+		}
+		map.remove(5);
+		// replacing keeps the position
+		map.put(10, "ten");
+		map.put(5, "5");
+
+		assertTrue(Arrays.equals(new long[] { 10, 9, 8, 7, 6, 4, 3, 2, 1, 5 }, map.keys()));
+		assertEquals("ten", map.values().get(0));
+		assertEquals("5", map.values().get(9));
+	}
+
+	public void testClear() throws Exception {
+		for (long i = 0; i < 20; i++) {
+			map.put(i, "v");
+		}
+		map.clear();
+		assertEquals(0, map.size());
+		assertNull(map.get(3));
+		assertEquals(0, map.keys().length);
+
+		map.put(3, "v");
+		assertEquals(1, map.size());
+	}
+
+	public void testAgainstLinkedHashMap() throws Exception {
+		Map<Long, String> expected = new LinkedHashMap<Long, String>();
+		Random random = new Random(7);
+
+		for (int i = 0; i < 20000; i++) {
+			long key = random.nextInt(500);
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			}
+			else {
+				String value = String.valueOf(i);
+				assertEquals(expected.put(key, value), map.put(key, value));
+			}
+		}
+
+		assertEquals(expected.size(), map.size());
+		long[] keys = map.keys();
+		int i = 0;
+		for (Map.Entry<Long, String> entry : expected.entrySet()) {
+			assertEquals(entry.getKey().longValue(), keys[i++]);
+			assertEquals(entry.getValue(), map.get(entry.getKey().longValue()));
+		}
+	}
+}
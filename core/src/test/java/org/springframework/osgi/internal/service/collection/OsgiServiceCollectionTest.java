@@ -16,10 +16,19 @@
 
 package org.springframework.osgi.internal.service.collection;
 
+import java.lang.reflect.Method;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.osgi.service.importer.support.FanOutResult;
 import org.springframework.osgi.service.importer.support.MemberType;
+import org.springframework.osgi.service.importer.support.SplittableIterator;
 import org.springframework.osgi.service.importer.support.internal.collection.OsgiServiceCollection;
 
 /**
@@ -108,4 +117,178 @@ public class OsgiServiceCollectionTest extends AbstractOsgiCollectionTest {
 		removeService(date2);
 		assertFalse(iter.hasNext());
 	}
+
+	public void testSplittableIterator() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			addService(new DateWrapper(i));
+		}
+
+		SplittableIterator<Object> second = col.splittableIterator();
+		assertEquals(5, second.estimateSize());
+		SplittableIterator<Object> first = second.trySplit();
+		assertEquals(2, first.estimateSize());
+		assertEquals(3, second.estimateSize());
+
+		// the snapshot is not affected by later changes
+		addService(new DateWrapper(5));
+
+		assertEquals(new Long(0), ((Wrapper) first.next()).execute());
+		assertEquals(new Long(1), ((Wrapper) first.next()).execute());
+		assertFalse(first.hasNext());
+		assertNull(first.trySplit());
+
+		int count = 0;
+		while (second.hasNext()) {
+			second.next();
+			count++;
+		}
+		assertEquals(3, count);
+	}
+
+	public void testFanOutInvocation() throws Exception {
+		addService(new DateWrapper(123));
+		addService(new DateWrapper(321));
+
+		Method method = Wrapper.class.getMethod("execute", null);
+		FanOutResult result = col.invokeAll(method, null, new SimpleAsyncTaskExecutor(), 0);
+
+		assertTrue(result.isSuccessful());
+		assertEquals(2, result.getResults().size());
+		assertEquals(new Long(123), result.getResults().get(0));
+		assertEquals(new Long(321), result.getResults().get(1));
+	}
+
+	public void testFanOutTimeout() throws Exception {
+		addService(new Wrapper() {
+
+			public Object execute() {
+				try {
+					Thread.sleep(5000);
+				}
+				catch (InterruptedException ex) {
+					// cancelled
+				}
+				return null;
+			}
+		});
+
+		Method method = Wrapper.class.getMethod("execute", null);
+		FanOutResult result = col.invokeAll(method, null, new SimpleAsyncTaskExecutor(), 50);
+
+		assertFalse(result.isSuccessful());
+		assertEquals(1, result.getMemberResults(FanOutResult.Outcome.TIMEOUT).size());
+	}
+
+	public void testFanOutMemberDeparture() throws Exception {
+		final DateWrapper date1 = new DateWrapper(123);
+		DateWrapper date2 = new DateWrapper(321);
+		addService(date1);
+		addService(date2);
+
+		// the first member goes away before being invoked
+		Executor executor = new Executor() {
+
+			private boolean removed = false;
+
+
+			public void execute(Runnable command) {
+				if (!removed) {
+					removed = true;
+					removeService(date1);
+				}
+				command.run();
+			}
+		};
+
+		Method method = Wrapper.class.getMethod("execute", null);
+		FanOutResult result = col.invokeAll(method, null, executor, 0);
+
+		assertTrue(result.isSuccessful());
+		assertEquals(FanOutResult.Outcome.UNAVAILABLE, result.getMemberResults().get(0).getOutcome());
+		assertEquals(FanOutResult.Outcome.SUCCESS, result.getMemberResults().get(1).getOutcome());
+		assertEquals(new Long(321), result.getResults().get(0));
+	}
+
+	public void testFanOutRejectedInvocation() throws Exception {
+		addService(new DateWrapper(123));
+		addService(new DateWrapper(321));
+
+		// a saturated executor
+		Executor executor = new Executor() {
+
+			public void execute(Runnable command) {
+				throw new TaskRejectedException("saturated");
+			}
+		};
+
+		Method method = Wrapper.class.getMethod("execute", null);
+		FanOutResult result = col.invokeAll(method, null, executor, 0);
+
+		assertTrue(result.isSuccessful());
+		assertEquals(2, result.getMemberResults(FanOutResult.Outcome.SUCCESS).size());
+		assertEquals(new Long(123), result.getResults().get(0));
+		assertEquals(new Long(321), result.getResults().get(1));
+	}
+
+	public void testFanOutTimeoutWithMoreMembersThanThreads() throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < threads + 2; i++) {
+			addService(new Wrapper() {
+
+				public Object execute() {
+					try {
+						Thread.sleep(5000);
+					}
+					catch (InterruptedException ex) {
+						// cancelled
+					}
+					return null;
+				}
+			});
+		}
+
+		// one thread per processor and no queue - the extra invocations are rejected
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>());
+		try {
+			Method method = Wrapper.class.getMethod("execute", null);
+			long start = System.currentTimeMillis();
+			FanOutResult result = col.invokeAll(method, null, executor, 50);
+
+			assertTrue(System.currentTimeMillis() - start < 2500);
+			assertEquals(threads + 2, result.getMemberResults(FanOutResult.Outcome.TIMEOUT).size());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testLazyMembers() throws Exception {
+		col.destroy();
+		col = createCollection();
+		col.setRequiredAtStartup(false);
+		col.setLazyMembers(true);
+		col.afterPropertiesSet();
+
+		DateWrapper date1 = new DateWrapper(123);
+		DateWrapper date2 = new DateWrapper(321);
+		addService(date1);
+		addService(date2);
+		assertEquals(2, col.size());
+
+		Iterator it = col.iterator();
+		Object member = it.next();
+		assertEquals(new Long(123), ((Wrapper) member).execute());
+		assertEquals(new Long(321), ((Wrapper) it.next()).execute());
+		assertFalse(it.hasNext());
+
+		assertTrue(col.contains(member));
+		assertFalse(col.contains(date1));
+		assertEquals(2, col.toArray().length);
+		assertTrue(col.toArray()[0] instanceof Wrapper);
+
+		removeService(date1);
+		assertEquals(1, col.size());
+		assertFalse(col.contains(member));
+	}
 }
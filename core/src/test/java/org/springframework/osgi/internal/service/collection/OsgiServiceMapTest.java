@@ -0,0 +1,181 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.internal.service.collection;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.springframework.osgi.service.importer.support.internal.collection.OsgiServiceCollection;
+import org.springframework.osgi.service.importer.support.internal.collection.OsgiServiceMap;
+
+/**
+ * Mock test for OsgiServiceMap.
+ * 
+ * @author Costin Leau
+ * 
+ */
+public class OsgiServiceMapTest extends AbstractOsgiCollectionTest {
+
+	private static final String KEY = "handler.key";
+
+	private Map map;
+
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		map = ((OsgiServiceMap) col).getMap();
+	}
+
+	OsgiServiceCollection createCollection() {
+		return new OsgiServiceMap(null, context, getClass().getClassLoader(), createProxyCreator(new Class<?>[] {
+			Wrapper.class, Comparable.class }), false, KEY);
+	}
+
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		col = null;
+		map = null;
+	}
+
+	private Properties keyProperties(Object key, int ranking) {
+		Properties props = new Properties();
+		props.put(KEY, key);
+		props.put(Constants.SERVICE_RANKING, new Integer(ranking));
+		return props;
+	}
+
+	private void modifyService(Object service) {
+		ServiceReference ref = null;
+		for (Iterator iter = services.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry entry = (Map.Entry) iter.next();
+			if (entry.getValue().equals(service)) {
+				ref = (ServiceReference) entry.getKey();
+			}
+		}
+
+		ServiceEvent event = new ServiceEvent(ServiceEvent.MODIFIED, ref);
+		for (Iterator iter = context.getServiceListeners().iterator(); iter.hasNext();) {
+			((ServiceListener) iter.next()).serviceChanged(event);
+		}
+	}
+
+	public void testLookupByKey() throws Exception {
+		addService(new DateWrapper(1), keyProperties("a", 0));
+		addService(new DateWrapper(2), keyProperties("b", 0));
+		addService(new DateWrapper(3));
+
+		assertEquals(3, col.size());
+		assertEquals(2, map.size());
+		assertEquals(new Long(1), ((Wrapper) map.get("a")).execute());
+		assertEquals(new Long(2), ((Wrapper) map.get("b")).execute());
+		assertNull(map.get("c"));
+	}
+
+	public void testMultiValueKey() throws Exception {
+		addService(new DateWrapper(1), keyProperties(new String[] { "a", "b" }, 0));
+		assertEquals(2, map.size());
+		assertSame(map.get("a"), map.get("b"));
+	}
+
+	public void testNullValuesInMultiValueKeyAreIgnored() throws Exception {
+		addService(new DateWrapper(1), keyProperties(new String[] { "a", null }, 0));
+		addService(new DateWrapper(2), keyProperties(Arrays.asList(new String[] { null, "b" }), 0));
+		assertEquals(2, col.size());
+		assertEquals(2, map.size());
+		assertEquals(new Long(1), ((Wrapper) map.get("a")).execute());
+		assertEquals(new Long(2), ((Wrapper) map.get("b")).execute());
+	}
+
+	public void testDuplicateKeysUseBestRanking() throws Exception {
+		DateWrapper low = new DateWrapper(1);
+		DateWrapper high = new DateWrapper(2);
+		addService(low, keyProperties("a", 0));
+		addService(high, keyProperties("a", 10));
+
+		assertEquals(new Long(2), ((Wrapper) map.get("a")).execute());
+		removeService(high);
+		assertEquals(new Long(1), ((Wrapper) map.get("a")).execute());
+		removeService(low);
+		assertTrue(map.isEmpty());
+	}
+
+	public void testModifiedKey() throws Exception {
+		DateWrapper service = new DateWrapper(1);
+		Properties props = keyProperties("a", 0);
+		addService(service, props);
+		assertNotNull(map.get("a"));
+
+		props.put(KEY, "b");
+		modifyService(service);
+
+		assertNull(map.get("a"));
+		assertEquals(new Long(1), ((Wrapper) map.get("b")).execute());
+		assertEquals(1, col.size());
+	}
+
+	public void testModifiedKeepsUnchangedKeys() throws Exception {
+		DateWrapper service = new DateWrapper(1);
+		final Properties props = keyProperties(new String[] { "a", "b" }, 0);
+		addService(service, props);
+		final Object member = map.get("b");
+		assertNotNull(member);
+
+		final boolean[] missed = new boolean[1];
+		Thread reader = new Thread() {
+
+			public void run() {
+				while (!isInterrupted()) {
+					if (map.get("b") != member)
+						missed[0] = true;
+				}
+			}
+		};
+		reader.start();
+
+		try {
+			for (int i = 0; i < 1000; i++) {
+				props.put(KEY, (i % 2 == 0 ? new String[] { "b", "c" } : new String[] { "a", "b" }));
+				modifyService(service);
+			}
+		}
+		finally {
+			reader.interrupt();
+			reader.join();
+		}
+
+		assertFalse("unchanged key was briefly unmapped", missed[0]);
+		assertNull(map.get("c"));
+		assertSame(member, map.get("a"));
+		assertSame(member, map.get("b"));
+	}
+
+	public void testReadOnlyMap() throws Exception {
+		try {
+			map.put("a", new Object());
+			fail("expected exception");
+		}
+		catch (UnsupportedOperationException ex) {
+			// expected
+		}
+	}
+}
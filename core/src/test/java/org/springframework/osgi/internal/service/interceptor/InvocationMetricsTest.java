@@ -0,0 +1,149 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.internal.service.interceptor;
+
+import java.lang.reflect.Method;
+
+import junit.framework.TestCase;
+
+import org.springframework.osgi.service.importer.metrics.ImporterMetrics;
+import org.springframework.osgi.service.importer.metrics.LatencyHistogram;
+import org.springframework.osgi.service.importer.metrics.MethodMetrics;
+import org.springframework.osgi.service.importer.metrics.StripedCounter;
+import org.springframework.osgi.service.importer.support.internal.aop.ServiceInvoker;
+
+/**
+ * @author Costin Leau
+ */
+public class InvocationMetricsTest extends TestCase {
+
+	private ImporterMetrics metrics;
+
+	private ServiceInvoker interceptor;
+
+	private long targetDelay;
+
+	private Method method;
+
+
+	protected void setUp() throws Exception {
+		metrics = new ImporterMetrics(1, "importer", "(objectClass=java.lang.Object)");
+		targetDelay = 0;
+		interceptor = new ServiceInvoker() {
+
+			protected Object getTarget() {
+				// simulates the wait for the service to be bound
+				if (targetDelay > 0) {
+					try {
+						Thread.sleep(targetDelay);
+					}
+					catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return new Object();
+			}
+
+			public void destroy() {
+			}
+		};
+		interceptor.setInvocationMetrics(metrics);
+		method = Object.class.getMethod("hashCode", null);
+	}
+
+	protected void tearDown() throws Exception {
+		metrics = null;
+		interceptor = null;
+	}
+
+	public void testSuccessfulInvocation() throws Throwable {
+		interceptor.invoke(new MockMethodInvocation(method));
+		interceptor.invoke(new MockMethodInvocation(method));
+
+		MethodMetrics methodMetrics = metrics.getMethodMetrics(method);
+		assertEquals(2, methodMetrics.getInvocationCount());
+		assertEquals(0, methodMetrics.getErrorCount());
+		assertEquals(1, metrics.getMethodMetrics().size());
+
+		long[] histogram = methodMetrics.getLatencyHistogram();
+		assertEquals(LatencyHistogram.BUCKETS, histogram.length);
+		long total = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			total += histogram[i];
+		}
+		assertEquals(2, total);
+	}
+
+	public void testFailedInvocation() throws Throwable {
+		Method failingMethod = Object.class.getMethod("wait", new Class[] { long.class });
+		try {
+			interceptor.invoke(new MockMethodInvocation(failingMethod, new Object[] { new Long(1) }));
+			fail("expected exception");
+		}
+		catch (IllegalMonitorStateException ex) {
+			// expected
+		}
+
+		MethodMetrics methodMetrics = metrics.getMethodMetrics(failingMethod);
+		assertEquals(1, methodMetrics.getInvocationCount());
+		assertEquals(1, methodMetrics.getErrorCount());
+	}
+
+	public void testWaitForTargetIsNotMeasured() throws Throwable {
+		targetDelay = 100;
+		interceptor.invoke(new MockMethodInvocation(method));
+
+		MethodMetrics methodMetrics = metrics.getMethodMetrics(method);
+		assertEquals(1, methodMetrics.getInvocationCount());
+		assertTrue(methodMetrics.getTotalTime() < targetDelay * 1000 * 1000);
+	}
+
+	public void testReset() throws Throwable {
+		interceptor.invoke(new MockMethodInvocation(method));
+		metrics.recordWait(10);
+		assertEquals(1, metrics.getWaitCount());
+		assertEquals(10, metrics.getWaitTime());
+
+		metrics.reset();
+		assertEquals(0, metrics.getMethodMetrics(method).getInvocationCount());
+		assertEquals(0, metrics.getWaitCount());
+		assertEquals(0, metrics.getWaitTime());
+	}
+
+	public void testConcurrentCounting() throws Exception {
+		final StripedCounter counter = new StripedCounter();
+		final int increments = 10000;
+		Thread[] threads = new Thread[4];
+
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+
+				public void run() {
+					for (int j = 0; j < increments; j++) {
+						counter.increment();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+
+		assertEquals(threads.length * increments, counter.sum());
+	}
+}
@@ -194,4 +194,52 @@ public class OsgiServiceDynamicInterceptorListenerTest extends TestCase {
 		assertSame("incorrect backing reference selected", higherRankingRef, ((ServiceReferenceProxy) interceptor
 				.getServiceReference()).getTargetServiceReference());
 	}
+
+	public void testIndexedRebindWhenServiceGoesDown() throws Exception {
+		Dictionary props = new Hashtable();
+		props.put(Constants.SERVICE_RANKING, new Integer(10));
+
+		ServiceReference lowerRankingRef = new MockServiceReference();
+		ServiceReference higherRankingRef = new MockServiceReference(null, props, null);
+		refs = new ServiceReference[] { lowerRankingRef, higherRankingRef };
+
+		interceptor.setSticky(true);
+		interceptor.setIndexedRebind(true);
+		interceptor.afterPropertiesSet();
+
+		ServiceListener sl = (ServiceListener) bundleContext.getServiceListeners().iterator().next();
+		assertEquals(1, SimpleTargetSourceLifecycleListener.BIND);
+		assertSame(higherRankingRef, ((ServiceReferenceProxy) interceptor.getServiceReference())
+				.getTargetServiceReference());
+
+		// empty the registry - the replacement has to come from the index
+		refs = null;
+		sl.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, higherRankingRef));
+
+		assertEquals(2, SimpleTargetSourceLifecycleListener.BIND);
+		assertEquals(0, SimpleTargetSourceLifecycleListener.UNBIND);
+		assertSame("incorrect backing reference selected", lowerRankingRef, ((ServiceReferenceProxy) interceptor
+				.getServiceReference()).getTargetServiceReference());
+
+		sl.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, lowerRankingRef));
+		assertEquals(2, SimpleTargetSourceLifecycleListener.BIND);
+		assertEquals(1, SimpleTargetSourceLifecycleListener.UNBIND);
+	}
+
+	public void testIndexedRebindIgnoresUnboundServices() throws Exception {
+		ServiceReference boundRef = refs[0];
+		ServiceReference otherRef = new MockServiceReference();
+
+		interceptor.setSticky(true);
+		interceptor.setIndexedRebind(true);
+		interceptor.afterPropertiesSet();
+
+		ServiceListener sl = (ServiceListener) bundleContext.getServiceListeners().iterator().next();
+		sl.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, otherRef));
+		sl.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, otherRef));
+
+		assertEquals(1, SimpleTargetSourceLifecycleListener.BIND);
+		assertEquals(0, SimpleTargetSourceLifecycleListener.UNBIND);
+		assertSame(boundRef, ((ServiceReferenceProxy) interceptor.getServiceReference()).getTargetServiceReference());
+	}
 }
\ No newline at end of file
@@ -17,6 +17,14 @@
 package org.springframework.osgi.internal.service.interceptor;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
@@ -27,10 +35,17 @@ import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.osgi.mock.MockBundleContext;
 import org.springframework.osgi.mock.MockFilter;
 import org.springframework.osgi.mock.MockServiceReference;
 import org.springframework.osgi.service.ServiceUnavailableException;
+import org.springframework.osgi.service.importer.ServiceAvailabilityFuture;
+import org.springframework.osgi.service.importer.ServiceReferenceProxy;
+import org.springframework.osgi.service.importer.event.OsgiServiceDependencyWaitEndedEvent;
+import org.springframework.osgi.service.importer.event.OsgiServiceDependencyWaitStartingEvent;
+import org.springframework.osgi.service.importer.support.ServiceSelectionPolicy;
 import org.springframework.osgi.service.importer.support.internal.aop.ServiceDynamicInterceptor;
 
 /**
@@ -53,8 +68,14 @@ public class OsgiServiceDynamicInterceptorTest extends TestCase {
 
 	private BundleContext ctx;
 
+	/** number of getService/ungetService calls per reference */
+	private Map gets, ungets;
+
 
 	protected void setUp() throws Exception {
+		gets = new HashMap();
+		ungets = new HashMap();
+
 		service = new Object();
 		serv2 = new Object();
 		serv3 = new Object();
@@ -83,6 +104,7 @@ public class OsgiServiceDynamicInterceptorTest extends TestCase {
 			}
 
 			public Object getService(ServiceReference ref) {
+				increment(gets, ref);
 				if (reference == ref) {
 					return service;
 				}
@@ -98,6 +120,11 @@ public class OsgiServiceDynamicInterceptorTest extends TestCase {
 				return null;
 			}
 
+			public boolean ungetService(ServiceReference ref) {
+				increment(ungets, ref);
+				return true;
+			}
+
 			public void addServiceListener(ServiceListener list, String filter) throws InvalidSyntaxException {
 				listener = list;
 			}
@@ -112,6 +139,16 @@ public class OsgiServiceDynamicInterceptorTest extends TestCase {
 		listener = null;
 	}
 
+	private static void increment(Map counters, ServiceReference ref) {
+		Integer count = (Integer) counters.get(ref);
+		counters.put(ref, new Integer(count == null ? 1 : count.intValue() + 1));
+	}
+
+	private static int count(Map counters, ServiceReference ref) {
+		Integer count = (Integer) counters.get(ref);
+		return (count == null ? 0 : count.intValue());
+	}
+
 	private void createInterceptor(Filter filter) {
 		interceptor = new ServiceDynamicInterceptor(ctx, null, filter, getClass().getClassLoader());
 
@@ -246,6 +283,156 @@ public class OsgiServiceDynamicInterceptorTest extends TestCase {
 		assertSame("wrong service rebound", serv2, target);
 	}
 
+	public void testFailFastInvocationWhenServiceNA() throws Throwable {
+		final List events = new ArrayList();
+
+		Method m = Object.class.getDeclaredMethod("hashCode", null);
+		MethodInvocation invocation = new MockMethodInvocation(m);
+
+		createInterceptor(new MockFilter(nullFilter));
+		interceptor.setApplicationEventPublisher(new ApplicationEventPublisher() {
+
+			public void publishEvent(ApplicationEvent event) {
+				events.add(event);
+			}
+		});
+		interceptor.setFailFast(true);
+		interceptor.getRetryTemplate().reset(3000);
+		listener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+
+		ServiceAvailabilityFuture future = interceptor.getServiceAvailability();
+		assertFalse(future.isDone());
+		// the pending future is shared and cannot be cancelled by one of its users
+		assertSame(future, interceptor.getServiceAvailability());
+		assertFalse(future.cancel(true));
+
+		final int[] callbacks = new int[1];
+		future.addCallback(new Runnable() {
+
+			public void run() {
+				callbacks[0]++;
+			}
+		});
+
+		long now = System.currentTimeMillis();
+		try {
+			interceptor.invoke(invocation);
+			fail("should have thrown exception");
+		}
+		catch (ServiceUnavailableException ex) {
+			// expected
+		}
+		assertTrue("call should not block", (System.currentTimeMillis() - now) < 3000);
+		assertEquals(1, events.size());
+		assertTrue(events.get(0) instanceof OsgiServiceDependencyWaitStartingEvent);
+
+		// service is up
+		listener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref2));
+
+		assertTrue(future.isDone());
+		assertEquals(1, callbacks[0]);
+		assertSame(ref2, ((ServiceReferenceProxy) future.get()).getTargetServiceReference());
+		assertEquals(2, events.size());
+		assertTrue(events.get(1) instanceof OsgiServiceDependencyWaitEndedEvent);
+		assertEquals(new Integer(serv2.hashCode()), interceptor.invoke(invocation));
+		assertTrue(interceptor.getServiceAvailability().isDone());
+	}
+
+	public void testRoundRobinSelection() throws Throwable {
+		interceptor = new ServiceDynamicInterceptor(ctx, null, null, getClass().getClassLoader());
+		interceptor.setMandatoryService(false);
+		interceptor.setRetryTimeout(1);
+		interceptor.setProxy(new Object());
+		interceptor.setServiceImporter(new Object());
+		interceptor.setSelectionPolicy(ServiceSelectionPolicy.ROUND_ROBIN, null);
+		interceptor.afterPropertiesSet();
+
+		listener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref2));
+		listener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref3));
+
+		Method m = Object.class.getDeclaredMethod("hashCode", null);
+		MethodInvocation invocation = new MockMethodInvocation(m);
+
+		Set results = new HashSet();
+		for (int i = 0; i < 3; i++) {
+			results.add(interceptor.invoke(invocation));
+		}
+
+		assertEquals("invocations not spread across services", 3, results.size());
+		assertTrue(results.contains(new Integer(service.hashCode())));
+		assertTrue(results.contains(new Integer(serv2.hashCode())));
+		assertTrue(results.contains(new Integer(serv3.hashCode())));
+
+		// the proxy remains bound to the best service
+		assertSame(service, interceptor.getTarget());
+	}
+
+	public void testWeightedSelectionWithLargeWeights() throws Throwable {
+		Dictionary props = new Hashtable();
+		props.put("weight", new Integer(Integer.MAX_VALUE));
+		((MockServiceReference) ref2).setProperties(props);
+		props = new Hashtable();
+		props.put("weight", new Integer(Integer.MAX_VALUE));
+		((MockServiceReference) ref3).setProperties(props);
+
+		interceptor = new ServiceDynamicInterceptor(ctx, null, null, getClass().getClassLoader());
+		interceptor.setMandatoryService(false);
+		interceptor.setRetryTimeout(1);
+		interceptor.setProxy(new Object());
+		interceptor.setServiceImporter(new Object());
+		interceptor.setSelectionPolicy(ServiceSelectionPolicy.WEIGHTED, "weight");
+		interceptor.afterPropertiesSet();
+
+		listener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref2));
+		listener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref3));
+
+		Method m = Object.class.getDeclaredMethod("hashCode", null);
+		MethodInvocation invocation = new MockMethodInvocation(m);
+
+		// the weights still apply (round-robin would hit every service)
+		List results = new ArrayList();
+		for (int i = 0; i < 3; i++) {
+			results.add(interceptor.invoke(invocation));
+		}
+		assertFalse(results.contains(new Integer(serv3.hashCode())));
+		assertTrue(results.contains(new Integer(serv2.hashCode())));
+	}
+
+	public void testSelectionBalancesServiceUsage() throws Throwable {
+		interceptor = new ServiceDynamicInterceptor(ctx, null, null, getClass().getClassLoader());
+		interceptor.setMandatoryService(false);
+		interceptor.setRetryTimeout(1);
+		interceptor.setProxy(new Object());
+		interceptor.setServiceImporter(new Object());
+		interceptor.setSelectionPolicy(ServiceSelectionPolicy.ROUND_ROBIN, null);
+		interceptor.afterPropertiesSet();
+
+		listener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref2));
+		listener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, ref3));
+
+		Method m = Object.class.getDeclaredMethod("hashCode", null);
+		MethodInvocation invocation = new MockMethodInvocation(m);
+
+		for (int i = 0; i < 6; i++) {
+			interceptor.invoke(invocation);
+			// property updates reuse the retrieved service
+			listener.serviceChanged(new ServiceEvent(ServiceEvent.MODIFIED, ref2));
+		}
+
+		assertEquals(1, count(gets, ref2));
+		assertEquals(1, count(gets, ref3));
+		assertEquals(0, count(ungets, ref2));
+		assertEquals(0, count(ungets, ref3));
+
+		listener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, ref3));
+		assertEquals(1, count(ungets, ref3));
+
+		interceptor.destroy();
+		assertEquals(1, count(ungets, ref2));
+		// nothing is released twice
+		assertEquals(1, count(ungets, ref3));
+	}
+
 	/**
 	 * Test method for
 	 * {@link org.springframework.osgi.service.interceptor.ServiceDynamicInterceptor#afterPropertiesSet()}.
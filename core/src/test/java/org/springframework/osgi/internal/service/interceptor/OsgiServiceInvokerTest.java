@@ -77,4 +77,19 @@ public class OsgiServiceInvokerTest extends TestCase {
 			// expected
 		}
 	}
+
+	public void testInvokeAfterTargetClassChange() throws Throwable {
+		MethodInvocation invocation = new MockMethodInvocation(CharSequence.class.getMethod("length", null));
+
+		target = "abc";
+		assertEquals(new Integer(3), invoker.invoke(invocation));
+		assertEquals(new Integer(3), invoker.invoke(invocation));
+
+		// rebind to a different implementation class
+		target = new StringBuffer("abcde");
+		assertEquals(new Integer(5), invoker.invoke(invocation));
+
+		target = "a";
+		assertEquals(new Integer(1), invoker.invoke(invocation));
+	}
 }
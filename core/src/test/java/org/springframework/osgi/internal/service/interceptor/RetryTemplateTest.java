@@ -16,11 +16,17 @@
 
 package org.springframework.osgi.internal.service.interceptor;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import junit.framework.TestCase;
 
 import org.springframework.osgi.service.importer.support.internal.support.DefaultRetryCallback;
 import org.springframework.osgi.service.importer.support.internal.support.RetryCallback;
 import org.springframework.osgi.service.importer.support.internal.support.RetryTemplate;
+import org.springframework.osgi.service.importer.support.internal.support.WaitQueue;
 
 /**
  * 
@@ -56,6 +62,16 @@ public class RetryTemplateTest extends TestCase {
 			super(notificationLock);
 		}
 
+		/**
+		 * Constructs a new <code>EventRecorderRetryTemplate</code> instance.
+		 * 
+		 * @param waitTime
+		 * @param waitQueue
+		 */
+		public EventRecorderRetryTemplate(long waitTime, WaitQueue waitQueue) {
+			super(waitTime, waitQueue);
+		}
+
 		protected void callbackFailed(long stop) {
 			setFailedStop(stop);
 		}
@@ -214,6 +230,128 @@ public class RetryTemplateTest extends TestCase {
 		assertTrue("Template not stopped in time", waitingTime < initialWaitTime);
 	}
 
+	// reset test using the lock-free wait queue
+	public void testTemplateResetWithWaitQueue() throws Exception {
+		long initialWaitTime = 20 * 1000;
+		template = new EventRecorderRetryTemplate(initialWaitTime, new WaitQueue());
+
+		long start = System.currentTimeMillis();
+
+		Runnable shutdownTask = new Runnable() {
+
+			public void run() {
+				try {
+					Thread.sleep(1 * 1000);
+				}
+				catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				template.reset(0);
+			}
+		};
+
+		Thread th = new Thread(shutdownTask, "shutdown-thread");
+		th.start();
+		assertNull(template.execute(callback));
+		long stop = System.currentTimeMillis();
+
+		assertTrue("Template not stopped in time", (stop - start) < initialWaitTime);
+		assertTrue(template.getFailedStop() > 0);
+	}
+
+	// wakes up the threads parked on the queue and checks all of them return
+	public void testWaitQueueSignalsEveryWaiter() throws Exception {
+		final WaitQueue queue = new WaitQueue();
+		final long waitTime = 20 * 1000;
+		Thread[] waiters = new Thread[10];
+
+		for (int i = 0; i < waiters.length; i++) {
+			waiters[i] = new Thread(new Runnable() {
+
+				public void run() {
+					try {
+						queue.await(waitTime);
+					}
+					catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}, "waiter-" + i);
+			waiters[i].start();
+		}
+
+		// wait for all threads to park
+		for (int i = 0; i < 100 && queue.getWaitingCount() < waiters.length; i++) {
+			Thread.sleep(20);
+		}
+
+		long start = System.currentTimeMillis();
+		queue.signalAll();
+		for (int i = 0; i < waiters.length; i++) {
+			waiters[i].join(waitTime);
+			assertFalse(waiters[i].isAlive());
+		}
+		assertTrue((System.currentTimeMillis() - start) < waitTime);
+		assertEquals(0, queue.getWaitingCount());
+	}
+
+	// binds the service while threads are still entering the lookup; none of them should miss the wake-up
+	public void testNoLostWakeUpsUnderContention() throws Exception {
+		final WaitQueue queue = new WaitQueue();
+		final long waitTime = 30 * 1000;
+		final RetryTemplate lockFreeTemplate = new RetryTemplate(waitTime, queue);
+		final int threads = 16;
+
+		for (int round = 0; round < 20; round++) {
+			final AtomicReference<Object> service = new AtomicReference<Object>();
+			final RetryCallback<Object> lookup = new RetryCallback<Object>() {
+
+				public Object doWithRetry() {
+					return service.get();
+				}
+
+				public boolean isComplete(Object result) {
+					return result != null;
+				}
+			};
+
+			final CountDownLatch start = new CountDownLatch(1);
+			final CountDownLatch done = new CountDownLatch(threads);
+			final AtomicInteger found = new AtomicInteger();
+
+			for (int i = 0; i < threads; i++) {
+				new Thread(new Runnable() {
+
+					public void run() {
+						try {
+							start.await();
+							if (lockFreeTemplate.execute(lookup) != null) {
+								found.incrementAndGet();
+							}
+						}
+						catch (InterruptedException e) {
+							// bail out
+						}
+						finally {
+							done.countDown();
+						}
+					}
+				}, "lookup-" + round + "-" + i).start();
+			}
+
+			start.countDown();
+			// bind while the lookups are racing to park
+			Thread.yield();
+			service.set(new Object());
+			queue.signalAll();
+
+			// a lost wake-up would keep a thread parked for the whole wait time
+			assertTrue(done.await(waitTime / 3, TimeUnit.MILLISECONDS));
+			assertEquals(threads, found.get());
+		}
+		assertEquals(0, queue.getWaitingCount());
+	}
+
 	// simple test that keeps waking up the template for a number of times
 	// the callback counts the invocations and then returns nicely
 	public void testSpuriousWakeup() throws Exception {
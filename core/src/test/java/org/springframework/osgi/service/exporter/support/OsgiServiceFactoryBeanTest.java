@@ -427,6 +427,32 @@ public class OsgiServiceFactoryBeanTest extends TestCase {
 		assertNotNull(reg.getReference().getProperty("updated"));
 	}
 
+	public void testPublicationListenerWithDeferredRegistration() throws Exception {
+		final List<String> events = new ArrayList<String>();
+		exporter.setPublicationListener(new ServicePublicationListener() {
+
+			public void beforePublication(OsgiServiceFactoryBean exp) {
+				assertSame(exporter, exp);
+				events.add("before");
+			}
+
+			public void afterPublication(OsgiServiceFactoryBean exp, ServiceRegistration registration) {
+				assertSame(exporter, exp);
+				assertNotNull(registration);
+				events.add("after");
+			}
+		});
+		exporter.setTarget("string");
+		exporter.setInterfaces(new Class<?>[] { Serializable.class });
+		exporter.setRegisterService(false);
+		beanFactoryControl.replay();
+		exporter.afterPropertiesSet();
+		assertTrue(events.isEmpty());
+
+		exporter.setRegisterService(true);
+		assertEquals("[before, after]", events.toString());
+	}
+
 	public void testPrototypeServiceFactory() throws Exception {
 		ServiceFactory factory = new MockServiceFactory();
 		String beanName = "prototype-sf";
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.exporter.support.internal.support;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Costin Leau
+ */
+public class WeakIdentityProxyCacheTest extends TestCase {
+
+	private AtomicInteger creations;
+
+	private WeakIdentityProxyCache cache;
+
+
+	protected void setUp() throws Exception {
+		creations = new AtomicInteger();
+		cache = new WeakIdentityProxyCache() {
+
+			protected Object createProxy(Object target) {
+				creations.incrementAndGet();
+				return new Object[] { target };
+			}
+		};
+	}
+
+	protected void tearDown() throws Exception {
+		cache = null;
+	}
+
+	public void testSameTargetSameProxy() throws Exception {
+		String target = new String("target");
+		Object proxy = cache.getProxy(target);
+		assertSame(proxy, cache.getProxy(target));
+		assertEquals(1, creations.get());
+	}
+
+	public void testIdentityBasedKeys() throws Exception {
+		// equal but not identical targets get different proxies
+		String target1 = new String("target");
+		String target2 = new String("target");
+		assertNotSame(cache.getProxy(target1), cache.getProxy(target2));
+		assertEquals(2, creations.get());
+		assertEquals(2, cache.size());
+	}
+
+	public void testConcurrentCreation() throws Exception {
+		final Object target = new Object();
+		final CountDownLatch start = new CountDownLatch(1);
+		final Object[] proxies = new Object[8];
+		Thread[] threads = new Thread[proxies.length];
+
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+
+				public void run() {
+					try {
+						start.await();
+					}
+					catch (InterruptedException ex) {
+						return;
+					}
+					proxies[index] = cache.getProxy(target);
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+
+		assertEquals(1, creations.get());
+		for (int i = 1; i < proxies.length; i++) {
+			assertSame(proxies[0], proxies[i]);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.aop;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Costin Leau
+ */
+public class ServiceMethodInvokerTest extends TestCase {
+
+	private static class HiddenService implements Callable<Object> {
+
+		public Object call() throws Exception {
+			throw new IllegalStateException("hidden");
+		}
+	}
+
+
+	private ServiceMethodInvoker invoker;
+
+
+	protected void setUp() throws Exception {
+		invoker = new ServiceMethodInvoker();
+	}
+
+	protected void tearDown() throws Exception {
+		invoker = null;
+	}
+
+	public void testAlternatingServiceClasses() throws Throwable {
+		Method length = CharSequence.class.getMethod("length", null);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(new Integer(3), invoker.invoke("abc", length, null));
+			assertEquals(new Integer(5), invoker.invoke(new StringBuffer("abcde"), length, null));
+		}
+		assertEquals(2, invoker.getCachedClassCount());
+	}
+
+	public void testNonPublicServiceClass() throws Throwable {
+		Method size = List.class.getMethod("size", null);
+		List<Object> list = Collections.unmodifiableList(Arrays.asList(new Object[] { "a", "b" }));
+		assertFalse(Modifier.isPublic(list.getClass().getModifiers()));
+		assertEquals(new Integer(2), invoker.invoke(list, size, null));
+		// the invoked method stays untouched
+		assertFalse(size.isAccessible());
+	}
+
+	public void testExceptionUnwrapping() throws Throwable {
+		Method call = Callable.class.getMethod("call", null);
+		try {
+			invoker.invoke(new HiddenService(), call, null);
+			fail("expected exception");
+		} catch (IllegalStateException ex) {
+			assertEquals("hidden", ex.getMessage());
+		}
+	}
+
+	public void testCachedClassesAreCapped() throws Throwable {
+		Method hashCode = Object.class.getMethod("hashCode", null);
+		List<Object> targets = new ArrayList<Object>();
+		targets.add(new Object());
+		targets.add("string");
+		targets.add(new StringBuffer());
+		targets.add(new ArrayList<Object>());
+		targets.add(Integer.valueOf(1));
+		targets.add(Long.valueOf(1));
+		targets.add(Boolean.TRUE);
+		targets.add(Character.valueOf('c'));
+		targets.add(Byte.valueOf((byte) 1));
+		targets.add(Short.valueOf((short) 1));
+
+		for (Object target : targets) {
+			assertEquals(new Integer(target.hashCode()), invoker.invoke(target, hashCode, null));
+			assertTrue(invoker.getCachedClassCount() <= ServiceMethodInvoker.MAX_CLASSES);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.service.importer.support.internal.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.springframework.osgi.mock.MockBundleContext;
+import org.springframework.osgi.mock.MockFilter;
+import org.springframework.osgi.mock.MockServiceReference;
+
+/**
+ * @author Costin Leau
+ */
+public class ServiceEventDemultiplexerTest extends TestCase {
+
+	private static class RecordingListener implements ServiceListener {
+
+		private final List<ServiceEvent> events = new ArrayList<ServiceEvent>();
+
+		public void serviceChanged(ServiceEvent event) {
+			events.add(event);
+		}
+	}
+
+	private MockBundleContext bundleContext;
+	private RecordingListener stringListener, numberListener, anyListener;
+
+
+	protected void setUp() throws Exception {
+		bundleContext = new MockBundleContext() {
+
+			public ServiceReference[] getServiceReferences(String clazz, String filter) throws InvalidSyntaxException {
+				return null;
+			}
+		};
+
+		stringListener = new RecordingListener();
+		numberListener = new RecordingListener();
+		anyListener = new RecordingListener();
+
+		ServiceEventDemultiplexer.addServiceListener(bundleContext, stringListener, String.class.getName(), null);
+		ServiceEventDemultiplexer.addServiceListener(bundleContext, numberListener, Number.class.getName(), null);
+		ServiceEventDemultiplexer.addServiceListener(bundleContext, anyListener, null, null);
+	}
+
+	protected void tearDown() throws Exception {
+		ServiceEventDemultiplexer.removeServiceListener(bundleContext, stringListener);
+		ServiceEventDemultiplexer.removeServiceListener(bundleContext, numberListener);
+		ServiceEventDemultiplexer.removeServiceListener(bundleContext, anyListener);
+		bundleContext = null;
+	}
+
+	private void fireEvent(int type, ServiceReference ref) {
+		ServiceEvent event = new ServiceEvent(type, ref);
+		Object[] listeners = bundleContext.getServiceListeners().toArray();
+		for (int i = 0; i < listeners.length; i++) {
+			((ServiceListener) listeners[i]).serviceChanged(event);
+		}
+	}
+
+	public void testSingleFrameworkListener() throws Exception {
+		assertEquals(1, bundleContext.getServiceListeners().size());
+	}
+
+	public void testEventsRoutedByObjectClass() throws Exception {
+		fireEvent(ServiceEvent.REGISTERED, new MockServiceReference(new String[] { String.class.getName() }));
+
+		assertEquals(1, stringListener.events.size());
+		assertEquals(0, numberListener.events.size());
+		assertEquals(1, anyListener.events.size());
+
+		fireEvent(ServiceEvent.MODIFIED, new MockServiceReference(new String[] { Number.class.getName(),
+			String.class.getName() }));
+
+		assertEquals(2, stringListener.events.size());
+		assertEquals(1, numberListener.events.size());
+		assertEquals(2, anyListener.events.size());
+	}
+
+	public void testFilterAppliedToCandidates() throws Exception {
+		RecordingListener filtered = new RecordingListener();
+		// the mock filter never matches
+		ServiceEventDemultiplexer.addServiceListener(bundleContext, filtered, String.class.getName(), new MockFilter());
+
+		try {
+			fireEvent(ServiceEvent.REGISTERED, new MockServiceReference(new String[] { String.class.getName() }));
+			assertEquals(0, filtered.events.size());
+			assertEquals(1, stringListener.events.size());
+		}
+		finally {
+			ServiceEventDemultiplexer.removeServiceListener(bundleContext, filtered);
+		}
+	}
+
+	public void testFrameworkListenerRemovedWithLastSubscriber() throws Exception {
+		assertTrue(ServiceEventDemultiplexer.removeServiceListener(bundleContext, stringListener));
+		assertTrue(ServiceEventDemultiplexer.removeServiceListener(bundleContext, numberListener));
+		assertEquals(1, bundleContext.getServiceListeners().size());
+		assertTrue(ServiceEventDemultiplexer.removeServiceListener(bundleContext, anyListener));
+		assertEquals(0, bundleContext.getServiceListeners().size());
+		assertFalse(ServiceEventDemultiplexer.removeServiceListener(bundleContext, anyListener));
+	}
+}
@@ -101,4 +101,69 @@ public class BundleDelegatingClassLoaderTest extends TestCase {
 
 		assertSame(enumeration, classLoader.findResources(resource));
 	}
+
+	public void testLookupCache() throws Exception {
+		bundleCtrl.replay();
+
+		MockControl ctrl = MockControl.createNiceControl(Bundle.class);
+		Bundle cachedBundle = (Bundle) ctrl.getMock();
+		ctrl.expectAndDefaultReturn(cachedBundle.getBundleId(), 123);
+		ctrl.expectAndDefaultReturn(cachedBundle.getSymbolicName(), "cached.bundle");
+		ctrl.expectAndReturn(cachedBundle.loadClass("foo.bar"), Object.class);
+		ctrl.expectAndThrow(cachedBundle.loadClass("bar.foo"), new ClassNotFoundException());
+		ctrl.expectAndReturn(cachedBundle.getResource("res"), null);
+		ctrl.replay();
+
+		BundleDelegatingClassLoader cachingLoader =
+				BundleDelegatingClassLoader.createBundleClassLoaderFor(cachedBundle, null, 10);
+
+		for (int i = 0; i < 2; i++) {
+			assertSame(Object.class, cachingLoader.findClass("foo.bar"));
+			try {
+				cachingLoader.findClass("bar.foo");
+				fail("expected exception");
+			} catch (ClassNotFoundException ex) {
+				// expected
+			}
+			assertNull(cachingLoader.findResource("res"));
+		}
+		ctrl.verify();
+
+		LookupCacheStatistics statistics = cachingLoader.getLookupCacheStatistics();
+		assertEquals(2, statistics.getClassHits());
+		assertEquals(2, statistics.getClassMisses());
+		assertEquals(1, statistics.getResourceHits());
+		assertEquals(1, statistics.getResourceMisses());
+		assertEquals(3, statistics.getSize());
+
+		// the bundle has been updated
+		ClassLoaderCaches.invalidate(cachedBundle);
+		assertNull(cachingLoader.findResource("res"));
+		assertEquals(1, statistics.getInvalidations());
+		assertEquals(2, statistics.getResourceMisses());
+		assertEquals(1, statistics.getSize());
+	}
+
+	public void testLookupCacheBounds() throws Exception {
+		bundleCtrl.replay();
+
+		MockControl ctrl = MockControl.createNiceControl(Bundle.class);
+		Bundle cachedBundle = (Bundle) ctrl.getMock();
+		ctrl.replay();
+
+		BundleDelegatingClassLoader cachingLoader =
+				BundleDelegatingClassLoader.createBundleClassLoaderFor(cachedBundle, null, 4);
+		for (int i = 0; i < 10; i++) {
+			cachingLoader.findResource("res" + i);
+		}
+
+		LookupCacheStatistics statistics = cachingLoader.getLookupCacheStatistics();
+		assertEquals(4, statistics.getSize());
+		assertEquals(6, statistics.getEvictions());
+	}
+
+	public void testNoLookupCacheByDefault() throws Exception {
+		bundleCtrl.replay();
+		assertNull(classLoader.getLookupCacheStatistics());
+	}
 }
\ No newline at end of file
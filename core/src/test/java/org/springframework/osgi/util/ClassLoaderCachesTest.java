@@ -0,0 +1,50 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.util;
+
+import junit.framework.TestCase;
+
+import org.springframework.osgi.mock.MockBundle;
+
+/**
+ * @author Costin Leau
+ */
+public class ClassLoaderCachesTest extends TestCase {
+
+	public void testBundleGeneration() throws Exception {
+		MockBundle bundle = new MockBundle();
+		bundle.setBundleId(4242);
+		assertEquals(0, ClassLoaderCaches.getGeneration(bundle));
+
+		ClassLoaderCaches.invalidate(bundle);
+		ClassLoaderCaches.invalidate(bundle);
+		assertEquals(2, ClassLoaderCaches.getGeneration(bundle));
+	}
+
+	public void testRemoveUninstalledBundle() throws Exception {
+		MockBundle bundle = new MockBundle();
+		bundle.setBundleId(4343);
+		int count = ClassLoaderCaches.getBundleGenerationCount();
+
+		ClassLoaderCaches.invalidate(bundle);
+		assertEquals(count + 1, ClassLoaderCaches.getBundleGenerationCount());
+
+		ClassLoaderCaches.remove(bundle);
+		assertEquals(count, ClassLoaderCaches.getBundleGenerationCount());
+		assertEquals(0, ClassLoaderCaches.getGeneration(bundle));
+	}
+}
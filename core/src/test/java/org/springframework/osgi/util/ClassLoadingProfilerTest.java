@@ -0,0 +1,129 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.util;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.easymock.MockControl;
+import org.osgi.framework.Bundle;
+
+/**
+ * @author Costin Leau
+ */
+public class ClassLoadingProfilerTest extends TestCase {
+
+	protected void tearDown() throws Exception {
+		ClassLoadingProfiler.setEnabled(false);
+		ClassLoadingProfiler.reset();
+	}
+
+	public void testProfileCounters() throws Exception {
+		ClassLoadingProfile profile = ClassLoadingProfiler.getProfile("counters");
+		assertSame(profile, ClassLoadingProfiler.getProfile("counters"));
+
+		profile.recordClassLoad("a.A", 10, true);
+		profile.recordClassLoad("a.B", 20, false);
+		profile.recordClassLoadFailure("a.C", 30);
+		profile.recordResourceLoad("a/res", 40, false);
+
+		assertEquals(3, profile.getClassLoads());
+		assertEquals(60, profile.getClassLoadTime());
+		assertEquals(1, profile.getClassMisses());
+		assertEquals(1, profile.getClassFailures());
+		assertEquals(1, profile.getResourceLoads());
+		assertEquals(40, profile.getResourceLoadTime());
+		assertEquals(1, profile.getResourceMisses());
+
+		ClassLoadingProfiler.reset();
+		assertEquals(0, profile.getClassLoads());
+		assertTrue(profile.getSlowestLoads().isEmpty());
+	}
+
+	public void testSlowestLoads() throws Exception {
+		ClassLoadingProfile profile = ClassLoadingProfiler.getProfile("slowest");
+		for (int i = 0; i < 100; i++) {
+			profile.recordClassLoad("class" + i, (i * 37) % 100, true);
+		}
+
+		Map<String, Long> slowest = profile.getSlowestLoads();
+		assertEquals(ClassLoadingProfile.SLOWEST_LOADS, slowest.size());
+
+		long expected = 99;
+		for (Iterator<Long> iterator = slowest.values().iterator(); iterator.hasNext();) {
+			assertEquals(expected--, iterator.next().longValue());
+		}
+	}
+
+	public void testDisabledProfiling() throws Exception {
+		MockControl ctrl = MockControl.createNiceControl(Bundle.class);
+		Bundle bundle = (Bundle) ctrl.getMock();
+		ctrl.expectAndDefaultReturn(bundle.getBundleId(), 1234);
+		ctrl.replay();
+
+		BundleDelegatingClassLoader loader = BundleDelegatingClassLoader.createBundleClassLoaderFor(bundle);
+		loader.findResource("res");
+		assertEquals(0, ClassLoadingProfiler.getProfile(bundle).getResourceLoads());
+	}
+
+	public void testBundleClassLoaderProfiling() throws Exception {
+		MockControl ctrl = MockControl.createNiceControl(Bundle.class);
+		Bundle bundle = (Bundle) ctrl.getMock();
+		ctrl.expectAndDefaultReturn(bundle.getBundleId(), 4321);
+		ctrl.expectAndReturn(bundle.loadClass("foo.bar"), Object.class);
+		ctrl.expectAndThrow(bundle.loadClass("bar.foo"), new ClassNotFoundException());
+		ctrl.replay();
+
+		ClassLoadingProfiler.setEnabled(true);
+		BundleDelegatingClassLoader loader = BundleDelegatingClassLoader.createBundleClassLoaderFor(bundle);
+		assertSame(Object.class, loader.findClass("foo.bar"));
+		try {
+			loader.findClass("bar.foo");
+			fail("expected exception");
+		} catch (ClassNotFoundException ex) {
+			// expected
+		}
+		loader.findResource("res");
+
+		ClassLoadingProfile profile = ClassLoadingProfiler.getProfile(bundle);
+		assertEquals(2, profile.getClassLoads());
+		assertEquals(1, profile.getClassMisses());
+		assertEquals(1, profile.getResourceLoads());
+		assertEquals(1, profile.getResourceMisses());
+		assertTrue(profile.getSlowestLoads().containsKey("foo.bar"));
+		assertTrue(ClassLoadingProfiler.getProfiles().containsKey(ClassLoadingProfiler.getProfileName(bundle)));
+	}
+
+	public void testRemoveProfiles() throws Exception {
+		MockControl ctrl = MockControl.createNiceControl(Bundle.class);
+		Bundle bundle = (Bundle) ctrl.getMock();
+		ctrl.expectAndDefaultReturn(bundle.getBundleId(), 5678);
+		ctrl.replay();
+
+		ClassLoadingProfiler.getProfile(bundle);
+		ClassLoadingProfiler.getProfile(ClassLoadingProfiler.getChainedProfileName(bundle));
+		assertTrue(ClassLoadingProfiler.getProfiles().containsKey(ClassLoadingProfiler.getProfileName(bundle)));
+
+		// the bundle is uninstalled
+		ClassLoadingProfiler.removeProfiles(bundle);
+		assertFalse(ClassLoadingProfiler.getProfiles().containsKey(ClassLoadingProfiler.getProfileName(bundle)));
+		assertFalse(ClassLoadingProfiler.getProfiles().containsKey(
+			ClassLoadingProfiler.getChainedProfileName(bundle)));
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.osgi.extender.event;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.osgi.framework.Bundle;
+import org.springframework.context.ApplicationContext;
+import org.springframework.osgi.context.event.OsgiBundleApplicationContextEvent;
+import org.springframework.util.Assert;
+
+/**
+ * Spring-DM Extender bootstrapping event containing the startup timeline of an application context, that is the time
+ * spent by the context in each creation phase. Published once the context creation completes (successfully or not).
+ * 
+ * <p/> Useful for finding out which bundles slow down the startup and why.
+ * 
+ * @author Costin Leau
+ */
+public class BootstrappingTimelineEvent extends OsgiBundleApplicationContextEvent {
+
+	/**
+	 * Application context creation phase.
+	 */
+	public enum Phase {
+		/** scanning the bundle for configurations */
+		SCANNING,
+		/** creating the application context instance */
+		CREATION,
+		/** loading the bean definitions (first stage of the refresh) */
+		BEAN_DEFINITION_LOADING,
+		/** waiting for the mandatory service dependencies */
+		DEPENDENCY_WAITING,
+		/** waiting for a particular service dependency */
+		SERVICE_DEPENDENCY,
+		/** instantiating the beans (second stage of the refresh or the whole refresh if no waiting is involved) */
+		REFRESH,
+		/** publishing a service */
+		SERVICE_PUBLICATION
+	}
+
+	/**
+	 * Time interval spent in a creation phase.
+	 */
+	public static class Interval {
+
+		private final Phase phase;
+		private final String detail;
+		private final long start;
+		private final long duration;
+
+
+		/**
+		 * Constructs a new <code>Interval</code> instance.
+		 * 
+		 * @param phase creation phase
+		 * @param detail interval detail (such as the service dependency or the bean name) - can be null
+		 * @param start interval start (in microseconds since the epoch)
+		 * @param duration interval duration (in microseconds)
+		 */
+		public Interval(Phase phase, String detail, long start, long duration) {
+			this.phase = phase;
+			this.detail = detail;
+			this.start = start;
+			this.duration = duration;
+		}
+
+		public Phase getPhase() {
+			return phase;
+		}
+
+		public String getDetail() {
+			return detail;
+		}
+
+		/**
+		 * Returns the interval start.
+		 * 
+		 * @return start in microseconds since the epoch
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * Returns the interval duration.
+		 * 
+		 * @return duration in microseconds
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		public String toString() {
+			return phase + (detail != null ? " [" + detail + "]" : "") + " " + duration + "us";
+		}
+	}
+
+
+	private final List<Interval> intervals;
+
+	/**
+	 * Constructs a new <code>BootstrappingTimelineEvent</code> instance.
+	 * 
+	 * @param source event source
+	 * @param bundle associated bundle
+	 * @param intervals startup timeline
+	 */
+	public BootstrappingTimelineEvent(ApplicationContext source, Bundle bundle, List<Interval> intervals) {
+		super(source, bundle);
+		Assert.notNull(intervals);
+		this.intervals = Collections.unmodifiableList(intervals);
+	}
+
+	/**
+	 * Returns the recorded intervals, in the order in which they completed.
+	 * 
+	 * @return startup timeline
+	 */
+	public List<Interval> getIntervals() {
+		return intervals;
+	}
+
+	/**
+	 * Returns the total time spent in the given phase.
+	 * 
+	 * @param phase creation phase
+	 * @return total time in microseconds
+	 */
+	public long getDuration(Phase phase) {
+		long total = 0;
+		for (Interval interval : intervals) {
+			if (interval.getPhase() == phase) {
+				total += interval.getDuration();
+			}
+		}
+		return total;
+	}
+}
@@ -17,6 +17,11 @@
 
 package org.springframework.osgi.extender.internal.activator;
 
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Map;
 import java.util.WeakHashMap;
 
@@ -26,6 +31,7 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.framework.Version;
 import org.springframework.beans.BeanUtils;
@@ -33,11 +39,17 @@ import org.springframework.beans.CachedIntrospectionResults;
 import org.springframework.osgi.context.event.OsgiBundleApplicationContextEventMulticaster;
 import org.springframework.osgi.extender.internal.support.ExtenderConfiguration;
 import org.springframework.osgi.extender.internal.support.NamespaceManager;
+import org.springframework.osgi.extender.internal.support.StartupTimeline;
 import org.springframework.osgi.extender.support.internal.ConfigUtils;
 import org.springframework.osgi.service.exporter.support.OsgiServiceFactoryBean;
+import org.springframework.osgi.service.importer.metrics.DefaultInvocationMetricsRegistry;
+import org.springframework.osgi.service.importer.metrics.InvocationMetricsRegistry;
 import org.springframework.osgi.service.importer.support.OsgiServiceCollectionProxyFactoryBean;
 import org.springframework.osgi.service.importer.support.OsgiServiceProxyFactoryBean;
+import org.springframework.osgi.util.ClassLoaderCaches;
+import org.springframework.osgi.util.ClassLoadingProfiler;
 import org.springframework.osgi.util.OsgiBundleUtils;
+import org.springframework.osgi.util.OsgiServiceUtils;
 import org.springframework.osgi.util.OsgiStringUtils;
 
 /**
@@ -175,6 +187,25 @@ public class ContextLoaderListener implements BundleActivator {
 				maybeRemoveNameSpaceHandlerFor(bundle);
 				break;
 			}
+			// the wiring has changed (refresh included)
+			case BundleEvent.RESOLVED: {
+				ClassLoaderCaches.invalidate();
+				break;
+			}
+			case BundleEvent.UNRESOLVED: {
+				ClassLoaderCaches.invalidate();
+				ClassLoaderCaches.invalidate(bundle);
+				break;
+			}
+			case BundleEvent.UPDATED: {
+				ClassLoaderCaches.invalidate(bundle);
+				break;
+			}
+			case BundleEvent.UNINSTALLED: {
+				ClassLoaderCaches.remove(bundle);
+				ClassLoadingProfiler.removeProfiles(bundle);
+				break;
+			}
 			default:
 				break;
 			}
@@ -267,6 +298,9 @@ public class ContextLoaderListener implements BundleActivator {
 	private volatile OsgiContextProcessor processor;
 	private volatile ListListenerAdapter osgiListeners;
 
+	/** invocation metrics service registration */
+	private ServiceRegistration metricsRegistration;
+
 	/**
 	 * <p/> Called by OSGi when this bundle is started. Finds all previously resolved bundles and adds namespace
 	 * handlers for them if necessary. </p> <p/> Creates application contexts for bundles started before the extender
@@ -293,10 +327,17 @@ public class ContextLoaderListener implements BundleActivator {
 
 		// Step 2: initialize the extender configuration
 		extenderConfiguration = initExtenderConfiguration(bundleContext);
+		ClassLoaderCaches.setBundleLookupCacheSize(extenderConfiguration.getClassLoaderLookupCacheSize());
+		if (extenderConfiguration.shouldProfileClassLoading()) {
+			ClassLoadingProfiler.setEnabled(true);
+		}
 
 		// init the OSGi event dispatch/listening system
 		initListenerService();
 
+		// publish the importers invocation metrics
+		initMetricsService(bundleContext);
+
 		// initialize the configuration once namespace handlers have been detected
 		lifecycleManager =
 				new LifecycleManager(extenderConfiguration, versionMatcher, createContextConfigFactory(),
@@ -346,6 +387,17 @@ public class ContextLoaderListener implements BundleActivator {
 		nsManager.afterPropertiesSet();
 	}
 
+	/**
+	 * Publishes the service importers invocation metrics as an OSGi service.
+	 * 
+	 * @param bundleContext extender bundle context
+	 */
+	protected void initMetricsService(BundleContext bundleContext) {
+		metricsRegistration =
+				bundleContext.registerService(new String[] { InvocationMetricsRegistry.class.getName() },
+						DefaultInvocationMetricsRegistry.getSharedInstance(), null);
+	}
+
 	protected void initStartedBundles(BundleContext bundleContext) {
 		// register the context creation listener
 		contextListener = new ContextBundleListener();
@@ -406,11 +458,24 @@ public class ContextLoaderListener implements BundleActivator {
 			nsListener = null;
 		}
 
+		// write the timelines before the managed contexts (and their timelines) go away
+		writeStartupTimeline();
+
 		// close managed bundles
 		lifecycleManager.destroy();
+
+		if (extenderConfiguration.shouldProfileClassLoading()) {
+			log.info(ClassLoadingProfiler.dump());
+			ClassLoadingProfiler.setEnabled(false);
+		}
+
 		// clear the namespace registry
 		nsManager.destroy();
 
+		// unpublish the invocation metrics
+		OsgiServiceUtils.unregisterService(metricsRegistration);
+		metricsRegistration = null;
+
 		// release multicaster
 		if (multicaster != null) {
 			multicaster.removeAllListeners();
@@ -466,6 +531,34 @@ public class ContextLoaderListener implements BundleActivator {
 		return true;
 	}
 
+	/**
+	 * Writes the startup timeline of the managed contexts to the configured file (if any).
+	 */
+	private void writeStartupTimeline() {
+		StartupTimeline timeline = extenderConfiguration.getStartupTimeline();
+		String file = extenderConfiguration.getStartupTimelineFile();
+		if (timeline == null || file == null) {
+			return;
+		}
+
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			timeline.writeChromeTrace(writer);
+			log.info("Startup timeline written to " + file);
+		} catch (IOException ex) {
+			log.warn("Cannot write startup timeline to " + file, ex);
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException ex) {
+					// ignore
+				}
+			}
+		}
+	}
+
 	protected ApplicationContextConfigurationFactory createContextConfigFactory() {
 		return new DefaultApplicationContextConfigurationFactory();
 	}
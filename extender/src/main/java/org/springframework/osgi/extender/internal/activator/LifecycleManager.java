@@ -16,15 +16,13 @@
 
 package org.springframework.osgi.extender.internal.activator;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
@@ -39,16 +37,27 @@ import org.springframework.core.task.TaskExecutor;
 import org.springframework.osgi.context.ConfigurableOsgiBundleApplicationContext;
 import org.springframework.osgi.context.DelegatedExecutionOsgiBundleApplicationContext;
 import org.springframework.osgi.context.event.OsgiBundleApplicationContextEventMulticaster;
+import org.springframework.osgi.context.support.OsgiBundleXmlApplicationContext;
 import org.springframework.osgi.extender.OsgiApplicationContextCreator;
 import org.springframework.osgi.extender.OsgiBeanFactoryPostProcessor;
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent;
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent.Phase;
 import org.springframework.osgi.extender.internal.dependencies.shutdown.BundleDependencyComparator;
 import org.springframework.osgi.extender.internal.dependencies.shutdown.ComparatorServiceDependencySorter;
 import org.springframework.osgi.extender.internal.dependencies.shutdown.ServiceDependencySorter;
 import org.springframework.osgi.extender.internal.dependencies.shutdown.ShutdownSorter;
 import org.springframework.osgi.extender.internal.dependencies.startup.DependencyWaiterApplicationContextExecutor;
+import org.springframework.osgi.extender.internal.dependencies.startup.StartupDependencyGraph;
+import org.springframework.osgi.extender.internal.support.ContextTimeline;
 import org.springframework.osgi.extender.internal.support.ExtenderConfiguration;
 import org.springframework.osgi.extender.internal.support.OsgiBeanFactoryPostProcessorAdapter;
+import org.springframework.osgi.extender.internal.support.StartupTimeline;
+import org.springframework.osgi.extender.internal.support.TimelinePostProcessor;
+import org.springframework.osgi.extender.internal.util.BundleUtils;
 import org.springframework.osgi.extender.internal.util.concurrent.Counter;
+import org.springframework.osgi.extender.internal.util.concurrent.HashedWheelTimer;
+import org.springframework.osgi.extender.internal.util.concurrent.PrioritizedTask;
+import org.springframework.osgi.extender.internal.util.concurrent.PriorityTaskExecutor;
 import org.springframework.osgi.extender.internal.util.concurrent.RunnableTimedExecution;
 import org.springframework.osgi.extender.support.ApplicationContextConfiguration;
 import org.springframework.osgi.util.OsgiBundleUtils;
@@ -72,11 +81,14 @@ class LifecycleManager implements DisposableBean {
 	private final Map<Long, ConfigurableOsgiBundleApplicationContext> managedContexts =
 			new ConcurrentHashMap<Long, ConfigurableOsgiBundleApplicationContext>(16);
 
+	/** weight of the tasks loading the definitions and checking the dependencies of the contexts */
+	private static final int DEFINITION_LOADING_WEIGHT = Integer.MAX_VALUE;
+
 	/** listener counter - used to properly synchronize shutdown */
 	private Counter contextsStarted = new Counter("contextsStarted");
 
-	// "Spring Application Context Creation Timer"
-	private final Timer timer = new Timer("Spring DM Context Creation Timer", true);
+	// "Spring Application Context Creation Timer" - 100 ms ticks, the wheel covers roughly 50 seconds
+	private final HashedWheelTimer timer = new HashedWheelTimer("Spring DM Context Creation Timer", 100, 512);
 
 	/** Task executor used for bootstraping the Spring contexts in async mode */
 	private final TaskExecutor taskExecutor;
@@ -98,6 +110,15 @@ class LifecycleManager implements DisposableBean {
 	/** Service-based dependency sorter for shutdown */
 	private final ServiceDependencySorter shutdownDependencySorter = new ComparatorServiceDependencySorter();
 
+	/** exports/mandatory imports graph of the contexts being started */
+	private final StartupDependencyGraph startupDependencyGraph = new StartupDependencyGraph();
+
+	/** startup timelines of the managed contexts (can be null) */
+	private final StartupTimeline startupTimeline;
+
+	/** bean definition cache directory (null if disabled) */
+	private final File beanDefinitionCacheDirectory;
+
 	private final OsgiBundleApplicationContextEventMulticaster multicaster;
 
 	private final ExtenderConfiguration extenderConfiguration;
@@ -122,7 +143,19 @@ class LifecycleManager implements DisposableBean {
 		this.processor = processor;
 
 		this.taskExecutor = extenderConfiguration.getTaskExecutor();
+		// re-rank the pending refreshes as the contexts discover their dependencies
+		if (taskExecutor instanceof PriorityTaskExecutor) {
+			final PriorityTaskExecutor priorityExecutor = (PriorityTaskExecutor) taskExecutor;
+			startupDependencyGraph.setListener(new StartupDependencyGraph.Listener() {
+
+				public void graphChanged(Set<Long> bundleIds) {
+					priorityExecutor.reprioritize(bundleIds);
+				}
+			});
+		}
 		this.shutdownTaskExecutor = extenderConfiguration.getShutdownTaskExecutor();
+		this.startupTimeline = extenderConfiguration.getStartupTimeline();
+		this.beanDefinitionCacheDirectory = extenderConfiguration.getBeanDefinitionCacheDirectory();
 
 		this.multicaster = extenderConfiguration.getEventMulticaster();
 
@@ -172,26 +205,43 @@ class LifecycleManager implements DisposableBean {
 		if (debug)
 			log.debug("Inspecting bundle " + bundleString);
 
+		final ContextTimeline timeline = (startupTimeline != null ? startupTimeline.createTimeline(bundle) : null);
+		long creationStart = System.nanoTime();
+
 		try {
 			localApplicationContext = contextCreator.createApplicationContext(localBundleContext);
 		} catch (Exception ex) {
+			removeTimeline(bundle);
 			log.error("Cannot create application context for bundle " + bundleString, ex);
 			return;
 		}
 
 		if (localApplicationContext == null) {
+			removeTimeline(bundle);
 			log.debug("No application context created for bundle " + bundleString);
 			return;
 		}
 
 		if (typeChecker != null) {
 			if (!typeChecker.isTypeCompatible(localBundleContext)) {
+				removeTimeline(bundle);
 				log.info("Bundle " + OsgiStringUtils.nullSafeName(bundle) + " is not type compatible with extender "
 						+ OsgiStringUtils.nullSafeName(bundleContext.getBundle()) + "; ignoring bundle...");
 				return;
 			}
 		}
 
+		if (timeline != null) {
+			timeline.record(Phase.CREATION, null, creationStart);
+			// measure the service publication
+			localApplicationContext.addBeanFactoryPostProcessor(new TimelinePostProcessor(timeline));
+		}
+
+		if (beanDefinitionCacheDirectory != null && localApplicationContext instanceof OsgiBundleXmlApplicationContext) {
+			((OsgiBundleXmlApplicationContext) localApplicationContext)
+					.setBeanDefinitionCacheDirectory(beanDefinitionCacheDirectory);
+		}
+
 		log.debug("Bundle " + OsgiStringUtils.nullSafeName(bundle) + " is type compatible with extender "
 				+ OsgiStringUtils.nullSafeName(bundleContext.getBundle()) + "; processing bundle...");
 
@@ -210,6 +260,8 @@ class LifecycleManager implements DisposableBean {
 		ApplicationContextConfiguration config = contextConfigurationFactory.createConfiguration(bundle);
 
 		final boolean asynch = config.isCreateAsynchronously();
+		// contexts waiting for dependencies record (and publish) their timeline through the executor
+		final boolean recordRefresh = (timeline != null && !config.isWaitForDependencies());
 
 		// create refresh runnable
 		Runnable contextRefresh = new Runnable() {
@@ -220,7 +272,21 @@ class LifecycleManager implements DisposableBean {
 					log.trace("Calling pre-refresh on processor " + processor);
 				}
 				processor.preProcessRefresh(localApplicationContext);
-				localApplicationContext.refresh();
+				if (!recordRefresh) {
+					localApplicationContext.refresh();
+					return;
+				}
+
+				long refreshStart = System.nanoTime();
+				try {
+					localApplicationContext.refresh();
+				} finally {
+					timeline.record(Phase.REFRESH, null, refreshStart);
+					if (timeline.complete()) {
+						multicaster.multicastEvent(new BootstrappingTimelineEvent(localApplicationContext,
+								localApplicationContext.getBundle(), timeline.getIntervals()));
+					}
+				}
 			}
 		};
 
@@ -232,8 +298,28 @@ class LifecycleManager implements DisposableBean {
 
 		// synch/asynch context creation
 		if (asynch) {
-			// for the async stuff use the executor
-			executor = taskExecutor;
+			// for the async stuff use the executor (favouring the bundles with lower start levels, with more contexts
+			// waiting on them and with lower ids)
+			final int startLevel = BundleUtils.getStartLevel(bundleContext, bundle);
+			final long id = bundleId.longValue();
+			// when waiting for dependencies, the first task only loads the definitions and checks the dependencies;
+			// running these ahead of the refreshes fills in the graph before the refreshes get ranked
+			final Runnable definitionLoading = (config.isWaitForDependencies() ? contextRefresh : null);
+			executor = new TaskExecutor() {
+
+				public void execute(Runnable task) {
+					if (task == definitionLoading) {
+						taskExecutor.execute(new PrioritizedTask(task, startLevel, id, DEFINITION_LOADING_WEIGHT));
+					} else {
+						taskExecutor.execute(new PrioritizedTask(task, startLevel, id) {
+
+							public int getWeight() {
+								return startupDependencyGraph.getDependentCount(id);
+							}
+						});
+					}
+				}
+			};
 			creationType = "Asynchronous";
 		} else {
 			// for the sync stuff, use this thread
@@ -270,6 +356,8 @@ class LifecycleManager implements DisposableBean {
 			appCtxExecutor.setTimeout(config.getTimeout());
 			appCtxExecutor.setWatchdog(timer);
 			appCtxExecutor.setTaskExecutor(executor);
+			appCtxExecutor.setDependencyGraph(startupDependencyGraph);
+			appCtxExecutor.setTimeline(timeline);
 			appCtxExecutor.setMonitoringCounter(contextsStarted);
 			// set events publisher
 			appCtxExecutor.setDelegatedMulticaster(this.multicaster);
@@ -282,6 +370,12 @@ class LifecycleManager implements DisposableBean {
 		executor.execute(contextRefresh);
 	}
 
+	private void removeTimeline(Bundle bundle) {
+		if (startupTimeline != null) {
+			startupTimeline.removeTimeline(bundle.getBundleId());
+		}
+	}
+
 	/**
 	 * Closing an application context is a potentially long-running activity, however, we *have* to do it synchronously
 	 * during the event process as the BundleContext object is not valid once we return from this method.
@@ -289,6 +383,8 @@ class LifecycleManager implements DisposableBean {
 	 * @param bundle
 	 */
 	protected void maybeCloseApplicationContextFor(Bundle bundle) {
+		removeTimeline(bundle);
+
 		final ConfigurableOsgiBundleApplicationContext context =
 				(ConfigurableOsgiBundleApplicationContext) managedContexts.remove(Long.valueOf(bundle.getBundleId()));
 		if (context == null) {
@@ -350,31 +446,26 @@ class LifecycleManager implements DisposableBean {
 		if (debug) {
 			log.debug("Starting shutdown procedure for bundles " + bundles);
 		}
-		while (!bundles.isEmpty()) {
-			Collection<Bundle> candidates = ShutdownSorter.getBundles(bundles);
+		// compute the shutdown layers from a single snapshot of the service usage graph
+		List<List<Bundle>> layers = ShutdownSorter.getLayers(bundles);
+
+		for (List<Bundle> candidates : layers) {
 			if (debug)
 				log.debug("Staging shutdown for bundles " + candidates);
 
 			final List<Runnable> taskList = new ArrayList<Runnable>(candidates.size());
-			final List<ConfigurableOsgiBundleApplicationContext> closedContexts =
-					Collections.synchronizedList(new ArrayList<ConfigurableOsgiBundleApplicationContext>());
-			final Object[] contextClosingDown = new Object[1];
 
 			for (Bundle shutdownBundle : candidates) {
 				Long id = new Long(shutdownBundle.getBundleId());
 				final ConfigurableOsgiBundleApplicationContext context =
 						(ConfigurableOsgiBundleApplicationContext) managedContexts.get(id);
 				if (context != null) {
-					closedContexts.add(context);
 					// add a new runnable
 					taskList.add(new Runnable() {
 
 						private final String toString = "Closing runnable for context " + context.getDisplayName();
 
 						public void run() {
-							contextClosingDown[0] = context;
-							// eliminate context
-							closedContexts.remove(context);
 							closeApplicationContext(context);
 						}
 
@@ -388,19 +479,23 @@ class LifecycleManager implements DisposableBean {
 			// tasks
 			final Runnable[] tasks = (Runnable[]) taskList.toArray(new Runnable[taskList.size()]);
 
-			// start the ripper >:)
-			for (int j = 0; j < tasks.length; j++) {
-				if (RunnableTimedExecution.execute(tasks[j], extenderConfiguration.getShutdownWaitTime(),
-						shutdownTaskExecutor)) {
-					if (debug) {
-						log.debug(contextClosingDown[0] + " context did not close successfully; forcing shutdown...");
-					}
+			// start the ripper >:) - the contexts of the same layer do not depend on each other
+			List<Runnable> timedOut =
+					RunnableTimedExecution.executeAll(tasks, extenderConfiguration.getShutdownWaitTime(),
+						shutdownTaskExecutor);
+			if (debug) {
+				for (Runnable task : timedOut) {
+					log.debug(task + " did not close successfully; forcing shutdown...");
 				}
 			}
 		}
 
 		this.managedContexts.clear();
 
+		for (Bundle bundle : bundles) {
+			removeTimeline(bundle);
+		}
+
 		// before bailing out; wait for the threads that might be left by
 		// the task executor
 		stopTaskExecutor();
@@ -434,6 +529,8 @@ class LifecycleManager implements DisposableBean {
 	private void stopTimer() {
 		if (log.isDebugEnabled())
 			log.debug("Canceling timer tasks");
-		timer.cancel();
+		int discarded = timer.stop();
+		if (log.isDebugEnabled())
+			log.debug("Discarded " + discarded + " timer task(s); timer stats " + timer);
 	}
 }
\ No newline at end of file
@@ -14,212 +14,320 @@
  * limitations under the License.
  */
 package org.springframework.osgi.extender.internal.dependencies.shutdown;
-
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.osgi.framework.Bundle;
-import org.osgi.framework.ServiceReference;
-import org.springframework.osgi.util.OsgiServiceReferenceUtils;
-import org.springframework.osgi.util.OsgiStringUtils;
-import org.springframework.util.ObjectUtils;
-
-/**
- * Utility for sorting out bundles during shutdown based on the OSGi 4.2 shutdown algorithm. Please see section 121.3.11
- * in OSGi 4.2 release. Since sorting out the entire graph from the beginning is difficult (shutting down some bundles,
- * might allow others to be destroyed), this utility is meant to be called multiple times until the list is being
- * depleted.
- * 
- * @author Costin Leau
- */
-public abstract class ShutdownSorter {
-
-	private static final Log log = LogFactory.getLog(ShutdownSorter.class);
-
-	/**
-	 * Sorts the given bundles. The method extracts the bundles about to be destroyed from the given lists and returns
-	 * them to the user. Since shutting down a bundle can influence the destruction of the others, this method should be
-	 * called after all the returned bundles have been destroyed until the list is empty.
-	 * 
-	 * @param managedBundles
-	 * @return
-	 */
-	public static Collection<Bundle> getBundles(Collection<Bundle> managedBundles) {
-
-		List<Bundle> returned = null;
-		try {
-			// 1. eliminate unused bundles
-			returned = unusedBundles(managedBundles);
-			if (returned.isEmpty()) {
-				// go to step 2, and pick the first bundle based on service properties
-				returned = new ArrayList<Bundle>(1);
-				returned.add(findBundleBasedOnServices(managedBundles));
-			}
-			return returned;
-		} finally {
-			managedBundles.removeAll(returned);
-		}
-	}
-
-	private static List<Bundle> unusedBundles(Collection<Bundle> unsorted) {
-		List<Bundle> unused = new ArrayList<Bundle>();
-
-		boolean trace = log.isTraceEnabled();
-
-		for (Bundle bundle : unsorted) {
-			String bundleToString = null;
-			if (trace) {
-				bundleToString = OsgiStringUtils.nullSafeSymbolicName(bundle);
-			}
-			ServiceReference[] services = bundle.getRegisteredServices();
-			if (ObjectUtils.isEmpty(services)) {
-				if (trace) {
-					log.trace("Bundle " + bundleToString + " has no registered services; added for shutdown");
-				}
-				unused.add(bundle);
-			} else {
-				boolean unusedBundle = true;
-				for (ServiceReference serviceReference : services) {
-					Bundle[] usingBundles = serviceReference.getUsingBundles();
-					if (!ObjectUtils.isEmpty(usingBundles)) {
-						if (trace)
-							log.trace("Bundle " + bundleToString
-									+ " has registered services in use; postponing shutdown. The using bundles are "
-									+ Arrays.toString(usingBundles));
-						unusedBundle = false;
-						break;
-					}
-
-				}
-				if (unusedBundle) {
-					if (trace) {
-						log.trace("Bundle " + bundleToString + " has unused registered services; added for shutdown");
-					}
-					unused.add(bundle);
-				}
-			}
-		}
-
-		Collections.sort(unused, ReverseBundleIdSorter.INSTANCE);
-
-		return unused;
-	}
-
-	private static Bundle findBundleBasedOnServices(Collection<Bundle> managedBundles) {
-		Bundle candidate = null;
-		int ranking = 0;
-		boolean tie = false;
-
-		boolean trace = log.isTraceEnabled();
-
-		String bundleToString = null;
-
-		for (Bundle bundle : managedBundles) {
-			if (trace) {
-				bundleToString = OsgiStringUtils.nullSafeSymbolicName(bundle);
-			}
-
-			int localRanking = getRegisteredServiceInUseLowestRanking(bundle);
-
-			if (trace) {
-				log.trace("Bundle " + bundleToString + " lowest ranking registered service is " + localRanking);
-			}
-			if (candidate == null) {
-				candidate = bundle;
-				ranking = localRanking;
-			} else {
-				if (localRanking < ranking) {
-					candidate = bundle;
-					tie = false;
-					ranking = localRanking;
-				} else if (localRanking == ranking) {
-					tie = true;
-				}
-			}
-		}
-
-		// there's a tie, so search for the bundle with the highest service id
-		if (tie) {
-
-			if (trace) {
-				log.trace("Ranking tie; Looking for the highest service id...");
-			}
-
-			long serviceId = Long.MIN_VALUE;
-
-			for (Bundle bundle : managedBundles) {
-				if (trace) {
-					bundleToString = OsgiStringUtils.nullSafeSymbolicName(bundle);
-				}
-
-				long localServiceId = getHighestServiceId(bundle);
-				if (trace) {
-					log.trace("Bundle " + bundleToString + " highest service id is " + localServiceId);
-				}
-
-				if (localServiceId > serviceId) {
-					candidate = bundle;
-					serviceId = localServiceId;
-				}
-			}
-
-			if (trace) {
-				log.trace("The bundle with the highest service id is "
-						+ OsgiStringUtils.nullSafeSymbolicName(candidate));
-			}
-		} else {
-			if (trace) {
-				log.trace("No ranking tie. The bundle with the lowest ranking is "
-						+ OsgiStringUtils.nullSafeSymbolicName(candidate));
-			}
-		}
-
-		return candidate;
-	}
-
-	private static int getRegisteredServiceInUseLowestRanking(Bundle bundle) {
-		ServiceReference[] services = bundle.getRegisteredServices();
-		int min = Integer.MAX_VALUE;
-		if (!ObjectUtils.isEmpty(services)) {
-			for (ServiceReference ref : services) {
-				// make sure somebody is using the service
-				if (!ObjectUtils.isEmpty(ref.getUsingBundles())) {
-					int localRank = OsgiServiceReferenceUtils.getServiceRanking(ref);
-					if (localRank < min) {
-						min = localRank;
-					}
-				}
-			}
-		}
-		return min;
-	}
-
-	private static long getHighestServiceId(Bundle bundle) {
-		ServiceReference[] services = bundle.getRegisteredServices();
-		long max = Long.MIN_VALUE;
-		if (!ObjectUtils.isEmpty(services)) {
-			for (ServiceReference ref : services) {
-				long id = OsgiServiceReferenceUtils.getServiceId(ref);
-				if (id > max) {
-					max = id;
-				}
-			}
-		}
-		return max;
-	}
-
-	static class ReverseBundleIdSorter implements Comparator<Bundle> {
-
-		private static Comparator<Bundle> INSTANCE = new ReverseBundleIdSorter();
-
-		public int compare(Bundle o1, Bundle o2) {
-			return (int) (o2.getBundleId() - o1.getBundleId());
-		}
-	}
-}
\ No newline at end of file
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.springframework.osgi.util.OsgiServiceReferenceUtils;
+import org.springframework.osgi.util.OsgiStringUtils;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * Utility for sorting out bundles during shutdown based on the OSGi 4.2 shutdown algorithm. Please see section 121.3.11
+ * in OSGi 4.2 release. Since sorting out the entire graph from the beginning is difficult (shutting down some bundles,
+ * might allow others to be destroyed), this utility can be called multiple times until the list is being depleted.
+ * 
+ * <p/> Alternatively, {@link #getLayers(Collection)} takes a single snapshot of the service usage graph and computes
+ * all the shutdown layers from it, assuming that destroying a bundle releases the services it uses. The bundles
+ * inside a layer do not use each other's services and can be destroyed in parallel.
+ * 
+ * @author Costin Leau
+ */
+public abstract class ShutdownSorter {
+
+	private static final Log log = LogFactory.getLog(ShutdownSorter.class);
+
+	/**
+	 * Snapshot of a registered service.
+	 */
+	private static class ServiceNode {
+
+		private final long id;
+		private final int ranking;
+		private final Bundle[] usingBundles;
+
+
+		ServiceNode(ServiceReference reference) {
+			this.id = OsgiServiceReferenceUtils.getServiceId(reference);
+			this.ranking = OsgiServiceReferenceUtils.getServiceRanking(reference);
+			Bundle[] using = reference.getUsingBundles();
+			this.usingBundles = (using == null ? new Bundle[0] : using);
+		}
+
+		boolean isInUse(Set<Bundle> destroyed) {
+			for (int i = 0; i < usingBundles.length; i++) {
+				if (!destroyed.contains(usingBundles[i]))
+					return true;
+			}
+			return false;
+		}
+
+		Bundle[] getUsingBundles(Set<Bundle> destroyed) {
+			List<Bundle> using = new ArrayList<Bundle>(usingBundles.length);
+			for (int i = 0; i < usingBundles.length; i++) {
+				if (!destroyed.contains(usingBundles[i]))
+					using.add(usingBundles[i]);
+			}
+			return using.toArray(new Bundle[using.size()]);
+		}
+	}
+
+	/**
+	 * Snapshot of a bundle registered services and their usage.
+	 */
+	private static class BundleNode {
+
+		private final Bundle bundle;
+		private final ServiceNode[] services;
+
+
+		BundleNode(Bundle bundle) {
+			this.bundle = bundle;
+			ServiceReference[] references = bundle.getRegisteredServices();
+			if (ObjectUtils.isEmpty(references)) {
+				services = new ServiceNode[0];
+			} else {
+				services = new ServiceNode[references.length];
+				for (int i = 0; i < references.length; i++) {
+					services[i] = new ServiceNode(references[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Service usage graph, built once from the managed bundles.
+	 */
+	private static class ServiceUsageGraph {
+
+		private final List<BundleNode> remaining;
+		/** bundles already destroyed (whose service usages are thus released) */
+		private final Set<Bundle> destroyed = new HashSet<Bundle>();
+
+
+		ServiceUsageGraph(Collection<Bundle> bundles) {
+			remaining = new ArrayList<BundleNode>(bundles.size());
+			for (Bundle bundle : bundles) {
+				remaining.add(new BundleNode(bundle));
+			}
+		}
+
+		boolean isEmpty() {
+			return remaining.isEmpty();
+		}
+
+		/**
+		 * Returns the next bundles to be destroyed and marks them as such.
+		 */
+		List<Bundle> nextLayer() {
+			// 1. eliminate unused bundles
+			List<Bundle> layer = unusedBundles();
+			if (layer.isEmpty()) {
+				// go to step 2, and pick the first bundle based on service properties
+				layer = new ArrayList<Bundle>(1);
+				layer.add(findBundleBasedOnServices());
+			}
+
+			destroyed.addAll(layer);
+			for (Iterator<BundleNode> iterator = remaining.iterator(); iterator.hasNext();) {
+				if (destroyed.contains(iterator.next().bundle)) {
+					iterator.remove();
+				}
+			}
+			return layer;
+		}
+
+		private List<Bundle> unusedBundles() {
+			List<Bundle> unused = new ArrayList<Bundle>();
+
+			boolean trace = log.isTraceEnabled();
+
+			for (BundleNode node : remaining) {
+				String bundleToString = null;
+				if (trace) {
+					bundleToString = OsgiStringUtils.nullSafeSymbolicName(node.bundle);
+				}
+				if (node.services.length == 0) {
+					if (trace) {
+						log.trace("Bundle " + bundleToString + " has no registered services; added for shutdown");
+					}
+					unused.add(node.bundle);
+				} else {
+					boolean unusedBundle = true;
+					for (ServiceNode service : node.services) {
+						if (service.isInUse(destroyed)) {
+							if (trace)
+								log.trace("Bundle " + bundleToString
+										+ " has registered services in use; postponing shutdown. The using bundles are "
+										+ Arrays.toString(service.getUsingBundles(destroyed)));
+							unusedBundle = false;
+							break;
+						}
+					}
+					if (unusedBundle) {
+						if (trace) {
+							log.trace("Bundle " + bundleToString + " has unused registered services; added for shutdown");
+						}
+						unused.add(node.bundle);
+					}
+				}
+			}
+
+			Collections.sort(unused, ReverseBundleIdSorter.INSTANCE);
+
+			return unused;
+		}
+
+		private Bundle findBundleBasedOnServices() {
+			BundleNode candidate = null;
+			int ranking = 0;
+			boolean tie = false;
+
+			boolean trace = log.isTraceEnabled();
+
+			String bundleToString = null;
+
+			for (BundleNode node : remaining) {
+				if (trace) {
+					bundleToString = OsgiStringUtils.nullSafeSymbolicName(node.bundle);
+				}
+
+				int localRanking = getRegisteredServiceInUseLowestRanking(node);
+
+				if (trace) {
+					log.trace("Bundle " + bundleToString + " lowest ranking registered service is " + localRanking);
+				}
+				if (candidate == null) {
+					candidate = node;
+					ranking = localRanking;
+				} else {
+					if (localRanking < ranking) {
+						candidate = node;
+						tie = false;
+						ranking = localRanking;
+					} else if (localRanking == ranking) {
+						tie = true;
+					}
+				}
+			}
+
+			// there's a tie, so search for the bundle with the highest service id
+			if (tie) {
+
+				if (trace) {
+					log.trace("Ranking tie; Looking for the highest service id...");
+				}
+
+				long serviceId = Long.MIN_VALUE;
+
+				for (BundleNode node : remaining) {
+					if (trace) {
+						bundleToString = OsgiStringUtils.nullSafeSymbolicName(node.bundle);
+					}
+
+					long localServiceId = getHighestServiceId(node);
+					if (trace) {
+						log.trace("Bundle " + bundleToString + " highest service id is " + localServiceId);
+					}
+
+					if (localServiceId > serviceId) {
+						candidate = node;
+						serviceId = localServiceId;
+					}
+				}
+
+				if (trace) {
+					log.trace("The bundle with the highest service id is "
+							+ OsgiStringUtils.nullSafeSymbolicName(candidate.bundle));
+				}
+			} else {
+				if (trace) {
+					log.trace("No ranking tie. The bundle with the lowest ranking is "
+							+ OsgiStringUtils.nullSafeSymbolicName(candidate.bundle));
+				}
+			}
+
+			return candidate.bundle;
+		}
+
+		private int getRegisteredServiceInUseLowestRanking(BundleNode node) {
+			int min = Integer.MAX_VALUE;
+			for (ServiceNode service : node.services) {
+				// make sure somebody is using the service
+				if (service.isInUse(destroyed)) {
+					if (service.ranking < min) {
+						min = service.ranking;
+					}
+				}
+			}
+			return min;
+		}
+
+		private long getHighestServiceId(BundleNode node) {
+			long max = Long.MIN_VALUE;
+			for (ServiceNode service : node.services) {
+				if (service.id > max) {
+					max = service.id;
+				}
+			}
+			return max;
+		}
+	}
+
+
+	/**
+	 * Sorts the given bundles. The method extracts the bundles about to be destroyed from the given lists and returns
+	 * them to the user. Since shutting down a bundle can influence the destruction of the others, this method should be
+	 * called after all the returned bundles have been destroyed until the list is empty.
+	 * 
+	 * @param managedBundles
+	 * @return
+	 */
+	public static Collection<Bundle> getBundles(Collection<Bundle> managedBundles) {
+		List<Bundle> returned = null;
+		try {
+			returned = new ServiceUsageGraph(managedBundles).nextLayer();
+			return returned;
+		} finally {
+			if (returned != null)
+				managedBundles.removeAll(returned);
+		}
+	}
+
+	/**
+	 * Computes the shutdown layers of the given bundles. The service usage graph is read only once, at the beginning;
+	 * the following layers are computed by considering the services used by the bundles of the previous layers as
+	 * released. Cycles are broken, as in {@link #getBundles(Collection)}, by service ranking and id.
+	 * 
+	 * @param managedBundles bundles to shutdown
+	 * @return list of layers, in shutdown order
+	 */
+	public static List<List<Bundle>> getLayers(Collection<Bundle> managedBundles) {
+		List<List<Bundle>> layers = new ArrayList<List<Bundle>>();
+		ServiceUsageGraph graph = new ServiceUsageGraph(managedBundles);
+		while (!graph.isEmpty()) {
+			layers.add(graph.nextLayer());
+		}
+		return layers;
+	}
+
+	static class ReverseBundleIdSorter implements Comparator<Bundle> {
+
+		private static Comparator<Bundle> INSTANCE = new ReverseBundleIdSorter();
+
+		public int compare(Bundle o1, Bundle o2) {
+			return (int) (o2.getBundleId() - o1.getBundleId());
+		}
+	}
+}
@@ -29,6 +29,8 @@ import org.springframework.osgi.context.event.OsgiBundleApplicationContextEvent;
 import org.springframework.osgi.extender.OsgiServiceDependencyFactory;
 import org.springframework.osgi.extender.event.BootstrappingDependenciesEvent;
 import org.springframework.osgi.extender.event.BootstrappingDependencyEvent;
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent.Phase;
+import org.springframework.osgi.extender.internal.support.ContextTimeline;
 import org.springframework.osgi.extender.internal.util.PrivilegedUtils;
 import org.springframework.osgi.service.importer.OsgiServiceDependency;
 import org.springframework.osgi.service.importer.event.OsgiServiceDependencyEvent;
@@ -75,6 +77,9 @@ public class DependencyServiceManager {
 	/** dependency factories */
 	private List<OsgiServiceDependencyFactory> dependencyFactories;
 
+	/** startup timeline (can be null) */
+	private volatile ContextTimeline timeline;
+
 	/**
 	 * Actual ServiceListener.
 	 * 
@@ -429,6 +434,7 @@ public class DependencyServiceManager {
 
 	// event notification
 	private void sendDependencyUnsatisfiedEvent(MandatoryServiceDependency dependency) {
+		beginWait(dependency);
 		OsgiServiceDependencyEvent nestedEvent =
 				new OsgiServiceDependencyWaitStartingEvent(context, dependency.getServiceDependency(), waitTime);
 		BootstrappingDependencyEvent dependencyEvent =
@@ -437,6 +443,10 @@ public class DependencyServiceManager {
 	}
 
 	private void sendDependencySatisfiedEvent(MandatoryServiceDependency dependency) {
+		ContextTimeline timeline = this.timeline;
+		if (timeline != null) {
+			timeline.end(dependency);
+		}
 		OsgiServiceDependencyEvent nestedEvent =
 				new OsgiServiceDependencyWaitEndedEvent(context, dependency.getServiceDependency(), waitTime);
 		BootstrappingDependencyEvent dependencyEvent =
@@ -445,6 +455,10 @@ public class DependencyServiceManager {
 	}
 
 	private void sendInitialBootstrappingEvents(Set<MandatoryServiceDependency> deps) {
+		for (MandatoryServiceDependency dependency : deps) {
+			beginWait(dependency);
+		}
+
 		// send the fine grained event
 		List<OsgiServiceDependencyEvent> events = getUnsatisfiedDependenciesAsEvents(deps);
 		for (OsgiServiceDependencyEvent nestedEvent : events) {
@@ -472,6 +486,22 @@ public class DependencyServiceManager {
 		publishEvent(event);
 	}
 
+	private void beginWait(MandatoryServiceDependency dependency) {
+		ContextTimeline timeline = this.timeline;
+		if (timeline != null) {
+			timeline.begin(dependency, Phase.SERVICE_DEPENDENCY, dependency.toString());
+		}
+	}
+
+	/**
+	 * Sets the timeline recording the wait for each dependency.
+	 * 
+	 * @param timeline context startup timeline
+	 */
+	void setTimeline(ContextTimeline timeline) {
+		this.timeline = timeline;
+	}
+
 	private void publishEvent(OsgiBundleApplicationContextEvent dependencyEvent) {
 		this.contextStateAccessor.getEventMulticaster().multicastEvent(dependencyEvent);
 	}
@@ -18,10 +18,11 @@ package org.springframework.osgi.extender.internal.dependencies.startup;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,7 +38,11 @@ import org.springframework.osgi.context.event.OsgiBundleApplicationContextEventM
 import org.springframework.osgi.context.event.OsgiBundleContextFailedEvent;
 import org.springframework.osgi.extender.OsgiServiceDependencyFactory;
 import org.springframework.osgi.extender.event.BootstrappingDependenciesFailedEvent;
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent;
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent.Phase;
+import org.springframework.osgi.extender.internal.support.ContextTimeline;
 import org.springframework.osgi.extender.internal.util.concurrent.Counter;
+import org.springframework.osgi.extender.internal.util.concurrent.HashedWheelTimer;
 import org.springframework.osgi.service.importer.event.OsgiServiceDependencyEvent;
 import org.springframework.osgi.util.OsgiFilterUtils;
 import org.springframework.osgi.util.OsgiStringUtils;
@@ -67,11 +72,14 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 	private long timeout;
 
 	/** the timer used for executing the timeout */
-	// NOTE: the dog is not managed by this application so do not cancel it
-	private Timer watchdog;
+	// NOTE: the dog is not managed by this application so do not stop it
+	private HashedWheelTimer watchdog;
 
 	/** watchdog task */
-	private TimerTask watchdogTask;
+	private Runnable watchdogTask;
+
+	/** scheduled watchdog */
+	private HashedWheelTimer.Timeout watchdogTimeout;
 
 	/** OSGi service dependencyDetector used for detecting dependencies */
 	protected DependencyServiceManager dependencyDetector;
@@ -99,12 +107,18 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 
 	private List<OsgiServiceDependencyFactory> dependencyFactories;
 
+	/** startup graph shared with the other contexts (can be null) */
+	private StartupDependencyGraph dependencyGraph;
+
+	/** startup timeline of the context (can be null) */
+	private ContextTimeline timeline;
+
 	/**
 	 * The task for the watch dog.
 	 * 
 	 * @author Hal Hildebrand
 	 */
-	private class WatchDogTask extends TimerTask {
+	private class WatchDogTask implements Runnable {
 
 		public void run() {
 			timeout();
@@ -134,12 +148,27 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 			}
 
 			// Continue with the refresh process...
+			long refreshStart = System.nanoTime();
+			Throwable failure = null;
 			try {
 				delegateContext.completeRefresh();
 			} catch (Throwable th) {
-				fail(th, true);
+				failure = th;
 			}
 
+			if (timeline != null) {
+				timeline.record(Phase.REFRESH, null, refreshStart);
+			}
+
+			if (failure != null) {
+				fail(failure, true);
+			} else {
+				publishTimeline();
+			}
+
+			// the context exports are now published (or never will be)
+			removeFromDependencyGraph();
+
 			// Once we are done, tell the world
 			synchronized (monitor) {
 				// Close might have been called in the meantime
@@ -222,8 +251,20 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 				state = ContextState.RESOLVING_DEPENDENCIES;
 			}
 
+			long loadingStart = System.nanoTime();
 			delegateContext.startRefresh();
 
+			if (timeline != null) {
+				timeline.record(Phase.BEAN_DEFINITION_LOADING, null, loadingStart);
+				// ends once the dependencies are resolved (in stage two) or the context fails
+				timeline.begin(Phase.DEPENDENCY_WAITING, Phase.DEPENDENCY_WAITING, null);
+			}
+
+			if (dependencyGraph != null) {
+				dependencyGraph.addExports(getBundle().getBundleId(), StartupDependencyGraph
+						.findExportedClasses(delegateContext.getBeanFactory()));
+			}
+
 			if (debug)
 				log.debug("Pre-refresh completed; determining dependencies...");
 
@@ -264,6 +305,14 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 					dependencyDetector = dl;
 				}
 
+				if (dependencyGraph != null) {
+					Set<String> classes = new LinkedHashSet<String>();
+					for (MandatoryServiceDependency dependency : dl.getUnsatisfiedDependencies().keySet()) {
+						classes.addAll(Arrays.asList(dependency.getServiceClasses()));
+					}
+					dependencyGraph.addWaiting(getBundle().getBundleId(), classes);
+				}
+
 				if (debug)
 					log.debug("Registering service dependency dependencyDetector for " + getDisplayName());
 
@@ -307,6 +356,14 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 			state = ContextState.DEPENDENCIES_RESOLVED;
 		}
 
+		if (dependencyGraph != null) {
+			dependencyGraph.removeWaiting(getBundle().getBundleId());
+		}
+
+		if (timeline != null) {
+			timeline.end(Phase.DEPENDENCY_WAITING);
+		}
+
 		// always delegate to the taskExecutor since we might be called by the
 		// OSGi platform listener
 		taskExecutor.execute(new CompleteRefreshTask());
@@ -321,6 +378,7 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 
 		boolean normalShutdown = false;
 		stopWatchDog();
+		removeFromDependencyGraph();
 		
 		synchronized (monitor) {
 
@@ -447,6 +505,15 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 			delegatedMulticaster.multicastEvent(new OsgiBundleContextFailedEvent(delegateContext, delegateContext
 					.getBundle(), t));
 		}
+
+		publishTimeline();
+	}
+
+	private void publishTimeline() {
+		if (timeline != null && timeline.complete()) {
+			delegatedMulticaster.multicastEvent(new BootstrappingTimelineEvent(delegateContext, delegateContext
+					.getBundle(), timeline.getIntervals()));
+		}
 	}
 
 	/**
@@ -497,7 +564,10 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 	}
 
 	protected DependencyServiceManager createDependencyServiceListener(Runnable task) {
-		return new DependencyServiceManager(this, delegateContext, dependencyFactories, task, timeout);
+		DependencyServiceManager manager =
+				new DependencyServiceManager(this, delegateContext, dependencyFactories, task, timeout);
+		manager.setTimeline(timeline);
+		return manager;
 	}
 
 	/**
@@ -508,7 +578,7 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 		synchronized (monitor) {
 			if (watchdogTask != null) {
 				started = true;
-				watchdog.schedule(watchdogTask, timeout);
+				watchdogTimeout = watchdog.schedule(watchdogTask, timeout);
 			}
 		}
 
@@ -525,7 +595,10 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 		boolean stopped = false;
 		synchronized (monitor) {
 			if (watchdogTask != null) {
-				watchdogTask.cancel();
+				if (watchdogTimeout != null) {
+					watchdogTimeout.cancel();
+					watchdogTimeout = null;
+				}
 				watchdogTask = null;
 				stopped = true;
 			}
@@ -547,6 +620,34 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 		}
 	}
 
+	/**
+	 * Sets the startup dependency graph shared by the contexts started by the extender.
+	 * 
+	 * @param dependencyGraph startup dependency graph
+	 */
+	public void setDependencyGraph(StartupDependencyGraph dependencyGraph) {
+		synchronized (monitor) {
+			this.dependencyGraph = dependencyGraph;
+		}
+	}
+
+	/**
+	 * Sets the timeline recording the context startup.
+	 * 
+	 * @param timeline context startup timeline
+	 */
+	public void setTimeline(ContextTimeline timeline) {
+		synchronized (monitor) {
+			this.timeline = timeline;
+		}
+	}
+
+	private void removeFromDependencyGraph() {
+		if (dependencyGraph != null) {
+			dependencyGraph.remove(getBundle().getBundleId());
+		}
+	}
+
 	public void setTaskExecutor(TaskExecutor taskExec) {
 		synchronized (monitor) {
 			this.taskExecutor = taskExec;
@@ -566,7 +667,7 @@ public class DependencyWaiterApplicationContextExecutor implements OsgiBundleApp
 
 	}
 
-	public void setWatchdog(Timer watchdog) {
+	public void setWatchdog(HashedWheelTimer watchdog) {
 		synchronized (monitor) {
 			this.watchdog = watchdog;
 		}
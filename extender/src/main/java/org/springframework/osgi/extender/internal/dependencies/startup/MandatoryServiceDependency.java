@@ -41,6 +41,7 @@ import org.springframework.util.ObjectUtils;
 class MandatoryServiceDependency implements OsgiServiceDependency {
 	// match the class inside object class (and use a non backing reference group)
 	private static final Pattern PATTERN = Pattern.compile("objectClass=(?:[^\\)]+)");
+	private static final String OBJECT_CLASS_PREFIX = "objectClass=";
 
 	protected final BundleContext bundleContext;
 
@@ -102,6 +103,19 @@ class MandatoryServiceDependency implements OsgiServiceDependency {
 		return result;
 	}
 
+	/**
+	 * Returns the service classes (the objectClass values) specified by this dependency filter.
+	 * 
+	 * @return service class names
+	 */
+	String[] getServiceClasses() {
+		String[] names = new String[classes.length];
+		for (int i = 0; i < classes.length; i++) {
+			names[i] = classes[i].substring(OBJECT_CLASS_PREFIX.length()).trim();
+		}
+		return names;
+	}
+
 	public OsgiServiceDependency getServiceDependency() {
 		return serviceDependency;
 	}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.dependencies.startup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.osgi.service.exporter.support.OsgiServiceFactoryBean;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Startup dependency graph between the application contexts managed by the extender. Each context contributes the
+ * service classes it declares for export (read from the bean definitions, before any bean is created) and, while
+ * waiting, the service classes of its unsatisfied mandatory imports. A context <em>provides</em> for a waiting context
+ * if it exports one of the classes the latter is waiting for.
+ * 
+ * <p/> The graph is used for scheduling: the more (transitive) waiting dependents a context has, the earlier its
+ * refresh should run since it sits on the critical path of the startup. Exports declared through auto-export or
+ * through nested definitions are not detected; such contexts simply do not get a boost. The dependent counts are
+ * cached; a change to the edges of a context discards only the counts of that context and of its (transitive)
+ * providers, the only ones that can be affected. Since the dependent counts change as contexts record their exports
+ * and start waiting, a {@link Listener} can be registered to re-rank the pending work of the affected contexts.
+ * 
+ * <p/> This class is thread-safe.
+ * 
+ * @author Costin Leau
+ */
+public class StartupDependencyGraph {
+
+	/**
+	 * Callback notified whenever the graph edges change, that is whenever a context records its exports or the
+	 * dependencies it waits for.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called (outside any graph lock) after a context added its exports or dependencies.
+		 * 
+		 * @param bundleIds ids of the bundles whose dependent count might have changed (the bundle of the context
+		 * included)
+		 */
+		void graphChanged(Set<Long> bundleIds);
+	}
+
+
+	private static final String INTERFACES_PROP = "interfaces";
+
+	/** bundle id -> declared exported classes */
+	private final Map<Long, Set<String>> exports = new HashMap<Long, Set<String>>();
+
+	/** bundle id -> classes the (waiting) context is waiting for */
+	private final Map<Long, Set<String>> waiting = new HashMap<Long, Set<String>>();
+
+	/** bundle id -> cached dependent count */
+	private final Map<Long, Integer> dependentCounts = new HashMap<Long, Integer>();
+
+	private final Object lock = new Object();
+
+	private volatile Listener listener;
+
+
+	/**
+	 * Records the classes declared for export by the context of the given bundle.
+	 * 
+	 * @param bundleId bundle id
+	 * @param classes exported classes
+	 */
+	public void addExports(long bundleId, Collection<String> classes) {
+		if (classes.isEmpty())
+			return;
+		Set<Long> affected;
+		synchronized (lock) {
+			Long id = Long.valueOf(bundleId);
+			exports.put(id, new HashSet<String>(classes));
+			// the providers of the context are not changed by its exports
+			affected = invalidate(id);
+		}
+		notifyListener(affected);
+	}
+
+	/**
+	 * Records the classes the context of the given bundle is waiting for.
+	 * 
+	 * @param bundleId bundle id
+	 * @param classes classes of the unsatisfied mandatory imports
+	 */
+	public void addWaiting(long bundleId, Collection<String> classes) {
+		if (classes.isEmpty())
+			return;
+		Set<Long> affected;
+		synchronized (lock) {
+			Long id = Long.valueOf(bundleId);
+			affected = invalidate(id);
+			waiting.put(id, new HashSet<String>(classes));
+			affected.addAll(invalidate(id));
+		}
+		notifyListener(affected);
+	}
+
+	/**
+	 * Indicates that the context of the given bundle is no longer waiting for its dependencies.
+	 * 
+	 * @param bundleId bundle id
+	 */
+	public void removeWaiting(long bundleId) {
+		synchronized (lock) {
+			Long id = Long.valueOf(bundleId);
+			invalidate(id);
+			waiting.remove(id);
+		}
+	}
+
+	/**
+	 * Removes the context of the given bundle (started, failed or closed) from the graph.
+	 * 
+	 * @param bundleId bundle id
+	 */
+	public void remove(long bundleId) {
+		Long id = Long.valueOf(bundleId);
+		synchronized (lock) {
+			invalidate(id);
+			exports.remove(id);
+			waiting.remove(id);
+		}
+	}
+
+	/**
+	 * Returns the number of waiting contexts that depend, directly or transitively, on the context of the given bundle.
+	 * 
+	 * @param bundleId bundle id
+	 * @return number of waiting dependents
+	 */
+	public int getDependentCount(long bundleId) {
+		synchronized (lock) {
+			Long id = Long.valueOf(bundleId);
+			Integer count = dependentCounts.get(id);
+			if (count == null) {
+				count = Integer.valueOf(countDependents(bundleId));
+				dependentCounts.put(id, count);
+			}
+			return count.intValue();
+		}
+	}
+
+	/**
+	 * Discards the cached dependent counts of the given context and of its transitive providers. Needs to be called
+	 * while holding the graph lock, before removing edges and after adding them.
+	 * 
+	 * @param bundleId bundle id
+	 * @return ids of the bundles whose counts were discarded
+	 */
+	private Set<Long> invalidate(Long bundleId) {
+		Set<Long> affected = new LinkedHashSet<Long>();
+		affected.add(bundleId);
+		List<Long> frontier = new ArrayList<Long>();
+		frontier.add(bundleId);
+
+		// breadth-first walk over the providers
+		while (!frontier.isEmpty()) {
+			Set<String> required = waiting.get(frontier.remove(frontier.size() - 1));
+			if (required == null)
+				continue;
+			for (Map.Entry<Long, Set<String>> entry : exports.entrySet()) {
+				Long provider = entry.getKey();
+				if (!affected.contains(provider) && intersects(entry.getValue(), required)) {
+					affected.add(provider);
+					frontier.add(provider);
+				}
+			}
+		}
+
+		for (Long id : affected) {
+			dependentCounts.remove(id);
+		}
+		return affected;
+	}
+
+	// needs to be called while holding the graph lock
+	private int countDependents(long bundleId) {
+		if (waiting.isEmpty() || !exports.containsKey(Long.valueOf(bundleId)))
+			return 0;
+
+		Set<Long> dependents = new HashSet<Long>();
+		List<Long> frontier = new ArrayList<Long>();
+		frontier.add(Long.valueOf(bundleId));
+
+		// breadth-first walk over the waiting contexts
+		while (!frontier.isEmpty()) {
+			Set<String> provided = exports.get(frontier.remove(frontier.size() - 1));
+			if (provided == null)
+				continue;
+			for (Map.Entry<Long, Set<String>> entry : waiting.entrySet()) {
+				Long dependent = entry.getKey();
+				if (dependent.longValue() != bundleId && !dependents.contains(dependent)
+						&& intersects(provided, entry.getValue())) {
+					dependents.add(dependent);
+					frontier.add(dependent);
+				}
+			}
+		}
+		return dependents.size();
+	}
+
+	/**
+	 * Returns the ids of the bundles whose contexts provide for the given (waiting) bundle context.
+	 * 
+	 * @param bundleId bundle id
+	 * @return provider bundle ids
+	 */
+	public Set<Long> getProviders(long bundleId) {
+		Set<Long> providers = new LinkedHashSet<Long>();
+		synchronized (lock) {
+			Set<String> required = waiting.get(Long.valueOf(bundleId));
+			if (required != null) {
+				for (Map.Entry<Long, Set<String>> entry : exports.entrySet()) {
+					if (entry.getKey().longValue() != bundleId && intersects(entry.getValue(), required)) {
+						providers.add(entry.getKey());
+					}
+				}
+			}
+		}
+		return providers;
+	}
+
+	/**
+	 * Sets the listener notified when contexts record their exports or dependencies.
+	 * 
+	 * @param listener graph listener (can be null)
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	private void notifyListener(Set<Long> bundleIds) {
+		Listener current = listener;
+		if (current != null) {
+			current.graphChanged(Collections.unmodifiableSet(bundleIds));
+		}
+	}
+
+	private static boolean intersects(Set<String> a, Set<String> b) {
+		Set<String> smaller = (a.size() < b.size() ? a : b);
+		Set<String> larger = (smaller == a ? b : a);
+		for (Iterator<String> iterator = smaller.iterator(); iterator.hasNext();) {
+			if (larger.contains(iterator.next()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the service classes declared by the exporters defined in the given bean factory. The bean definitions
+	 * are read directly; no bean is created.
+	 * 
+	 * @param beanFactory bean factory
+	 * @return declared exported classes
+	 */
+	public static Set<String> findExportedClasses(ConfigurableListableBeanFactory beanFactory) {
+		Set<String> classes = new LinkedHashSet<String>();
+		String[] exporters =
+				BeanFactoryUtils.beanNamesForTypeIncludingAncestors(beanFactory, OsgiServiceFactoryBean.class, true,
+						false);
+
+		for (int i = 0; i < exporters.length; i++) {
+			String name =
+					(exporters[i].startsWith(BeanFactory.FACTORY_BEAN_PREFIX) ? exporters[i].substring(1)
+							: exporters[i]);
+			if (beanFactory.containsBeanDefinition(name)) {
+				BeanDefinition definition = beanFactory.getBeanDefinition(name);
+				PropertyValue value = definition.getPropertyValues().getPropertyValue(INTERFACES_PROP);
+				if (value != null) {
+					addClassNames(value.getValue(), classes);
+				}
+			}
+		}
+		return classes;
+	}
+
+	private static void addClassNames(Object value, Set<String> classes) {
+		if (value == null) {
+			return;
+		}
+		if (value instanceof TypedStringValue) {
+			addClassNames(((TypedStringValue) value).getValue(), classes);
+		} else if (value instanceof Class<?>) {
+			classes.add(((Class<?>) value).getName());
+		} else if (value instanceof String) {
+			String[] names = StringUtils.commaDelimitedListToStringArray((String) value);
+			for (int i = 0; i < names.length; i++) {
+				String name = names[i].trim();
+				if (name.length() > 0) {
+					classes.add(name);
+				}
+			}
+		} else if (value instanceof Collection<?>) {
+			for (Object element : (Collection<?>) value) {
+				addClassNames(element, classes);
+			}
+		} else if (ObjectUtils.isArray(value)) {
+			Object[] elements = ObjectUtils.toObjectArray(value);
+			for (int i = 0; i < elements.length; i++) {
+				addClassNames(elements[i], classes);
+			}
+		}
+	}
+}
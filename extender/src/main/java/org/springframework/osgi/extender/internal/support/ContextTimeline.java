@@ -0,0 +1,176 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent.Interval;
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent.Phase;
+
+/**
+ * Startup timeline of an application context. Records the time spent in each creation phase: either directly, through
+ * {@link #record(Phase, String, long)}, or for phases that start and end in different places, through
+ * {@link #begin(Object, Phase, String)} and {@link #end(Object)}.
+ * 
+ * <p/> Recording an interval costs two {@link System#nanoTime()} calls and an append to a list, so the timeline can
+ * be left on in production. The number of intervals is capped to avoid unbounded growth (for example for service
+ * dependencies that keep coming and going).
+ * 
+ * <p/> This class is thread-safe.
+ * 
+ * @author Costin Leau
+ */
+public class ContextTimeline {
+
+	/** maximum number of recorded intervals */
+	static final int MAX_INTERVALS = 512;
+
+	/** interval started but not completed */
+	private static class OpenInterval {
+
+		private final Phase phase;
+		private final String detail;
+		private final long start;
+
+
+		OpenInterval(Phase phase, String detail, long start) {
+			this.phase = phase;
+			this.detail = detail;
+			this.start = start;
+		}
+	}
+
+
+	private final StartupTimeline timeline;
+	private final long bundleId;
+	private final String bundleName;
+
+	/** guarded by itself */
+	private final List<Interval> intervals = new ArrayList<Interval>(8);
+	/** guarded by the intervals lock */
+	private final Map<Object, OpenInterval> openIntervals = new LinkedHashMap<Object, OpenInterval>(4);
+
+	private final AtomicBoolean completed = new AtomicBoolean(false);
+
+
+	ContextTimeline(StartupTimeline timeline, long bundleId, String bundleName) {
+		this.timeline = timeline;
+		this.bundleId = bundleId;
+		this.bundleName = bundleName;
+	}
+
+	/**
+	 * Records an interval ending now.
+	 * 
+	 * @param phase creation phase
+	 * @param detail interval detail (can be null)
+	 * @param start interval start, as returned by {@link System#nanoTime()}
+	 */
+	public void record(Phase phase, String detail, long start) {
+		long end = System.nanoTime();
+		Interval interval = new Interval(phase, detail, timeline.toMicros(start), (end - start) / 1000);
+		synchronized (intervals) {
+			if (intervals.size() < MAX_INTERVALS) {
+				intervals.add(interval);
+			}
+		}
+	}
+
+	/**
+	 * Starts an interval identified by the given key. Does nothing if an interval with the same key is already open.
+	 * 
+	 * @param key interval key
+	 * @param phase creation phase
+	 * @param detail interval detail (can be null)
+	 */
+	public void begin(Object key, Phase phase, String detail) {
+		long start = System.nanoTime();
+		synchronized (intervals) {
+			if (!openIntervals.containsKey(key)) {
+				openIntervals.put(key, new OpenInterval(phase, detail, start));
+			}
+		}
+	}
+
+	/**
+	 * Ends the interval identified by the given key. Does nothing if there is no such (open) interval.
+	 * 
+	 * @param key interval key
+	 */
+	public void end(Object key) {
+		OpenInterval open;
+		synchronized (intervals) {
+			open = openIntervals.remove(key);
+		}
+		if (open != null) {
+			record(open.phase, open.detail, open.start);
+		}
+	}
+
+	/**
+	 * Ends all the open intervals.
+	 */
+	public void endAll() {
+		Collection<OpenInterval> open;
+		synchronized (intervals) {
+			open = new ArrayList<OpenInterval>(openIntervals.values());
+			openIntervals.clear();
+		}
+		for (OpenInterval interval : open) {
+			record(interval.phase, interval.detail, interval.start);
+		}
+	}
+
+	/**
+	 * Marks the timeline as complete, ending all the open intervals. Returns true only on the first call, allowing the
+	 * caller to publish the timeline exactly once.
+	 * 
+	 * @return true if the timeline has been completed by this call, false otherwise
+	 */
+	public boolean complete() {
+		endAll();
+		return completed.compareAndSet(false, true);
+	}
+
+	/**
+	 * Returns a copy of the recorded intervals.
+	 * 
+	 * @return recorded intervals
+	 */
+	public List<Interval> getIntervals() {
+		synchronized (intervals) {
+			return new ArrayList<Interval>(intervals);
+		}
+	}
+
+	public long getBundleId() {
+		return bundleId;
+	}
+
+	public String getBundleName() {
+		return bundleName;
+	}
+
+	public String toString() {
+		return "Timeline for " + bundleName + " " + getIntervals();
+	}
+}
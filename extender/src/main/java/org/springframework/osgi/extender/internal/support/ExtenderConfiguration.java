@@ -16,6 +16,7 @@
 
 package org.springframework.osgi.extender.internal.support;
 
+import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
@@ -43,12 +44,15 @@ import org.springframework.osgi.extender.OsgiApplicationContextCreator;
 import org.springframework.osgi.extender.OsgiBeanFactoryPostProcessor;
 import org.springframework.osgi.extender.OsgiServiceDependencyFactory;
 import org.springframework.osgi.extender.internal.dependencies.startup.MandatoryImporterDependencyFactory;
+import org.springframework.osgi.extender.internal.util.concurrent.PriorityTaskExecutor;
 import org.springframework.osgi.extender.support.DefaultOsgiApplicationContextCreator;
 import org.springframework.osgi.extender.support.internal.ConfigUtils;
+import org.springframework.osgi.extender.support.scanning.DefaultConfigurationScanner;
 import org.springframework.osgi.util.BundleDelegatingClassLoader;
 import org.springframework.scheduling.timer.TimerTaskExecutor;
 import org.springframework.util.Assert;
 import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
 
 /**
  * Configuration class for the extender. Takes care of locating the extender specific configurations and merging the
@@ -79,10 +83,34 @@ public class ExtenderConfiguration implements DisposableBean {
 
 	private static final String WAIT_FOR_DEPS_TIMEOUT_KEY = "dependencies.wait.time";
 
+	private static final String LOOKUP_CACHE_SIZE_KEY = "class.loader.lookup.cache.size";
+
+	private static final String CLASS_LOADING_PROFILING_KEY = "class.loader.profiling";
+
+	private static final String CONTEXT_CREATION_POOL_SIZE_KEY = "context.creation.pool.size";
+
+	private static final String SHUTDOWN_POOL_SIZE_KEY = "shutdown.pool.size";
+
+	private static final String CONTEXT_CREATION_POLICY_KEY = "context.creation.policy";
+
+	private static final String STARTUP_TIMELINE_KEY = "startup.timeline";
+
+	private static final String STARTUP_TIMELINE_FILE_KEY = "startup.timeline.file";
+
+	private static final String BEAN_DEFINITION_CACHE_KEY = "bean.definition.cache";
+
+	/** context creation policies */
+	private static final String POLICY_PRIORITY = "priority";
+	private static final String POLICY_FIFO = "fifo";
+	private static final String POLICY_UNBOUNDED = "unbounded";
+
 	private static final String EXTENDER_CFG_LOCATION = "META-INF/spring/extender";
 
 	private static final String XML_PATTERN = "*.xml";
 
+	/** bean definition cache directory (inside the extender data area) */
+	private static final String BEAN_DEFINITION_CACHE_DIR = "bean-definition-cache";
+
 	private static final String ANNOTATION_DEPENDENCY_FACTORY =
 			"org.springframework.osgi.extensions.annotation.ServiceReferenceDependencyBeanFactoryPostProcessor";
 
@@ -98,6 +126,14 @@ public class ExtenderConfiguration implements DisposableBean {
 	private static final long DEFAULT_DEP_WAIT = ConfigUtils.DIRECTIVE_TIMEOUT_DEFAULT * 1000;
 	private static final long DEFAULT_SHUTDOWN_WAIT = 10 * 1000;
 	private static final boolean DEFAULT_PROCESS_ANNOTATION = false;
+	private static final int DEFAULT_LOOKUP_CACHE_SIZE = 0;
+	private static final boolean DEFAULT_CLASS_LOADING_PROFILING = false;
+	private static final int DEFAULT_CONTEXT_CREATION_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+	private static final String DEFAULT_CONTEXT_CREATION_POLICY = POLICY_PRIORITY;
+	private static final int DEFAULT_SHUTDOWN_POOL_SIZE = 1;
+	private static final boolean DEFAULT_STARTUP_TIMELINE = true;
+	private static final String DEFAULT_STARTUP_TIMELINE_FILE = "";
+	private static final boolean DEFAULT_BEAN_DEFINITION_CACHE = false;
 
 	private ConfigurableOsgiBundleApplicationContext extenderConfiguration;
 
@@ -113,6 +149,19 @@ public class ExtenderConfiguration implements DisposableBean {
 
 	private boolean processAnnotation;
 
+	private int lookupCacheSize;
+
+	private boolean classLoadingProfiling;
+
+	/** always created (but only exposed if enabled) since the default context creator uses it */
+	private final StartupTimeline startupTimeline = new StartupTimeline();
+
+	private boolean startupTimelineEnabled;
+
+	private String startupTimelineFile;
+
+	private File beanDefinitionCacheDirectory;
+
 	private OsgiBundleApplicationContextEventMulticaster eventMulticaster;
 
 	private OsgiBundleApplicationContextListener contextEventListener;
@@ -150,8 +199,7 @@ public class ExtenderConfiguration implements DisposableBean {
 			log.info("No custom extender configuration detected; using defaults...");
 
 			synchronized (lock) {
-				taskExecutor = createDefaultTaskExecutor();
-				shutdownTaskExecutor = createDefaultShutdownTaskExecutor();
+				// the task executors are created once the properties are known
 				eventMulticaster = createDefaultEventMulticaster();
 				contextCreator = createDefaultApplicationContextCreator();
 				contextEventListener = createDefaultApplicationContextListener();
@@ -172,12 +220,11 @@ public class ExtenderConfiguration implements DisposableBean {
 				// initialize beans
 				taskExecutor =
 						extenderConfiguration.containsBean(TASK_EXECUTOR_NAME) ? (TaskExecutor) extenderConfiguration
-								.getBean(TASK_EXECUTOR_NAME, TaskExecutor.class) : createDefaultTaskExecutor();
+								.getBean(TASK_EXECUTOR_NAME, TaskExecutor.class) : null;
 
 				shutdownTaskExecutor =
 						extenderConfiguration.containsBean(SHUTDOWN_TASK_EXECUTOR_NAME) ? (TaskExecutor) extenderConfiguration
-								.getBean(SHUTDOWN_TASK_EXECUTOR_NAME, TaskExecutor.class)
-								: createDefaultShutdownTaskExecutor();
+								.getBean(SHUTDOWN_TASK_EXECUTOR_NAME, TaskExecutor.class) : null;
 
 				eventMulticaster =
 						extenderConfiguration.containsBean(APPLICATION_EVENT_MULTICASTER_BEAN_NAME) ? (OsgiBundleApplicationContextEventMulticaster) extenderConfiguration
@@ -220,6 +267,18 @@ public class ExtenderConfiguration implements DisposableBean {
 			shutdownWaitTime = getShutdownWaitTime(properties);
 			dependencyWaitTime = getDependencyWaitTime(properties);
 			processAnnotation = getProcessAnnotations(properties);
+			lookupCacheSize = getLookupCacheSize(properties);
+			classLoadingProfiling = getClassLoadingProfiling(properties);
+			startupTimelineEnabled = getStartupTimeline(properties);
+			startupTimelineFile = getStartupTimelineFile(properties);
+			beanDefinitionCacheDirectory = getBeanDefinitionCacheDirectory(bundleContext, properties);
+
+			if (taskExecutor == null) {
+				taskExecutor = createDefaultTaskExecutor(properties);
+			}
+			if (shutdownTaskExecutor == null) {
+				shutdownTaskExecutor = createDefaultShutdownTaskExecutor(properties);
+			}
 		}
 
 		// load default dependency factories
@@ -262,15 +321,25 @@ public class ExtenderConfiguration implements DisposableBean {
 
 				if (isTaskExecutorManagedInternally) {
 					log.warn("Forcing the (internally created) taskExecutor to stop...");
-					ThreadGroup th = ((SimpleAsyncTaskExecutor) taskExecutor).getThreadGroup();
-					if (!th.isDestroyed()) {
-						// ask the threads nicely to stop
-						th.interrupt();
+					if (taskExecutor instanceof PriorityTaskExecutor) {
+						// discard the pending tasks and interrupt the threads
+						((PriorityTaskExecutor) taskExecutor).destroy();
+					} else {
+						ThreadGroup th = ((SimpleAsyncTaskExecutor) taskExecutor).getThreadGroup();
+						if (!th.isDestroyed()) {
+							// ask the threads nicely to stop
+							th.interrupt();
+						}
 					}
 				}
 				taskExecutor = null;
 			}
 
+			// let the pool threads finish their work and terminate
+			else if (isTaskExecutorManagedInternally && taskExecutor instanceof PriorityTaskExecutor) {
+				((PriorityTaskExecutor) taskExecutor).shutdown();
+			}
+
 			if (isShutdownTaskExecutorManagedInternally) {
 				try {
 					((DisposableBean) shutdownTaskExecutor).destroy();
@@ -313,6 +382,14 @@ public class ExtenderConfiguration implements DisposableBean {
 		properties.setProperty(SHUTDOWN_WAIT_KEY, "" + DEFAULT_SHUTDOWN_WAIT);
 		properties.setProperty(PROCESS_ANNOTATIONS_KEY, "" + DEFAULT_PROCESS_ANNOTATION);
 		properties.setProperty(WAIT_FOR_DEPS_TIMEOUT_KEY, "" + DEFAULT_DEP_WAIT);
+		properties.setProperty(LOOKUP_CACHE_SIZE_KEY, "" + DEFAULT_LOOKUP_CACHE_SIZE);
+		properties.setProperty(CLASS_LOADING_PROFILING_KEY, "" + DEFAULT_CLASS_LOADING_PROFILING);
+		properties.setProperty(CONTEXT_CREATION_POOL_SIZE_KEY, "" + DEFAULT_CONTEXT_CREATION_POOL_SIZE);
+		properties.setProperty(CONTEXT_CREATION_POLICY_KEY, DEFAULT_CONTEXT_CREATION_POLICY);
+		properties.setProperty(SHUTDOWN_POOL_SIZE_KEY, "" + DEFAULT_SHUTDOWN_POOL_SIZE);
+		properties.setProperty(STARTUP_TIMELINE_KEY, "" + DEFAULT_STARTUP_TIMELINE);
+		properties.setProperty(STARTUP_TIMELINE_FILE_KEY, DEFAULT_STARTUP_TIMELINE_FILE);
+		properties.setProperty(BEAN_DEFINITION_CACHE_KEY, "" + DEFAULT_BEAN_DEFINITION_CACHE);
 
 		return properties;
 	}
@@ -355,22 +432,53 @@ public class ExtenderConfiguration implements DisposableBean {
 
 	}
 
-	private TaskExecutor createDefaultTaskExecutor() {
+	private TaskExecutor createDefaultTaskExecutor(Properties properties) {
 		// create thread-pool for starting contexts
 		ThreadGroup threadGroup =
 				new ThreadGroup("spring-osgi-extender[" + ObjectUtils.getIdentityHexString(this) + "]-threads");
 		threadGroup.setDaemon(false);
 
-		SimpleAsyncTaskExecutor taskExecutor = new SimpleAsyncTaskExecutor();
-		taskExecutor.setThreadGroup(threadGroup);
-		taskExecutor.setThreadNamePrefix("SpringOsgiExtenderThread-");
+		String threadNamePrefix = "SpringOsgiExtenderThread-";
+		String policy = properties.getProperty(CONTEXT_CREATION_POLICY_KEY).trim();
+		TaskExecutor taskExecutor;
+
+		if (POLICY_UNBOUNDED.equalsIgnoreCase(policy)) {
+			// one thread per context
+			SimpleAsyncTaskExecutor asyncTaskExecutor = new SimpleAsyncTaskExecutor();
+			asyncTaskExecutor.setThreadGroup(threadGroup);
+			asyncTaskExecutor.setThreadNamePrefix(threadNamePrefix);
+			taskExecutor = asyncTaskExecutor;
+		} else {
+			boolean prioritized = !POLICY_FIFO.equalsIgnoreCase(policy);
+			if (prioritized && !POLICY_PRIORITY.equalsIgnoreCase(policy)) {
+				log.warn("Unknown context creation policy [" + policy + "]; using [" + POLICY_PRIORITY + "]");
+			}
+			int poolSize = getContextCreationPoolSize(properties);
+			if (poolSize <= 0) {
+				poolSize = DEFAULT_CONTEXT_CREATION_POOL_SIZE;
+			}
+			// compensate for the contexts blocked inside refresh()
+			taskExecutor =
+					new PriorityTaskExecutor(poolSize, true, prioritized, threadGroup, threadNamePrefix, false);
+		}
 
 		isTaskExecutorManagedInternally = true;
 
 		return taskExecutor;
 	}
 
-	private TaskExecutor createDefaultShutdownTaskExecutor() {
+	private TaskExecutor createDefaultShutdownTaskExecutor(Properties properties) {
+		isShutdownTaskExecutorManagedInternally = true;
+
+		int poolSize = getShutdownPoolSize(properties);
+		// contexts that do not depend on each other can be closed in parallel
+		if (poolSize > 1) {
+			ThreadGroup threadGroup =
+					new ThreadGroup("spring-osgi-extender[" + ObjectUtils.getIdentityHexString(this)
+							+ "]-shutdown-threads");
+			return new PriorityTaskExecutor(poolSize, false, threadGroup, "Spring DM context shutdown thread-", true);
+		}
+
 		TimerTaskExecutor taskExecutor = new TimerTaskExecutor() {
 			@Override
 			protected Timer createTimer() {
@@ -379,7 +487,6 @@ public class ExtenderConfiguration implements DisposableBean {
 		};
 
 		taskExecutor.afterPropertiesSet();
-		isShutdownTaskExecutorManagedInternally = true;
 		return taskExecutor;
 	}
 
@@ -389,7 +496,10 @@ public class ExtenderConfiguration implements DisposableBean {
 	}
 
 	private OsgiApplicationContextCreator createDefaultApplicationContextCreator() {
-		return new DefaultOsgiApplicationContextCreator();
+		DefaultOsgiApplicationContextCreator creator = new DefaultOsgiApplicationContextCreator();
+		creator.setConfigurationScanner(new TimelineConfigurationScanner(new DefaultConfigurationScanner(),
+				startupTimeline));
+		return creator;
 	}
 
 	private OsgiBundleApplicationContextListener createDefaultApplicationContextListener() {
@@ -404,6 +514,42 @@ public class ExtenderConfiguration implements DisposableBean {
 		return Long.parseLong(properties.getProperty(WAIT_FOR_DEPS_TIMEOUT_KEY));
 	}
 
+	private int getLookupCacheSize(Properties properties) {
+		return Integer.parseInt(properties.getProperty(LOOKUP_CACHE_SIZE_KEY));
+	}
+
+	private int getShutdownPoolSize(Properties properties) {
+		return Integer.parseInt(properties.getProperty(SHUTDOWN_POOL_SIZE_KEY));
+	}
+
+	private int getContextCreationPoolSize(Properties properties) {
+		return Integer.parseInt(properties.getProperty(CONTEXT_CREATION_POOL_SIZE_KEY));
+	}
+
+	private boolean getClassLoadingProfiling(Properties properties) {
+		return Boolean.valueOf(properties.getProperty(CLASS_LOADING_PROFILING_KEY)).booleanValue();
+	}
+
+	private boolean getStartupTimeline(Properties properties) {
+		return Boolean.valueOf(properties.getProperty(STARTUP_TIMELINE_KEY)).booleanValue();
+	}
+
+	private String getStartupTimelineFile(Properties properties) {
+		String file = properties.getProperty(STARTUP_TIMELINE_FILE_KEY);
+		return (StringUtils.hasText(file) ? file.trim() : null);
+	}
+
+	private File getBeanDefinitionCacheDirectory(BundleContext bundleContext, Properties properties) {
+		if (!Boolean.valueOf(properties.getProperty(BEAN_DEFINITION_CACHE_KEY)).booleanValue()) {
+			return null;
+		}
+		File directory = bundleContext.getDataFile(BEAN_DEFINITION_CACHE_DIR);
+		if (directory == null) {
+			log.warn("The platform does not provide file system support; disabling the bean definition cache");
+		}
+		return directory;
+	}
+
 	private boolean getProcessAnnotations(Properties properties) {
 		return Boolean.valueOf(properties.getProperty(PROCESS_ANNOTATIONS_KEY)).booleanValue()
 				|| Boolean.getBoolean(AUTO_ANNOTATION_PROCESSING);
@@ -464,6 +610,61 @@ public class ExtenderConfiguration implements DisposableBean {
 		}
 	}
 
+	/**
+	 * Returns the size of the lookup cache used by the class loaders of the Spring-powered bundles (0 if disabled).
+	 * 
+	 * @return Returns the class loader lookup cache size
+	 */
+	public int getClassLoaderLookupCacheSize() {
+		synchronized (lock) {
+			return lookupCacheSize;
+		}
+	}
+
+	/**
+	 * Indicates whether the class loading of the Spring-powered bundles is profiled or not.
+	 * 
+	 * @return Returns true if the class loading is profiled, false otherwise
+	 */
+	public boolean shouldProfileClassLoading() {
+		synchronized (lock) {
+			return classLoadingProfiling;
+		}
+	}
+
+	/**
+	 * Returns the startup timeline of the application contexts created by the extender.
+	 * 
+	 * @return Returns the startup timeline or null if the timeline is disabled
+	 */
+	public StartupTimeline getStartupTimeline() {
+		synchronized (lock) {
+			return (startupTimelineEnabled ? startupTimeline : null);
+		}
+	}
+
+	/**
+	 * Returns the file in which the startup timeline is written (in the Chrome trace format) when the extender stops.
+	 * 
+	 * @return Returns the timeline file or null if none was specified
+	 */
+	public String getStartupTimelineFile() {
+		synchronized (lock) {
+			return startupTimelineFile;
+		}
+	}
+
+	/**
+	 * Returns the directory used for caching the parsed bean definitions of the managed bundles.
+	 * 
+	 * @return Returns the bean definition cache directory or null if the cache is disabled
+	 */
+	public File getBeanDefinitionCacheDirectory() {
+		synchronized (lock) {
+			return beanDefinitionCacheDirectory;
+		}
+	}
+
 	/**
 	 * Returns the dependencyWaitTime.
 	 * 
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.support;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Bundle;
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent.Interval;
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent.Phase;
+import org.springframework.osgi.util.OsgiStringUtils;
+
+/**
+ * Startup timelines of the application contexts created by the extender. Can be exported in the Chrome trace event
+ * format (JSON) which can be loaded in <tt>chrome://tracing</tt> or similar tools: each bundle is displayed as a
+ * separate row while the service dependency waits are shown as asynchronous (overlapping) intervals.
+ * 
+ * <p/> This class is thread-safe.
+ * 
+ * @author Costin Leau
+ */
+public class StartupTimeline {
+
+	private static final String CATEGORY = "spring-dm";
+
+	/** origin - used for converting {@link System#nanoTime()} to absolute time */
+	private final long originNanos = System.nanoTime();
+	private final long originMicros = System.currentTimeMillis() * 1000;
+
+	private final Map<Long, ContextTimeline> timelines = new ConcurrentHashMap<Long, ContextTimeline>(16);
+
+
+	/**
+	 * Creates a new timeline for the given bundle, replacing any existing one.
+	 * 
+	 * @param bundle bundle
+	 * @return context timeline
+	 */
+	public ContextTimeline createTimeline(Bundle bundle) {
+		ContextTimeline timeline =
+				new ContextTimeline(this, bundle.getBundleId(), OsgiStringUtils.nullSafeNameAndSymName(bundle));
+		timelines.put(Long.valueOf(bundle.getBundleId()), timeline);
+		return timeline;
+	}
+
+	/**
+	 * Returns the timeline of the given bundle.
+	 * 
+	 * @param bundleId bundle id
+	 * @return context timeline or null if none was created
+	 */
+	public ContextTimeline getTimeline(long bundleId) {
+		return timelines.get(Long.valueOf(bundleId));
+	}
+
+	/**
+	 * Removes the timeline of the given bundle.
+	 * 
+	 * @param bundleId bundle id
+	 */
+	public void removeTimeline(long bundleId) {
+		timelines.remove(Long.valueOf(bundleId));
+	}
+
+	/**
+	 * Returns all the recorded timelines.
+	 * 
+	 * @return context timelines
+	 */
+	public List<ContextTimeline> getTimelines() {
+		return new ArrayList<ContextTimeline>(timelines.values());
+	}
+
+	long toMicros(long nanos) {
+		return originMicros + (nanos - originNanos) / 1000;
+	}
+
+	/**
+	 * Writes the recorded timelines in the Chrome trace event format.
+	 * 
+	 * @param writer output
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writeChromeTrace(Writer writer) throws IOException {
+		writer.write("{\"traceEvents\":[");
+		boolean first = true;
+		int asyncId = 0;
+
+		for (ContextTimeline timeline : getTimelines()) {
+			long tid = timeline.getBundleId();
+			// name the row after the bundle
+			first = writeSeparator(writer, first);
+			writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + tid + ",\"args\":{\"name\":");
+			writeString(writer, timeline.getBundleName());
+			writer.write("}}");
+
+			for (Interval interval : timeline.getIntervals()) {
+				if (interval.getPhase() == Phase.SERVICE_DEPENDENCY) {
+					asyncId++;
+					first = writeSeparator(writer, first);
+					writeEvent(writer, interval, "b", tid, interval.getStart(), asyncId);
+					first = writeSeparator(writer, first);
+					writeEvent(writer, interval, "e", tid, interval.getStart() + interval.getDuration(), asyncId);
+				} else {
+					first = writeSeparator(writer, first);
+					writeEvent(writer, interval, "X", tid, interval.getStart(), -1);
+				}
+			}
+		}
+		writer.write("],\"displayTimeUnit\":\"ms\"}");
+		writer.flush();
+	}
+
+	private static boolean writeSeparator(Writer writer, boolean first) throws IOException {
+		if (!first) {
+			writer.write(",\n");
+		}
+		return false;
+	}
+
+	private static void writeEvent(Writer writer, Interval interval, String type, long tid, long timestamp, int id)
+			throws IOException {
+		writer.write("{\"name\":\"" + interval.getPhase() + "\",\"cat\":\"" + CATEGORY + "\",\"ph\":\"" + type
+				+ "\",\"pid\":1,\"tid\":" + tid + ",\"ts\":" + timestamp);
+		if (id < 0) {
+			writer.write(",\"dur\":" + interval.getDuration());
+		} else {
+			writer.write(",\"id\":" + id);
+		}
+		if (interval.getDetail() != null) {
+			writer.write(",\"args\":{\"detail\":");
+			writeString(writer, interval.getDetail());
+			writer.write("}");
+		}
+		writer.write("}");
+	}
+
+	private static void writeString(Writer writer, String value) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				writer.write('\\');
+				writer.write(c);
+			} else if (c < 0x20) {
+				String hex = Integer.toHexString(c);
+				writer.write("\\u00" + (hex.length() < 2 ? "0" : "") + hex);
+			} else {
+				writer.write(c);
+			}
+		}
+		writer.write('"');
+	}
+}
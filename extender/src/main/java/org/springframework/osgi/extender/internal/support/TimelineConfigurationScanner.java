@@ -0,0 +1,55 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.support;
+
+import org.osgi.framework.Bundle;
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent.Phase;
+import org.springframework.osgi.extender.support.scanning.ConfigurationScanner;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ConfigurationScanner} decorator recording the scanning time in the bundle startup timeline (if there is one).
+ * 
+ * @author Costin Leau
+ */
+class TimelineConfigurationScanner implements ConfigurationScanner {
+
+	private final ConfigurationScanner delegate;
+	private final StartupTimeline timeline;
+
+
+	TimelineConfigurationScanner(ConfigurationScanner delegate, StartupTimeline timeline) {
+		Assert.notNull(delegate);
+		Assert.notNull(timeline);
+		this.delegate = delegate;
+		this.timeline = timeline;
+	}
+
+	public String[] getConfigurations(Bundle bundle) {
+		ContextTimeline contextTimeline = timeline.getTimeline(bundle.getBundleId());
+		if (contextTimeline == null) {
+			return delegate.getConfigurations(bundle);
+		}
+
+		long start = System.nanoTime();
+		try {
+			return delegate.getConfigurations(bundle);
+		} finally {
+			contextTimeline.record(Phase.SCANNING, null, start);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.support;
+
+import org.osgi.framework.ServiceRegistration;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent.Phase;
+import org.springframework.osgi.service.exporter.support.OsgiServiceFactoryBean;
+import org.springframework.osgi.service.exporter.support.ServicePublicationListener;
+import org.springframework.util.Assert;
+
+/**
+ * Post processor recording the service publication time in the context startup timeline. The exporters are given a
+ * {@link ServicePublicationListener} before their initialization so that only the registration with the OSGi service
+ * registry is measured (and not the creation of the exported bean), whether it happens at startup or later on.
+ * 
+ * @author Costin Leau
+ */
+public class TimelinePostProcessor implements BeanFactoryPostProcessor, BeanPostProcessor, ServicePublicationListener {
+
+	private final ContextTimeline timeline;
+
+
+	public TimelinePostProcessor(ContextTimeline timeline) {
+		Assert.notNull(timeline);
+		this.timeline = timeline;
+	}
+
+	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+		beanFactory.addBeanPostProcessor(this);
+	}
+
+	public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+		if (bean instanceof OsgiServiceFactoryBean) {
+			((OsgiServiceFactoryBean) bean).setPublicationListener(this);
+		}
+		return bean;
+	}
+
+	public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+		return bean;
+	}
+
+	public void beforePublication(OsgiServiceFactoryBean exporter) {
+		timeline.begin(exporter, Phase.SERVICE_PUBLICATION, exporter.getBeanName());
+	}
+
+	public void afterPublication(OsgiServiceFactoryBean exporter, ServiceRegistration registration) {
+		timeline.end(exporter);
+	}
+}
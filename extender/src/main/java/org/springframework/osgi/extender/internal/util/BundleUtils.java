@@ -19,6 +19,7 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.startlevel.StartLevel;
 import org.springframework.osgi.context.support.OsgiBundleXmlApplicationContext;
 
 /**
@@ -44,6 +45,41 @@ public abstract class BundleUtils {
 		return null;
 	}
 
+	/**
+	 * Returns the start level of the given bundle or 0 if it cannot be determined (for example, if the start level
+	 * service is not available).
+	 * 
+	 * @param ctx bundle context used for looking up the start level service
+	 * @param bundle bundle
+	 * @return bundle start level
+	 */
+	public static int getStartLevel(BundleContext ctx, Bundle bundle) {
+		try {
+			return doGetStartLevel(ctx, bundle);
+		} catch (NoClassDefFoundError err) {
+			// the (optional) start level package is not available
+			return 0;
+		} catch (IllegalArgumentException ex) {
+			// the bundle has been uninstalled
+			return 0;
+		}
+	}
+
+	private static int doGetStartLevel(BundleContext ctx, Bundle bundle) {
+		ServiceReference ref = ctx.getServiceReference(StartLevel.class.getName());
+		if (ref != null) {
+			try {
+				Object service = ctx.getService(ref);
+				if (service instanceof StartLevel) {
+					return ((StartLevel) service).getBundleStartLevel(bundle);
+				}
+			} finally {
+				ctx.ungetService(ref);
+			}
+		}
+		return 0;
+	}
+
 	public static String createNamespaceFilter(BundleContext ctx) {
 		Bundle bnd = getDMCoreBundle(ctx);
 		if (bnd != null) {
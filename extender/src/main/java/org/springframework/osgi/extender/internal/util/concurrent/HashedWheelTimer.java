@@ -0,0 +1,363 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Timer optimized for (a large number of) timeouts that are most likely cancelled before expiring, such as the
+ * watchdogs of the contexts waiting for their service dependencies. The timeouts are placed in the buckets of a wheel
+ * which is advanced by a (daemon) worker thread every tick, making scheduling and cancelling O(1) operations. Cancelled
+ * timeouts are removed from the wheel right away so they do not accumulate.
+ * 
+ * <p/> Unlike {@link java.util.Timer}, an exception thrown by a task is logged and does not affect the timer or the
+ * other tasks. The expiration is approximate - a task runs within one tick after its deadline. The tasks are executed
+ * by the worker thread so they should complete quickly.
+ * 
+ * @author Costin Leau
+ */
+public class HashedWheelTimer {
+
+	private static final Log log = LogFactory.getLog(HashedWheelTimer.class);
+
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	/**
+	 * Handle of a scheduled task.
+	 */
+	public static final class Timeout {
+
+		private final HashedWheelTimer timer;
+		private final Runnable task;
+		private final long deadline;
+		private long remainingRounds;
+		private int state = PENDING;
+
+		// bucket (double linked) list
+		private Timeout previous, next;
+		private int bucket;
+
+
+		private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels the task. Does nothing if the task has already expired or was cancelled.
+		 * 
+		 * @return true if the task was cancelled, false otherwise
+		 */
+		public boolean cancel() {
+			return timer.cancel(this);
+		}
+
+		public boolean isCancelled() {
+			synchronized (timer.lock) {
+				return state == CANCELLED;
+			}
+		}
+
+		public boolean isExpired() {
+			synchronized (timer.lock) {
+				return state == EXPIRED;
+			}
+		}
+
+		public Runnable getTask() {
+			return task;
+		}
+
+		public String toString() {
+			return "Timeout for " + task;
+		}
+	}
+
+	/**
+	 * Advances the wheel.
+	 */
+	private class Worker implements Runnable {
+
+		public void run() {
+			List<Timeout> expired = new ArrayList<Timeout>();
+
+			while (true) {
+				synchronized (lock) {
+					long wakeUp = startTime + (tick + 1) * tickDuration;
+					long now;
+					while (!stopped && (now = System.currentTimeMillis()) < wakeUp) {
+						try {
+							lock.wait(wakeUp - now);
+						} catch (InterruptedException ex) {
+							// check the stop flag
+						}
+					}
+					if (stopped) {
+						return;
+					}
+					expireTimeouts(expired);
+					tick++;
+				}
+
+				for (Timeout timeout : expired) {
+					try {
+						timeout.task.run();
+					} catch (Throwable th) {
+						failed++;
+						log.error("Timeout task " + timeout.task + " threw an exception", th);
+					}
+				}
+				expired.clear();
+			}
+		}
+	}
+
+
+	/** wheel lock - guards all the fields below */
+	private final Object lock = new Object();
+
+	private final String threadName;
+	private final long tickDuration;
+	private final Timeout[] wheel;
+	private final int mask;
+
+	private Thread workerThread;
+	private boolean stopped = false;
+	private long startTime;
+	/** number of ticks elapsed since the start */
+	private long tick;
+
+	// metrics
+	private long scheduled, cancelled, expired, pending;
+	private volatile long failed;
+
+
+	/**
+	 * Constructs a new <code>HashedWheelTimer</code> instance.
+	 * 
+	 * @param threadName name of the worker thread
+	 * @param tickDuration tick duration (in ms)
+	 * @param wheelSize number of buckets (rounded up to a power of 2)
+	 */
+	public HashedWheelTimer(String threadName, long tickDuration, int wheelSize) {
+		Assert.isTrue(tickDuration > 0, "tickDuration should be positive");
+		Assert.isTrue(wheelSize > 0 && wheelSize <= (1 << 30), "invalid wheelSize");
+		this.threadName = threadName;
+		this.tickDuration = tickDuration;
+
+		int size = 1;
+		while (size < wheelSize) {
+			size <<= 1;
+		}
+		this.wheel = new Timeout[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Schedules the given task for execution after the given delay. The worker thread is started on the first call.
+	 * 
+	 * @param task task to execute
+	 * @param delay delay (in ms)
+	 * @return timeout handle
+	 */
+	public Timeout schedule(Runnable task, long delay) {
+		Assert.notNull(task);
+		long now = System.currentTimeMillis();
+		synchronized (lock) {
+			if (stopped) {
+				throw new IllegalStateException("Timer already stopped");
+			}
+			if (workerThread == null) {
+				startTime = now;
+				workerThread = new Thread(new Worker(), threadName);
+				workerThread.setDaemon(true);
+				workerThread.start();
+			}
+
+			Timeout timeout = new Timeout(this, task, now + Math.max(delay, 0));
+			// the tick on which the timeout expires (the current one has not been processed yet)
+			long expirationTick = Math.max((timeout.deadline - startTime + tickDuration - 1) / tickDuration - 1, tick);
+			timeout.remainingRounds = (expirationTick - tick) / wheel.length;
+			timeout.bucket = (int) (expirationTick & mask);
+			add(timeout);
+
+			scheduled++;
+			pending++;
+			return timeout;
+		}
+	}
+
+	private boolean cancel(Timeout timeout) {
+		synchronized (lock) {
+			if (timeout.state != PENDING) {
+				return false;
+			}
+			timeout.state = CANCELLED;
+			remove(timeout);
+			cancelled++;
+			pending--;
+			return true;
+		}
+	}
+
+	private void add(Timeout timeout) {
+		Timeout head = wheel[timeout.bucket];
+		timeout.next = head;
+		if (head != null) {
+			head.previous = timeout;
+		}
+		wheel[timeout.bucket] = timeout;
+	}
+
+	private void remove(Timeout timeout) {
+		if (timeout.previous != null) {
+			timeout.previous.next = timeout.next;
+		} else {
+			wheel[timeout.bucket] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.previous = null;
+		timeout.next = null;
+	}
+
+	private void expireTimeouts(List<Timeout> expiredTimeouts) {
+		Timeout timeout = wheel[(int) (tick & mask)];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.remainingRounds <= 0) {
+				remove(timeout);
+				timeout.state = EXPIRED;
+				expired++;
+				pending--;
+				expiredTimeouts.add(timeout);
+			} else {
+				timeout.remainingRounds--;
+			}
+			timeout = next;
+		}
+	}
+
+	/**
+	 * Stops the timer. The pending tasks are discarded.
+	 * 
+	 * @return the number of discarded tasks
+	 */
+	public int stop() {
+		Thread worker;
+		int discarded;
+		synchronized (lock) {
+			if (stopped) {
+				return 0;
+			}
+			stopped = true;
+			discarded = (int) pending;
+			for (int i = 0; i < wheel.length; i++) {
+				Timeout timeout = wheel[i];
+				while (timeout != null) {
+					Timeout next = timeout.next;
+					timeout.state = CANCELLED;
+					timeout.previous = null;
+					timeout.next = null;
+					timeout = next;
+				}
+				wheel[i] = null;
+			}
+			pending = 0;
+			worker = workerThread;
+			lock.notifyAll();
+		}
+
+		if (worker != null && worker != Thread.currentThread()) {
+			try {
+				worker.join(tickDuration);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return discarded;
+	}
+
+	/**
+	 * Returns the number of tasks scheduled so far.
+	 * 
+	 * @return number of scheduled tasks
+	 */
+	public long getScheduledCount() {
+		synchronized (lock) {
+			return scheduled;
+		}
+	}
+
+	/**
+	 * Returns the number of tasks cancelled before expiring.
+	 * 
+	 * @return number of cancelled tasks
+	 */
+	public long getCancelledCount() {
+		synchronized (lock) {
+			return cancelled;
+		}
+	}
+
+	/**
+	 * Returns the number of tasks that expired (and thus were executed).
+	 * 
+	 * @return number of expired tasks
+	 */
+	public long getExpiredCount() {
+		synchronized (lock) {
+			return expired;
+		}
+	}
+
+	/**
+	 * Returns the number of expired tasks that threw an exception.
+	 * 
+	 * @return number of failed tasks
+	 */
+	public long getFailedCount() {
+		return failed;
+	}
+
+	/**
+	 * Returns the number of tasks waiting to expire.
+	 * 
+	 * @return number of pending tasks
+	 */
+	public long getPendingCount() {
+		synchronized (lock) {
+			return pending;
+		}
+	}
+
+	public String toString() {
+		synchronized (lock) {
+			return threadName + " [scheduled=" + scheduled + ", cancelled=" + cancelled + ", expired=" + expired
+					+ ", failed=" + failed + ", pending=" + pending + "]";
+		}
+	}
+}
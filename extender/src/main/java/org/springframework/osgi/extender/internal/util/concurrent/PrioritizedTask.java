@@ -0,0 +1,74 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.util.concurrent;
+
+import org.springframework.util.Assert;
+
+/**
+ * Runnable carrying the priority of the bundle on whose behalf it runs: tasks of bundles with a lower start level come
+ * first, followed by those with a higher weight (such as the number of contexts waiting on the bundle) and then by
+ * those of bundles with a lower id (that is installed earlier).
+ * 
+ * <p/> Subclasses can compute the weight on demand; {@link PriorityTaskExecutor#reprioritize()} picks up the changes
+ * of the pending tasks.
+ * 
+ * @author Costin Leau
+ * @see PriorityTaskExecutor
+ */
+public class PrioritizedTask implements Runnable {
+
+	private final Runnable task;
+
+	private final int startLevel;
+
+	private final long bundleId;
+
+	private final int weight;
+
+
+	public PrioritizedTask(Runnable task, int startLevel, long bundleId) {
+		this(task, startLevel, bundleId, 0);
+	}
+
+	public PrioritizedTask(Runnable task, int startLevel, long bundleId, int weight) {
+		Assert.notNull(task);
+		this.task = task;
+		this.startLevel = startLevel;
+		this.bundleId = bundleId;
+		this.weight = weight;
+	}
+
+	public void run() {
+		task.run();
+	}
+
+	public int getStartLevel() {
+		return startLevel;
+	}
+
+	public long getBundleId() {
+		return bundleId;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	public String toString() {
+		return task.toString();
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.util.concurrent;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.util.Assert;
+
+/**
+ * Bounded {@link TaskExecutor} used for creating application contexts. Unlike a thread-per-task executor, the number
+ * of contexts refreshed in parallel is capped (by default to the number of available processors) so that a large
+ * number of bundles starting at once do not end up competing for CPU and locks.
+ * 
+ * <p/> Pending tasks are ordered either by submission (FIFO) or, if prioritization is enabled, by the start level,
+ * weight and id of their bundle (see {@link PrioritizedTask}); tasks without a priority come last. The weight is read
+ * on submission; since it can change while the task is pending, {@link #reprioritize()} re-reads it for the queued
+ * tasks. Note that contexts waiting (asynchronously) for their service dependencies do not hold a thread: the waiting
+ * is done through service listeners and the refresh is resubmitted once the dependencies are satisfied.
+ * 
+ * <p/> A context can however block its thread inside <code>refresh()</code> (for example while a bean invokes a
+ * mandatory service proxy waiting for its service). If compensation is enabled, the executor checks its busy threads
+ * whenever a task has to wait for a thread (and periodically, for the threads blocking after the submissions) and,
+ * while tasks are pending, adds one thread for each thread found waiting (blocked, waiting or timed waiting) on two
+ * consecutive checks. The growth is not bounded so that, just like with a thread-per-task executor, blocked contexts
+ * never prevent the pending ones from being created; the extra threads are released once the waits end. Without this
+ * compensation, enough blocked contexts can stall the pool.
+ * 
+ * @author Costin Leau
+ */
+public class PriorityTaskExecutor implements TaskExecutor, DisposableBean {
+
+	/**
+	 * Queue entry. Comparison is based on the task priority (if enabled) and the submission order.
+	 */
+	private static class QueuedTask implements Runnable, Comparable<QueuedTask> {
+
+		private final Runnable task;
+		private final int startLevel;
+		private final int weight;
+		private final long bundleId;
+		private final long sequence;
+
+
+		QueuedTask(Runnable task, int startLevel, int weight, long bundleId, long sequence) {
+			this.task = task;
+			this.startLevel = startLevel;
+			this.weight = weight;
+			this.bundleId = bundleId;
+			this.sequence = sequence;
+		}
+
+		public void run() {
+			task.run();
+		}
+
+		public int compareTo(QueuedTask other) {
+			if (startLevel != other.startLevel)
+				return (startLevel < other.startLevel ? -1 : 1);
+			// heavier tasks first
+			if (weight != other.weight)
+				return (weight > other.weight ? -1 : 1);
+			if (bundleId != other.bundleId)
+				return (bundleId < other.bundleId ? -1 : 1);
+			return (sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1));
+		}
+
+		public String toString() {
+			return task.toString();
+		}
+	}
+
+	/** interval (in milliseconds) between two checks for waiting threads */
+	private static final long COMPENSATION_INTERVAL = 250;
+
+	/** minimum interval (in milliseconds) between two checks so that short waits are not taken for blocked threads */
+	private static final long MIN_COMPENSATION_INTERVAL = 50;
+
+	private final ThreadPoolExecutor executor;
+
+	private final int poolSize;
+
+	private final boolean compensated;
+
+	/** threads running a task -> whether the thread was found waiting on the last check */
+	private final ConcurrentMap<Thread, Boolean> busyThreads = new ConcurrentHashMap<Thread, Boolean>(8);
+
+	/** timer checking for waiting threads (null if there is no compensation) */
+	private final Timer compensationTimer;
+
+	/** time (in milliseconds) of the last check for waiting threads - guarded by this */
+	private long lastCompensation = 0;
+
+	private final ThreadGroup threadGroup;
+
+	private final boolean prioritized;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+
+	/**
+	 * Constructs a new <code>PriorityTaskExecutor</code> instance.
+	 * 
+	 * @param poolSize maximum number of threads
+	 * @param prioritized whether the tasks are ordered by their bundle priority or by submission
+	 * @param threadGroup thread group of the pool threads
+	 * @param threadNamePrefix name prefix of the pool threads
+	 */
+	public PriorityTaskExecutor(int poolSize, boolean prioritized, ThreadGroup threadGroup, String threadNamePrefix) {
+		this(poolSize, prioritized, threadGroup, threadNamePrefix, false);
+	}
+
+	/**
+	 * Constructs a new <code>PriorityTaskExecutor</code> instance.
+	 * 
+	 * @param poolSize maximum number of threads
+	 * @param prioritized whether the tasks are ordered by their bundle priority or by submission
+	 * @param threadGroup thread group of the pool threads
+	 * @param threadNamePrefix name prefix of the pool threads
+	 * @param daemon whether the pool threads are daemons or not
+	 */
+	public PriorityTaskExecutor(int poolSize, boolean prioritized, ThreadGroup threadGroup, String threadNamePrefix,
+			boolean daemon) {
+		this(poolSize, false, prioritized, threadGroup, threadNamePrefix, daemon);
+	}
+
+	/**
+	 * Constructs a new <code>PriorityTaskExecutor</code> instance which can grow past its pool size to compensate for
+	 * the threads waiting inside their tasks.
+	 * 
+	 * @param poolSize number of threads running tasks (and not waiting) in parallel
+	 * @param compensated whether threads are added for the ones waiting inside their tasks
+	 * @param prioritized whether the tasks are ordered by their bundle priority or by submission
+	 * @param threadGroup thread group of the pool threads
+	 * @param threadNamePrefix name prefix of the pool threads
+	 * @param daemon whether the pool threads are daemons or not
+	 */
+	public PriorityTaskExecutor(int poolSize, boolean compensated, boolean prioritized, final ThreadGroup threadGroup,
+			final String threadNamePrefix, final boolean daemon) {
+		Assert.isTrue(poolSize > 0, "the pool size has to be positive");
+		Assert.notNull(threadGroup);
+		this.threadGroup = threadGroup;
+		this.prioritized = prioritized;
+		this.poolSize = poolSize;
+		this.compensated = compensated;
+
+		ThreadFactory threadFactory = new ThreadFactory() {
+
+			private final AtomicInteger threadCount = new AtomicInteger();
+
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(threadGroup, runnable, threadNamePrefix + threadCount.incrementAndGet());
+				thread.setDaemon(daemon);
+				return thread;
+			}
+		};
+
+		executor =
+				new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+						new PriorityBlockingQueue<Runnable>(), threadFactory) {
+
+					protected void beforeExecute(Thread thread, Runnable task) {
+						busyThreads.put(thread, Boolean.FALSE);
+					}
+
+					protected void afterExecute(Runnable task, Throwable th) {
+						busyThreads.remove(Thread.currentThread());
+					}
+				};
+
+		if (compensated) {
+			compensationTimer = new Timer(threadNamePrefix + "compensation", true);
+			compensationTimer.schedule(new TimerTask() {
+
+				public void run() {
+					compensate();
+				}
+			}, COMPENSATION_INTERVAL, COMPENSATION_INTERVAL);
+		} else {
+			compensationTimer = null;
+		}
+	}
+
+	/**
+	 * Resizes the pool based on the number of busy threads that are waiting.
+	 */
+	private synchronized void compensate() {
+		long now = System.currentTimeMillis();
+		if (now - lastCompensation < MIN_COMPENSATION_INTERVAL)
+			return;
+		lastCompensation = now;
+
+		int waiting = 0;
+		for (Map.Entry<Thread, Boolean> entry : busyThreads.entrySet()) {
+			Thread thread = entry.getKey();
+			Thread.State state = thread.getState();
+			boolean isWaiting =
+					(state == Thread.State.BLOCKED || state == Thread.State.WAITING
+							|| state == Thread.State.TIMED_WAITING);
+			// ignore the short waits
+			if (isWaiting && entry.getValue().booleanValue()) {
+				waiting++;
+			}
+			busyThreads.replace(thread, entry.getValue(), Boolean.valueOf(isWaiting));
+		}
+
+		int current = executor.getCorePoolSize();
+		int target = poolSize + waiting;
+
+		// grow only if there are tasks waiting for a thread
+		if (target > current && !executor.getQueue().isEmpty()) {
+			executor.setMaximumPoolSize(target);
+			executor.setCorePoolSize(target);
+		}
+		// shrink once the waits are over (the extra threads terminate when idle)
+		else if (target < current) {
+			executor.setCorePoolSize(target);
+			executor.setMaximumPoolSize(target);
+		}
+	}
+
+	public void execute(Runnable task) {
+		Assert.notNull(task);
+		int startLevel = Integer.MAX_VALUE;
+		int weight = 0;
+		long bundleId = Long.MAX_VALUE;
+
+		if (prioritized && task instanceof PrioritizedTask) {
+			PrioritizedTask prioritizedTask = (PrioritizedTask) task;
+			startLevel = prioritizedTask.getStartLevel();
+			weight = prioritizedTask.getWeight();
+			bundleId = prioritizedTask.getBundleId();
+		}
+
+		try {
+			executor.execute(new QueuedTask(task, startLevel, weight, bundleId, sequence.getAndIncrement()));
+		} catch (RejectedExecutionException ex) {
+			throw new TaskRejectedException("Executor [" + executor + "] did not accept task: " + task, ex);
+		}
+
+		// the task has to wait for a thread - check right away whether the busy ones are blocked
+		if (compensated && !executor.getQueue().isEmpty()) {
+			compensate();
+		}
+	}
+
+	/**
+	 * Returns the thread group of the pool threads.
+	 * 
+	 * @return thread group
+	 */
+	public ThreadGroup getThreadGroup() {
+		return threadGroup;
+	}
+
+	/**
+	 * Returns the number of threads running tasks (and not waiting) in parallel.
+	 * 
+	 * @return pool size
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * Indicates whether threads are added to compensate for the ones waiting inside their tasks.
+	 * 
+	 * @return true if the pool grows past its size for the waiting threads, false otherwise
+	 */
+	public boolean isCompensated() {
+		return compensated;
+	}
+
+	/**
+	 * Re-reads the weight of the pending prioritized tasks and re-queues the ones whose weight has changed. Does
+	 * nothing if prioritization is disabled.
+	 */
+	public void reprioritize() {
+		reprioritize(null);
+	}
+
+	/**
+	 * Re-reads the weight of the pending prioritized tasks of the given bundles and re-queues the ones whose weight has
+	 * changed. The weight of the other tasks is not read. Does nothing if prioritization is disabled.
+	 * 
+	 * @param bundleIds ids of the bundles whose tasks are re-read (null for all the tasks)
+	 */
+	public void reprioritize(Collection<Long> bundleIds) {
+		if (!prioritized || executor.isShutdown() || (bundleIds != null && bundleIds.isEmpty()))
+			return;
+
+		BlockingQueue<Runnable> queue = executor.getQueue();
+		// the iterator works on a snapshot of the queue
+		for (Iterator<Runnable> iterator = queue.iterator(); iterator.hasNext();) {
+			QueuedTask queuedTask = (QueuedTask) iterator.next();
+			if (queuedTask.task instanceof PrioritizedTask
+					&& (bundleIds == null || bundleIds.contains(Long.valueOf(queuedTask.bundleId)))) {
+				int weight = ((PrioritizedTask) queuedTask.task).getWeight();
+				// re-queue only if the task has not been picked up in the meantime
+				if (weight != queuedTask.weight && queue.remove(queuedTask)) {
+					queue.offer(new QueuedTask(queuedTask.task, queuedTask.startLevel, weight, queuedTask.bundleId,
+							queuedTask.sequence));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indicates whether the tasks are ordered by their bundle priority.
+	 * 
+	 * @return true if the tasks are prioritized, false if they are executed in submission order
+	 */
+	public boolean isPrioritized() {
+		return prioritized;
+	}
+
+	/**
+	 * Returns the number of tasks waiting for a thread.
+	 * 
+	 * @return number of pending tasks
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Stops accepting new tasks. The pending tasks are still executed after which the threads terminate.
+	 */
+	public void shutdown() {
+		cancelCompensation();
+		executor.shutdown();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Stops accepting new tasks, discards the pending ones and interrupts the running threads.
+	 */
+	public void destroy() {
+		cancelCompensation();
+		executor.shutdownNow();
+	}
+
+	private void cancelCompensation() {
+		if (compensationTimer != null) {
+			compensationTimer.cancel();
+		}
+	}
+}
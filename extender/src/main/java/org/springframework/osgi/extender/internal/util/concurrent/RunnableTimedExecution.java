@@ -16,6 +16,9 @@
 
 package org.springframework.osgi.extender.internal.util.concurrent;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.DisposableBean;
@@ -47,12 +50,16 @@ public abstract class RunnableTimedExecution {
 
 		private Counter counter;
 
+		/** time (in ms) when the task started running; 0 if it has not started yet */
+		private volatile long startTime = 0;
+
 		public MonitoredRunnable(Runnable task, Counter counter) {
 			this.task = task;
 			this.counter = counter;
 		}
 
 		public void run() {
+			startTime = System.currentTimeMillis();
 			try {
 				task.run();
 			} finally {
@@ -117,4 +124,48 @@ public abstract class RunnableTimedExecution {
 
 		return false;
 	}
+
+	/**
+	 * Executes the given tasks in parallel, on the given task executor, and waits for them to complete. Each task is
+	 * given the specified amount of time, measured from the moment it starts running (or, if the executor does not
+	 * start it in time, from the moment the waiting for it begins).
+	 * 
+	 * @param tasks tasks to execute
+	 * @param waitTime maximum running time of each task (in ms)
+	 * @param taskExecutor task executor
+	 * @return the tasks that did not finish in time
+	 */
+	public static List<Runnable> executeAll(Runnable[] tasks, long waitTime, TaskExecutor taskExecutor) {
+		Assert.notNull(tasks);
+		Assert.notNull(taskExecutor);
+
+		MonitoredRunnable[] monitored = new MonitoredRunnable[tasks.length];
+		for (int i = 0; i < tasks.length; i++) {
+			Counter counter = new Counter("counter for task: " + tasks[i]);
+			monitored[i] = new MonitoredRunnable(tasks[i], counter);
+			counter.increment();
+			taskExecutor.execute(monitored[i]);
+		}
+
+		List<Runnable> timedOut = new ArrayList<Runnable>(0);
+
+		for (int i = 0; i < monitored.length; i++) {
+			MonitoredRunnable task = monitored[i];
+			long waitStart = System.currentTimeMillis();
+
+			while (!task.counter.isZero()) {
+				long started = task.startTime;
+				long remaining = (started > 0 ? started : waitStart) + waitTime - System.currentTimeMillis();
+				if (remaining <= 0) {
+					log.error(tasks[i] + " did not finish in " + waitTime
+							+ "ms; consider taking a snapshot and then shutdown the VM in case the thread still hangs");
+					timedOut.add(tasks[i]);
+					break;
+				}
+				task.counter.waitForZero(remaining);
+			}
+		}
+
+		return timedOut;
+	}
 }
\ No newline at end of file
@@ -65,6 +65,45 @@ public class BlueprintShutdownSorterTest extends TestCase {
 		assertOrder(new Bundle[] { c, a, b, d, e }, order);
 	}
 
+	// see tck-1.dot
+	public void testLayersCase1() throws Exception {
+		DependencyMockBundle a = new DependencyMockBundle("A");
+		DependencyMockBundle b = new DependencyMockBundle("B");
+		DependencyMockBundle c = new DependencyMockBundle("C");
+		DependencyMockBundle d = new DependencyMockBundle("D");
+		DependencyMockBundle e = new DependencyMockBundle("E");
+
+		b.setDependentOn(c);
+		d.setDependentOn(e);
+		e.setDependentOn(d);
+
+		List<List<Bundle>> layers = ShutdownSorter.getLayers(Arrays.<Bundle> asList(a, b, c, d, e));
+		assertEquals(4, layers.size());
+		assertOrder(new Bundle[] { c, a }, layers.get(0));
+		assertOrder(new Bundle[] { b }, layers.get(1));
+		assertOrder(new Bundle[] { e }, layers.get(2));
+		assertOrder(new Bundle[] { d }, layers.get(3));
+	}
+
+	public void testLayersCase2() throws Exception {
+		DependencyMockBundle a = new DependencyMockBundle("A");
+		DependencyMockBundle b = new DependencyMockBundle("B");
+		DependencyMockBundle c = new DependencyMockBundle("C");
+		DependencyMockBundle d = new DependencyMockBundle("D");
+		DependencyMockBundle e = new DependencyMockBundle("E");
+
+		b.setDependentOn(c);
+		d.setDependentOn(e, -13, 12);
+		e.setDependentOn(d, 0, 14);
+
+		List<List<Bundle>> layers = ShutdownSorter.getLayers(Arrays.<Bundle> asList(a, b, c, d, e));
+		assertEquals(4, layers.size());
+		assertOrder(new Bundle[] { c, a }, layers.get(0));
+		assertOrder(new Bundle[] { b }, layers.get(1));
+		assertOrder(new Bundle[] { d }, layers.get(2));
+		assertOrder(new Bundle[] { e }, layers.get(3));
+	}
+
 	private void assertOrder(Bundle[] expected, List<Bundle> ordered) {
 		assertTrue("shutdown order is incorrect", Arrays.equals(expected, ordered.toArray()));
 	}
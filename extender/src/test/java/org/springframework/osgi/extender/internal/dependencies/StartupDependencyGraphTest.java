@@ -0,0 +1,199 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.dependencies;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.osgi.extender.internal.dependencies.startup.StartupDependencyGraph;
+import org.springframework.osgi.extender.internal.util.concurrent.PrioritizedTask;
+import org.springframework.osgi.extender.internal.util.concurrent.PriorityTaskExecutor;
+import org.springframework.osgi.service.exporter.support.OsgiServiceFactoryBean;
+
+/**
+ * @author Costin Leau
+ */
+public class StartupDependencyGraphTest extends TestCase {
+
+	private StartupDependencyGraph graph;
+
+
+	protected void setUp() throws Exception {
+		graph = new StartupDependencyGraph();
+	}
+
+	protected void tearDown() throws Exception {
+		graph = null;
+	}
+
+	public void testDependentCount() throws Exception {
+		// 1 <- 2 <- 3, 1 <- 4, 5 independent
+		graph.addExports(1, Arrays.asList(new String[] { "a.A" }));
+		graph.addExports(2, Arrays.asList(new String[] { "b.B" }));
+		graph.addExports(5, Arrays.asList(new String[] { "e.E" }));
+		graph.addWaiting(2, Arrays.asList(new String[] { "a.A" }));
+		graph.addWaiting(3, Arrays.asList(new String[] { "b.B" }));
+		graph.addWaiting(4, Arrays.asList(new String[] { "a.A", "x.X" }));
+
+		assertEquals(3, graph.getDependentCount(1));
+		assertEquals(1, graph.getDependentCount(2));
+		assertEquals(0, graph.getDependentCount(3));
+		assertEquals(0, graph.getDependentCount(5));
+		assertEquals(Collections.singleton(Long.valueOf(1)), graph.getProviders(4));
+
+		// 2 got its dependencies
+		graph.removeWaiting(2);
+		assertEquals(1, graph.getDependentCount(1));
+		assertEquals(1, graph.getDependentCount(2));
+
+		graph.remove(2);
+		assertEquals(0, graph.getDependentCount(2));
+		assertTrue(graph.getProviders(3).isEmpty());
+	}
+
+	public void testCycle() throws Exception {
+		graph.addExports(1, Arrays.asList(new String[] { "a.A" }));
+		graph.addExports(2, Arrays.asList(new String[] { "b.B" }));
+		graph.addWaiting(1, Arrays.asList(new String[] { "b.B" }));
+		graph.addWaiting(2, Arrays.asList(new String[] { "a.A" }));
+
+		assertEquals(1, graph.getDependentCount(1));
+		assertEquals(1, graph.getDependentCount(2));
+	}
+
+	public void testListener() throws Exception {
+		final List<Set<Long>> changes = new ArrayList<Set<Long>>();
+		graph.setListener(new StartupDependencyGraph.Listener() {
+
+			public void graphChanged(Set<Long> bundleIds) {
+				changes.add(bundleIds);
+			}
+		});
+
+		graph.addExports(1, Arrays.asList(new String[] { "a.A" }));
+		graph.addExports(2, Collections.<String> emptyList());
+		graph.addExports(5, Arrays.asList(new String[] { "e.E" }));
+		graph.addWaiting(3, Arrays.asList(new String[] { "a.A" }));
+		assertEquals(3, changes.size());
+		assertEquals(Collections.singleton(Long.valueOf(1)), changes.get(0));
+		// only the waiting context and its provider are affected
+		assertEquals(new HashSet<Long>(Arrays.asList(new Long[] { Long.valueOf(3), Long.valueOf(1) })), changes.get(2));
+	}
+
+	public void testCachedCountsFollowTransitiveChanges() throws Exception {
+		// 1 <- 2 <- 3
+		graph.addExports(1, Arrays.asList(new String[] { "a.A" }));
+		graph.addExports(2, Arrays.asList(new String[] { "b.B" }));
+		graph.addWaiting(2, Arrays.asList(new String[] { "a.A" }));
+		assertEquals(1, graph.getDependentCount(1));
+		assertEquals(0, graph.getDependentCount(2));
+
+		// a change at the end of the chain reaches the cached count of the first provider
+		graph.addWaiting(3, Arrays.asList(new String[] { "b.B" }));
+		assertEquals(2, graph.getDependentCount(1));
+		assertEquals(1, graph.getDependentCount(2));
+
+		graph.removeWaiting(3);
+		assertEquals(1, graph.getDependentCount(1));
+	}
+
+	public void testProviderOvertakesIndependentContexts() throws Exception {
+		final PriorityTaskExecutor executor = new PriorityTaskExecutor(1, true, new ThreadGroup("test"), "test-");
+		graph.setListener(new StartupDependencyGraph.Listener() {
+
+			public void graphChanged(Set<Long> bundleIds) {
+				executor.reprioritize(bundleIds);
+			}
+		});
+
+		final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch blocker = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(3);
+
+		try {
+			// keep the only thread busy
+			executor.execute(new Runnable() {
+
+				public void run() {
+					try {
+						blocker.await();
+					} catch (InterruptedException ex) {
+						// bail out
+					}
+				}
+			});
+
+			// the provider (installed last) is queued behind the independent contexts
+			graph.addExports(3, Arrays.asList(new String[] { "a.A" }));
+			executor.execute(createRefresh("independent-1", 1, executed, done));
+			executor.execute(createRefresh("independent-2", 2, executed, done));
+			executor.execute(createRefresh("provider-3", 3, executed, done));
+
+			// a context starts waiting on the provider
+			graph.addWaiting(4, Arrays.asList(new String[] { "a.A" }));
+
+			blocker.countDown();
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			assertEquals("[provider-3, independent-1, independent-2]", executed.toString());
+		} finally {
+			executor.destroy();
+		}
+	}
+
+	private Runnable createRefresh(final String name, final long bundleId, final List<String> executed,
+			final CountDownLatch done) {
+		return new PrioritizedTask(new Runnable() {
+
+			public void run() {
+				executed.add(name);
+				done.countDown();
+			}
+		}, 1, bundleId) {
+
+			public int getWeight() {
+				return graph.getDependentCount(bundleId);
+			}
+		};
+	}
+
+	public void testFindExportedClasses() throws Exception {
+		DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+		beanFactory.registerBeanDefinition("single", BeanDefinitionBuilder.genericBeanDefinition(
+				OsgiServiceFactoryBean.class).addPropertyValue("interfaces", "a.A").getBeanDefinition());
+		beanFactory.registerBeanDefinition("multiple", BeanDefinitionBuilder.genericBeanDefinition(
+				OsgiServiceFactoryBean.class).addPropertyValue("interfaces",
+				new Object[] { Runnable.class, Collections.singleton("b.B") }).getBeanDefinition());
+		beanFactory.registerBeanDefinition("other", BeanDefinitionBuilder.genericBeanDefinition(Object.class)
+				.addPropertyValue("interfaces", "c.C").getBeanDefinition());
+
+		Set<String> classes = StartupDependencyGraph.findExportedClasses(beanFactory);
+		assertEquals(3, classes.size());
+		assertTrue(classes.contains("a.A"));
+		assertTrue(classes.contains(Runnable.class.getName()));
+		assertTrue(classes.contains("b.B"));
+	}
+}
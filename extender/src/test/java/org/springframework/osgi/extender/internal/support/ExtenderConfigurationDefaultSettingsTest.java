@@ -22,10 +22,10 @@ import junit.framework.TestCase;
 
 import org.apache.commons.logging.LogFactory;
 import org.osgi.framework.BundleContext;
-import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.osgi.context.event.OsgiBundleApplicationContextEventMulticasterAdapter;
 import org.springframework.osgi.extender.internal.dependencies.startup.MandatoryImporterDependencyFactory;
+import org.springframework.osgi.extender.internal.util.concurrent.PriorityTaskExecutor;
 import org.springframework.osgi.extender.support.DefaultOsgiApplicationContextCreator;
 import org.springframework.osgi.mock.MockBundleContext;
 import org.springframework.scheduling.timer.TimerTaskExecutor;
@@ -49,7 +49,10 @@ public class ExtenderConfigurationDefaultSettingsTest extends TestCase {
 	}
 
 	public void testTaskExecutor() throws Exception {
-		assertTrue(config.getTaskExecutor() instanceof SimpleAsyncTaskExecutor);
+		assertTrue(config.getTaskExecutor() instanceof PriorityTaskExecutor);
+		PriorityTaskExecutor executor = (PriorityTaskExecutor) config.getTaskExecutor();
+		assertEquals(Runtime.getRuntime().availableProcessors(), executor.getPoolSize());
+		assertTrue(executor.isPrioritized());
 	}
 
 	public void testShutdownTaskExecutor() throws Exception {
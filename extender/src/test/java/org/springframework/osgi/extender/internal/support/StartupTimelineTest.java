@@ -0,0 +1,116 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.support;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent.Interval;
+import org.springframework.osgi.extender.event.BootstrappingTimelineEvent.Phase;
+import org.springframework.osgi.mock.MockBundle;
+
+/**
+ * @author Costin Leau
+ */
+public class StartupTimelineTest extends TestCase {
+
+	private StartupTimeline startupTimeline;
+	private ContextTimeline timeline;
+
+
+	protected void setUp() throws Exception {
+		startupTimeline = new StartupTimeline();
+		timeline = startupTimeline.createTimeline(new MockBundle("timeline \"bundle\""));
+	}
+
+	protected void tearDown() throws Exception {
+		startupTimeline = null;
+		timeline = null;
+	}
+
+	public void testRecord() throws Exception {
+		long start = System.nanoTime();
+		Thread.sleep(5);
+		timeline.record(Phase.CREATION, null, start);
+
+		List<Interval> intervals = timeline.getIntervals();
+		assertEquals(1, intervals.size());
+		Interval interval = intervals.get(0);
+		assertSame(Phase.CREATION, interval.getPhase());
+		assertNull(interval.getDetail());
+		assertTrue(interval.getDuration() >= 5000);
+		assertTrue(interval.getStart() <= System.currentTimeMillis() * 1000);
+	}
+
+	public void testBeginEnd() throws Exception {
+		timeline.begin("dep", Phase.SERVICE_DEPENDENCY, "(objectClass=java.lang.Object)");
+		// ignored since the interval is already open
+		timeline.begin("dep", Phase.SERVICE_DEPENDENCY, "other");
+		timeline.end("dep");
+		// nothing to end
+		timeline.end("dep");
+
+		List<Interval> intervals = timeline.getIntervals();
+		assertEquals(1, intervals.size());
+		assertEquals("(objectClass=java.lang.Object)", intervals.get(0).getDetail());
+	}
+
+	public void testComplete() throws Exception {
+		timeline.begin(Phase.DEPENDENCY_WAITING, Phase.DEPENDENCY_WAITING, null);
+		timeline.begin("dep", Phase.SERVICE_DEPENDENCY, "dep");
+
+		assertTrue(timeline.complete());
+		assertFalse(timeline.complete());
+		assertEquals(2, timeline.getIntervals().size());
+	}
+
+	public void testIntervalsCap() throws Exception {
+		for (int i = 0; i < ContextTimeline.MAX_INTERVALS + 10; i++) {
+			timeline.record(Phase.SERVICE_PUBLICATION, "bean" + i, System.nanoTime());
+		}
+		assertEquals(ContextTimeline.MAX_INTERVALS, timeline.getIntervals().size());
+	}
+
+	public void testTimelineRegistry() throws Exception {
+		assertSame(timeline, startupTimeline.getTimeline(timeline.getBundleId()));
+		assertEquals(1, startupTimeline.getTimelines().size());
+		startupTimeline.removeTimeline(timeline.getBundleId());
+		assertNull(startupTimeline.getTimeline(timeline.getBundleId()));
+	}
+
+	public void testChromeTrace() throws Exception {
+		timeline.record(Phase.REFRESH, null, System.nanoTime());
+		timeline.record(Phase.SERVICE_DEPENDENCY, "(name=\\value)", System.nanoTime());
+
+		StringWriter writer = new StringWriter();
+		startupTimeline.writeChromeTrace(writer);
+		String trace = writer.toString();
+
+		assertTrue(trace.startsWith("{\"traceEvents\":["));
+		assertTrue(trace.endsWith("}"));
+		assertTrue(trace.indexOf("\"ph\":\"M\"") > 0);
+		assertTrue(trace.indexOf("timeline \\\"bundle\\\"") > 0);
+		assertTrue(trace.indexOf("\"name\":\"REFRESH\"") > 0);
+		assertTrue(trace.indexOf("\"ph\":\"X\"") > 0);
+		// dependency waits are asynchronous events
+		assertTrue(trace.indexOf("\"ph\":\"b\"") > 0);
+		assertTrue(trace.indexOf("\"ph\":\"e\"") > 0);
+		assertTrue(trace.indexOf("(name=\\\\value)") > 0);
+	}
+}
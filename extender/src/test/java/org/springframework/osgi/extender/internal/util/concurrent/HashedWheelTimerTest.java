@@ -0,0 +1,140 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.util.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Costin Leau
+ */
+public class HashedWheelTimerTest extends TestCase {
+
+	private HashedWheelTimer timer;
+
+
+	protected void setUp() throws Exception {
+		timer = new HashedWheelTimer("test-timer", 10, 8);
+	}
+
+	protected void tearDown() throws Exception {
+		timer.stop();
+		timer = null;
+	}
+
+	public void testExpiration() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.currentTimeMillis();
+		HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+
+			public void run() {
+				latch.countDown();
+			}
+		}, 50);
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start >= 50);
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel());
+		assertEquals(1, timer.getExpiredCount());
+		assertEquals(0, timer.getPendingCount());
+	}
+
+	public void testExpirationAfterSeveralRounds() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.currentTimeMillis();
+		// the wheel covers 80 ms
+		timer.schedule(new Runnable() {
+
+			public void run() {
+				latch.countDown();
+			}
+		}, 250);
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start >= 250);
+	}
+
+	public void testCancel() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		HashedWheelTimer.Timeout timeout = timer.schedule(new Runnable() {
+
+			public void run() {
+				fail("should have been cancelled");
+			}
+		}, 50);
+		timer.schedule(new Runnable() {
+
+			public void run() {
+				latch.countDown();
+			}
+		}, 100);
+
+		assertTrue(timeout.cancel());
+		assertTrue(timeout.isCancelled());
+		assertFalse(timeout.cancel());
+		assertEquals(1, timer.getPendingCount());
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(2, timer.getScheduledCount());
+		assertEquals(1, timer.getCancelledCount());
+		assertEquals(1, timer.getExpiredCount());
+	}
+
+	public void testFailingTaskDoesNotStopTheTimer() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		timer.schedule(new Runnable() {
+
+			public void run() {
+				throw new IllegalStateException();
+			}
+		}, 10);
+		timer.schedule(new Runnable() {
+
+			public void run() {
+				latch.countDown();
+			}
+		}, 50);
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(1, timer.getFailedCount());
+		assertEquals(2, timer.getExpiredCount());
+	}
+
+	public void testStop() throws Exception {
+		timer.schedule(new Runnable() {
+
+			public void run() {
+			}
+		}, 10000);
+		assertEquals(1, timer.stop());
+		assertEquals(0, timer.getPendingCount());
+
+		try {
+			timer.schedule(new Runnable() {
+
+				public void run() {
+				}
+			}, 10);
+			fail("expected exception");
+		} catch (IllegalStateException ex) {
+			// expected
+		}
+	}
+}
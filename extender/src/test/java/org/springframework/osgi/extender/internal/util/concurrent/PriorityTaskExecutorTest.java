@@ -0,0 +1,240 @@
+/*
+ * Copyright 2006-2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.osgi.extender.internal.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.springframework.core.task.TaskRejectedException;
+
+/**
+ * @author Costin Leau
+ */
+public class PriorityTaskExecutorTest extends TestCase {
+
+	private PriorityTaskExecutor executor;
+
+	private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+	private final CountDownLatch blocker = new CountDownLatch(1);
+
+
+	protected void tearDown() throws Exception {
+		executor.destroy();
+		executor = null;
+	}
+
+	private Runnable createTask(final String name, final CountDownLatch done) {
+		return new Runnable() {
+
+			public void run() {
+				executed.add(name);
+				done.countDown();
+			}
+		};
+	}
+
+	private void blockPool() {
+		executor.execute(new Runnable() {
+
+			public void run() {
+				try {
+					blocker.await();
+				} catch (InterruptedException ex) {
+					// bail out
+				}
+			}
+		});
+	}
+
+	public void testPriorityOrdering() throws Exception {
+		executor = new PriorityTaskExecutor(1, true, new ThreadGroup("test"), "test-");
+		blockPool();
+
+		CountDownLatch done = new CountDownLatch(6);
+		executor.execute(createTask("plain", done));
+		executor.execute(new PrioritizedTask(createTask("level5-id1", done), 5, 1));
+		executor.execute(new PrioritizedTask(createTask("level1-id9", done), 1, 9));
+		executor.execute(new PrioritizedTask(createTask("level1-id3", done), 1, 3));
+		executor.execute(new PrioritizedTask(createTask("level5-id0", done), 5, 0));
+		executor.execute(new PrioritizedTask(createTask("level5-id7-weight2", done), 5, 7, 2));
+		assertEquals(6, executor.getQueueSize());
+
+		blocker.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals("[level1-id3, level1-id9, level5-id7-weight2, level5-id0, level5-id1, plain]", executed
+				.toString());
+	}
+
+	public void testReprioritize() throws Exception {
+		executor = new PriorityTaskExecutor(1, true, new ThreadGroup("test"), "test-");
+		blockPool();
+
+		CountDownLatch done = new CountDownLatch(3);
+		final AtomicInteger weight = new AtomicInteger();
+		executor.execute(new PrioritizedTask(createTask("id1", done), 1, 1));
+		executor.execute(new PrioritizedTask(createTask("id2", done), 1, 2));
+		executor.execute(new PrioritizedTask(createTask("id3-reweighted", done), 1, 3) {
+
+			public int getWeight() {
+				return weight.get();
+			}
+		});
+
+		weight.set(1);
+		executor.reprioritize();
+		assertEquals(3, executor.getQueueSize());
+
+		blocker.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals("[id3-reweighted, id1, id2]", executed.toString());
+	}
+
+	public void testReprioritizeSelectedBundles() throws Exception {
+		executor = new PriorityTaskExecutor(1, true, new ThreadGroup("test"), "test-");
+		blockPool();
+
+		CountDownLatch done = new CountDownLatch(2);
+		final AtomicInteger weight = new AtomicInteger();
+		final AtomicInteger reads = new AtomicInteger();
+		executor.execute(new PrioritizedTask(createTask("id1", done), 1, 1));
+		executor.execute(new PrioritizedTask(createTask("id2-reweighted", done), 1, 2) {
+
+			public int getWeight() {
+				reads.incrementAndGet();
+				return weight.get();
+			}
+		});
+
+		weight.set(1);
+		// the task of bundle 2 is not re-read
+		executor.reprioritize(Collections.singleton(Long.valueOf(1)));
+		assertEquals(1, reads.get());
+		executor.reprioritize(Collections.singleton(Long.valueOf(2)));
+		assertEquals(2, reads.get());
+
+		blocker.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals("[id2-reweighted, id1]", executed.toString());
+	}
+
+	public void testFifoOrdering() throws Exception {
+		executor = new PriorityTaskExecutor(1, false, new ThreadGroup("test"), "test-");
+		blockPool();
+
+		CountDownLatch done = new CountDownLatch(3);
+		executor.execute(new PrioritizedTask(createTask("first", done), 5, 5));
+		executor.execute(new PrioritizedTask(createTask("second", done), 1, 1));
+		executor.execute(createTask("third", done));
+
+		blocker.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals("[first, second, third]", executed.toString());
+	}
+
+	public void testBoundedPool() throws Exception {
+		executor = new PriorityTaskExecutor(2, true, new ThreadGroup("test"), "test-");
+		final CountDownLatch started = new CountDownLatch(2);
+		for (int i = 0; i < 4; i++) {
+			executor.execute(new Runnable() {
+
+				public void run() {
+					started.countDown();
+					try {
+						blocker.await();
+					} catch (InterruptedException ex) {
+						// bail out
+					}
+				}
+			});
+		}
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertEquals(2, executor.getQueueSize());
+		blocker.countDown();
+	}
+
+	public void testBlockedThreadCompensation() throws Exception {
+		executor = new PriorityTaskExecutor(1, true, true, new ThreadGroup("test"), "test-", true);
+		// the only thread blocks inside its task
+		blockPool();
+
+		CountDownLatch done = new CountDownLatch(1);
+		executor.execute(createTask("pending", done));
+
+		// an extra thread picks up the pending task while the first one is still blocked
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals("[pending]", executed.toString());
+		blocker.countDown();
+	}
+
+	public void testCompensationIsNotBounded() throws Exception {
+		executor = new PriorityTaskExecutor(1, true, true, new ThreadGroup("test"), "test-", true);
+		// more blocked tasks than the pool size times four
+		int blocked = 6;
+		final CountDownLatch started = new CountDownLatch(blocked);
+		for (int i = 0; i < blocked; i++) {
+			executor.execute(new Runnable() {
+
+				public void run() {
+					started.countDown();
+					try {
+						blocker.await();
+					} catch (InterruptedException ex) {
+						// ignore
+					}
+				}
+			});
+		}
+
+		CountDownLatch done = new CountDownLatch(1);
+		executor.execute(createTask("pending", done));
+
+		assertTrue(started.await(20, TimeUnit.SECONDS));
+		assertTrue(done.await(20, TimeUnit.SECONDS));
+		assertEquals("[pending]", executed.toString());
+		blocker.countDown();
+	}
+
+	public void testNoCompensationByDefault() throws Exception {
+		executor = new PriorityTaskExecutor(1, true, new ThreadGroup("test"), "test-");
+		blockPool();
+
+		CountDownLatch done = new CountDownLatch(1);
+		executor.execute(createTask("pending", done));
+
+		assertFalse(done.await(1, TimeUnit.SECONDS));
+		blocker.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	public void testRejectionAfterShutdown() throws Exception {
+		executor = new PriorityTaskExecutor(1, true, new ThreadGroup("test"), "test-");
+		executor.shutdown();
+		try {
+			executor.execute(createTask("rejected", new CountDownLatch(1)));
+			fail("expected exception");
+		} catch (TaskRejectedException ex) {
+			// expected
+		}
+	}
+}
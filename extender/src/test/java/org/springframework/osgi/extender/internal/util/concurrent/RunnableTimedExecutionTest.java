@@ -16,8 +16,13 @@
 
 package org.springframework.osgi.extender.internal.util.concurrent;
 
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 import junit.framework.TestCase;
 
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
 /**
  * 
  * @author Costin Leau
@@ -54,4 +59,34 @@ public class RunnableTimedExecutionTest extends TestCase {
 
 		}, 10);
 	}
+
+	public void testExecuteAll() throws Exception {
+		final CountDownLatch hang = new CountDownLatch(1);
+		Runnable fast = new Runnable() {
+
+			public void run() {
+			}
+		};
+		Runnable slow = new Runnable() {
+
+			public void run() {
+				try {
+					hang.await();
+				}
+				catch (InterruptedException ie) {
+					// ignore
+				}
+			}
+		};
+
+		try {
+			List<Runnable> timedOut =
+					RunnableTimedExecution.executeAll(new Runnable[] { slow, fast }, 100, new SimpleAsyncTaskExecutor());
+			assertEquals(1, timedOut.size());
+			assertSame(slow, timedOut.get(0));
+		}
+		finally {
+			hang.countDown();
+		}
+	}
 }